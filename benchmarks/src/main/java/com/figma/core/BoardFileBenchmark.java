@@ -0,0 +1,80 @@
+package com.figma.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Saving and loading a board file of each size, through the page cache, and reading just what is in view.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BoardFileBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    int shapes;
+
+    private List<DrawingActions> board;
+    private Path dir;
+    private Path saved;
+    private Path scratch;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        board = SyntheticBoards.generate(shapes, 42);
+        dir = Files.createTempDirectory("board-bench");
+        saved = dir.resolve("saved." + BoardFile.EXTENSION);
+        scratch = dir.resolve("scratch." + BoardFile.EXTENSION);
+        BoardFile.save(saved, board);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(saved);
+        Files.deleteIfExists(scratch);
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public Path save() throws IOException {
+        BoardFile.save(scratch, board);
+        return scratch;
+    }
+
+    @Benchmark
+    public List<DrawingActions> load() throws IOException {
+        return BoardFile.load(saved);
+    }
+
+    // What opening a board costs before its first frame: the index and the pages in a 1920x1080 view.
+    @Benchmark
+    public List<DrawingActions> openView() throws IOException {
+        List<DrawingActions> visible = new ArrayList<>();
+        try (BoardFile.Index index = BoardFile.open(saved)) {
+            for (BoardFile.Page page : index.pages) {
+                if (page.intersects(0, 0, 1920, 1080)) {
+                    visible.addAll(index.read(page, 0));
+                }
+            }
+        }
+        return visible;
+    }
+}
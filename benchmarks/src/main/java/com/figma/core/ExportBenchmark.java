@@ -0,0 +1,48 @@
+package com.figma.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Rasterizing a whole board with the tiled Java2D renderer, as an export or a thumbnail.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ExportBenchmark {
+    @Param({"10000", "100000"})
+    int shapes;
+
+    @Param({"1.0", "0.1"})
+    double scale;
+
+    private List<DrawingActions> board;
+    private double[] bounds;
+    private final BoardRenderer renderer = new BoardRenderer();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        board = SyntheticBoards.generate(shapes, 42);
+        bounds = BoardRenderer.bounds(board);
+    }
+
+    @Benchmark
+    public BufferedImage render() {
+        return renderer.render(board, bounds[0], bounds[1], bounds[2], bounds[3], scale);
+    }
+}
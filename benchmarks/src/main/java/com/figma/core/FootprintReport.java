@@ -0,0 +1,81 @@
+package com.figma.core;
+
+import javafx.scene.paint.Color;
+
+import java.lang.ref.Reference;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.IntFunction;
+
+/**
+ * Heap kept per shape, by shape type and for a whole synthetic board with
+ * its indexes. Not a JMH benchmark, run it on its own:
+ * <pre>
+ * java -Xmx4g -cp benchmarks/target/benchmarks.jar com.figma.core.FootprintReport [shapes]
+ * </pre>
+ * The figures are the growth of the used heap after full collections
+ * divided by the shape count, so they include the arrays a shape owns.
+ */
+public final class FootprintReport {
+    private static final int PEN_POINTS = 32;
+
+    private FootprintReport() {
+    }
+
+    public static void main(String[] args) {
+        int shapes = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        SplittableRandom random = new SplittableRandom(42);
+        System.out.printf("%-36s %12s%n", "", "bytes/shape");
+        report("pen, " + PEN_POINTS + " points", shapes, i -> {
+            Pen pen = SyntheticBoards.pen(random, Color.BLACK, 2, i, i, PEN_POINTS);
+            pen.setSelectionBound();
+            return pen;
+        });
+        report("rectangle", shapes, i -> {
+            RectangleShape rect = new RectangleShape(DrawingTool.RECTANGLE, Color.BLACK, 2);
+            rect.setDimensions(i, i, 40, 30);
+            rect.setSelectionBound();
+            return rect;
+        });
+        report("circle", shapes, i -> {
+            CircleShape circle = new CircleShape(DrawingTool.CIRCLE, Color.BLACK, 2);
+            circle.setProperties(i, i, 20);
+            circle.setSelectionBound();
+            return circle;
+        });
+
+        long before = usedHeap();
+        List<DrawingActions> generated = SyntheticBoards.generate(shapes, 42);
+        long loose = usedHeap() - before;
+        Whiteboard board = new Whiteboard(new RecordingSurface(), new RecordingSurface());
+        board.setActionHistory(generated);
+        generated = null;
+        long onBoard = usedHeap() - before;
+        print("mixed shapes", loose, shapes);
+        print("mixed shapes on a board", onBoard, shapes);
+        Reference.reachabilityFence(board);
+    }
+
+    private static void report(String name, int count, IntFunction<DrawingActions> factory) {
+        long before = usedHeap();
+        DrawingActions[] kept = new DrawingActions[count];
+        for (int i = 0; i < count; i++) {
+            kept[i] = factory.apply(i);
+        }
+        // the array holding them is not part of the shapes
+        print(name, usedHeap() - before - (16 + 4L * count), count);
+        Reference.reachabilityFence(kept);
+    }
+
+    private static void print(String name, long bytes, int count) {
+        System.out.printf("%-36s %12.1f%n", name, (double) bytes / count);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,53 @@
+package com.figma.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Clicking on a board: topmost shape under a random point.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class HitTestBenchmark {
+    private static final int PROBES = 4096;
+
+    @Param({"10000", "100000", "1000000"})
+    int shapes;
+
+    private Whiteboard board;
+    private final double[] probes = new double[PROBES * 2];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        board = new Whiteboard(new RecordingSurface(), new RecordingSurface());
+        board.setActionHistory(SyntheticBoards.generate(shapes, 42));
+        SplittableRandom random = new SplittableRandom(7);
+        double extent = SyntheticBoards.extent(shapes);
+        for (int i = 0; i < probes.length; i++) {
+            probes[i] = random.nextDouble(extent);
+        }
+    }
+
+    @Benchmark
+    public DrawingActions findElementAtPoint() {
+        int i = next;
+        next = (i + 2) & (probes.length - 1);
+        return board.findElementAtPoint(probes[i], probes[i + 1]);
+    }
+}
@@ -0,0 +1,52 @@
+package com.figma.core;
+
+import javafx.scene.paint.Color;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Per-stroke costs paid on every drag step and every finished stroke.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PenBenchmark {
+    @Param({"16", "256", "4096"})
+    int points;
+
+    private Pen pen;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pen = SyntheticBoards.pen(new SplittableRandom(42), Color.BLACK, 3, 500, 500, points);
+        pen.setSelectionBound();
+    }
+
+    // Moves there and back so the stroke does not drift across iterations.
+    @Benchmark
+    public Pen move() {
+        pen.move(1.5, -2);
+        pen.move(-1.5, 2);
+        return pen;
+    }
+
+    @Benchmark
+    public Pen setSelectionBound() {
+        pen.setSelectionBound();
+        return pen;
+    }
+}
@@ -0,0 +1,49 @@
+package com.figma.core;
+
+import javafx.scene.paint.Color;
+import javafx.scene.shape.StrokeLineCap;
+import javafx.scene.shape.StrokeLineJoin;
+import javafx.scene.text.Font;
+
+/**
+ * Stand-in for a canvas that only counts what it is asked to draw, so a
+ * benchmark measures the board's own work and not the rasterizer. The
+ * counts are returned from benchmarks to keep the calls from being
+ * optimized away.
+ */
+final class RecordingSurface implements Surface {
+    long calls;
+    long vertices;
+    long shapes;
+
+    void reset() {
+        calls = 0;
+        vertices = 0;
+        shapes = 0;
+    }
+
+    @Override public void save() { calls++; }
+    @Override public void restore() { calls++; }
+
+    @Override public void setStroke(Color color) { calls++; }
+    @Override public void setFill(Color color) { calls++; }
+    @Override public void setLineWidth(double width) { calls++; }
+    @Override public void setLineCap(StrokeLineCap cap) { calls++; }
+    @Override public void setLineJoin(StrokeLineJoin join) { calls++; }
+    @Override public void setFont(Font font) { calls++; }
+    @Override public void setTransform(double mxx, double myx, double mxy, double myy, double mxt, double myt) { calls++; }
+
+    @Override public void beginPath() { calls++; }
+    @Override public void moveTo(double x, double y) { calls++; vertices++; }
+    @Override public void lineTo(double x, double y) { calls++; vertices++; }
+    @Override public void rect(double x, double y, double w, double h) { calls++; }
+    @Override public void stroke() { calls++; shapes++; }
+    @Override public void clip() { calls++; }
+
+    @Override public void strokeLine(double x1, double y1, double x2, double y2) { calls++; shapes++; }
+    @Override public void strokeRect(double x, double y, double w, double h) { calls++; shapes++; }
+    @Override public void strokeOval(double x, double y, double w, double h) { calls++; shapes++; }
+    @Override public void fillRect(double x, double y, double w, double h) { calls++; }
+    @Override public void clearRect(double x, double y, double w, double h) { calls++; }
+    @Override public void fillText(String text, double x, double y) { calls++; shapes++; }
+}
@@ -0,0 +1,52 @@
+package com.figma.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A full repaint of the board into a surface that only counts calls, at
+ * 100% and zoomed out far enough that strokes are drawn at reduced detail.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RenderBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    int shapes;
+
+    @Param({"1.0", "0.1"})
+    double scale;
+
+    private RecordingSurface surface;
+    private Whiteboard board;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        surface = new RecordingSurface();
+        board = new Whiteboard(surface, new RecordingSurface());
+        board.setActionHistory(SyntheticBoards.generate(shapes, 42));
+        board.getViewport().zoomAt(0, 0, scale);
+    }
+
+    @Benchmark
+    public long drawCanvas() {
+        surface.reset();
+        board.drawCanvas();
+        return surface.calls;
+    }
+}
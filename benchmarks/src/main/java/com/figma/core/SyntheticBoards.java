@@ -0,0 +1,63 @@
+package com.figma.core;
+
+import javafx.scene.paint.Color;
+
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+
+/**
+ * Reproducible boards for the benchmarks: mostly pen strokes with some
+ * rectangles and circles, spread so the density stays about the same as
+ * the shape count grows.
+ */
+final class SyntheticBoards {
+    private static final Color[] PALETTE = {Color.BLACK, Color.RED, Color.BLUE, Color.GREEN, Color.ORANGE};
+
+    private SyntheticBoards() {
+    }
+
+    // Side of the square area a board of this many shapes is spread over.
+    static double extent(int shapes) {
+        return Math.sqrt(shapes) * 40;
+    }
+
+    static ArrayList<DrawingActions> generate(int shapes, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        double extent = extent(shapes);
+        ArrayList<DrawingActions> board = new ArrayList<>(shapes);
+        for (int i = 0; i < shapes; i++) {
+            Color color = PALETTE[random.nextInt(PALETTE.length)];
+            double strokeWidth = 1 + random.nextInt(8);
+            double x = random.nextDouble(extent);
+            double y = random.nextDouble(extent);
+            int kind = random.nextInt(10);
+            DrawingActions action;
+            if (kind < 6) {
+                action = pen(random, color, strokeWidth, x, y, 8 + random.nextInt(57));
+            } else if (kind < 8) {
+                RectangleShape rect = new RectangleShape(DrawingTool.RECTANGLE, color, strokeWidth);
+                rect.setDimensions(x, y, 5 + random.nextDouble(80), 5 + random.nextDouble(80));
+                action = rect;
+            } else {
+                CircleShape circle = new CircleShape(DrawingTool.CIRCLE, color, strokeWidth);
+                circle.setProperties(x, y, 3 + random.nextDouble(40));
+                action = circle;
+            }
+            action.setSelectionBound();
+            board.add(action);
+        }
+        return board;
+    }
+
+    // A random walk, roughly what a hand-drawn stroke looks like after simplification.
+    static Pen pen(SplittableRandom random, Color color, double strokeWidth, double x, double y, int points) {
+        Pen pen = new Pen(DrawingTool.PEN, color, strokeWidth);
+        pen.points = new PointBuffer(points);
+        for (int i = 0; i < points; i++) {
+            pen.points.add(x, y);
+            x += random.nextDouble(-6, 6);
+            y += random.nextDouble(-6, 6);
+        }
+        return pen;
+    }
+}
@@ -0,0 +1,61 @@
+package com.figma.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Undoing and redoing a move, a delete and an add on a large board,
+ * including the partial repaint each step triggers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class UndoRedoBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    int shapes;
+
+    private Whiteboard board;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        board = new Whiteboard(new RecordingSurface(), new RecordingSurface());
+        board.setActionHistory(SyntheticBoards.generate(shapes, 42));
+        List<DrawingActions> history = board.getActionHistory();
+        CommandManager commands = board.getCommandManager();
+
+        commands.execute(new MoveCommand(board, history.get(shapes / 2), 25, -10));
+        commands.seal();
+        commands.execute(new DeleteCommand(board, history.get(shapes / 3)));
+        commands.seal();
+        DrawingActions added = SyntheticBoards.generate(1, 9).get(0);
+        commands.execute(new AddCommand(board, added));
+        commands.seal();
+    }
+
+    @Benchmark
+    public boolean undoRedo() {
+        board.undo();
+        board.undo();
+        board.undo();
+        board.redo();
+        board.redo();
+        board.redo();
+        return board.getCommandManager().canRedo();
+    }
+}
@@ -0,0 +1,30 @@
+package com.figma.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FootprintReportTest {
+    @Test
+    void aSmallReportBuildsEveryKindOfShape() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+        try {
+            FootprintReport.main(new String[] { "500" });
+        } finally {
+            System.setOut(console);
+        }
+
+        // the figures depend on the collector, only the rows are checked
+        String report = out.toString(StandardCharsets.UTF_8);
+        for (String row : new String[] { "pen, 32 points", "rectangle", "circle",
+                "mixed shapes ", "mixed shapes on a board" }) {
+            assertTrue(report.contains(row), report);
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package com.figma.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Crash-safe autosave of a board. Every committed edit, local or from a
+ * collaborator, is encoded as an {@link Operation} on the board thread and
+ * appended to a journal by a background writer; edits that arrive within
+ * {@link #GROUP_COMMIT_MILLIS} of each other share one fsync. Once the
+ * journal passes {@link #COMPACT_BYTES} the board is written out as a
+ * snapshot and the journal starts over, so a save costs the size of the
+ * edit and a recovery at most one snapshot plus a short journal. The
+ * snapshot is of the board's shape list when compaction starts, an O(1)
+ * copy; the board thread encodes it a batch at a time in between other
+ * work while the writer streams it to disk. Edits made meanwhile go to the
+ * new journal and, as they commute, may also be in the snapshot already.
+ *
+ * <pre>
+ * snapshot  header, then records of ADD and REMOVE operations for the whole board
+ * journal   header, then one record per edit
+ * header    magic "WBAJ", version u16, kind u16, generation i64
+ * record    payload length i32, CRC-32C of the payload i32, an {@link OpEncoder} frame
+ * </pre>
+ *
+ * A journal only counts for the snapshot of the same generation. A record
+ * that is cut short or fails its checksum ends the replay; it is the tail
+ * of a write that was interrupted by the crash. Version 2 records may hold
+ * pens with widths; a file of a newer version than this reader knows is
+ * refused rather than replayed in part.
+ */
+public final class Autosave implements BoardListener, Closeable {
+    private static final Log.Logger LOG = Log.get(Autosave.class);
+
+    static final String SNAPSHOT_FILE = "snapshot";
+    static final String JOURNAL_FILE = "journal";
+    static final int MAGIC = 0x5742414A; // "WBAJ"
+    static final short VERSION = 2;
+    static final short KIND_JOURNAL = 1;
+    static final short KIND_SNAPSHOT = 2;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_HEADER_SIZE = 8;
+    static final long GROUP_COMMIT_MILLIS = 20;
+    static final long COMPACT_BYTES = 8L << 20;
+    private static final int SNAPSHOT_BATCH = 512;
+    private static final Task CLOSE = new Task(null, null);
+    // end the frames of a compaction; abandoned if it was superseded or closed before it was all encoded
+    private static final byte[] END = new byte[0];
+    private static final byte[] ABANDONED = new byte[0];
+
+    private final Path directory;
+    private final Whiteboard board;
+    private final Executor boardThread;
+    private final BlockingQueue<Task> queue = new LinkedBlockingQueue<>();
+    private final Consumer<Operation> remoteEdits = this::append;
+    private final Thread writer;
+    // bytes queued for the journal since the last snapshot, on the board thread
+    private long journalBytes;
+    private boolean closed;
+    // the snapshot being encoded, on the board thread
+    private Compaction compacting;
+    private volatile boolean failed;
+
+    // written by the writer thread only
+    private FileChannel journal;
+    private long generation;
+
+    // One journal record, or a new snapshot.
+    private record Task(byte[] frame, Compaction snapshot) {
+    }
+
+    // The frames of a file, null after the last one.
+    private interface Frames {
+        byte[] next() throws IOException;
+    }
+
+    // A snapshot on its way from the board thread to the writer.
+    private static final class Compaction implements Frames {
+        final Iterator<DrawingActions> shapes;
+        final List<Operation> tombstones;
+        final BlockingQueue<byte[]> frames = new LinkedBlockingQueue<>();
+
+        Compaction(List<DrawingActions> shapes, List<Operation> tombstones) {
+            this.shapes = shapes.iterator();
+            this.tombstones = tombstones;
+        }
+
+        // Waits for the board thread to encode the next frame.
+        @Override
+        public byte[] next() throws IOException {
+            try {
+                byte[] frame = frames.take();
+                return frame == END ? null : frame;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the autosave snapshot");
+            }
+        }
+    }
+
+    private record Contents(long generation, short version, long intactLength) {
+    }
+
+    private Autosave(Path directory, Whiteboard board, Executor boardThread, long generation, long journalLength)
+            throws IOException {
+        this.directory = directory;
+        this.board = board;
+        this.boardThread = boardThread;
+        this.generation = generation;
+        Path journalPath = directory.resolve(JOURNAL_FILE);
+        if (journalLength < 0) {
+            writeFile(journalPath, KIND_JOURNAL, generation, () -> null);
+            journalLength = HEADER_SIZE;
+        }
+        journal = FileChannel.open(journalPath, StandardOpenOption.WRITE);
+        // drop a torn record at the end, new records go after the last intact one
+        journal.truncate(journalLength);
+        journal.position(journalLength);
+        journalBytes = journalLength - HEADER_SIZE;
+        writer = Thread.ofPlatform().name("autosave-writer").daemon().start(this::writeLoop);
+        board.addBoardListener(this);
+        board.addRemoteEditListener(remoteEdits);
+    }
+
+    // Autosaves under ~/.whiteboard/autosave unless -Dwhiteboard.autosave names another directory or is "off".
+    public static Path defaultDirectory() {
+        String configured = System.getProperty("whiteboard.autosave");
+        if ("off".equals(configured)) return null;
+        return configured != null ? Path.of(configured)
+                : Path.of(System.getProperty("user.home"), ".whiteboard", "autosave");
+    }
+
+    /**
+     * Replays what was saved in the directory onto the board, then starts
+     * saving the board's edits there. Call on the board thread, before the
+     * board is edited; compaction runs on boardThread too.
+     */
+    public static Autosave open(Path directory, Whiteboard board, Executor boardThread) throws IOException {
+        long start = Metrics.start();
+        Files.createDirectories(directory);
+        List<Operation> ops = new ArrayList<>();
+        long generation = 0;
+        // files an older version wrote are rewritten in this one straight away
+        boolean older = false;
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            Contents contents = read(snapshot, KIND_SNAPSHOT, ops);
+            if (contents == null || contents.intactLength() != Files.size(snapshot)) {
+                // snapshots are swapped in whole, damage here is not a torn write
+                throw new IOException("Corrupt autosave snapshot " + snapshot);
+            }
+            generation = contents.generation();
+            older = contents.version() < VERSION;
+        }
+        long journalLength = -1;
+        Path journalPath = directory.resolve(JOURNAL_FILE);
+        if (Files.exists(journalPath)) {
+            List<Operation> tail = new ArrayList<>();
+            Contents contents = read(journalPath, KIND_JOURNAL, tail);
+            // an older journal is already part of the snapshot, the crash came before it was replaced
+            if (contents != null && contents.generation() == generation) {
+                ops.addAll(tail);
+                journalLength = contents.intactLength();
+                older |= contents.version() < VERSION;
+            }
+        }
+        board.applyOperations(ops);
+        Autosave autosave = new Autosave(directory, board, boardThread, generation, journalLength);
+        Metrics.record(Metric.RECOVER, start);
+        if (!ops.isEmpty()) {
+            LOG.info(() -> "Recovered " + ops.size() + " edits from " + directory);
+        }
+        if (older) autosave.compact();
+        return autosave;
+    }
+
+    @Override
+    public void shapeAdded(DrawingActions shape) {
+        append(Operation.add(board.getReplica().entry(shape.id)));
+    }
+
+    @Override
+    public void shapeRemoved(DrawingActions shape) {
+        append(Operation.remove(board.getReplica().entry(shape.id)));
+    }
+
+    @Override
+    public void shapeMoved(DrawingActions shape, double deltaX, double deltaY) {
+        append(Operation.move(board.getReplica().entry(shape.id)));
+    }
+
+    @Override
+    public void shapeRestyled(DrawingActions shape) {
+        append(Operation.restyle(board.getReplica().entry(shape.id)));
+    }
+
+    private void append(Operation op) {
+        if (closed || failed) return;
+        byte[] frame = OpEncoder.encode(op);
+        queue.add(new Task(frame, null));
+        journalBytes += RECORD_HEADER_SIZE + frame.length;
+        if (journalBytes > COMPACT_BYTES) {
+            compact();
+        }
+    }
+
+    /**
+     * Writes the whole board as a new snapshot and starts an empty journal.
+     * Happens on its own as the journal grows; call it after the board was
+     * replaced wholesale, e.g. by loading a file.
+     */
+    public void compact() {
+        if (closed || failed) return;
+        if (compacting != null) {
+            // superseded; edits go on to the current journal until the new snapshot is written
+            compacting.frames.add(ABANDONED);
+        }
+        compacting = new Compaction(board.replicatedShapes(), board.replicatedTombstones());
+        queue.add(new Task(null, compacting));
+        journalBytes = 0;
+        Compaction compaction = compacting;
+        boardThread.execute(() -> encodeNext(compaction));
+    }
+
+    // Encodes one batch of the snapshot and queues the next, so input and frames are handled in between.
+    private void encodeNext(Compaction compaction) {
+        if (compaction != compacting) return;
+        if (failed) {
+            compaction.frames.add(ABANDONED);
+            compacting = null;
+            return;
+        }
+        List<Operation> ops = new ArrayList<>(SNAPSHOT_BATCH);
+        while (ops.size() < SNAPSHOT_BATCH && compaction.shapes.hasNext()) {
+            // deleted since, the snapshot leaves it to the tombstones or the journal
+            Operation add = board.replicatedAdd(compaction.shapes.next());
+            if (add != null) ops.add(add);
+        }
+        boolean last = !compaction.shapes.hasNext();
+        if (last) ops.addAll(compaction.tombstones);
+        if (!ops.isEmpty()) compaction.frames.add(OpEncoder.encode(ops));
+        if (last) {
+            compaction.frames.add(END);
+            compacting = null;
+        } else {
+            boardThread.execute(() -> encodeNext(compaction));
+        }
+    }
+
+    // Stops saving; returns once everything queued so far is on disk.
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        board.removeBoardListener(this);
+        board.removeRemoteEditListener(remoteEdits);
+        if (compacting != null) {
+            // the rest would be encoded on this thread, which waits for the writer below
+            compacting.frames.add(ABANDONED);
+            compacting = null;
+        }
+        queue.add(CLOSE);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing the autosave journal", e);
+        }
+    }
+
+    private void writeLoop() {
+        List<Task> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                // give edits that follow closely a chance to share the fsync
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(GROUP_COMMIT_MILLIS);
+                long wait;
+                while (batch.get(batch.size() - 1).frame() != null && (wait = deadline - System.nanoTime()) > 0) {
+                    Task next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                boolean close = write(batch);
+                batch.clear();
+                if (close) return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                LOG.warn("Could not close the autosave journal", e);
+            }
+        }
+    }
+
+    // Returns true once the batch reached the close marker.
+    private boolean write(List<Task> batch) {
+        long start = Metrics.start();
+        List<byte[]> records = new ArrayList<>();
+        try {
+            for (Task task : batch) {
+                if (task == CLOSE) {
+                    commit(records);
+                    return true;
+                } else if (task.snapshot() != null) {
+                    commit(records);
+                    rotate(task.snapshot());
+                } else if (!failed) {
+                    records.add(task.frame());
+                }
+            }
+            commit(records);
+        } catch (IOException e) {
+            if (!failed) {
+                LOG.error("Autosave failed, edits are no longer saved to " + directory, e);
+            }
+            failed = true;
+        } finally {
+            Metrics.record(Metric.JOURNAL_COMMIT, start);
+        }
+        return false;
+    }
+
+    private void commit(List<byte[]> frames) throws IOException {
+        if (frames.isEmpty() || failed) return;
+        int size = 0;
+        for (byte[] frame : frames) {
+            size += RECORD_HEADER_SIZE + frame.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (byte[] frame : frames) {
+            putRecord(buffer, frame);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            journal.write(buffer);
+        }
+        journal.force(false);
+        frames.clear();
+    }
+
+    // The snapshot goes in before the journal is replaced, so a crash in between loses nothing.
+    private void rotate(Compaction snapshot) throws IOException {
+        if (failed) return;
+        long next = generation + 1;
+        if (!writeFile(directory.resolve(SNAPSHOT_FILE), KIND_SNAPSHOT, next, snapshot)) {
+            // the edits since go on in the current journal
+            return;
+        }
+        journal.close();
+        Path journalPath = directory.resolve(JOURNAL_FILE);
+        writeFile(journalPath, KIND_JOURNAL, next, () -> null);
+        journal = FileChannel.open(journalPath, StandardOpenOption.WRITE);
+        journal.position(journal.size());
+        generation = next;
+    }
+
+    // Writes the file next to its final name and swaps it in; false, leaving the file as it was, if the frames are abandoned.
+    private static boolean writeFile(Path path, short kind, long generation, Frames frames) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        boolean abandoned = false;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putShort(VERSION).putShort(kind).putLong(generation).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            byte[] frame;
+            while ((frame = frames.next()) != null) {
+                if (frame == ABANDONED) {
+                    abandoned = true;
+                    break;
+                }
+                ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + frame.length);
+                putRecord(record, frame);
+                record.flip();
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            }
+            if (!abandoned) channel.force(false);
+        }
+        if (abandoned) {
+            Files.delete(temp);
+            return false;
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+
+    private static void putRecord(ByteBuffer buffer, byte[] frame) {
+        CRC32C crc = new CRC32C();
+        crc.update(frame);
+        buffer.putInt(frame.length).putInt((int) crc.getValue()).put(frame);
+    }
+
+    // Decodes the intact records of a file into out; null if even the header is incomplete.
+    private static Contents read(Path path, short kind, List<Operation> out) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) return null;
+            // a buffer at a time, so a journal of any length reads without holding it on the heap
+            BoardFile.ChannelReader in = new BoardFile.ChannelReader(channel, 0, size);
+            ByteBuffer header = in.ensure(HEADER_SIZE);
+            int magic = header.getInt();
+            short version = header.getShort();
+            if (magic != MAGIC || version < 1 || header.getShort() != kind) {
+                throw new IOException("Not an autosave " + (kind == KIND_SNAPSHOT ? "snapshot" : "journal") + ": "
+                        + path);
+            }
+            if (version > VERSION) {
+                throw new IOException("Autosave version " + version + " is newer than this app reads (" + VERSION
+                        + "): " + path);
+            }
+            long generation = header.getLong();
+            CRC32C crc = new CRC32C();
+            long intact = in.position();
+            while (size - intact >= RECORD_HEADER_SIZE) {
+                ByteBuffer record = in.ensure(RECORD_HEADER_SIZE);
+                int length = record.getInt();
+                int checksum = record.getInt();
+                if (length < 0 || length > size - in.position()) break;
+                ByteBuffer window = in.ensure(length);
+                ByteBuffer payload = window.slice(window.position(), length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum) break;
+                out.addAll(OpDecoder.decode(payload));
+                window.position(window.position() + length);
+                intact = in.position();
+            }
+            return new Contents(generation, version, intact);
+        }
+    }
+}
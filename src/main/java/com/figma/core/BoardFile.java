@@ -0,0 +1,583 @@
+package com.figma.core;
+
+import javafx.scene.paint.Color;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary board format.
+ *
+ * <pre>
+ * header   magic "WBRD", version u16, flags u16, shape count i64, index offset i64
+ * styles   count i32, then per style: argb i32, stroke width f32
+ * strings  count i32, then per string: byte length i32, UTF-8 bytes
+ * pages    the shapes centred in one {@link #PAGE_SIZE} square of the board, bottom-most first
+ *          per shape: depth i32, type u8, style index i32, then the typed payload
+ *          pen    point count i32, x/y f32 pairs, then for a pen with widths a width u8 per point
+ *          rect   x, y, width, height f32
+ *          circle center x, center y, radius f32
+ *          text   x, y f32, font size i32, string index i32
+ * index    page count i32, then per page: min x, min y, max x, max y f32,
+ *          offset i64, byte length i32, shape count i32
+ * </pre>
+ *
+ * A shape's depth is its place in the stacking order of the whole board.
+ * The index lets {@link #open} read only the pages that reach into a part
+ * of the board; version 1 files have no index and no depths, and open as
+ * a single page. Version 2 also carries pens with widths. A file of a
+ * newer version than this reader knows is refused before anything is read.
+ *
+ * Files are written through a small direct buffer and read through a
+ * small heap buffer, so neither direction holds the file on the heap.
+ */
+public final class BoardFile {
+    public static final String EXTENSION = "wboard";
+
+    static final int MAGIC = 0x57425244; // "WBRD"
+    static final short VERSION = 2;
+    static final int HEADER_SIZE = 24;
+    // world units per side of the square a page covers, and the most shapes in one page
+    static final double PAGE_SIZE = 2048;
+    static final int PAGE_CAPACITY = 2048;
+
+    static final byte TYPE_PEN = 1;
+    static final byte TYPE_RECTANGLE = 2;
+    static final byte TYPE_CIRCLE = 3;
+    static final byte TYPE_TEXT = 4;
+    static final byte TYPE_PEN_WIDTHS = 5;
+
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    private BoardFile() {
+    }
+
+    public static void save(Path path, List<DrawingActions> actions) throws IOException {
+        long start = Metrics.start();
+        try {
+            write(path, actions);
+        } finally {
+            Metrics.record(Metric.SAVE, start);
+        }
+    }
+
+    public static ArrayList<DrawingActions> load(Path path) throws IOException {
+        long start = Metrics.start();
+        try (Index index = Index.read(path)) {
+            ArrayList<DrawingActions> actions = new ArrayList<>((int) index.shapeCount);
+            for (Page page : index.pages) {
+                actions.addAll(index.read(page, 0));
+            }
+            // pages are in board order, the shapes within them by depth
+            actions.sort(SpatialIndex.Z_ORDER);
+            return actions;
+        } finally {
+            Metrics.record(Metric.LOAD, start);
+        }
+    }
+
+    /**
+     * Reads the header and the page index of a board file and keeps it open,
+     * so pages can be read as they are needed. Close it once done.
+     */
+    public static Index open(Path path) throws IOException {
+        long start = Metrics.start();
+        try {
+            return Index.read(path);
+        } finally {
+            Metrics.record(Metric.LOAD, start);
+        }
+    }
+
+    private static void write(Path path, List<DrawingActions> actions) throws IOException {
+        // first pass: intern styles and strings so records can refer to them by index
+        Map<Style, Integer> styleIndex = new HashMap<>();
+        List<Style> styles = new ArrayList<>();
+        Map<String, Integer> stringIndex = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        for (DrawingActions action : actions) {
+            Style style = Style.of(action);
+            if (styleIndex.putIfAbsent(style, styles.size()) == null) {
+                styles.add(style);
+            }
+            if (action instanceof TextShape text && stringIndex.putIfAbsent(text.text, strings.size()) == null) {
+                strings.add(text.text);
+            }
+        }
+
+        // write next to the target and swap it in, so a failed save never truncates the old board
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ChannelWriter out = new ChannelWriter(channel);
+                // the header is written last, once the index offset is known
+                out.ensure(HEADER_SIZE);
+                out.buffer.position(HEADER_SIZE);
+
+                out.ensure(4);
+                out.buffer.putInt(styles.size());
+                for (Style style : styles) {
+                    out.ensure(8);
+                    out.buffer.putInt(style.argb).putFloat(style.strokeWidth);
+                }
+
+                out.ensure(4);
+                out.buffer.putInt(strings.size());
+                for (String string : strings) {
+                    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                    out.ensure(4);
+                    out.buffer.putInt(bytes.length);
+                    out.put(bytes);
+                }
+
+                List<Page> pages = new ArrayList<>();
+                for (List<Integer> tile : tiles(actions)) {
+                    for (int from = 0; from < tile.size(); from += PAGE_CAPACITY) {
+                        List<Integer> members = tile.subList(from, Math.min(tile.size(), from + PAGE_CAPACITY));
+                        pages.add(writePage(out, actions, members, styleIndex, stringIndex));
+                    }
+                }
+
+                long indexOffset = out.position();
+                out.ensure(4);
+                out.buffer.putInt(pages.size());
+                for (Page page : pages) {
+                    out.ensure(32);
+                    out.buffer.putFloat(page.minX).putFloat(page.minY).putFloat(page.maxX).putFloat(page.maxY)
+                            .putLong(page.offset).putInt(page.length).putInt(page.shapeCount);
+                }
+                out.flush();
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putLong(actions.size()).putLong(indexOffset);
+                header.flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                channel.force(false);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            // gone already once moved into place
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Indexes into actions grouped by the page square their bounds are centred in, each group bottom-most first.
+    private static Collection<List<Integer>> tiles(List<DrawingActions> actions) {
+        Map<Long, List<Integer>> tiles = new HashMap<>();
+        for (int i = 0; i < actions.size(); i++) {
+            DrawingActions action = actions.get(i);
+            long column = (long) Math.floor((action.left + action.right) / 2 / PAGE_SIZE);
+            long row = (long) Math.floor((action.top + action.bottom) / 2 / PAGE_SIZE);
+            tiles.computeIfAbsent(column << 32 | (row & 0xffffffffL), k -> new ArrayList<>()).add(i);
+        }
+        return tiles.values();
+    }
+
+    private static Page writePage(ChannelWriter out, List<DrawingActions> actions, List<Integer> members,
+                                  Map<Style, Integer> styleIndex, Map<String, Integer> stringIndex) throws IOException {
+        long offset = out.position();
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int depth : members) {
+            DrawingActions action = actions.get(depth);
+            minX = Math.min(minX, action.left);
+            minY = Math.min(minY, action.top);
+            maxX = Math.max(maxX, action.right);
+            maxY = Math.max(maxY, action.bottom);
+            out.ensure(4);
+            out.buffer.putInt(depth);
+            writeShape(out, action, styleIndex.get(Style.of(action)), stringIndex);
+        }
+        // rounded outwards, so the stored bounds still cover every shape
+        return new Page(Math.nextDown((float) minX), Math.nextDown((float) minY),
+                Math.nextUp((float) maxX), Math.nextUp((float) maxY),
+                offset, Math.toIntExact(out.position() - offset), members.size());
+    }
+
+    private static void writeShape(ChannelWriter out, DrawingActions action, int style,
+                                   Map<String, Integer> strings) throws IOException {
+        if (action instanceof Pen pen) {
+            PointBuffer points = pen.bakedPoints();
+            out.ensure(9);
+            out.buffer.put(pen.widths != null ? TYPE_PEN_WIDTHS : TYPE_PEN).putInt(style).putInt(points.pointCount());
+            for (int i = 0; i < points.pointCount(); i++) {
+                out.ensure(8);
+                out.buffer.putFloat((float) points.x(i)).putFloat((float) points.y(i));
+            }
+            if (pen.widths != null) {
+                for (byte width : pen.widths) {
+                    out.ensure(1);
+                    out.buffer.put(width);
+                }
+            }
+        } else if (action instanceof RectangleShape rect) {
+            out.ensure(21);
+            out.buffer.put(TYPE_RECTANGLE).putInt(style)
+                    .putFloat((float) rect.x).putFloat((float) rect.y)
+                    .putFloat((float) rect.width).putFloat((float) rect.height);
+        } else if (action instanceof CircleShape circle) {
+            out.ensure(17);
+            out.buffer.put(TYPE_CIRCLE).putInt(style)
+                    .putFloat((float) circle.centerX).putFloat((float) circle.centerY)
+                    .putFloat((float) circle.radius);
+        } else if (action instanceof TextShape text) {
+            out.ensure(21);
+            out.buffer.put(TYPE_TEXT).putInt(style)
+                    .putFloat((float) text.x).putFloat((float) text.y)
+                    .putInt(text.fontSize).putInt(strings.get(text.text));
+        } else {
+            throw new IOException("Cannot save shape type " + action.getClass().getSimpleName());
+        }
+    }
+
+    private static DrawingActions readShape(ChannelReader in, Style[] styles, Color[] colors,
+                                            String[] strings) throws IOException {
+        ByteBuffer b = in.ensure(5);
+        byte type = b.get();
+        int styleIndex = b.getInt();
+        if (styleIndex < 0 || styleIndex >= styles.length) {
+            throw new IOException("Corrupt style index " + styleIndex);
+        }
+        Style style = styles[styleIndex];
+        Color color = colors[styleIndex];
+        DrawingActions action;
+        switch (type) {
+            case TYPE_PEN, TYPE_PEN_WIDTHS -> {
+                int count = checkCount(in.ensure(4).getInt());
+                Pen pen = new Pen(DrawingTool.PEN, color, style.strokeWidth);
+                pen.points = new PointBuffer(count);
+                for (int i = 0; i < count; i++) {
+                    ByteBuffer p = in.ensure(8);
+                    pen.points.add(coord(p), coord(p));
+                }
+                if (type == TYPE_PEN_WIDTHS) {
+                    pen.widths = new byte[count];
+                    for (int i = 0; i < count; i++) {
+                        pen.widths[i] = in.ensure(1).get();
+                    }
+                }
+                action = pen;
+            }
+            case TYPE_RECTANGLE -> {
+                ByteBuffer r = in.ensure(16);
+                RectangleShape rect = new RectangleShape(DrawingTool.RECTANGLE, color, style.strokeWidth);
+                rect.setDimensions(coord(r), coord(r), coord(r), coord(r));
+                action = rect;
+            }
+            case TYPE_CIRCLE -> {
+                ByteBuffer c = in.ensure(12);
+                CircleShape circle = new CircleShape(DrawingTool.CIRCLE, color, style.strokeWidth);
+                circle.setProperties(coord(c), coord(c), coord(c));
+                action = circle;
+            }
+            case TYPE_TEXT -> {
+                ByteBuffer t = in.ensure(16);
+                double x = coord(t), y = coord(t);
+                int fontSize = t.getInt();
+                int stringIndex = t.getInt();
+                if (stringIndex < 0 || stringIndex >= strings.length) {
+                    throw new IOException("Corrupt string index " + stringIndex);
+                }
+                TextShape text = new TextShape(null, color, fontSize);
+                text.setPosition(x, y);
+                text.setText(strings[stringIndex]);
+                action = text;
+            }
+            default -> throw new IOException("Unknown shape type " + type);
+        }
+        action.setSelectionBound();
+        return action;
+    }
+
+    // NaN or an infinity would leave the shape somewhere the spatial index cannot hold it.
+    private static float coord(ByteBuffer in) throws IOException {
+        float v = in.getFloat();
+        if (!Float.isFinite(v)) {
+            throw new IOException("Corrupt coordinate " + v);
+        }
+        return v;
+    }
+
+    private static int checkCount(int count) throws IOException {
+        if (count < 0) {
+            throw new IOException("Corrupt length " + count);
+        }
+        return count;
+    }
+
+    // Colour and stroke width as stored in the style table.
+    record Style(int argb, float strokeWidth) {
+        static Style of(DrawingActions action) {
+            return new Style(toArgb(action.style.color()), (float) action.style.strokeWidth());
+        }
+
+        Color color() {
+            return Color.rgb((argb >> 16) & 0xff, (argb >> 8) & 0xff, argb & 0xff, ((argb >>> 24) & 0xff) / 255.0);
+        }
+
+        static int toArgb(Color color) {
+            if (color == null) color = Color.BLACK;
+            return (int) Math.round(color.getOpacity() * 255) << 24
+                    | (int) Math.round(color.getRed() * 255) << 16
+                    | (int) Math.round(color.getGreen() * 255) << 8
+                    | (int) Math.round(color.getBlue() * 255);
+        }
+    }
+
+    // The shapes of one page: the bounds they reach and where their records are.
+    record Page(float minX, float minY, float maxX, float maxY, long offset, int length, int shapeCount) {
+        boolean intersects(double minX, double minY, double maxX, double maxY) {
+            return this.minX <= maxX && this.maxX >= minX && this.minY <= maxY && this.maxY >= minY;
+        }
+    }
+
+    /**
+     * An open board file: its style and string tables and the page index.
+     * Pages can be read from any thread, each through its own reader: the
+     * reads are positional and leave the channel's position alone.
+     */
+    public static final class Index implements Closeable {
+        final List<Page> pages;
+        final long shapeCount;
+        private final FileChannel channel;
+        // version 1 pages carry no depths, records are in depth order
+        private final boolean depths;
+        private final Style[] styles;
+        private final Color[] colors;
+        private final String[] strings;
+
+        private Index(FileChannel channel, long shapeCount, boolean depths, List<Page> pages,
+                      Style[] styles, Color[] colors, String[] strings) {
+            this.channel = channel;
+            this.shapeCount = shapeCount;
+            this.depths = depths;
+            this.pages = pages;
+            this.styles = styles;
+            this.colors = colors;
+            this.strings = strings;
+        }
+
+        private static Index read(Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                return read(path, channel);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private static Index read(Path path, FileChannel channel) throws IOException {
+            long size = channel.size();
+            ChannelReader in = new ChannelReader(channel, 0, size);
+            ByteBuffer header = in.ensure(16);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a whiteboard file: " + path);
+            }
+            short version = header.getShort();
+            if (version > VERSION) {
+                throw new IOException("Board file version " + version + " is newer than this app reads (" + VERSION
+                        + "): " + path);
+            }
+            if (version < 1) {
+                throw new IOException("Unsupported board file version " + version);
+            }
+            header.getShort(); // flags, unused so far
+            long shapeCount = header.getLong();
+            if (shapeCount < 0 || shapeCount > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt shape count " + shapeCount);
+            }
+            long indexOffset = version == 1 ? size : in.ensure(8).getLong();
+            if (indexOffset < HEADER_SIZE || indexOffset > size) {
+                throw new IOException("Corrupt index offset " + indexOffset);
+            }
+
+            int styleCount = checkCount(in.ensure(4).getInt());
+            Style[] styles = new Style[styleCount];
+            Color[] colors = new Color[styleCount];
+            for (int i = 0; i < styleCount; i++) {
+                ByteBuffer b = in.ensure(8);
+                styles[i] = new Style(b.getInt(), coord(b));
+                colors[i] = styles[i].color();
+            }
+
+            int stringCount = checkCount(in.ensure(4).getInt());
+            String[] strings = new String[stringCount];
+            for (int i = 0; i < stringCount; i++) {
+                int length = checkCount(in.ensure(4).getInt());
+                strings[i] = new String(in.get(length), StandardCharsets.UTF_8);
+            }
+
+            List<Page> pages = new ArrayList<>();
+            if (version == 1) {
+                // everything after the tables, reaching anywhere
+                long offset = in.position();
+                pages.add(new Page(-Float.MAX_VALUE, -Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE,
+                        offset, Math.toIntExact(size - offset), (int) shapeCount));
+            } else {
+                ChannelReader index = new ChannelReader(channel, indexOffset, size);
+                int pageCount = checkCount(index.ensure(4).getInt());
+                long indexed = 0;
+                for (int i = 0; i < pageCount; i++) {
+                    ByteBuffer b = index.ensure(32);
+                    Page page = new Page(b.getFloat(), b.getFloat(), b.getFloat(), b.getFloat(),
+                            b.getLong(), b.getInt(), b.getInt());
+                    if (page.offset < in.position() || page.length < 0 || page.offset + page.length > indexOffset
+                            || page.shapeCount < 0) {
+                        throw new IOException("Corrupt page " + i);
+                    }
+                    pages.add(page);
+                    indexed += page.shapeCount;
+                }
+                if (indexed != shapeCount) {
+                    throw new IOException("Index covers " + indexed + " of " + shapeCount + " shapes");
+                }
+            }
+            return new Index(channel, shapeCount, version >= 2, pages, styles, colors, strings);
+        }
+
+        /**
+         * Reads the shapes of a page, bottom-most first. Each one's zOrder is
+         * its depth in the file plus zOrderBase.
+         */
+        List<DrawingActions> read(Page page, long zOrderBase) throws IOException {
+            ChannelReader in = new ChannelReader(channel, page.offset, page.offset + page.length);
+            List<DrawingActions> actions = new ArrayList<>(page.shapeCount);
+            for (int i = 0; i < page.shapeCount; i++) {
+                int depth = depths ? in.ensure(4).getInt() : i;
+                if (depth < 0 || depth >= shapeCount) {
+                    throw new IOException("Corrupt depth " + depth);
+                }
+                DrawingActions action = readShape(in, styles, colors, strings);
+                action.zOrder = zOrderBase + depth;
+                actions.add(action);
+            }
+            return actions;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static final class ChannelWriter {
+        final FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        long flushed;
+
+        ChannelWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        // Makes room for the next n bytes, flushing what has been buffered so far.
+        void ensure(int n) throws IOException {
+            if (buffer.remaining() < n) {
+                flush();
+            }
+        }
+
+        void put(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (!buffer.hasRemaining()) flush();
+                int n = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, n);
+                offset += n;
+            }
+        }
+
+        // Bytes written so far, counting the ones still buffered.
+        long position() {
+            return flushed + buffer.position();
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            flushed += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Reads a section of a file a buffer at a time; the autosave files are
+     * read through it too. Plain reads rather than mapped windows: a mapping
+     * stays until it is garbage collected, and on Windows the file cannot be
+     * truncated or replaced while it does.
+     */
+    static final class ChannelReader {
+        final FileChannel channel;
+        // reads stop here, the end of the section being read
+        final long size;
+        long windowStart;
+        ByteBuffer window = ByteBuffer.allocate(READ_BUFFER_SIZE).limit(0);
+
+        ChannelReader(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.size = end;
+            this.windowStart = start;
+        }
+
+        long position() {
+            return windowStart + window.position();
+        }
+
+        // Returns the current window with at least n readable bytes, reading further if needed.
+        ByteBuffer ensure(int n) throws IOException {
+            if (window.remaining() < n) {
+                long position = position();
+                if (size - position < n) {
+                    throw new EOFException("Board file is truncated");
+                }
+                fill(position, n);
+            }
+            return window;
+        }
+
+        byte[] get(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                int n = Math.min(length - offset, ensure(1).remaining());
+                window.get(bytes, offset, n);
+                offset += n;
+            }
+            return bytes;
+        }
+
+        // Reads a buffer's worth from position on, a bigger buffer for a record longer than that.
+        private void fill(long position, int n) throws IOException {
+            if (window.capacity() < n) {
+                window = ByteBuffer.allocate(n);
+            }
+            window.clear().limit((int) Math.min(window.capacity(), size - position));
+            windowStart = position;
+            while (window.hasRemaining()) {
+                if (channel.read(window, position + window.position()) < 0) {
+                    throw new EOFException("Board file is truncated");
+                }
+            }
+            window.flip();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.figma.core;
+
+import java.util.List;
+
+/**
+ * Notified on the FX thread after a local edit changed the board,
+ * including edits replayed by undo/redo and opening a board file. Remote
+ * edits are not reported.
+ */
+public interface BoardListener {
+    void shapeAdded(DrawingActions shape);
+    void shapeRemoved(DrawingActions shape);
+    void shapeMoved(DrawingActions shape, double deltaX, double deltaY);
+    void shapeRestyled(DrawingActions shape);
+
+    // Many shapes at once, as when a board file replaces the board and its pages are read in.
+    default void shapesAdded(List<DrawingActions> shapes) {
+        shapes.forEach(this::shapeAdded);
+    }
+
+    default void shapesRemoved(List<DrawingActions> shapes) {
+        shapes.forEach(this::shapeRemoved);
+    }
+
+    // A sample was added to the pen stroke being drawn; the stroke is not on the board yet.
+    default void strokeSampled(DrawingActions stroke, double x, double y) {
+    }
+}
@@ -0,0 +1,244 @@
+package com.figma.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Brings the pages of an open board file onto a board as the view needs
+ * them. Pages in view are read on the board thread so they are there for
+ * the next frame; pages within {@link #PREFETCH_VIEWS} view sizes of it are
+ * decoded on a background thread and handed over through the board
+ * executor. Pages further out stay in the file until the view comes near
+ * them or something needs the whole board.
+ *
+ * Used on the board thread, except for the decoding.
+ */
+final class BoardLoader {
+    private static final Log.Logger LOG = Log.get(BoardLoader.class);
+    // how far around the view pages are read ahead, in view widths and heights
+    static final double PREFETCH_VIEWS = 1;
+    // the most shapes put on the board in one go from the background
+    static final int DRAIN_LIMIT = 4096;
+
+    private final Whiteboard board;
+    private final BoardFile.Index file;
+    private final long zOrderBase;
+    private final Executor boardThread;
+    private final ExecutorService decoder = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("board-loader").daemon().factory());
+    private final boolean[] loaded;
+    // set once a page is queued for the decoder, completes when it is on the board
+    private final List<CompletableFuture<Void>> queued;
+    // pages the decoder has read, waiting for the board thread
+    private final Queue<Decoded> decoded = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainQueued = new AtomicBoolean();
+    private int remaining;
+    private volatile boolean closed;
+
+    // shapes is null if the page could not be read
+    private record Decoded(int page, List<DrawingActions> shapes) {
+    }
+
+    BoardLoader(Whiteboard board, BoardFile.Index file, long zOrderBase, Executor boardThread) {
+        this.board = board;
+        this.file = file;
+        this.zOrderBase = zOrderBase;
+        this.boardThread = boardThread;
+        this.loaded = new boolean[file.pages.size()];
+        this.queued = new ArrayList<>(loaded.length);
+        for (int i = 0; i < loaded.length; i++) {
+            queued.add(null);
+        }
+        this.remaining = loaded.length;
+        if (remaining == 0) release();
+    }
+
+    boolean isComplete() {
+        return remaining == 0;
+    }
+
+    // Reads the pages reaching into the area now, and queues the ones around it.
+    void load(double minX, double minY, double maxX, double maxY) {
+        if (closed) return;
+        for (int i = 0; i < loaded.length; i++) {
+            if (!loaded[i] && file.pages.get(i).intersects(minX, minY, maxX, maxY)) {
+                loadNow(i);
+            }
+        }
+        double marginX = (maxX - minX) * PREFETCH_VIEWS, marginY = (maxY - minY) * PREFETCH_VIEWS;
+        prefetch(minX - marginX, minY - marginY, maxX + marginX, maxY + marginY);
+    }
+
+    // Reads every page not on the board yet, on the board thread.
+    void loadAll() {
+        for (int i = 0; i < loaded.length && !closed; i++) {
+            if (!loaded[i]) loadNow(i);
+        }
+    }
+
+    // Queues every page not on the board yet; completes once the last one is on.
+    CompletableFuture<Void> loadRemaining() {
+        if (closed) return CompletableFuture.failedFuture(new CancellationException());
+        List<Integer> pages = new ArrayList<>();
+        for (int i = 0; i < loaded.length; i++) {
+            if (!loaded[i]) pages.add(i);
+        }
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        for (int i : pages) {
+            pending.add(queue(i));
+        }
+        return CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new));
+    }
+
+    // The bounds of the pages not on the board yet as minX, minY, maxX, maxY, or null if there are none.
+    double[] unloadedBounds() {
+        double[] bounds = null;
+        for (int i = 0; i < loaded.length; i++) {
+            if (loaded[i]) continue;
+            BoardFile.Page page = file.pages.get(i);
+            if (bounds == null) {
+                bounds = new double[]{page.minX(), page.minY(), page.maxX(), page.maxY()};
+            } else {
+                bounds[0] = Math.min(bounds[0], page.minX());
+                bounds[1] = Math.min(bounds[1], page.minY());
+                bounds[2] = Math.max(bounds[2], page.maxX());
+                bounds[3] = Math.max(bounds[3], page.maxY());
+            }
+        }
+        return bounds;
+    }
+
+    // Stops loading; pages still in the file are dropped.
+    void close() {
+        if (closed) return;
+        closed = true;
+        for (CompletableFuture<Void> future : queued) {
+            if (future != null) future.cancel(false);
+        }
+        release();
+    }
+
+    private void release() {
+        decoder.shutdownNow();
+        try {
+            file.close();
+        } catch (IOException e) {
+            LOG.warn("Could not close the board file", e);
+        }
+    }
+
+    private void prefetch(double minX, double minY, double maxX, double maxY) {
+        double centerX = (minX + maxX) / 2, centerY = (minY + maxY) / 2;
+        List<Integer> near = new ArrayList<>();
+        for (int i = 0; i < loaded.length; i++) {
+            if (!loaded[i] && queued.get(i) == null && file.pages.get(i).intersects(minX, minY, maxX, maxY)) {
+                near.add(i);
+            }
+        }
+        // closest to the middle of the view first
+        near.sort(Comparator.comparingDouble(i -> distanceSq(file.pages.get(i), centerX, centerY)));
+        for (int i : near) {
+            queue(i);
+        }
+    }
+
+    private CompletableFuture<Void> queue(int page) {
+        CompletableFuture<Void> future = queued.get(page);
+        if (future == null) {
+            future = new CompletableFuture<>();
+            queued.set(page, future);
+            CompletableFuture<Void> installed = future;
+            decoder.execute(() -> decode(page, installed));
+        }
+        return future;
+    }
+
+    // On the decoder thread: reads the page and has the board thread pick it up.
+    private void decode(int page, CompletableFuture<Void> installed) {
+        // loaded on the board thread in the meantime, or closed
+        if (installed.isDone()) return;
+        List<DrawingActions> shapes = null;
+        try {
+            shapes = file.read(file.pages.get(page), zOrderBase);
+        } catch (IOException e) {
+            if (!closed) LOG.error("Could not load a page of the board", e);
+        }
+        decoded.add(new Decoded(page, shapes));
+        if (!drainQueued.getAndSet(true)) {
+            boardThread.execute(this::drain);
+        }
+    }
+
+    // Puts every page decoded so far on the board at once, so the board merges its shapes in one pass.
+    private void drain() {
+        drainQueued.set(false);
+        List<Integer> pages = new ArrayList<>();
+        List<DrawingActions> shapes = new ArrayList<>();
+        Decoded next;
+        while (shapes.size() < DRAIN_LIMIT && (next = decoded.poll()) != null) {
+            if (closed || loaded[next.page]) continue;
+            if (next.shapes == null) {
+                // leave it out, the error is logged
+                markLoaded(next.page);
+                continue;
+            }
+            pages.add(next.page);
+            shapes.addAll(next.shapes);
+        }
+        if (pages.size() > 1) {
+            shapes.sort(SpatialIndex.Z_ORDER);
+        }
+        install(pages, shapes);
+        // leave the rest for later, so frames go on in between
+        if (!decoded.isEmpty() && !drainQueued.getAndSet(true)) {
+            boardThread.execute(this::drain);
+        }
+    }
+
+    // A page in the decoder's queue may be far behind, so reading it again here beats waiting.
+    private void loadNow(int page) {
+        try {
+            install(List.of(page), file.read(file.pages.get(page), zOrderBase));
+        } catch (IOException e) {
+            LOG.error("Could not load a page of the board", e);
+            // leave it out rather than retry on every frame
+            markLoaded(page);
+        }
+    }
+
+    private void install(List<Integer> pages, List<DrawingActions> shapes) {
+        if (pages.isEmpty()) return;
+        long start = Metrics.start();
+        board.installShapes(shapes);
+        Metrics.record(Metric.PAGE_IN, start);
+        for (int page : pages) {
+            markLoaded(page);
+        }
+    }
+
+    private void markLoaded(int page) {
+        loaded[page] = true;
+        // loaded here while still queued, the decoded copy is not needed
+        CompletableFuture<Void> future = queued.get(page);
+        if (future != null) future.complete(null);
+        if (--remaining == 0) {
+            release();
+        }
+    }
+
+    private static double distanceSq(BoardFile.Page page, double x, double y) {
+        double dx = Math.max(0, Math.max(page.minX() - x, x - page.maxX()));
+        double dy = Math.max(0, Math.max(page.minY() - y, y - page.maxY()));
+        return dx * dx + dy * dy;
+    }
+}
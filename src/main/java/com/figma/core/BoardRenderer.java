@@ -0,0 +1,199 @@
+package com.figma.core;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.Serial;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Renders boards to images off the FX thread, for PNG export and
+ * thumbnails. The output is split into tiles that are rasterized with
+ * Java2D in parallel on a fork-join pool and copied into one image.
+ *
+ * The shapes are copied on the calling (board) thread first, so the board
+ * can keep changing while the render runs.
+ */
+public final class BoardRenderer {
+    static final int TILE_PIXELS = 256;
+    // 16k x 16k, about 1 GB of ARGB pixels
+    static final long MAX_PIXELS = 1L << 28;
+    // room around the outermost shapes for stroke widths
+    private static final double MARGIN = 24;
+
+    private final ForkJoinPool pool;
+    private final int tilePixels;
+
+    public BoardRenderer() {
+        this(ForkJoinPool.commonPool(), TILE_PIXELS);
+    }
+
+    BoardRenderer(ForkJoinPool pool, int tilePixels) {
+        this.pool = pool;
+        this.tilePixels = tilePixels;
+    }
+
+    // Writes the whole board as a PNG at the given scale (1 = one pixel per board unit).
+    public CompletableFuture<Path> exportPng(Whiteboard board, Path file, double scale) {
+        List<DrawingActions> shapes = snapshot(board.getActionHistory());
+        return CompletableFuture.supplyAsync(() -> {
+            double[] bounds = bounds(shapes);
+            BufferedImage image = render(shapes, bounds[0], bounds[1], bounds[2], bounds[3], scale);
+            try {
+                writePng(image, file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return file;
+        }, pool);
+    }
+
+    // The whole board scaled down so its longer side is at most maxSize pixels.
+    public CompletableFuture<BufferedImage> thumbnail(Whiteboard board, int maxSize) {
+        List<DrawingActions> shapes = snapshot(board.getActionHistory());
+        return CompletableFuture.supplyAsync(() -> {
+            double[] bounds = bounds(shapes);
+            double scale = maxSize / Math.max(bounds[2] - bounds[0], bounds[3] - bounds[1]);
+            return render(shapes, bounds[0], bounds[1], bounds[2], bounds[3], Math.min(scale, 1));
+        }, pool);
+    }
+
+    // Copies of the shapes that later edits on the board cannot reach; call on the board thread.
+    static List<DrawingActions> snapshot(List<DrawingActions> shapes) {
+        List<DrawingActions> copies = new ArrayList<>(shapes.size());
+        try {
+            for (DrawingActions shape : shapes) {
+                DrawingActions copy = (DrawingActions) shape.clone();
+                copy.isSelected = false;
+                copies.add(copy);
+            }
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        return copies;
+    }
+
+    /**
+     * Rasterizes the given world area; blocks until every tile is done.
+     * The shapes must not change while this runs.
+     */
+    BufferedImage render(List<DrawingActions> shapes, double minX, double minY, double maxX, double maxY, double scale) {
+        int width = (int) Math.ceil((maxX - minX) * scale);
+        int height = (int) Math.ceil((maxY - minY) * scale);
+        if (width <= 0 || height <= 0 || (long) width * height > MAX_PIXELS) {
+            throw new IllegalArgumentException("Cannot render a " + width + "x" + height + " image");
+        }
+        SpatialIndex index = new SpatialIndex();
+        index.rebuild(shapes);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        pool.invoke(new TileTask(new Job(index, image, minX, minY, scale, tilePixels), 0, 0, width, height));
+        return image;
+    }
+
+    static void writePng(BufferedImage image, Path file) throws IOException {
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), "export", ".png.tmp");
+        try {
+            if (!ImageIO.write(image, "png", temp.toFile())) {
+                throw new IOException("No PNG writer available");
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // minX, minY, maxX, maxY of everything on the board plus a margin.
+    static double[] bounds(List<DrawingActions> shapes) {
+        if (shapes.isEmpty()) {
+            return new double[]{0, 0, MARGIN, MARGIN};
+        }
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (DrawingActions shape : shapes) {
+            minX = Math.min(minX, shape.left);
+            minY = Math.min(minY, shape.top);
+            maxX = Math.max(maxX, shape.right);
+            maxY = Math.max(maxY, shape.bottom);
+        }
+        return new double[]{minX - MARGIN, minY - MARGIN, maxX + MARGIN, maxY + MARGIN};
+    }
+
+    private record Job(SpatialIndex index, BufferedImage image, double minX, double minY, double scale, int tilePixels) {
+    }
+
+    // Splits its pixel area in half, on tile edges, until it is a single tile, then draws that tile.
+    private static final class TileTask extends RecursiveAction {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        // tasks only live for one render and are never serialized
+        private final transient Job job;
+        private final int x, y, width, height;
+
+        TileTask(Job job, int x, int y, int width, int height) {
+            this.job = job;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        protected void compute() {
+            int tile = job.tilePixels();
+            if (width > tile) {
+                int half = (width / 2 + tile - 1) / tile * tile;
+                invokeAll(new TileTask(job, x, y, half, height), new TileTask(job, x + half, y, width - half, height));
+            } else if (height > tile) {
+                int half = (height / 2 + tile - 1) / tile * tile;
+                invokeAll(new TileTask(job, x, y, width, half), new TileTask(job, x, y + half, width, height - half));
+            } else {
+                drawTile();
+            }
+        }
+
+        private void drawTile() {
+            BufferedImage tile = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = tile.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+                g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+                g.setColor(java.awt.Color.WHITE);
+                g.fillRect(0, 0, width, height);
+
+                double scale = job.scale();
+                AffineTransform toTile = new AffineTransform();
+                toTile.translate(-x, -y);
+                toTile.scale(scale, scale);
+                toTile.translate(-job.minX(), -job.minY());
+                g.transform(toTile);
+                Surface surface = new Java2DSurface(g);
+
+                double worldMinX = job.minX() + x / scale;
+                double worldMinY = job.minY() + y / scale;
+                double worldMaxX = job.minX() + (x + width) / scale;
+                double worldMaxY = job.minY() + (y + height) / scale;
+                for (DrawingActions shape : job.index().query(worldMinX - MARGIN, worldMinY - MARGIN,
+                        worldMaxX + MARGIN, worldMaxY + MARGIN)) {
+                    shape.draw(surface, scale);
+                }
+            } finally {
+                g.dispose();
+            }
+            // tiles cover disjoint pixels, so they can be copied in concurrently
+            job.image().getRaster().setDataElements(x, y, tile.getRaster());
+        }
+    }
+}
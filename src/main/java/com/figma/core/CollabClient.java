@@ -0,0 +1,109 @@
+package com.figma.core;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Client side of a collaboration session. One virtual thread reads frames
+ * from the host and another drains the send queue, so {@link #send} never
+ * blocks the FX thread on the network.
+ */
+final class CollabClient implements Closeable {
+    interface Listener {
+        void frameReceived(byte[] payload);
+        void disconnected(IOException cause);
+    }
+
+    private static final ByteBuffer POISON = ByteBuffer.allocate(0);
+
+    private final SocketChannel channel;
+    private final Listener listener;
+    private final BlockingQueue<ByteBuffer> outbound = new LinkedBlockingQueue<>();
+    private volatile boolean closed;
+
+    CollabClient(InetSocketAddress host, Listener listener) throws IOException {
+        this.listener = listener;
+        this.channel = SocketChannel.open(host);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Thread.ofVirtual().name("collab-client-reader").start(this::readLoop);
+        Thread.ofVirtual().name("collab-client-writer").start(this::writeLoop);
+    }
+
+    void send(byte[] payload) {
+        if (!closed) {
+            outbound.add(CollabHost.frame(payload));
+        }
+    }
+
+    boolean isConnected() {
+        return !closed && channel.isConnected();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        outbound.add(POISON);
+        channel.close();
+    }
+
+    private void readLoop() {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        IOException cause = null;
+        try {
+            while (!closed) {
+                header.clear();
+                readFully(header);
+                int length = header.flip().getInt();
+                if (length < 0 || length > CollabHost.MAX_FRAME_SIZE) {
+                    throw new IOException("Bad frame length " + length);
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                readFully(payload);
+                listener.frameReceived(payload.array());
+            }
+        } catch (IOException e) {
+            cause = e;
+        } finally {
+            boolean wasOpen = !closed;
+            try {
+                close();
+            } catch (IOException ignored) {
+            }
+            if (wasOpen) {
+                listener.disconnected(cause);
+            }
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                ByteBuffer frame = outbound.take();
+                if (frame == POISON) return;
+                while (frame.hasRemaining()) {
+                    channel.write(frame);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // the reader sees the same failure and reports it
+        }
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Host closed the connection");
+            }
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package com.figma.core;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Host side of a collaboration session, on virtual threads: one accepts
+ * clients, and every client gets one reading its frames and one writing
+ * its outbound queue, so a slow client only ever holds up itself.
+ *
+ * A client's queue holds at most {@link #maxQueuedBytes} besides the board
+ * snapshot it was admitted with. A frame sent with a {@link Coalescable}
+ * takes the place of the one for the same thing still waiting, so a burst
+ * of moves reaches a slow client as the last position only. A client that
+ * falls behind anyway is dealt with by the {@link SlowClientPolicy}; one
+ * whose socket takes nothing for {@link #stallMillis} is disconnected.
+ *
+ * {@link #broadcast}, {@link #sendTo}, {@link #admit} and {@link #refuse}
+ * may be called from any thread and never block on the network; frames
+ * reach every client in call order.
+ */
+final class CollabHost implements Closeable {
+    private static final Log.Logger LOG = Log.get(CollabHost.class);
+    static final int MAX_FRAME_SIZE = 64 << 20;
+    static final long MAX_QUEUED_BYTES = 8 << 20;
+    static final long STALL_MILLIS = 10_000;
+    // most frames handed to the socket in one write
+    private static final int WRITE_BATCH = 64;
+    // kept small so a client that does not read shows up in its queue rather than hiding in the kernel
+    private static final int SEND_BUFFER_SIZE = 256 << 10;
+
+    interface Listener {
+        // A client connected; it receives no broadcasts until it is admitted.
+        void clientConnected(int clientId);
+        // Called on the client's reader thread.
+        void frameReceived(int clientId, byte[] payload);
+        // The client's queue was dropped under SlowClientPolicy.RESYNC; admit it again with the current board.
+        // Called with the host's lock held, so hand the work to another thread.
+        void clientFellBehind(int clientId);
+        void clientDisconnected(int clientId);
+    }
+
+    /**
+     * What a frame writes, for frames that only matter until a newer write
+     * of the same thing: frames with equal keys write the same thing.
+     */
+    interface Coalescable {
+        Object key();
+
+        // Whether this makes the other, sent before it with the same key, pointless.
+        boolean supersedes(Coalescable earlier);
+    }
+
+    // What happens to a client whose queue overflows.
+    enum SlowClientPolicy {
+        DISCONNECT,
+        // drop its queue and send it the board again, it is disconnected if it falls behind again before catching up
+        RESYNC
+    }
+
+    private final Listener listener;
+    private final SlowClientPolicy policy;
+    private final long maxQueuedBytes;
+    private final long stallMillis;
+    private final ServerSocketChannel server;
+    private final Thread acceptor;
+    // guards the peers and their queues
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Integer, Peer> peers = new HashMap<>();
+    private int nextClientId = 1;
+    private volatile boolean running = true;
+    private volatile int clientCount;
+
+    CollabHost(InetSocketAddress address, Listener listener) throws IOException {
+        this(address, listener, SlowClientPolicy.RESYNC, MAX_QUEUED_BYTES, STALL_MILLIS);
+    }
+
+    CollabHost(InetSocketAddress address, Listener listener, SlowClientPolicy policy,
+               long maxQueuedBytes, long stallMillis) throws IOException {
+        this.listener = listener;
+        this.policy = policy;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.stallMillis = stallMillis;
+        this.server = ServerSocketChannel.open();
+        server.bind(address);
+        acceptor = Thread.ofVirtual().name("collab-host-acceptor").start(this::acceptLoop);
+    }
+
+    int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    int getClientCount() {
+        return clientCount;
+    }
+
+    // Sends to every admitted client.
+    void broadcast(byte[] payload) {
+        broadcastExcept(0, payload, null);
+    }
+
+    void broadcast(byte[] payload, Coalescable update) {
+        broadcastExcept(0, payload, update);
+    }
+
+    // Sends to every admitted client except the one the frame came from.
+    void broadcastExcept(int originClientId, byte[] payload, Coalescable update) {
+        ByteBuffer frame = frame(payload);
+        lock.lock();
+        try {
+            for (Peer peer : List.copyOf(peers.values())) {
+                if (peer.admitted && peer.id != originClientId) {
+                    peer.enqueue(frame.duplicate(), update, false);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void sendTo(int clientId, byte[] payload) {
+        ByteBuffer frame = frame(payload);
+        lock.lock();
+        try {
+            Peer peer = peers.get(clientId);
+            if (peer != null) peer.enqueue(frame, null, false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Sends the client one last frame, nothing after it, and disconnects it once that is out.
+    void refuse(int clientId, byte[] payload) {
+        ByteBuffer frame = frame(payload);
+        lock.lock();
+        try {
+            Peer peer = peers.get(clientId);
+            if (peer == null) return;
+            peer.enqueue(frame, null, false);
+            peer.admitted = false;
+            peer.closing = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Queues the initial state for a new client and lets broadcasts through from then on.
+    void admit(int clientId, List<byte[]> initialPayloads) {
+        List<ByteBuffer> frames = initialPayloads.stream().map(CollabHost::frame).toList();
+        lock.lock();
+        try {
+            Peer peer = peers.get(clientId);
+            if (peer == null) return;
+            for (ByteBuffer frame : frames) {
+                peer.enqueue(frame, null, true);
+            }
+            peer.admitted = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        server.close();
+        try {
+            acceptor.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Peer> all;
+        lock.lock();
+        try {
+            all = new ArrayList<>(peers.values());
+        } finally {
+            lock.unlock();
+        }
+        for (Peer peer : all) {
+            disconnect(peer);
+        }
+    }
+
+    static ByteBuffer frame(byte[] payload) {
+        ByteBuffer frame = ByteBuffer.allocate(4 + payload.length);
+        frame.putInt(payload.length).put(payload).flip();
+        return frame;
+    }
+
+    private void acceptLoop() {
+        try {
+            while (running) {
+                SocketChannel channel = server.accept();
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.setOption(StandardSocketOptions.SO_SNDBUF, SEND_BUFFER_SIZE);
+                Peer peer;
+                lock.lock();
+                try {
+                    peer = new Peer(nextClientId++, channel);
+                    peers.put(peer.id, peer);
+                    clientCount = peers.size();
+                } finally {
+                    lock.unlock();
+                }
+                listener.clientConnected(peer.id);
+                Thread.ofVirtual().name("collab-host-reader-" + peer.id).start(peer::readLoop);
+                Thread.ofVirtual().name("collab-host-writer-" + peer.id).start(peer::writeLoop);
+            }
+        } catch (IOException e) {
+            if (running) LOG.error("Collaboration host stopped", e);
+        }
+    }
+
+    private void disconnect(Peer peer) {
+        lock.lock();
+        try {
+            if (peers.remove(peer.id) == null) return;
+            clientCount = peers.size();
+            peer.closed = true;
+            peer.queue.clear();
+            peer.ready.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            peer.channel.close();
+        } catch (IOException ignored) {
+        }
+        listener.clientDisconnected(peer.id);
+    }
+
+    // A frame waiting for a client; coalescing swaps the frame for a newer one in place.
+    private static final class Outbound {
+        ByteBuffer frame;
+        Coalescable update;
+        final boolean snapshot;
+
+        Outbound(ByteBuffer frame, Coalescable update, boolean snapshot) {
+            this.frame = frame;
+            this.update = update;
+            this.snapshot = snapshot;
+        }
+    }
+
+    private final class Peer {
+        final int id;
+        final SocketChannel channel;
+        final Condition ready = lock.newCondition();
+        // the rest is guarded by lock
+        final ArrayDeque<Outbound> queue = new ArrayDeque<>();
+        // queued frames that may still be coalesced, by key
+        final Map<Object, Outbound> coalescing = new HashMap<>();
+        long queuedBytes;
+        // part of queuedBytes that is the snapshot it was admitted with, which does not count against the limit
+        long snapshotBytes;
+        boolean admitted;
+        boolean resyncing;
+        // refused, disconnected once the queue is out
+        boolean closing;
+        boolean closed;
+        // when the write in progress started, 0 if there is none
+        volatile long writeStartedNanos;
+
+        Peer(int id, SocketChannel channel) {
+            this.id = id;
+            this.channel = channel;
+        }
+
+        // With the lock held.
+        void enqueue(ByteBuffer frame, Coalescable update, boolean snapshot) {
+            if (closed || closing) return;
+            if (update != null) {
+                Outbound queued = coalescing.get(update.key());
+                if (queued != null) {
+                    // the older of the two is pointless, and so is an out of date one arriving late
+                    if (update.supersedes(queued.update)) {
+                        queuedBytes += frame.remaining() - queued.frame.remaining();
+                        queued.frame = frame;
+                        queued.update = update;
+                    }
+                    return;
+                }
+            }
+            Outbound out = new Outbound(frame, update, snapshot);
+            queue.add(out);
+            if (update != null) coalescing.put(update.key(), out);
+            queuedBytes += frame.remaining();
+            if (snapshot) snapshotBytes += frame.remaining();
+            ready.signal();
+            long started = writeStartedNanos;
+            if (started != 0 && System.nanoTime() - started > TimeUnit.MILLISECONDS.toNanos(stallMillis)) {
+                LOG.warn("Client " + id + " has not taken any data for " + stallMillis + " ms, disconnecting");
+                disconnect(this);
+            } else if (queuedBytes - snapshotBytes > maxQueuedBytes) {
+                fellBehind();
+            }
+        }
+
+        // With the lock held.
+        private void fellBehind() {
+            if (policy == SlowClientPolicy.DISCONNECT || resyncing) {
+                LOG.warn("Client " + id + " fell " + (queuedBytes - snapshotBytes) + " bytes behind, disconnecting");
+                disconnect(this);
+                return;
+            }
+            LOG.warn("Client " + id + " fell " + queuedBytes + " bytes behind, sending it the board again");
+            queue.clear();
+            coalescing.clear();
+            queuedBytes = 0;
+            snapshotBytes = 0;
+            admitted = false;
+            resyncing = true;
+            listener.clientFellBehind(id);
+        }
+
+        void writeLoop() {
+            ByteBuffer[] batch = new ByteBuffer[WRITE_BATCH];
+            try {
+                while (true) {
+                    int count = 0;
+                    lock.lock();
+                    try {
+                        while (queue.isEmpty() && !closed) {
+                            ready.await();
+                        }
+                        if (closed) return;
+                        while (count < batch.length && !queue.isEmpty()) {
+                            Outbound out = queue.poll();
+                            if (out.update != null) coalescing.remove(out.update.key(), out);
+                            queuedBytes -= out.frame.remaining();
+                            if (out.snapshot) snapshotBytes -= out.frame.remaining();
+                            batch[count++] = out.frame;
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                    writeStartedNanos = System.nanoTime();
+                    while (batch[count - 1].hasRemaining()) {
+                        channel.write(batch, 0, count);
+                    }
+                    writeStartedNanos = 0;
+                    Arrays.fill(batch, 0, count, null);
+                    lock.lock();
+                    try {
+                        // the board it was sent again is out, it has caught up
+                        if (resyncing && admitted && snapshotBytes == 0) resyncing = false;
+                        if (closing && queue.isEmpty()) break;
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                // the reader sees the same failure, or the client was disconnected
+            }
+            disconnect(this);
+        }
+
+        void readLoop() {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            try {
+                while (true) {
+                    header.clear();
+                    readFully(header);
+                    int length = header.flip().getInt();
+                    if (length < 0 || length > MAX_FRAME_SIZE) {
+                        throw new IOException("Bad frame length " + length + " from client " + id);
+                    }
+                    ByteBuffer payload = ByteBuffer.allocate(length);
+                    readFully(payload);
+                    listener.frameReceived(id, payload.array());
+                }
+            } catch (IOException e) {
+                disconnect(this);
+            }
+        }
+
+        private void readFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Client " + id + " closed the connection");
+                }
+            }
+        }
+    }
+}
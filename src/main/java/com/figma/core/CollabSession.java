@@ -0,0 +1,383 @@
+package com.figma.core;
+
+import javafx.application.Platform;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Connects a {@link Whiteboard} to a collaboration session, either as the
+ * host or as a client. Local edits are encoded and sent as they happen;
+ * remote edits are decoded on the network thread and applied through the
+ * board executor (the FX thread in the app).
+ *
+ * The host applies every client edit itself before forwarding it, so all
+ * board changes and new-client snapshots are ordered on one thread. Pen
+ * strokes are streamed while they are drawn through a {@link StrokeCoalescer}
+ * and replaced by the finished shape on release.
+ *
+ * A client joins with the snapshot it got part of, if any, and reconnects on
+ * its own when the connection drops, so it only asks for the chunks it is
+ * missing; see {@link SnapshotSync}. Joins go both ways: right after each
+ * JOIN the client sends its own replicated state, which the host merges
+ * like any other edits. That brings the host what the client had before
+ * it joined, and whatever it did while it was away or sent on a
+ * connection that then dropped, at the cost of sending its board up once
+ * per connection. A host of another protocol version refuses it up front,
+ * and it stays disconnected.
+ */
+public final class CollabSession implements BoardListener, Closeable {
+    private static final Log.Logger LOG = Log.get(CollabSession.class);
+    private static final int RECONNECT_ATTEMPTS = 5;
+    private static final long RECONNECT_DELAY_MILLIS = 500;
+
+    private final Whiteboard whiteboard;
+    private final Executor boardExecutor;
+    private CollabHost host;
+    private SnapshotSync sync;
+    private InetSocketAddress hostAddress;
+    private volatile CollabClient client;
+    // the snapshot this client is receiving and the chunk it needs next
+    private volatile long snapshotId;
+    private volatile int nextChunk;
+    private volatile boolean closed;
+    // by a host of another protocol version
+    private volatile boolean refused;
+    private final StrokeCoalescer coalescer = new StrokeCoalescer(this::send);
+
+    private CollabSession(Whiteboard whiteboard, Executor boardExecutor) {
+        this.whiteboard = whiteboard;
+        this.boardExecutor = boardExecutor;
+    }
+
+    public static CollabSession host(Whiteboard whiteboard, int port) throws IOException {
+        return host(whiteboard, new InetSocketAddress(port), Platform::runLater);
+    }
+
+    public static CollabSession join(Whiteboard whiteboard, String address, int port) throws IOException {
+        return join(whiteboard, new InetSocketAddress(address, port), Platform::runLater);
+    }
+
+    static CollabSession host(Whiteboard whiteboard, InetSocketAddress address, Executor boardExecutor) throws IOException {
+        return host(whiteboard, address, boardExecutor, CollabHost.MAX_QUEUED_BYTES, CollabHost.STALL_MILLIS);
+    }
+
+    // Holds slow clients to the given limits, see CollabHost.
+    static CollabSession host(Whiteboard whiteboard, InetSocketAddress address, Executor boardExecutor,
+                              long maxQueuedBytes, long stallMillis) throws IOException {
+        CollabSession session = new CollabSession(whiteboard, boardExecutor);
+        session.host = new CollabHost(address, session.new HostListener(), CollabHost.SlowClientPolicy.RESYNC,
+                maxQueuedBytes, stallMillis);
+        session.sync = new SnapshotSync(whiteboard, session.host, boardExecutor);
+        whiteboard.addBoardListener(session);
+        return session;
+    }
+
+    static CollabSession join(Whiteboard whiteboard, InetSocketAddress address, Executor boardExecutor) throws IOException {
+        CollabSession session = new CollabSession(whiteboard, boardExecutor);
+        session.hostAddress = address;
+        session.connect();
+        whiteboard.addBoardListener(session);
+        return session;
+    }
+
+    public boolean isHost() {
+        return host != null;
+    }
+
+    // Port the host listens on, useful when it was bound to port 0.
+    public int getPort() {
+        return host != null ? host.getPort() : -1;
+    }
+
+    // Clients connected to this host, 0 on a client.
+    public int getClientCount() {
+        return host != null ? host.getClientCount() : 0;
+    }
+
+    @Override
+    public void strokeSampled(DrawingActions stroke, double x, double y) {
+        coalescer.sample(stroke, x, y);
+    }
+
+    @Override
+    public void shapeAdded(DrawingActions shape) {
+        coalescer.finish(shape.id);
+        send(Operation.add(whiteboard.getReplica().entry(shape.id)));
+    }
+
+    @Override
+    public void shapesAdded(List<DrawingActions> shapes) {
+        List<Operation> ops = new ArrayList<>(shapes.size());
+        for (DrawingActions shape : shapes) {
+            ops.add(Operation.add(whiteboard.getReplica().entry(shape.id)));
+        }
+        sendAll(ops);
+    }
+
+    @Override
+    public void shapesRemoved(List<DrawingActions> shapes) {
+        List<Operation> ops = new ArrayList<>(shapes.size());
+        for (DrawingActions shape : shapes) {
+            ops.add(Operation.remove(whiteboard.getReplica().entry(shape.id)));
+        }
+        sendAll(ops);
+    }
+
+    @Override
+    public void shapeRemoved(DrawingActions shape) {
+        send(Operation.remove(whiteboard.getReplica().entry(shape.id)));
+    }
+
+    @Override
+    public void shapeMoved(DrawingActions shape, double deltaX, double deltaY) {
+        send(Operation.move(whiteboard.getReplica().entry(shape.id)));
+    }
+
+    @Override
+    public void shapeRestyled(DrawingActions shape) {
+        send(Operation.restyle(whiteboard.getReplica().entry(shape.id)));
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        whiteboard.removeBoardListener(this);
+        coalescer.close();
+        if (host != null) host.close();
+        if (client != null) client.close();
+    }
+
+    private void send(Operation op) {
+        send(List.of(op));
+    }
+
+    // In frames of a snapshot chunk's worth of shapes, as many as there are.
+    private void sendAll(List<Operation> ops) {
+        for (int from = 0; from < ops.size(); from += SnapshotSync.CHUNK_SHAPES) {
+            send(ops.subList(from, Math.min(from + SnapshotSync.CHUNK_SHAPES, ops.size())));
+        }
+    }
+
+    private void send(List<Operation> ops) {
+        byte[] message = SnapshotSync.opsMessage(OpEncoder.encode(ops));
+        if (host != null) {
+            host.broadcast(message, RegisterWrite.of(ops));
+            // live strokes come from the coalescer's thread, and a joining client has no use for them
+            if (isReplicated(ops)) sync.broadcast(message);
+        } else {
+            client.send(message);
+        }
+    }
+
+    private void connect() throws IOException {
+        CollabClient connected = new CollabClient(hostAddress, new ClientListener());
+        connected.send(SnapshotSync.joinMessage(snapshotId, nextChunk));
+        client = connected;
+        // closed while reconnecting
+        if (closed) {
+            connected.close();
+            return;
+        }
+        // whatever this board has that the host may not; it takes what it lacks and ignores the rest
+        boardExecutor.execute(() -> sendAll(whiteboard.replicatedState()));
+    }
+
+    private void reconnect() {
+        for (int attempt = 1; attempt <= RECONNECT_ATTEMPTS && !closed; attempt++) {
+            try {
+                Thread.sleep(RECONNECT_DELAY_MILLIS * attempt);
+                connect();
+                LOG.info(() -> "Reconnected to host");
+                return;
+            } catch (IOException e) {
+                LOG.warn("Reconnecting to host failed: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (!closed) LOG.warn("Gave up reconnecting to host");
+    }
+
+    // Whether the ops change the board rather than stream a stroke still being drawn.
+    private static boolean isReplicated(List<Operation> ops) {
+        for (Operation op : ops) {
+            if (!op.isPreview()) return true;
+        }
+        return false;
+    }
+
+    private List<Operation> decode(ByteBuffer frame) {
+        try {
+            return OpDecoder.decode(frame);
+        } catch (IOException e) {
+            LOG.warn("Dropping malformed frame: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * A move or restyle sets its register outright, so of the frames still
+     * queued for a client only the newest write of each register counts.
+     */
+    private record RegisterWrite(Operation.Kind kind, long shapeId, long stamp, int site)
+            implements CollabHost.Coalescable {
+        private record Key(Operation.Kind kind, long shapeId) {
+        }
+
+        // Null unless the frame is a single move or restyle.
+        static RegisterWrite of(List<Operation> ops) {
+            if (ops.size() != 1) return null;
+            Operation op = ops.get(0);
+            if (op.kind != Operation.Kind.MOVE && op.kind != Operation.Kind.RESTYLE) return null;
+            return new RegisterWrite(op.kind, op.shapeId, op.stamp, op.site);
+        }
+
+        @Override
+        public Object key() {
+            return new Key(kind, shapeId);
+        }
+
+        @Override
+        public boolean supersedes(CollabHost.Coalescable earlier) {
+            RegisterWrite other = (RegisterWrite) earlier;
+            return Replica.newer(stamp, site, other.stamp, other.site);
+        }
+    }
+
+    private final class HostListener implements CollabHost.Listener {
+        // clients that joined with this host's protocol version, the only ones whose edits are read
+        private final Set<Integer> joined = ConcurrentHashMap.newKeySet();
+        // the site of each client that has streamed a stroke, whose unfinished strokes go when it leaves
+        private final Map<Integer, Integer> sites = new ConcurrentHashMap<>();
+
+        @Override
+        public void clientConnected(int clientId) {
+            LOG.info(() -> "Client " + clientId + " connected");
+        }
+
+        @Override
+        public void frameReceived(int clientId, byte[] payload) {
+            ByteBuffer in = ByteBuffer.wrap(payload);
+            if (!in.hasRemaining()) return;
+            switch (in.get()) {
+                case WireFormat.MESSAGE_OPS -> {
+                    if (!joined.contains(clientId)) return;
+                    List<Operation> ops = decode(in);
+                    if (ops == null) return;
+                    for (Operation op : ops) {
+                        // ids carry the site that made them in the high bits
+                        if (op.kind == Operation.Kind.STROKE_BEGIN) sites.put(clientId, (int) (op.shapeId >>> 32));
+                    }
+                    RegisterWrite update = RegisterWrite.of(ops);
+                    boolean replicated = isReplicated(ops);
+                    boardExecutor.execute(() -> {
+                        whiteboard.applyOperations(ops);
+                        host.broadcastExcept(clientId, payload, update);
+                        if (replicated) sync.broadcast(payload);
+                    });
+                }
+                case WireFormat.MESSAGE_JOIN -> {
+                    short version = in.remaining() >= 2 ? in.getShort() : 0;
+                    if (version != WireFormat.VERSION) {
+                        LOG.warn("Refusing client " + clientId + " of protocol version " + version
+                                + ", this host speaks " + WireFormat.VERSION);
+                        host.refuse(clientId, SnapshotSync.refuseMessage());
+                        return;
+                    }
+                    if (in.remaining() < 12) {
+                        LOG.warn("Dropping malformed join from client " + clientId);
+                        return;
+                    }
+                    joined.add(clientId);
+                    long snapshot = in.getLong();
+                    int next = in.getInt();
+                    boardExecutor.execute(() -> sync.join(clientId, snapshot, next));
+                }
+                default -> LOG.warn("Dropping message of unknown type from client " + clientId);
+            }
+        }
+
+        @Override
+        public void clientFellBehind(int clientId) {
+            boardExecutor.execute(() -> sync.join(clientId, 0, 0));
+        }
+
+        @Override
+        public void clientDisconnected(int clientId) {
+            joined.remove(clientId);
+            Integer site = sites.remove(clientId);
+            boardExecutor.execute(() -> {
+                sync.clientLeft(clientId);
+                if (site == null) return;
+                // strokes it was drawing will not be finished, on this board or the others
+                List<Operation> cancels = new ArrayList<>();
+                for (long id : whiteboard.dropPreviews(site)) {
+                    cancels.add(Operation.strokeCancel(id));
+                }
+                if (!cancels.isEmpty()) send(cancels);
+            });
+            LOG.info(() -> "Client " + clientId + " left");
+        }
+    }
+
+    private final class ClientListener implements CollabClient.Listener {
+        @Override
+        public void frameReceived(byte[] payload) {
+            ByteBuffer in = ByteBuffer.wrap(payload);
+            if (!in.hasRemaining()) return;
+            List<Operation> ops;
+            switch (in.get()) {
+                case WireFormat.MESSAGE_OPS -> ops = decode(in);
+                case WireFormat.MESSAGE_CHUNK -> ops = chunk(in);
+                case WireFormat.MESSAGE_REFUSE -> {
+                    refused = true;
+                    short version = in.remaining() >= 2 ? in.getShort() : 0;
+                    LOG.warn("Not joining, the host speaks protocol version " + version + " and this board "
+                            + WireFormat.VERSION);
+                    return;
+                }
+                default -> {
+                    LOG.warn("Dropping message of unknown type from host");
+                    return;
+                }
+            }
+            if (ops != null) {
+                boardExecutor.execute(() -> whiteboard.applyOperations(ops));
+            }
+        }
+
+        private List<Operation> chunk(ByteBuffer in) {
+            try {
+                long id = in.getLong();
+                int index = in.getInt();
+                in.getInt();
+                List<Operation> ops = OpDecoder.decode(SnapshotSync.inflate(in, in.getInt()));
+                // chunks arrive in order, a different snapshot starts over
+                snapshotId = id;
+                nextChunk = index + 1;
+                return ops;
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Dropping malformed snapshot chunk: " + e.getMessage());
+                return null;
+            }
+        }
+
+        @Override
+        public void disconnected(IOException cause) {
+            LOG.info(() -> "Disconnected from host" + (cause != null ? ": " + cause.getMessage() : ""));
+            // no ADD or cancel will come for the strokes others were drawing
+            boardExecutor.execute(whiteboard::dropPreviews);
+            if (!closed && !refused) Thread.ofVirtual().name("collab-reconnect").start(CollabSession.this::reconnect);
+        }
+    }
+}
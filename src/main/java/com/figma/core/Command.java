@@ -0,0 +1,216 @@
+package com.figma.core;
+
+import javafx.scene.paint.Color;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A reversible edit on the whiteboard. Commands keep only the data needed
+ * to redo and undo themselves, never a copy of the board.
+ */
+abstract class Command {
+    final Whiteboard board;
+
+    Command(Whiteboard board) {
+        this.board = board;
+    }
+
+    abstract void execute();
+    abstract void undo();
+
+    // Folds a following command into this one; returns false if they cannot be combined.
+    boolean mergeWith(Command next) {
+        return false;
+    }
+
+    // The very same shapes in the same order; copies of a shape do not count.
+    static boolean sameShapes(List<DrawingActions> a, List<DrawingActions> b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) return false;
+        }
+        return true;
+    }
+}
+
+class AddCommand extends Command {
+    private final DrawingActions shape;
+    private boolean added;
+
+    AddCommand(Whiteboard board, DrawingActions shape) {
+        super(board);
+        this.shape = shape;
+    }
+
+    @Override
+    void execute() {
+        if (added) {
+            board.insertAction(shape);
+        } else {
+            board.addAction(shape);
+            added = true;
+        }
+    }
+
+    @Override
+    void undo() {
+        board.removeAction(shape);
+    }
+}
+
+class DeleteCommand extends Command {
+    private final List<DrawingActions> shapes;
+
+    DeleteCommand(Whiteboard board, DrawingActions shape) {
+        this(board, List.of(shape));
+    }
+
+    DeleteCommand(Whiteboard board, List<DrawingActions> shapes) {
+        super(board);
+        this.shapes = shapes;
+    }
+
+    @Override
+    void execute() {
+        shapes.forEach(board::removeAction);
+    }
+
+    @Override
+    void undo() {
+        // the shapes keep their zOrder, so they go back to the same depth
+        shapes.forEach(board::insertAction);
+    }
+}
+
+// Moves shapes together; the drag events of one gesture over the same shapes merge into one step.
+class MoveCommand extends Command {
+    private final List<DrawingActions> shapes;
+    private double deltaX, deltaY;
+
+    MoveCommand(Whiteboard board, DrawingActions shape, double deltaX, double deltaY) {
+        this(board, List.of(shape), deltaX, deltaY);
+    }
+
+    MoveCommand(Whiteboard board, List<DrawingActions> shapes, double deltaX, double deltaY) {
+        super(board);
+        this.shapes = shapes;
+        this.deltaX = deltaX;
+        this.deltaY = deltaY;
+    }
+
+    @Override
+    void execute() {
+        for (DrawingActions shape : shapes) {
+            board.moveAction(shape, deltaX, deltaY);
+        }
+    }
+
+    @Override
+    void undo() {
+        for (DrawingActions shape : shapes) {
+            board.moveAction(shape, -deltaX, -deltaY);
+        }
+    }
+
+    @Override
+    boolean mergeWith(Command next) {
+        if (next instanceof MoveCommand move && sameShapes(shapes, move.shapes)) {
+            deltaX += move.deltaX;
+            deltaY += move.deltaY;
+            return true;
+        }
+        return false;
+    }
+}
+
+// Gives each shape its own new colour and stroke width, e.g. a new colour that keeps every shape's width.
+class RestyleCommand extends Command {
+    private final List<DrawingActions> shapes;
+    private final Color[] oldColors;
+    private final double[] oldStrokeWidths;
+    private Color[] newColors;
+    private double[] newStrokeWidths;
+
+    RestyleCommand(Whiteboard board, DrawingActions shape, Color newColor, double newStrokeWidth) {
+        this(board, List.of(shape), new Color[]{newColor}, new double[]{newStrokeWidth});
+    }
+
+    RestyleCommand(Whiteboard board, List<DrawingActions> shapes, Color[] newColors, double[] newStrokeWidths) {
+        super(board);
+        this.shapes = shapes;
+        this.oldColors = new Color[shapes.size()];
+        this.oldStrokeWidths = new double[shapes.size()];
+        for (int i = 0; i < shapes.size(); i++) {
+            oldColors[i] = shapes.get(i).style.color();
+            oldStrokeWidths[i] = shapes.get(i).style.strokeWidth();
+        }
+        this.newColors = newColors;
+        this.newStrokeWidths = newStrokeWidths;
+    }
+
+    @Override
+    void execute() {
+        for (int i = 0; i < shapes.size(); i++) {
+            board.restyleAction(shapes.get(i), newColors[i], newStrokeWidths[i]);
+        }
+    }
+
+    @Override
+    void undo() {
+        for (int i = 0; i < shapes.size(); i++) {
+            board.restyleAction(shapes.get(i), oldColors[i], oldStrokeWidths[i]);
+        }
+    }
+
+    @Override
+    boolean mergeWith(Command next) {
+        if (next instanceof RestyleCommand restyle && sameShapes(shapes, restyle.shapes)) {
+            newColors = restyle.newColors;
+            newStrokeWidths = restyle.newStrokeWidths;
+            return true;
+        }
+        return false;
+    }
+}
+
+// Erased shapes and the pieces left of erased pen strokes; one eraser gesture is one step.
+class EraseCommand extends Command {
+    private record Erasure(DrawingActions shape, List<? extends DrawingActions> pieces) {
+    }
+
+    private final List<Erasure> erasures = new ArrayList<>();
+
+    EraseCommand(Whiteboard board, DrawingActions shape, List<? extends DrawingActions> pieces) {
+        super(board);
+        erasures.add(new Erasure(shape, pieces));
+    }
+
+    @Override
+    void execute() {
+        for (Erasure erasure : erasures) {
+            board.removeAction(erasure.shape);
+            // the pieces carry their id and depth, so they go in like restored shapes
+            erasure.pieces.forEach(board::insertAction);
+        }
+    }
+
+    @Override
+    void undo() {
+        // a later erasure may have cut up a piece of an earlier one
+        for (int i = erasures.size() - 1; i >= 0; i--) {
+            Erasure erasure = erasures.get(i);
+            erasure.pieces.forEach(board::removeAction);
+            board.insertAction(erasure.shape);
+        }
+    }
+
+    @Override
+    boolean mergeWith(Command next) {
+        if (next instanceof EraseCommand erase) {
+            erasures.addAll(erase.erasures);
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,89 @@
+package com.figma.core;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Undo/redo stacks of {@link Command}s. Each step only replays the inverse
+ * of one edit, so undo and redo cost the same on any board size.
+ * Consecutive commands of a gesture (e.g. every drag event of a move) are
+ * merged into one step until {@link #seal()} is called.
+ */
+public class CommandManager {
+    static final int DEFAULT_MAX_DEPTH = 1000;
+
+    private final Deque<Command> undoStack = new ArrayDeque<>();
+    private final Deque<Command> redoStack = new ArrayDeque<>();
+    private final int maxDepth;
+    private boolean sealed = true;
+
+    public CommandManager() {
+        this(DEFAULT_MAX_DEPTH);
+    }
+
+    public CommandManager(int maxDepth) {
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("History depth must be positive: " + maxDepth);
+        }
+        this.maxDepth = maxDepth;
+    }
+
+    void execute(Command command) {
+        command.execute();
+        record(command);
+    }
+
+    // Adds a command whose effect has already been applied.
+    void record(Command command) {
+        redoStack.clear();
+        if (!sealed && !undoStack.isEmpty() && undoStack.peek().mergeWith(command)) {
+            return;
+        }
+        undoStack.push(command);
+        if (undoStack.size() > maxDepth) {
+            undoStack.removeLast();
+        }
+        sealed = false;
+    }
+
+    // Ends the current gesture; the next command starts a new undo step.
+    public void seal() {
+        sealed = true;
+    }
+
+    public boolean undo() {
+        seal();
+        Command command = undoStack.poll();
+        if (command == null) return false;
+        command.undo();
+        redoStack.push(command);
+        return true;
+    }
+
+    public boolean redo() {
+        seal();
+        Command command = redoStack.poll();
+        if (command == null) return false;
+        command.execute();
+        undoStack.push(command);
+        return true;
+    }
+
+    public boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    public void clear() {
+        undoStack.clear();
+        redoStack.clear();
+        sealed = true;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+}
@@ -0,0 +1,98 @@
+package com.figma.core;
+
+/**
+ * Accumulates the screen areas that changed since the last repaint.
+ * Overlapping rectangles are merged, and past a small limit the ones so far
+ * are collapsed into one bounding box so a repaint never clips more than a
+ * handful of times.
+ */
+final class DirtyRegion {
+    static final int MAX_RECTS = 8;
+
+    // minX, minY, maxX, maxY per rectangle
+    private final double[] rects = new double[MAX_RECTS * 4];
+    private int count;
+
+    void add(double minX, double minY, double maxX, double maxY) {
+        if (!(maxX > minX) || !(maxY > minY)) return;
+        for (int i = 0; i < count; i++) {
+            int o = i * 4;
+            if (minX <= rects[o + 2] && maxX >= rects[o] && minY <= rects[o + 3] && maxY >= rects[o + 1]) {
+                // Grow the overlapping rectangle, then fold it back in since it may now touch others.
+                double nMinX = Math.min(minX, rects[o]);
+                double nMinY = Math.min(minY, rects[o + 1]);
+                double nMaxX = Math.max(maxX, rects[o + 2]);
+                double nMaxY = Math.max(maxY, rects[o + 3]);
+                removeAt(i);
+                add(nMinX, nMinY, nMaxX, nMaxY);
+                return;
+            }
+        }
+        if (count == MAX_RECTS) {
+            collapse();
+            add(minX, minY, maxX, maxY);
+            return;
+        }
+        int o = count * 4;
+        rects[o] = minX;
+        rects[o + 1] = minY;
+        rects[o + 2] = maxX;
+        rects[o + 3] = maxY;
+        count++;
+    }
+
+    // Marks a shape's selection bounds, grown by the given margin.
+    void add(DrawingActions action, double margin) {
+        add(action.left - margin, action.top - margin, action.right + margin, action.bottom + margin);
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    int size() {
+        return count;
+    }
+
+    double minX(int i) {
+        return rects[i * 4];
+    }
+
+    double minY(int i) {
+        return rects[i * 4 + 1];
+    }
+
+    double maxX(int i) {
+        return rects[i * 4 + 2];
+    }
+
+    double maxY(int i) {
+        return rects[i * 4 + 3];
+    }
+
+    void clear() {
+        count = 0;
+    }
+
+    private void removeAt(int i) {
+        int last = (count - 1) * 4;
+        System.arraycopy(rects, last, rects, i * 4, 4);
+        count--;
+    }
+
+    private void collapse() {
+        double minX = rects[0], minY = rects[1], maxX = rects[2], maxY = rects[3];
+        for (int i = 1; i < count; i++) {
+            int o = i * 4;
+            minX = Math.min(minX, rects[o]);
+            minY = Math.min(minY, rects[o + 1]);
+            maxX = Math.max(maxX, rects[o + 2]);
+            maxY = Math.max(maxY, rects[o + 3]);
+        }
+        count = 1;
+        rects[0] = minX;
+        rects[1] = minY;
+        rects[2] = maxX;
+        rects[3] = maxY;
+    }
+}
@@ -1,38 +1,53 @@
 package com.figma.core;
 
-import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
-import javafx.scene.shape.Rectangle;
+import javafx.scene.shape.StrokeLineCap;
+import javafx.scene.shape.StrokeLineJoin;
 import javafx.scene.text.Font;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 abstract public class DrawingActions implements Cloneable{
     DrawingTool tool;
-    Color color;
-    double strokeWidth;
-    Rectangle selectionBounds;
+    // shared with every shape of the same colour and width
+    ShapeStyle style;
+    // The selection bounds; plain fields rather than an object, a board holds millions of shapes.
+    double left, top, right, bottom;
     boolean isSelected;
+    // Stacking position, higher values are drawn on top.
+    long zOrder;
+    // Identifies the shape across collaborating boards, assigned when it is first added.
+    long id;
     DrawingActions(DrawingTool tool, Color color,double strokeWidth){
         this.tool = tool;
-        this.color = color;
-        this.strokeWidth = strokeWidth;
-        this.selectionBounds = new Rectangle();
+        this.style = ShapeStyle.of(color, strokeWidth);
         this.isSelected = false;
     }
 
+    void setBounds(double left, double top, double right, double bottom) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    void setStyle(Color color, double strokeWidth) {
+        style = ShapeStyle.of(color, strokeWidth);
+    }
+
+    // Same shape means same id; a shape that was never added (id 0) only equals itself.
     @Override
     public boolean equals(Object obj) {
         if (this == obj) return true;
-        if (obj == null || getClass() != obj.getClass()) return false;
-        DrawingActions that = (DrawingActions) obj;
+        if (!(obj instanceof DrawingActions that)) return false;
+        return id != 0 && id == that.id;
+    }
 
-        // Compare the selection bounds
-        return this.selectionBounds.getX() == that.selectionBounds.getX() &&
-                this.selectionBounds.getY() == that.selectionBounds.getY() &&
-                this.selectionBounds.getWidth() == that.selectionBounds.getWidth() &&
-                this.selectionBounds.getHeight() == that.selectionBounds.getHeight();
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id);
     }
 
     public Object clone() throws CloneNotSupportedException
@@ -40,82 +55,245 @@ abstract public class DrawingActions implements Cloneable{
         return super.clone();
     }
 
-    abstract void draw(GraphicsContext gc);
+    abstract void draw(Surface gc);
+
+    // Draws at a view scale; shapes that can be simplified when zoomed out override this.
+    void draw(Surface gc, double scale) {
+        draw(gc);
+    }
+
     abstract void setSelectionBound();
     abstract void move(double deltaX, double deltaY);
+
+    // Whether the shape is drawn within tolerance of the point.
+    boolean hits(double x, double y, double tolerance) {
+        return touches(x, y, x, y, tolerance);
+    }
+
+    // Whether the shape is drawn within radius of the segment from (ax, ay) to (bx, by).
+    boolean touches(double ax, double ay, double bx, double by, double radius) {
+        return SpatialIndex.boundsIntersect(this, Math.min(ax, bx) - radius, Math.min(ay, by) - radius,
+                Math.max(ax, bx) + radius, Math.max(ay, by) + radius);
+    }
 }
 class Pen extends DrawingActions {
-    List<Double> points;
+    // When zoomed out, vertices closer than this many screen pixels to the previous one are skipped.
+    static final double LOD_PIXELS = 1.5;
+    // relative to the offset below; read them through bakedPoints() where the true position matters
+    PointBuffer points;
+    // Moves only add up here and are applied when drawn, so dragging a stroke costs the same
+    // whatever its length; bakedPoints() folds them into the points once they are needed.
+    double offsetX, offsetY;
+    // A width per point as a fraction of the stroke width in 1/255 steps, null where the width is even.
+    // Replaced rather than changed, so copies may share it.
+    byte[] widths;
+    // Fits the samples while the stroke is drawn, which is drawn from the fitted points until finishFit().
+    StrokeFit fit;
+    // built on the first hit test after the points change
+    private SegmentTree segments;
+    // segments an eraser gesture under way went over, left undrawn until it cuts them out
+    boolean[] erased;
 
     Pen(DrawingTool tool, Color color, double strokeWidth) {
         super(tool, color, strokeWidth);
-        points = new ArrayList<Double>();
+        points = new PointBuffer();
     }
 
     @Override
     public Object clone() throws CloneNotSupportedException {
         Pen cloned = (Pen) super.clone();
-        cloned.points = new ArrayList<>(this.points);
-        cloned.color = this.color;
-        cloned.strokeWidth = this.strokeWidth;
+        cloned.points = new PointBuffer(this.points);
+        // the eraser gesture, the fitter and the hit-test tree belong to this stroke, not the copy
+        cloned.erased = null;
+        cloned.fit = null;
+        cloned.segments = null;
         return cloned;
     }
 
     @Override
-    void draw(GraphicsContext gc) {
+    void draw(Surface gc) {
+        draw(gc, 1);
+    }
+
+    @Override
+    void draw(Surface gc, double scale) {
         gc.save();
-        if (points.size() >= 4) {
-            gc.setStroke(color);
-            gc.setLineWidth(strokeWidth);
-            for (int i = 2; i < points.size(); i += 2) {
-                gc.strokeLine(points.get(i - 2), points.get(i - 1), points.get(i), points.get(i + 1));
-            }
+        StrokeFit fit = this.fit;
+        StrokeFit.Fitted fitted = fit != null ? fit.fitted() : null;
+        PointBuffer points = fitted != null ? fitted.points() : this.points;
+        if (points.pointCount() >= 2) {
+            gc.setStroke(style.color());
+            gc.setLineCap(StrokeLineCap.ROUND);
+            gc.setLineJoin(StrokeLineJoin.ROUND);
+            stroke(gc, scale, points, fitted != null ? fitted.widths() : widths, 0);
+            // the bounds are kept up to date by every change, no need to rescan the points here
             if(isSelected){
-                setSelectionBound();
                 gc.setStroke(Color.BLUE);
                 gc.setLineWidth(1.5);
-                gc.strokeRect(
-                        selectionBounds.getX() - 5,
-                        selectionBounds.getY() - 5,
-                        selectionBounds.getWidth() + 10,
-                        selectionBounds.getHeight() + 10
-                );
+                gc.strokeRect(left - 5, top - 5, right - left + 10, bottom - top + 10);
+            }
+        }
+        gc.restore();
+    }
+
+    /**
+     * Strokes the points from index from on, in the colour and caps already
+     * set: one path for the whole stroke instead of one draw call per
+     * segment, or one per run of segments of about the same width. When
+     * zoomed out, vertices closer than LOD_PIXELS on screen to the last one
+     * drawn are skipped.
+     */
+    void stroke(Surface gc, double scale, PointBuffer points, byte[] widths, int from) {
+        double ox = offsetX, oy = offsetY;
+        double minStepSq = scale >= 1 ? 0 : Math.pow(LOD_PIXELS / scale, 2);
+        int last = points.pointCount() - 1;
+        double px = points.x(from), py = points.y(from);
+        gc.beginPath();
+        gc.moveTo(px + ox, py + oy);
+        // a segment is as wide as its end, in 16 steps
+        int run = -1;
+        for (int i = from + 1; i <= last; i++) {
+            double x = points.x(i), y = points.y(i);
+            if (erased != null && erased[i - 1]) {
+                gc.moveTo(x + ox, y + oy);
+                px = x;
+                py = y;
+                continue;
+            }
+            // the last point is always drawn, so the stroke ends where it should
+            if (i < last && (x - px) * (x - px) + (y - py) * (y - py) < minStepSq) continue;
+            int step = widths != null ? (widths[i] & 0xFF) >> 4 : 15;
+            if (step != run) {
+                if (run >= 0) {
+                    gc.stroke();
+                    gc.beginPath();
+                    gc.moveTo(px + ox, py + oy);
+                }
+                gc.setLineWidth(style.strokeWidth() * (step + 1) / 16);
+                run = step;
             }
-            gc.restore();
+            gc.lineTo(x + ox, y + oy);
+            px = x;
+            py = y;
         }
+        gc.stroke();
     }
 
     @Override
     void setSelectionBound(){
         if (points.isEmpty()) return;
 
-        double minX = points.get(0);
-        double minY = points.get(1);
+        double minX = points.x(0);
+        double minY = points.y(0);
         double maxX = minX;
         double maxY = minY;
 
-        for (int i = 2; i < points.size(); i += 2) {
-            double x = points.get(i);
-            double y = points.get(i + 1);
+        for (int i = 1; i < points.pointCount(); i++) {
+            double x = points.x(i);
+            double y = points.y(i);
             if (x < minX) minX = x;
             if (y < minY) minY = y;
             if (x > maxX) maxX = x;
             if (y > maxY) maxY = y;
         }
 
-        selectionBounds.setX(minX);
-        selectionBounds.setY(minY);
-        selectionBounds.setWidth(maxX - minX);
-        selectionBounds.setHeight(maxY - minY);
+        setBounds(minX + offsetX, minY + offsetY, maxX + offsetX, maxY + offsetY);
+    }
+
+    // The points at their true position; applies the moves made since they were last needed.
+    PointBuffer bakedPoints() {
+        if (offsetX != 0 || offsetY != 0) {
+            points.translate(offsetX, offsetY);
+            offsetX = 0;
+            offsetY = 0;
+            segments = null;
+        }
+        return points;
+    }
+
+    // Makes the fitted curve the stroke's points; a stroke too short to fit keeps its samples.
+    void finishFit() {
+        StrokeFit.Fitted fitted = fit.finish();
+        fit = null;
+        int count = fitted.points().pointCount();
+        if (count < 2) return;
+        points = new PointBuffer(fitted.points());
+        widths = Arrays.copyOf(fitted.widths(), count);
+        segments = null;
+    }
+
+    void simplify(double tolerance) {
+        boolean[] keep = StrokeSimplifier.keep(points, widths, style.strokeWidth() / 2 / 255, tolerance);
+        if (keep == null) return;
+        if (widths != null) {
+            byte[] kept = new byte[StrokeSimplifier.count(keep)];
+            for (int i = 0, k = 0; i < keep.length; i++) {
+                if (keep[i]) kept[k++] = widths[i];
+            }
+            widths = kept;
+        }
+        points = StrokeSimplifier.select(points, keep);
+        segments = null;
+    }
+
+    SegmentTree segments() {
+        if (segments == null || !segments.covers(points)) {
+            segments = SegmentTree.build(points);
+        }
+        return segments;
     }
 
     @Override
-    void move(double deltaX, double deltaY) {
-        for (int i = 0; i < points.size(); i += 2) {
-            points.set(i, points.get(i) + deltaX);
-            points.set(i + 1, points.get(i + 1) + deltaY);
+    boolean touches(double ax, double ay, double bx, double by, double radius) {
+        if (points.isEmpty()) return false;
+        double reach = radius + style.strokeWidth() / 2;
+        // the segment tree is built on the points as stored, so move the query instead
+        ax -= offsetX;
+        ay -= offsetY;
+        bx -= offsetX;
+        by -= offsetY;
+        if (points.pointCount() == 1) {
+            return StrokeSimplifier.segmentDistanceSq(points.x(0), points.y(0), ax, ay, bx, by) <= reach * reach;
         }
-        setSelectionBound();
+        return segments().near(ax, ay, bx, by, reach);
+    }
+
+    // Marks the segments within radius of the segment from (ax, ay) to (bx, by), see SegmentTree#mark.
+    int markSegments(double ax, double ay, double bx, double by, double radius, boolean[] marked) {
+        return segments().mark(ax - offsetX, ay - offsetY, bx - offsetX, by - offsetY, radius, marked);
+    }
+
+    // The runs of segments not marked, each as a stroke of its own.
+    List<Pen> without(boolean[] erased) {
+        List<Pen> pieces = new ArrayList<>();
+        int segmentCount = points.pointCount() - 1;
+        int s = 0;
+        while (s < segmentCount) {
+            if (erased[s]) {
+                s++;
+                continue;
+            }
+            int from = s;
+            while (s < segmentCount && !erased[s]) s++;
+            Pen piece = new Pen(tool, style.color(), style.strokeWidth());
+            piece.points = new PointBuffer(s - from + 1);
+            for (int i = from; i <= s; i++) {
+                piece.points.add(points.x(i) + offsetX, points.y(i) + offsetY);
+            }
+            if (widths != null) piece.widths = Arrays.copyOfRange(widths, from, s + 1);
+            piece.setSelectionBound();
+            pieces.add(piece);
+        }
+        return pieces;
+    }
+
+    @Override
+    void move(double deltaX, double deltaY) {
+        offsetX += deltaX;
+        offsetY += deltaY;
+        if (points.isEmpty()) return;
+        // Translation does not change the extent, so shift the bounds instead of rescanning.
+        setBounds(left + deltaX, top + deltaY, right + deltaX, bottom + deltaY);
     }
 
 }
@@ -135,32 +313,24 @@ class RectangleShape extends DrawingActions {
     }
 
     @Override
-    void draw(GraphicsContext gc) {
+    void draw(Surface gc) {
         gc.save();
-        gc.setStroke(color);
-        gc.setLineWidth(strokeWidth);
+        gc.setStroke(style.color());
+        gc.setLineWidth(style.strokeWidth());
         gc.strokeRect(x, y, width, height);
 
         if (isSelected) {
             setSelectionBound();
             gc.setStroke(Color.BLUE);
             gc.setLineWidth(1.5);
-            gc.strokeRect(
-                    selectionBounds.getX() - 5,
-                    selectionBounds.getY() - 5,
-                    selectionBounds.getWidth() + 10,
-                    selectionBounds.getHeight() + 10
-            );
+            gc.strokeRect(left - 5, top - 5, right - left + 10, bottom - top + 10);
         }
         gc.restore();
     }
 
     @Override
     void setSelectionBound() {
-        selectionBounds.setX(x - 5);
-        selectionBounds.setY(y - 5);
-        selectionBounds.setWidth(width + 10);
-        selectionBounds.setHeight(height + 10);
+        setBounds(x - 5, y - 5, x + width + 5, y + height + 5);
     }
 
     @Override
@@ -170,6 +340,18 @@ class RectangleShape extends DrawingActions {
         setSelectionBound();
     }
 
+    // The outline only: a point inside the rectangle but away from its edges is a miss.
+    @Override
+    boolean touches(double ax, double ay, double bx, double by, double radius) {
+        double reach = radius + style.strokeWidth() / 2;
+        double reachSq = reach * reach;
+        double right = x + width, bottom = y + height;
+        return SegmentTree.segmentsDistanceSq(x, y, right, y, ax, ay, bx, by) <= reachSq
+                || SegmentTree.segmentsDistanceSq(right, y, right, bottom, ax, ay, bx, by) <= reachSq
+                || SegmentTree.segmentsDistanceSq(right, bottom, x, bottom, ax, ay, bx, by) <= reachSq
+                || SegmentTree.segmentsDistanceSq(x, bottom, x, y, ax, ay, bx, by) <= reachSq;
+    }
+
     void resize(double x,double y,double newWidth, double newHeight) {
         this.x =x;
         this.y = y;
@@ -185,15 +367,13 @@ class RectangleShape extends DrawingActions {
         cloned.y = this.y;
         cloned.width = this.width;
         cloned.height = this.height;
-        cloned.color = this.color;
-        cloned.strokeWidth = this.strokeWidth;
 
         return cloned;
     }
 }
 
 class CircleShape extends DrawingActions {
-    private double centerX, centerY, radius;
+    double centerX, centerY, radius;
 
     public CircleShape(DrawingTool tool, Color color, double strokeWidth) {
         super(tool, color, strokeWidth);
@@ -206,21 +386,16 @@ class CircleShape extends DrawingActions {
     }
 
     @Override
-    public void draw(GraphicsContext gc) {
+    public void draw(Surface gc) {
         gc.save();
-        gc.setStroke(this.color);
-        gc.setLineWidth(strokeWidth);
+        gc.setStroke(style.color());
+        gc.setLineWidth(style.strokeWidth());
         gc.strokeOval(centerX - radius, centerY - radius, 2 * radius, 2 * radius);
         if (isSelected) {
             setSelectionBound();
             gc.setStroke(Color.BLUE);
             gc.setLineWidth(1.5);
-            gc.strokeRect(
-                    selectionBounds.getX() - 5,
-                    selectionBounds.getY() - 5,
-                    selectionBounds.getWidth() + 10,
-                    selectionBounds.getHeight() + 10
-            );
+            gc.strokeRect(left - 5, top - 5, right - left + 10, bottom - top + 10);
         }
 
         gc.restore();
@@ -228,10 +403,16 @@ class CircleShape extends DrawingActions {
 
     @Override
     public void setSelectionBound() {
-        selectionBounds.setX(centerX - radius);
-        selectionBounds.setY(centerY - radius);
-        selectionBounds.setWidth(2 * radius);
-        selectionBounds.setHeight(2 * radius);
+        setBounds(centerX - radius, centerY - radius, centerX + radius, centerY + radius);
+    }
+
+    // The ring only: the segment touches it if it comes near enough to the center and also gets far enough away.
+    @Override
+    boolean touches(double ax, double ay, double bx, double by, double radius) {
+        double reach = radius + style.strokeWidth() / 2;
+        double nearest = Math.sqrt(StrokeSimplifier.segmentDistanceSq(centerX, centerY, ax, ay, bx, by));
+        double farthest = Math.max(Math.hypot(ax - centerX, ay - centerY), Math.hypot(bx - centerX, by - centerY));
+        return nearest - reach <= this.radius && farthest + reach >= this.radius;
     }
 
     @Override
@@ -254,14 +435,12 @@ class CircleShape extends DrawingActions {
 
 
 class TextShape extends DrawingActions {
-    private String text;
-    private double x, y;
-    private int fontSize;
-    private Color color;
+    String text;
+    double x, y;
+    int fontSize;
 
     public TextShape(DrawingTool tool, Color color, int fontSize) {
         super(tool,color,fontSize);
-        this.color = color;
         this.fontSize = fontSize;
         this.text = "dfdfgd";
     }
@@ -276,9 +455,8 @@ class TextShape extends DrawingActions {
     }
 
     @Override
-    public void draw(GraphicsContext gc) {
+    public void draw(Surface gc) {
         gc.save();
-        System.out.println("Pasted test here "+text);
         gc.setFill(Color.BLACK);
         gc.setFont(Font.font(20));
         gc.fillText(text, x, y);
@@ -1,5 +1,5 @@
 package com.figma.core;
 
 public enum DrawingTool{
-    PEN, RECTANGLE, CIRCLE
+    PEN, RECTANGLE, CIRCLE, ERASER
 }
\ No newline at end of file
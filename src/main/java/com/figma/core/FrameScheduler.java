@@ -0,0 +1,101 @@
+package com.figma.core;
+
+import javafx.animation.AnimationTimer;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Coalesces repaint requests so a board is drawn at most once per display
+ * pulse, however many input events arrive in between. The timer only runs
+ * while a frame is pending, so an idle board costs nothing.
+ *
+ * A scheduler made with {@link #immediate} renders on every request, for
+ * boards that are not on screen (benchmarks, tests, headless use).
+ */
+final class FrameScheduler {
+    private final Runnable renderer;
+    private final Pulses pulses;
+    private long minFrameNanos;
+    private long lastFrameNanos;
+    private boolean pending;
+    private boolean running;
+
+    private FrameScheduler(Runnable renderer, Pulses pulses) {
+        this.renderer = renderer;
+        this.pulses = pulses;
+    }
+
+    // Paced by the JavaFX display pulse.
+    static FrameScheduler pulsed(Runnable renderer) {
+        return new FrameScheduler(renderer, new DisplayPulses());
+    }
+
+    // Paced by the given pulses, which tests drive by hand.
+    static FrameScheduler pulsed(Runnable renderer, Pulses pulses) {
+        return new FrameScheduler(renderer, pulses);
+    }
+
+    static FrameScheduler immediate(Runnable renderer) {
+        return new FrameScheduler(renderer, null);
+    }
+
+    // Caps the frame rate below the display's; 0 renders on every pulse that has work.
+    void setMaxFrameRate(double framesPerSecond) {
+        minFrameNanos = framesPerSecond > 0 ? (long) (1_000_000_000L / framesPerSecond) : 0;
+    }
+
+    double getMaxFrameRate() {
+        return minFrameNanos > 0 ? 1_000_000_000.0 / minFrameNanos : 0;
+    }
+
+    void request() {
+        if (pulses == null) {
+            renderer.run();
+            return;
+        }
+        pending = true;
+        if (!running) {
+            running = true;
+            pulses.start(this::onPulse);
+        }
+    }
+
+    // From inside a frame, asks for another on the next pulse; an immediate scheduler waits for the next request.
+    void requestNext() {
+        if (pulses != null) request();
+    }
+
+    private void onPulse(long now) {
+        if (!pending) {
+            running = false;
+            pulses.stop();
+            return;
+        }
+        if (now - lastFrameNanos < minFrameNanos) return;
+        lastFrameNanos = now;
+        pending = false;
+        renderer.run();
+    }
+
+    /** A source of pulses: between start and stop it calls back once per pulse, with the pulse time in nanoseconds. */
+    interface Pulses {
+        void start(LongConsumer onPulse);
+
+        void stop();
+    }
+
+    private static final class DisplayPulses extends AnimationTimer implements Pulses {
+        private LongConsumer onPulse;
+
+        @Override
+        public void start(LongConsumer onPulse) {
+            this.onPulse = onPulse;
+            start();
+        }
+
+        @Override
+        public void handle(long now) {
+            onPulse.accept(now);
+        }
+    }
+}
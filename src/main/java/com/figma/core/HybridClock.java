@@ -0,0 +1,64 @@
+package com.figma.core;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Hybrid logical clock. A stamp is wall-clock milliseconds shifted left by
+ * {@link #COUNTER_BITS} plus a counter, so stamps stay close to real time
+ * but still grow with every event and never fall behind a stamp received
+ * from another board, even when the wall clocks disagree.
+ *
+ * Two boards can issue the same stamp; {@link Replica#newer} breaks such
+ * ties by site id.
+ *
+ * A stamp more than {@link #MAX_DRIFT_MILLIS} ahead of this board's wall
+ * clock comes from a broken clock or a corrupt frame; it is not
+ * {@link #admits admitted}, and observing one only moves the clock up to
+ * that horizon.
+ */
+final class HybridClock {
+    static final int COUNTER_BITS = 16;
+    static final long MAX_DRIFT_MILLIS = 24 * 60 * 60 * 1000;
+
+    private final LongSupplier wallMillis;
+    private long last;
+
+    HybridClock() {
+        this(System::currentTimeMillis);
+    }
+
+    HybridClock(LongSupplier wallMillis) {
+        this.wallMillis = wallMillis;
+    }
+
+    // A stamp for a local event, greater than every stamp issued or observed so far.
+    long tick() {
+        // saturates, a stamp that wrapped around would lose to every one before it
+        long next = last == Long.MAX_VALUE ? last : last + 1;
+        last = Math.max(next, wallMillis.getAsLong() << COUNTER_BITS);
+        return last;
+    }
+
+    // Merges a stamp from another board, so the next tick orders after it; no further than the horizon.
+    void observe(long stamp) {
+        last = Math.max(last, Math.min(stamp, horizon()));
+    }
+
+    // Whether a stamp from another board is close enough to this board's time to take.
+    boolean admits(long stamp) {
+        return stamp <= horizon();
+    }
+
+    private long horizon() {
+        long millis = wallMillis.getAsLong() + MAX_DRIFT_MILLIS;
+        return millis >= Long.MAX_VALUE >>> COUNTER_BITS ? Long.MAX_VALUE : millis << COUNTER_BITS;
+    }
+
+    long wallMillis() {
+        return wallMillis.getAsLong();
+    }
+
+    static long millis(long stamp) {
+        return stamp >>> COUNTER_BITS;
+    }
+}
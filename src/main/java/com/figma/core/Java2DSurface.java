@@ -0,0 +1,193 @@
+package com.figma.core;
+
+import javafx.scene.paint.Color;
+import javafx.scene.shape.StrokeLineCap;
+import javafx.scene.shape.StrokeLineJoin;
+import javafx.scene.text.Font;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Composite;
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayDeque;
+
+/**
+ * A {@link Surface} over a Java2D {@link Graphics2D}, so shapes can be
+ * rasterized into a {@code BufferedImage} on any thread. Transforms set by
+ * the caller are applied on top of the base transform the graphics had
+ * when the surface was created.
+ */
+final class Java2DSurface implements Surface {
+    private final Graphics2D g;
+    private final AffineTransform base;
+    private final ArrayDeque<State> saved = new ArrayDeque<>();
+    private final Path2D.Double path = new Path2D.Double();
+
+    private java.awt.Color stroke = java.awt.Color.BLACK;
+    private java.awt.Color fill = java.awt.Color.BLACK;
+    private float lineWidth = 1;
+    private int cap = BasicStroke.CAP_SQUARE;
+    private int join = BasicStroke.JOIN_MITER;
+
+    Java2DSurface(Graphics2D g) {
+        this.g = g;
+        this.base = g.getTransform();
+        applyStroke();
+    }
+
+    private record State(AffineTransform transform, Shape clip, java.awt.Color stroke, java.awt.Color fill,
+                         float lineWidth, int cap, int join, java.awt.Font font) {
+    }
+
+    @Override
+    public void save() {
+        saved.push(new State(g.getTransform(), g.getClip(), stroke, fill, lineWidth, cap, join, g.getFont()));
+    }
+
+    @Override
+    public void restore() {
+        State state = saved.poll();
+        if (state == null) return;
+        g.setTransform(state.transform());
+        g.setClip(state.clip());
+        stroke = state.stroke();
+        fill = state.fill();
+        lineWidth = state.lineWidth();
+        cap = state.cap();
+        join = state.join();
+        g.setFont(state.font());
+        applyStroke();
+    }
+
+    @Override
+    public void setStroke(Color color) {
+        stroke = toAwt(color);
+    }
+
+    @Override
+    public void setFill(Color color) {
+        fill = toAwt(color);
+    }
+
+    @Override
+    public void setLineWidth(double width) {
+        lineWidth = (float) width;
+        applyStroke();
+    }
+
+    @Override
+    public void setLineCap(StrokeLineCap lineCap) {
+        cap = switch (lineCap) {
+            case BUTT -> BasicStroke.CAP_BUTT;
+            case ROUND -> BasicStroke.CAP_ROUND;
+            case SQUARE -> BasicStroke.CAP_SQUARE;
+        };
+        applyStroke();
+    }
+
+    @Override
+    public void setLineJoin(StrokeLineJoin lineJoin) {
+        join = switch (lineJoin) {
+            case MITER -> BasicStroke.JOIN_MITER;
+            case BEVEL -> BasicStroke.JOIN_BEVEL;
+            case ROUND -> BasicStroke.JOIN_ROUND;
+        };
+        applyStroke();
+    }
+
+    @Override
+    public void setFont(Font font) {
+        g.setFont(new java.awt.Font(font.getFamily(), java.awt.Font.PLAIN, (int) Math.round(font.getSize())));
+    }
+
+    @Override
+    public void setTransform(double mxx, double myx, double mxy, double myy, double mxt, double myt) {
+        g.setTransform(base);
+        g.transform(new AffineTransform(mxx, myx, mxy, myy, mxt, myt));
+    }
+
+    @Override
+    public void beginPath() {
+        path.reset();
+    }
+
+    @Override
+    public void moveTo(double x, double y) {
+        path.moveTo(x, y);
+    }
+
+    @Override
+    public void lineTo(double x, double y) {
+        path.lineTo(x, y);
+    }
+
+    @Override
+    public void rect(double x, double y, double w, double h) {
+        path.append(new Rectangle2D.Double(x, y, w, h), false);
+    }
+
+    @Override
+    public void stroke() {
+        draw(path);
+    }
+
+    @Override
+    public void clip() {
+        g.clip(path);
+    }
+
+    @Override
+    public void strokeLine(double x1, double y1, double x2, double y2) {
+        draw(new Line2D.Double(x1, y1, x2, y2));
+    }
+
+    @Override
+    public void strokeRect(double x, double y, double w, double h) {
+        draw(new Rectangle2D.Double(x, y, w, h));
+    }
+
+    @Override
+    public void strokeOval(double x, double y, double w, double h) {
+        draw(new Ellipse2D.Double(x, y, w, h));
+    }
+
+    @Override
+    public void fillRect(double x, double y, double w, double h) {
+        g.setColor(fill);
+        g.fill(new Rectangle2D.Double(x, y, w, h));
+    }
+
+    @Override
+    public void clearRect(double x, double y, double w, double h) {
+        Composite composite = g.getComposite();
+        g.setComposite(AlphaComposite.Clear);
+        g.fill(new Rectangle2D.Double(x, y, w, h));
+        g.setComposite(composite);
+    }
+
+    @Override
+    public void fillText(String text, double x, double y) {
+        g.setColor(fill);
+        g.drawString(text, (float) x, (float) y);
+    }
+
+    private void draw(Shape shape) {
+        g.setColor(stroke);
+        g.draw(shape);
+    }
+
+    private void applyStroke() {
+        g.setStroke(new BasicStroke(lineWidth, cap, join));
+    }
+
+    static java.awt.Color toAwt(Color color) {
+        return new java.awt.Color((float) color.getRed(), (float) color.getGreen(),
+                (float) color.getBlue(), (float) color.getOpacity());
+    }
+}
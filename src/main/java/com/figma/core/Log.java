@@ -0,0 +1,218 @@
+package com.figma.core;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Minimal logging for the app. Calls below the threshold cost a level
+ * check; everything else is queued and written by a background thread,
+ * so the FX thread never waits on the console. When the bounded queue is
+ * full new records are dropped and counted instead of blocking.
+ *
+ * The threshold comes from {@code -Dwhiteboard.log=DEBUG|INFO|WARN|ERROR|OFF}
+ * and defaults to INFO.
+ *
+ * <pre>
+ * private static final Log.Logger LOG = Log.get(Whiteboard.class);
+ * LOG.debug(() -> "Moved " + shape.id);
+ * </pre>
+ */
+public final class Log {
+    public enum Level {DEBUG, INFO, WARN, ERROR, OFF}
+
+    static final int QUEUE_CAPACITY = 4096;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private static volatile Level threshold = parseLevel(System.getProperty("whiteboard.log"));
+    private static final Sink sink = new Sink(System.err, QUEUE_CAPACITY);
+
+    static {
+        sink.start();
+        // whatever is still queued or being written at exit is flushed by the hook instead of being lost
+        Runtime.getRuntime().addShutdownHook(new Thread(sink::flush, "log-flush"));
+    }
+
+    private Log() {
+    }
+
+    public static Logger get(Class<?> owner) {
+        return get(owner, sink);
+    }
+
+    static Logger get(Class<?> owner, Sink sink) {
+        return new Logger(owner.getSimpleName(), sink);
+    }
+
+    public static void setLevel(Level level) {
+        threshold = level;
+    }
+
+    public static Level getLevel() {
+        return threshold;
+    }
+
+    static long droppedCount() {
+        return sink.droppedCount();
+    }
+
+    private record Record(long timeMillis, Level level, String thread, String logger, String message, Throwable error) {
+    }
+
+    public static final class Logger {
+        private final String name;
+        private final Sink sink;
+
+        private Logger(String name, Sink sink) {
+            this.name = name;
+            this.sink = sink;
+        }
+
+        public boolean isEnabled(Level level) {
+            return level.compareTo(threshold) >= 0 && level != Level.OFF;
+        }
+
+        public boolean isDebugEnabled() {
+            return isEnabled(Level.DEBUG);
+        }
+
+        public void debug(String message) {
+            log(Level.DEBUG, message, null);
+        }
+
+        public void debug(Supplier<String> message) {
+            if (isEnabled(Level.DEBUG)) log(Level.DEBUG, message.get(), null);
+        }
+
+        public void info(String message) {
+            log(Level.INFO, message, null);
+        }
+
+        public void info(Supplier<String> message) {
+            if (isEnabled(Level.INFO)) log(Level.INFO, message.get(), null);
+        }
+
+        public void warn(String message) {
+            log(Level.WARN, message, null);
+        }
+
+        public void warn(String message, Throwable error) {
+            log(Level.WARN, message, error);
+        }
+
+        public void error(String message, Throwable error) {
+            log(Level.ERROR, message, error);
+        }
+
+        private void log(Level level, String message, Throwable error) {
+            if (!isEnabled(level)) return;
+            Record record = new Record(System.currentTimeMillis(), level, Thread.currentThread().getName(),
+                    name, message, error);
+            sink.offer(record);
+        }
+    }
+
+    /**
+     * The queue and the thread writing it out. One serves the whole app;
+     * tests make their own around a buffer.
+     */
+    static final class Sink {
+        private final BlockingQueue<Record> queue;
+        private final AtomicLong dropped = new AtomicLong();
+        private final PrintStream out;
+        private final Thread writer;
+
+        Sink(PrintStream out, int capacity) {
+            this.out = out;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.writer = Thread.ofPlatform().name("log-writer").daemon().unstarted(this::drainLoop);
+        }
+
+        void start() {
+            writer.start();
+        }
+
+        long droppedCount() {
+            return dropped.get();
+        }
+
+        private void offer(Record record) {
+            if (!queue.offer(record)) {
+                dropped.incrementAndGet();
+            }
+        }
+
+        /**
+         * Stops the writer and writes everything it has not. The writer
+         * finishes the batch it has taken off the queue before it stops,
+         * so no record is between the queue and the output when the rest
+         * is drained here.
+         */
+        void flush() {
+            writer.interrupt();
+            try {
+                writer.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            List<Record> batch = new ArrayList<>();
+            queue.drainTo(batch);
+            write(batch);
+        }
+
+        private void drainLoop() {
+            List<Record> batch = new ArrayList<>();
+            try {
+                while (true) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch);
+                    write(batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private synchronized void write(List<Record> batch) {
+            StringBuilder text = new StringBuilder();
+            long lost = dropped.getAndSet(0);
+            if (lost > 0) {
+                text.append("... ").append(lost).append(" log messages dropped, queue full\n");
+            }
+            for (Record r : batch) {
+                text.append(TIME.format(LocalTime.ofInstant(Instant.ofEpochMilli(r.timeMillis()), ZoneId.systemDefault())))
+                        .append(' ').append(String.format("%-5s", r.level()))
+                        .append(" [").append(r.thread()).append("] ")
+                        .append(r.logger()).append(": ").append(r.message()).append('\n');
+                if (r.error() != null) {
+                    StringWriter trace = new StringWriter();
+                    r.error().printStackTrace(new PrintWriter(trace));
+                    text.append(trace);
+                }
+            }
+            if (text.isEmpty()) return;
+            out.print(text);
+            out.flush();
+        }
+    }
+
+    private static Level parseLevel(String value) {
+        if (value == null) return Level.INFO;
+        try {
+            return Level.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Level.INFO;
+        }
+    }
+}
@@ -2,23 +2,32 @@ package com.figma.core;
 
 import com.figma.ui.*;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
+import javafx.scene.control.Alert;
+import javafx.scene.control.TextInputDialog;
 import javafx.scene.paint.Color;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import javafx.scene.layout.*;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
 
 import java.io.*;
-import java.util.ArrayList;
+import java.nio.file.Path;
 
 public class Main extends Application {
+    private static final Log.Logger LOG = Log.get(Main.class);
 
     Whiteboard whiteboard = new Whiteboard();
     ToolBarUI toolBarUI = new ToolBarUI(whiteboard);
     Stage primaryStage;
+    private static final int DEFAULT_PORT = 5050;
+    private CollabSession session;
+    private final BoardRenderer boardRenderer = new BoardRenderer();
+    private Autosave autosave;
     public static void main(String[] args) {
         launch(args);
     }
@@ -27,19 +36,33 @@ public class Main extends Application {
     public void start(Stage stage) throws Exception {
         primaryStage = stage;
         FXMLLoader loader = new FXMLLoader(getClass().getResource("/core/main.fxml"));
+        // the menus must act on this instance's whiteboard, not on a second controller instance
+        loader.setControllerFactory(type -> this);
         BorderPane root = loader.load();
         root.setLeft(toolBarUI.createToolBar ());
-        root.setCenter(whiteboard.getCanvas());
+        root.setCenter(whiteboard.getView());
 
-        whiteboard.getCanvas().setOnMousePressed(this::handleMousePressed);
-        whiteboard.getCanvas().setOnMouseDragged(this::handleMouseDragged);
-        whiteboard.getCanvas().setOnMouseReleased(this::handleMouseReleased);
+        whiteboard.getView().setOnMousePressed(this::handleMousePressed);
+        whiteboard.getView().setOnMouseDragged(this::handleMouseDragged);
+        whiteboard.getView().setOnMouseReleased(this::handleMouseReleased);
+        whiteboard.getView().setOnScroll(this::handleScroll);
 //        whiteboard.getCanvas().requestFocus();
-        whiteboard.getCanvas().getGraphicsContext2D().fillRect(0, 0, whiteboard.getCanvas().getWidth(), whiteboard.getCanvas().getHeight());
         Scene scene = new Scene(root, 900, 600, Color.gray(1));
         stage.setTitle("Collaborative Whiteboard");
         stage.setScene(scene);
         stage.show();
+        startAutosave();
+    }
+
+    // Brings back what was on the board when the app last stopped, then keeps saving edits.
+    private void startAutosave() {
+        Path directory = Autosave.defaultDirectory();
+        if (directory == null) return;
+        try {
+            autosave = Autosave.open(directory, whiteboard, Platform::runLater);
+        } catch (IOException ex) {
+            showError("Could not restore the autosaved board", ex);
+        }
     }
 
     private void handleMousePressed(MouseEvent e) {
@@ -54,24 +77,69 @@ public class Main extends Application {
         whiteboard.handleMouseReleased(e);
     }
 
+    private void handleScroll(ScrollEvent e) {
+        whiteboard.handleScroll(e);
+    }
+
     public void saveToFile() {
         if (whiteboard == null) {
-            System.err.println("Whiteboard object is null.");
+            LOG.warn("Whiteboard object is null.");
             return;
         }
 
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Save Whiteboard");
-        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Serialized Files", "*.ser"));
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Whiteboard Files", "*." + BoardFile.EXTENSION));
+        File file = fileChooser.showSaveDialog(primaryStage);
+
+        if (file != null) {
+            try {
+                BoardFile.save(file.toPath(), whiteboard.getActionHistory());
+                LOG.info(() -> "Whiteboard saved to " + file.getAbsolutePath());
+            } catch (IOException ex) {
+                LOG.error("Error saving file", ex);
+            }
+        }
+    }
+
+    @FXML
+    public void exportPng() {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Export PNG");
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("PNG Images", "*.png"));
+        File file = fileChooser.showSaveDialog(primaryStage);
+
+        if (file != null) {
+            // rendered in the background, the board stays usable meanwhile
+            boardRenderer.exportPng(whiteboard, file.toPath(), 1).whenComplete((path, ex) -> Platform.runLater(() -> {
+                if (ex != null) {
+                    showError("Could not export PNG", ex.getCause() instanceof Exception cause ? cause : new Exception(ex));
+                } else {
+                    LOG.info(() -> "Whiteboard exported to " + path.toAbsolutePath());
+                }
+            }));
+        }
+    }
+
+    @FXML
+    public void toggleHud() {
+        whiteboard.setHudVisible(!whiteboard.isHudVisible());
+    }
+
+    @FXML
+    public void dumpMetrics() {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Dump Metrics");
+        fileChooser.setInitialFileName("whiteboard-metrics.csv");
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CSV Files", "*.csv"));
         File file = fileChooser.showSaveDialog(primaryStage);
 
         if (file != null) {
-            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
-                oos.writeObject(whiteboard.getActionHistory());
-                System.out.println("Whiteboard saved to " + file.getAbsolutePath());
+            try {
+                Metrics.dump(file.toPath());
+                LOG.info(() -> "Metrics written to " + file.getAbsolutePath());
             } catch (IOException ex) {
-                ex.printStackTrace();
-                System.out.println("Error saving file");
+                showError("Could not write metrics", ex);
             }
         }
     }
@@ -80,44 +148,88 @@ public class Main extends Application {
     public void loadFromFile() {
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Load Whiteboard");
-        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Serialized Files", "*.ser"));
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Whiteboard Files", "*." + BoardFile.EXTENSION));
         File file = fileChooser.showOpenDialog(primaryStage);
 
         if (file != null) {
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-                Object obj = ois.readObject();
-                System.out.println("Deserialized object: " + obj.getClass().getName());
-
-                if (obj instanceof ArrayList<?>) {
-                    ArrayList<?> loadedActions = (ArrayList<?>) obj;
-                    if (!loadedActions.isEmpty() && loadedActions.get(0) instanceof DrawingActions) {
-                        whiteboard.setActionHistory((ArrayList<DrawingActions>) loadedActions);
-                        System.out.println("Whiteboard loaded from " + file.getAbsolutePath());
-                    } else {
-                        System.err.println("The file does not contain valid drawing actions.");
-                    }
-                } else {
-                    System.err.println("The file does not contain the expected data format. Found: " + obj.getClass().getName());
+            try {
+                whiteboard.open(BoardFile.open(file.toPath()), Platform::runLater);
+                if (autosave != null) {
+                    // the journal now holds the whole file as adds, snapshot the board once it is all in
+                    whiteboard.loadRemaining().thenRun(autosave::compact);
                 }
-            } catch (IOException | ClassNotFoundException ex) {
-                ex.printStackTrace();
-                System.out.println("Error loading file");
+                LOG.info(() -> "Whiteboard loaded from " + file.getAbsolutePath());
+            } catch (IOException ex) {
+                LOG.error("Error loading file: " + ex.getMessage(), ex);
             }
+        }
+    }
 
+    @FXML
+    public void hostSession() {
+        TextInputDialog dialog = new TextInputDialog(String.valueOf(DEFAULT_PORT));
+        dialog.setTitle("Host Session");
+        dialog.setHeaderText("Port to listen on");
+        dialog.showAndWait().ifPresent(port -> {
+            try {
+                closeSession();
+                session = CollabSession.host(whiteboard, Integer.parseInt(port.trim()));
+                LOG.info("Hosting on port " + session.getPort());
+            } catch (IOException | NumberFormatException ex) {
+                showError("Could not host session", ex);
+            }
+        });
+    }
+
+    @FXML
+    public void joinSession() {
+        TextInputDialog dialog = new TextInputDialog("localhost:" + DEFAULT_PORT);
+        dialog.setTitle("Join Session");
+        dialog.setHeaderText("Host address and port");
+        dialog.showAndWait().ifPresent(target -> {
+            int colon = target.lastIndexOf(':');
+            try {
+                String address = colon > 0 ? target.substring(0, colon).trim() : target.trim();
+                int port = colon > 0 ? Integer.parseInt(target.substring(colon + 1).trim()) : DEFAULT_PORT;
+                closeSession();
+                session = CollabSession.join(whiteboard, address, port);
+                LOG.info("Joined " + address + ":" + port);
+            } catch (IOException | NumberFormatException ex) {
+                showError("Could not join session", ex);
+            }
+        });
+    }
+
+    @Override
+    public void stop() throws Exception {
+        closeSession();
+        if (autosave != null) {
+            autosave.close();
         }
     }
 
+    private void closeSession() throws IOException {
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+    }
+
+    private void showError(String header, Exception ex) {
+        Alert alert = new Alert(Alert.AlertType.ERROR, String.valueOf(ex.getMessage()));
+        alert.setHeaderText(header);
+        alert.showAndWait();
+    }
+
     @FXML
     public void undo() {
-        System.out.println("Undo");
+        LOG.debug("Undo");
         whiteboard.undo();
-        whiteboard.drawCanvas();
     }
 
     @FXML
     public void redu() {
-        System.out.println("redo");
+        LOG.debug("Redo");
         whiteboard.redo();
-        whiteboard.drawCanvas();
     }
 }
\ No newline at end of file
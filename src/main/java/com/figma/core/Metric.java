@@ -0,0 +1,44 @@
+package com.figma.core;
+
+import java.util.Locale;
+
+// What Metrics times, with the label it goes by in the HUD, dumps and JFR events.
+enum Metric {
+    FRAME("frame", false),
+    DRAW_CANVAS("draw", false),
+    REPAINT("repaint", false),
+    INPUT_LATENCY("latency", false),
+    FRAME_ALLOCATION("alloc", true),
+    HIT_TEST("hit-test", false),
+    UNDO("undo", false),
+    REDO("redo", false),
+    SAVE("save", false),
+    LOAD("load", false),
+    PAGE_IN("page-in", false),
+    JOURNAL_COMMIT("commit", false),
+    RECOVER("recover", false),
+    ENCODE("encode", false),
+    DECODE("decode", false);
+
+    final String label;
+    // values are byte counts rather than nanoseconds
+    final boolean bytes;
+
+    Metric(String label, boolean bytes) {
+        this.label = label;
+        this.bytes = bytes;
+    }
+
+    String format(long value) {
+        if (bytes) {
+            return value >= 1 << 20 ? String.format(Locale.ROOT, "%.1fM", value / 1048576.0)
+                    : String.format(Locale.ROOT, "%.1fK", value / 1024.0);
+        }
+        return value >= 1_000_000 ? String.format(Locale.ROOT, "%.2fms", value / 1e6)
+                : String.format(Locale.ROOT, "%.0fus", value / 1e3);
+    }
+
+    String raw(long value) {
+        return bytes ? Long.toString(value) : String.format(Locale.ROOT, "%.1f", value / 1e3);
+    }
+}
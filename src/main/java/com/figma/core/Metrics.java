@@ -0,0 +1,155 @@
+package com.figma.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Timings of the board's hot paths. Every sample goes into a rolling
+ * window per metric (for percentiles in the HUD and in dumps) and is also
+ * committed as a JFR event, so a flight recording shows the same numbers
+ * next to GC and allocation data.
+ *
+ * <pre>
+ * long start = Metrics.start();
+ * ...
+ * Metrics.record(Metric.DRAW_CANVAS, start);
+ * </pre>
+ *
+ * Disabled with {@code -Dwhiteboard.metrics=false}, in which case
+ * {@link #start()} returns 0 and nothing is recorded.
+ */
+final class Metrics {
+    static final int WINDOW = 1024;
+
+    private static volatile boolean enabled = !"false".equals(System.getProperty("whiteboard.metrics"));
+    private static final Map<Metric, RollingStats> STATS = new EnumMap<>(Metric.class);
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    static {
+        for (Metric metric : Metric.values()) {
+            STATS.put(metric, new RollingStats(WINDOW));
+        }
+    }
+
+    private Metrics() {
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    static void setEnabled(boolean value) {
+        enabled = value;
+    }
+
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    // Records the time since start, a value returned by start().
+    static void record(Metric metric, long start) {
+        if (start == 0) return;
+        long nanos = System.nanoTime() - start;
+        STATS.get(metric).add(nanos);
+        TimingEvent event = new TimingEvent();
+        if (event.isEnabled()) {
+            event.metric = metric.label;
+            event.elapsed = nanos;
+            event.commit();
+        }
+    }
+
+    // Records a value that is not a duration, such as bytes allocated.
+    static void recordValue(Metric metric, long value) {
+        if (!enabled) return;
+        STATS.get(metric).add(value);
+        if (metric == Metric.FRAME_ALLOCATION) {
+            FrameAllocationEvent event = new FrameAllocationEvent();
+            if (event.isEnabled()) {
+                event.bytes = value;
+                event.commit();
+            }
+        }
+    }
+
+    // Bytes allocated so far by the calling thread, or -1 if the JVM cannot tell.
+    static long allocatedBytes() {
+        return enabled && THREADS.isThreadAllocatedMemoryEnabled() ? THREADS.getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    static RollingStats.Summary summary(Metric metric) {
+        return STATS.get(metric).summary();
+    }
+
+    static void reset() {
+        STATS.values().forEach(RollingStats::clear);
+    }
+
+    // One line per metric that has samples, for the HUD.
+    static String describe() {
+        StringBuilder out = new StringBuilder();
+        for (Metric metric : Metric.values()) {
+            RollingStats.Summary s = summary(metric);
+            if (s.count() == 0) continue;
+            out.append(String.format(Locale.ROOT, "%-10s p50 %s  p95 %s  p99 %s  max %s%n", metric.label,
+                    metric.format(s.p50()), metric.format(s.p95()), metric.format(s.p99()), metric.format(s.max())));
+        }
+        return out.toString();
+    }
+
+    // Writes the current percentiles as CSV, values in microseconds or bytes.
+    static void dump(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file)) {
+            out.write("# whiteboard metrics " + Instant.now() + ", last " + WINDOW + " samples per metric\n");
+            out.write("metric,unit,count,p50,p95,p99,max\n");
+            for (Metric metric : Metric.values()) {
+                RollingStats.Summary s = summary(metric);
+                out.write(String.format(Locale.ROOT, "%s,%s,%d,%s,%s,%s,%s%n", metric.label,
+                        metric.bytes ? "bytes" : "us", s.count(), metric.raw(s.p50()), metric.raw(s.p95()),
+                        metric.raw(s.p99()), metric.raw(s.max())));
+            }
+        }
+    }
+
+    @Name("com.figma.core.Timing")
+    @Label("Whiteboard Timing")
+    @Description("Time spent in one of the whiteboard's instrumented operations")
+    @Category("Whiteboard")
+    @StackTrace(false)
+    static final class TimingEvent extends Event {
+        @Label("Metric")
+        String metric;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+
+    @Name("com.figma.core.FrameAllocation")
+    @Label("Whiteboard Frame Allocation")
+    @Description("Bytes allocated by the FX thread while rendering one frame")
+    @Category("Whiteboard")
+    @StackTrace(false)
+    static final class FrameAllocationEvent extends Event {
+        @Label("Allocated")
+        @DataAmount
+        long bytes;
+    }
+}
@@ -0,0 +1,227 @@
+package com.figma.core;
+
+import javafx.scene.paint.Color;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads frames written by {@link OpEncoder}. Malformed input is reported
+ * as an {@link IOException}, never as a runtime exception.
+ */
+final class OpDecoder {
+    private static final Operation.Kind[] KINDS = Operation.Kind.values();
+
+    private final ByteBuffer in;
+    private Color[] colors;
+    private double[] strokeWidths;
+    private long lastStamp;
+
+    private OpDecoder(ByteBuffer in) {
+        this.in = in;
+    }
+
+    static List<Operation> decode(ByteBuffer in) throws IOException {
+        long start = Metrics.start();
+        try {
+            return new OpDecoder(in).readFrame();
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated frame", e);
+        } finally {
+            Metrics.record(Metric.DECODE, start);
+        }
+    }
+
+    static List<Operation> decode(byte[] frame) throws IOException {
+        return decode(ByteBuffer.wrap(frame));
+    }
+
+    private List<Operation> readFrame() throws IOException {
+        int styleCount = readCount();
+        colors = new Color[styleCount];
+        strokeWidths = new double[styleCount];
+        for (int i = 0; i < styleCount; i++) {
+            colors[i] = new BoardFile.Style(in.getInt(), 0).color();
+            strokeWidths[i] = readCoord();
+        }
+
+        int opCount = readCount();
+        List<Operation> ops = new ArrayList<>(opCount);
+        for (int i = 0; i < opCount; i++) {
+            ops.add(readOp());
+        }
+        return ops;
+    }
+
+    private Operation readOp() throws IOException {
+        int kind = in.get();
+        if (kind < 0 || kind >= KINDS.length) {
+            throw new IOException("Unknown operation " + kind);
+        }
+        long shapeId = in.getLong();
+        long stamp = lastStamp + WireFormat.unzigzag(readVarint());
+        int site = readSite();
+        lastStamp = stamp;
+        return switch (KINDS[kind]) {
+            case ADD -> {
+                long zOrder = stamp + WireFormat.unzigzag(readVarint());
+                double offsetX = readCoord(), offsetY = readCoord();
+                long positionStamp = stamp + WireFormat.unzigzag(readVarint());
+                int positionSite = site ^ readSite();
+                long styleStamp = stamp + WireFormat.unzigzag(readVarint());
+                int styleSite = site ^ readSite();
+                DrawingActions shape = readShape();
+                shape.id = shapeId;
+                shape.zOrder = zOrder;
+                Replica.Entry entry = new Replica.Entry(shapeId, shape);
+                entry.visible = true;
+                entry.presence.accept(stamp, site);
+                entry.position.accept(positionStamp, positionSite);
+                entry.style.accept(styleStamp, styleSite);
+                entry.offsetX = offsetX;
+                entry.offsetY = offsetY;
+                yield Operation.add(entry);
+            }
+            case REMOVE -> Operation.remove(shapeId, stamp, site);
+            case MOVE -> Operation.move(shapeId, stamp, site, readCoord(), readCoord());
+            case RESTYLE -> {
+                int style = readStyleRef();
+                yield Operation.restyle(shapeId, stamp, site, colors[style], strokeWidths[style]);
+            }
+            case STROKE_BEGIN -> {
+                int style = readStyleRef();
+                yield Operation.strokeBegin(shapeId, colors[style], strokeWidths[style], readPoints());
+            }
+            case STROKE_POINTS -> Operation.strokePoints(shapeId, readPoints());
+            case STROKE_CANCEL -> Operation.strokeCancel(shapeId);
+        };
+    }
+
+    private DrawingActions readShape() throws IOException {
+        byte type = in.get();
+        int style = readStyleRef();
+        Color color = colors[style];
+        double strokeWidth = strokeWidths[style];
+        DrawingActions shape;
+        switch (type) {
+            case WireFormat.SHAPE_PEN, WireFormat.SHAPE_PEN_WIDTHS -> {
+                Pen pen = new Pen(DrawingTool.PEN, color, strokeWidth);
+                pen.points = readPointBuffer();
+                if (type == WireFormat.SHAPE_PEN_WIDTHS) {
+                    pen.widths = new byte[pen.points.pointCount()];
+                    in.get(pen.widths);
+                }
+                shape = pen;
+            }
+            case WireFormat.SHAPE_RECTANGLE -> {
+                RectangleShape rect = new RectangleShape(DrawingTool.RECTANGLE, color, strokeWidth);
+                rect.setDimensions(readCoord(), readCoord(), readCoord(), readCoord());
+                shape = rect;
+            }
+            case WireFormat.SHAPE_CIRCLE -> {
+                CircleShape circle = new CircleShape(DrawingTool.CIRCLE, color, strokeWidth);
+                circle.setProperties(readCoord(), readCoord(), readCoord());
+                shape = circle;
+            }
+            case WireFormat.SHAPE_TEXT -> {
+                double x = readCoord(), y = readCoord();
+                TextShape text = new TextShape(null, color, readCount());
+                byte[] utf8 = new byte[readCount()];
+                in.get(utf8);
+                text.setPosition(x, y);
+                text.setText(new String(utf8, StandardCharsets.UTF_8));
+                shape = text;
+            }
+            default -> throw new IOException("Unknown shape type " + type);
+        }
+        shape.setSelectionBound();
+        return shape;
+    }
+
+    // The points of a stroke, read straight into the floats it keeps them in.
+    private PointBuffer readPointBuffer() throws IOException {
+        int count = readPointCount();
+        float[] xy = new float[Math.max(2, count * 2)];
+        long x = 0, y = 0;
+        for (int i = 0; i < count; i++) {
+            x += WireFormat.unzigzag(readVarint());
+            y += WireFormat.unzigzag(readVarint());
+            xy[i * 2] = (float) WireFormat.dequantize(x);
+            xy[i * 2 + 1] = (float) WireFormat.dequantize(y);
+        }
+        return PointBuffer.wrap(xy, count);
+    }
+
+    private double[] readPoints() throws IOException {
+        int count = readPointCount();
+        double[] xy = new double[count * 2];
+        long x = 0, y = 0;
+        for (int i = 0; i < count; i++) {
+            x += WireFormat.unzigzag(readVarint());
+            y += WireFormat.unzigzag(readVarint());
+            xy[i * 2] = WireFormat.dequantize(x);
+            xy[i * 2 + 1] = WireFormat.dequantize(y);
+        }
+        return xy;
+    }
+
+    private int readPointCount() throws IOException {
+        int count = readCount();
+        // each point takes at least two bytes, reject counts the frame cannot hold
+        if (count > in.remaining() / 2) {
+            throw new IOException("Corrupt point count " + count);
+        }
+        return count;
+    }
+
+    private int readStyleRef() throws IOException {
+        long ref = readVarint();
+        if (ref < 0 || ref >= colors.length) {
+            throw new IOException("Unknown style " + ref);
+        }
+        return (int) ref;
+    }
+
+    private int readSite() throws IOException {
+        long site = readVarint();
+        if (site >>> 32 != 0) {
+            throw new IOException("Corrupt site " + site);
+        }
+        return (int) site;
+    }
+
+    private int readCount() throws IOException {
+        long count = readVarint();
+        if (count < 0 || count > Integer.MAX_VALUE / 2) {
+            throw new IOException("Corrupt length " + count);
+        }
+        return (int) count;
+    }
+
+    private double readCoord() throws IOException {
+        long v = readVarint();
+        if ((v & 1) == 0) {
+            return WireFormat.dequantize(WireFormat.unzigzag(v >>> 1));
+        }
+        double raw = Double.longBitsToDouble(in.getLong());
+        // a shape that is not anywhere finite cannot be placed, nor indexed
+        if (!Double.isFinite(raw)) {
+            throw new IOException("Corrupt coordinate " + raw);
+        }
+        return raw;
+    }
+
+    private long readVarint() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,203 @@
+package com.figma.core;
+
+import javafx.scene.paint.Color;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes batches of {@link Operation}s in the compact {@link WireFormat}.
+ * Not thread-safe; create one per frame or per sending thread.
+ */
+final class OpEncoder {
+    private byte[] bytes = new byte[256];
+    private int size;
+    private long lastStamp;
+    private final Map<BoardFile.Style, Integer> styleRefs = new HashMap<>();
+    private final List<BoardFile.Style> styles = new ArrayList<>();
+
+    static byte[] encode(Operation op) {
+        return encode(List.of(op));
+    }
+
+    static byte[] encode(List<Operation> ops) {
+        long start = Metrics.start();
+        byte[] frame = new OpEncoder().encodeFrame(ops);
+        Metrics.record(Metric.ENCODE, start);
+        return frame;
+    }
+
+    byte[] encodeFrame(List<Operation> ops) {
+        styleRefs.clear();
+        styles.clear();
+        // the body goes first so the style table only lists styles that are used
+        size = 0;
+        lastStamp = 0;
+        writeVarint(ops.size());
+        for (Operation op : ops) {
+            writeOp(op);
+        }
+        byte[] body = Arrays.copyOf(bytes, size);
+
+        size = 0;
+        writeVarint(styles.size());
+        for (BoardFile.Style style : styles) {
+            writeInt(style.argb());
+            writeCoord(style.strokeWidth());
+        }
+        writeBytes(body, body.length);
+        return Arrays.copyOf(bytes, size);
+    }
+
+    private void writeOp(Operation op) {
+        writeByte(op.kind.ordinal());
+        writeLong(op.shapeId);
+        writeVarint(WireFormat.zigzag(op.stamp - lastStamp));
+        writeVarint(Integer.toUnsignedLong(op.site));
+        lastStamp = op.stamp;
+        switch (op.kind) {
+            case ADD -> {
+                Replica.Entry entry = op.entry;
+                writeVarint(WireFormat.zigzag(entry.shape.zOrder - op.stamp));
+                writeCoord(entry.offsetX);
+                writeCoord(entry.offsetY);
+                writeRegister(entry.position, op);
+                writeRegister(entry.style, op);
+                writeShape(entry.shape);
+            }
+            case REMOVE -> {
+            }
+            case MOVE -> {
+                writeCoord(op.offsetX);
+                writeCoord(op.offsetY);
+            }
+            case RESTYLE -> writeVarint(styleRef(op.color, op.strokeWidth));
+            case STROKE_BEGIN -> {
+                writeVarint(styleRef(op.color, op.strokeWidth));
+                writePoints(op.points);
+            }
+            case STROKE_POINTS -> writePoints(op.points);
+            case STROKE_CANCEL -> {
+            }
+        }
+    }
+
+    private void writeShape(DrawingActions shape) {
+        if (shape instanceof Pen pen) {
+            writeByte(pen.widths != null ? WireFormat.SHAPE_PEN_WIDTHS : WireFormat.SHAPE_PEN);
+            writeVarint(styleRef(pen.style.color(), pen.style.strokeWidth()));
+            writePoints(pen.bakedPoints().toArray());
+            if (pen.widths != null) writeBytes(pen.widths, pen.widths.length);
+        } else if (shape instanceof RectangleShape rect) {
+            writeByte(WireFormat.SHAPE_RECTANGLE);
+            writeVarint(styleRef(rect.style.color(), rect.style.strokeWidth()));
+            writeCoord(rect.x);
+            writeCoord(rect.y);
+            writeCoord(rect.width);
+            writeCoord(rect.height);
+        } else if (shape instanceof CircleShape circle) {
+            writeByte(WireFormat.SHAPE_CIRCLE);
+            writeVarint(styleRef(circle.style.color(), circle.style.strokeWidth()));
+            writeCoord(circle.centerX);
+            writeCoord(circle.centerY);
+            writeCoord(circle.radius);
+        } else if (shape instanceof TextShape text) {
+            writeByte(WireFormat.SHAPE_TEXT);
+            writeVarint(styleRef(text.style.color(), text.style.strokeWidth()));
+            writeCoord(text.x);
+            writeCoord(text.y);
+            writeVarint(text.fontSize);
+            byte[] utf8 = text.text.getBytes(StandardCharsets.UTF_8);
+            writeVarint(utf8.length);
+            writeBytes(utf8, utf8.length);
+        } else {
+            throw new IllegalArgumentException("Cannot share shape type " + shape.getClass().getSimpleName());
+        }
+    }
+
+    // Registers are usually written by the same edit as the op, which makes both values 0.
+    private void writeRegister(Replica.Register register, Operation op) {
+        writeVarint(WireFormat.zigzag(register.stamp - op.stamp));
+        writeVarint(Integer.toUnsignedLong(register.site ^ op.site));
+    }
+
+    // Points are written as a fresh delta chain so every batch decodes on its own.
+    private void writePoints(double[] xy) {
+        int count = xy.length / 2;
+        writeVarint(count);
+        long lastX = 0, lastY = 0;
+        for (int i = 0; i < count; i++) {
+            long x = WireFormat.quantize(xy[i * 2]);
+            long y = WireFormat.quantize(xy[i * 2 + 1]);
+            writeVarint(WireFormat.zigzag(x - lastX));
+            writeVarint(WireFormat.zigzag(y - lastY));
+            lastX = x;
+            lastY = y;
+        }
+    }
+
+    private int styleRef(Color color, double strokeWidth) {
+        BoardFile.Style style = new BoardFile.Style(BoardFile.Style.toArgb(color), (float) strokeWidth);
+        Integer ref = styleRefs.get(style);
+        if (ref == null) {
+            ref = styles.size();
+            styleRefs.put(style, ref);
+            styles.add(style);
+        }
+        return ref;
+    }
+
+    private void writeCoord(double v) {
+        long q = WireFormat.quantize(v);
+        if (WireFormat.dequantize(q) == v) {
+            writeVarint(WireFormat.zigzag(q) << 1);
+        } else {
+            writeVarint(1);
+            writeLong(Double.doubleToRawLongBits(v));
+        }
+    }
+
+    private void writeVarint(long v) {
+        ensure(10);
+        while ((v & ~0x7FL) != 0) {
+            bytes[size++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        bytes[size++] = (byte) v;
+    }
+
+    private void writeByte(int b) {
+        ensure(1);
+        bytes[size++] = (byte) b;
+    }
+
+    private void writeInt(int v) {
+        ensure(4);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            bytes[size++] = (byte) (v >>> shift);
+        }
+    }
+
+    private void writeLong(long v) {
+        ensure(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            bytes[size++] = (byte) (v >>> shift);
+        }
+    }
+
+    private void writeBytes(byte[] b, int length) {
+        ensure(length);
+        System.arraycopy(b, 0, bytes, size, length);
+        size += length;
+    }
+
+    private void ensure(int n) {
+        if (size + n > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(size + n, bytes.length * 2));
+        }
+    }
+}
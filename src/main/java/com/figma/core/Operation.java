@@ -0,0 +1,98 @@
+package com.figma.core;
+
+import javafx.scene.paint.Color;
+
+/**
+ * One board edit as exchanged between collaborating whiteboards.
+ * Shapes are addressed by {@link DrawingActions#id}. Every edit carries the
+ * hybrid clock stamp and site of the register it writes, see {@link Replica}.
+ *
+ * STROKE_BEGIN and STROKE_POINTS stream a pen stroke while it is drawn;
+ * they are previews outside the replicated state, have no stamp, and the
+ * ADD sent when the stroke is finished replaces them. STROKE_CANCEL drops
+ * a preview that will not be finished, as when its board disconnects.
+ */
+final class Operation {
+    enum Kind {ADD, REMOVE, MOVE, RESTYLE, STROKE_BEGIN, STROKE_POINTS, STROKE_CANCEL}
+
+    final Kind kind;
+    final long shapeId;
+    final long stamp;
+    final int site;
+    // ADD only: the shape with all of its registers
+    final Replica.Entry entry;
+    // MOVE only: the new value of the position register
+    final double offsetX, offsetY;
+    // RESTYLE and STROKE_BEGIN
+    final Color color;
+    final double strokeWidth;
+    // STROKE_BEGIN and STROKE_POINTS: interleaved x/y samples
+    final double[] points;
+
+    private Operation(Kind kind, long shapeId, long stamp, int site, Replica.Entry entry, double offsetX,
+                      double offsetY, Color color, double strokeWidth, double[] points) {
+        this.kind = kind;
+        this.shapeId = shapeId;
+        this.stamp = stamp;
+        this.site = site;
+        this.entry = entry;
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        this.color = color;
+        this.strokeWidth = strokeWidth;
+        this.points = points;
+    }
+
+    // The shape is encoded as it is now, so send the operation before the board changes again.
+    static Operation add(Replica.Entry entry) {
+        return new Operation(Kind.ADD, entry.id, entry.presence.stamp, entry.presence.site, entry,
+                0, 0, entry.shape.style.color(), entry.shape.style.strokeWidth(), null);
+    }
+
+    static Operation remove(Replica.Entry entry) {
+        return remove(entry.id, entry.presence.stamp, entry.presence.site);
+    }
+
+    static Operation remove(long shapeId, long stamp, int site) {
+        return new Operation(Kind.REMOVE, shapeId, stamp, site, null, 0, 0, null, 0, null);
+    }
+
+    static Operation move(Replica.Entry entry) {
+        return move(entry.id, entry.position.stamp, entry.position.site, entry.offsetX, entry.offsetY);
+    }
+
+    static Operation move(long shapeId, long stamp, int site, double offsetX, double offsetY) {
+        return new Operation(Kind.MOVE, shapeId, stamp, site, null, offsetX, offsetY, null, 0, null);
+    }
+
+    static Operation restyle(Replica.Entry entry) {
+        return restyle(entry.id, entry.style.stamp, entry.style.site, entry.shape.style.color(), entry.shape.style.strokeWidth());
+    }
+
+    static Operation restyle(long shapeId, long stamp, int site, Color color, double strokeWidth) {
+        return new Operation(Kind.RESTYLE, shapeId, stamp, site, null, 0, 0, color, strokeWidth, null);
+    }
+
+    static Operation strokeBegin(long shapeId, Color color, double strokeWidth, double[] points) {
+        return new Operation(Kind.STROKE_BEGIN, shapeId, 0, 0, null, 0, 0, color, strokeWidth, points);
+    }
+
+    static Operation strokePoints(long shapeId, double[] points) {
+        return new Operation(Kind.STROKE_POINTS, shapeId, 0, 0, null, 0, 0, null, 0, points);
+    }
+
+    static Operation strokeCancel(long shapeId) {
+        return new Operation(Kind.STROKE_CANCEL, shapeId, 0, 0, null, 0, 0, null, 0, null);
+    }
+
+    // Whether the op streams a stroke still being drawn rather than changing the board.
+    boolean isPreview() {
+        return kind == Kind.STROKE_BEGIN || kind == Kind.STROKE_POINTS || kind == Kind.STROKE_CANCEL;
+    }
+
+    @Override
+    public String toString() {
+        return "Operation[" + kind + " " + Long.toHexString(shapeId) + " @" + Long.toHexString(stamp)
+                + "/" + Integer.toHexString(site) + "]";
+    }
+}
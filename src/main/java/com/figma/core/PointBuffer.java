@@ -0,0 +1,112 @@
+package com.figma.core;
+
+import java.util.Arrays;
+
+/**
+ * Growable, primitive storage for interleaved x/y coordinates.
+ * Avoids boxing every mouse sample into a pair of Doubles. Stored as
+ * floats, which is what board files keep anyway: strokes are most of a
+ * board's memory. Near the origin a float is far below a pixel, but the
+ * canvas is unbounded and float spacing grows with distance: it is 1/8 of
+ * a unit a million units out and a whole unit past 8 million, so strokes
+ * drawn that far away come back coarser, here and in saved files alike.
+ */
+final class PointBuffer {
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private float[] coords;
+    private int size;
+
+    PointBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    PointBuffer(int initialPoints) {
+        coords = new float[Math.max(2, initialPoints * 2)];
+    }
+
+    PointBuffer(PointBuffer other) {
+        coords = Arrays.copyOf(other.coords, Math.max(2, other.size));
+        size = other.size;
+    }
+
+    private PointBuffer(float[] coords, int points) {
+        this.coords = coords;
+        this.size = points * 2;
+    }
+
+    // The first points of the coordinates as a buffer, without a copy; it must not be added to.
+    static PointBuffer wrap(float[] coords, int points) {
+        return new PointBuffer(coords, points);
+    }
+
+    void add(double x, double y) {
+        ensureCapacity(size + 2);
+        coords[size++] = (float) x;
+        coords[size++] = (float) y;
+    }
+
+    // Appends interleaved x/y pairs, e.g. {x0, y0, x1, y1, ...}
+    void addAll(double[] xy, int offset, int length) {
+        if ((length & 1) != 0) {
+            throw new IllegalArgumentException("Coordinate count must be even: " + length);
+        }
+        ensureCapacity(size + length);
+        for (int i = 0; i < length; i++) {
+            coords[size++] = (float) xy[offset + i];
+        }
+    }
+
+    void translate(double deltaX, double deltaY) {
+        for (int i = 0; i < size; i += 2) {
+            coords[i] = (float) (coords[i] + deltaX);
+            coords[i + 1] = (float) (coords[i + 1] + deltaY);
+        }
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    // Drops spare capacity once a stroke is finished.
+    void trimToSize() {
+        if (coords.length > size && size >= 2) {
+            coords = Arrays.copyOf(coords, size);
+        }
+    }
+
+    double x(int point) {
+        return coords[point * 2];
+    }
+
+    double y(int point) {
+        return coords[point * 2 + 1];
+    }
+
+    int pointCount() {
+        return size / 2;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    double[] toArray() {
+        double[] xy = new double[size];
+        for (int i = 0; i < size; i++) {
+            xy[i] = coords[i];
+        }
+        return xy;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required > coords.length) {
+            coords = Arrays.copyOf(coords, Math.max(required, coords.length + (coords.length >> 1)));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PointBuffer[points=" + pointCount() + "]";
+    }
+}
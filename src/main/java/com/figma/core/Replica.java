@@ -0,0 +1,181 @@
+package com.figma.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Replication state of a board's shapes, so boards that receive the same
+ * edits in any order end up identical without a central lock.
+ *
+ * Each shape has three last-writer-wins registers: presence (on the board
+ * or deleted), position (its offset from where it was drawn) and style.
+ * Every edit is stamped by a {@link HybridClock} and the site that made
+ * it, and a register only takes a write with a newer (stamp, site) than
+ * its own. Depth is fixed when a shape is first added: its zOrder is that
+ * stamp, with ties broken by id (see {@link SpatialIndex#Z_ORDER}), so all
+ * boards stack shapes the same way.
+ *
+ * Deleted shapes stay as tombstones, so late edits and undoing the delete
+ * still find them. Edits that arrive before the shape's add are kept in a
+ * placeholder entry and replayed when it comes. Tombstones and placeholders
+ * are dropped {@link #TOMBSTONE_TTL_MILLIS} after they were made, an edit
+ * delayed longer than that may be lost. So may a delete: a board that
+ * missed it by more than that still has the shape when it rejoins, and
+ * merging its state back in brings the shape back everywhere.
+ *
+ * Only used on the board thread.
+ */
+final class Replica {
+    static final long TOMBSTONE_TTL_MILLIS = 10 * 60 * 1000;
+
+    final int site;
+    private final HybridClock clock;
+    private final Map<Long, Entry> entries = new HashMap<>();
+    // in the order the shapes were deleted
+    private final ArrayDeque<Entry> tombstones = new ArrayDeque<>();
+    private int nextShapeSeq;
+
+    Replica() {
+        this(ThreadLocalRandom.current().nextInt(), new HybridClock());
+    }
+
+    Replica(int site, HybridClock clock) {
+        this.site = site;
+        this.clock = clock;
+    }
+
+    static final class Register {
+        long stamp;
+        int site;
+
+        // Takes the write if it is newer; an equal write is a duplicate and is ignored.
+        boolean accept(long stamp, int site) {
+            if (!newer(stamp, site, this.stamp, this.site)) return false;
+            this.stamp = stamp;
+            this.site = site;
+            return true;
+        }
+
+        void set(Register other) {
+            stamp = other.stamp;
+            site = other.site;
+        }
+    }
+
+    static final class Entry {
+        final long id;
+        // null in a placeholder, for a shape whose add has not arrived
+        final DrawingActions shape;
+        boolean visible;
+        final Register presence = new Register();
+        final Register position = new Register();
+        final Register style = new Register();
+        // how far the shape has moved since it was drawn, the value of the position register
+        double offsetX, offsetY;
+        // placeholders only: moves and restyles to replay once the shape is added
+        List<Operation> pending;
+        // wall-clock time it was last deleted, or made as a placeholder
+        long removedMillis;
+
+        Entry(long id, DrawingActions shape) {
+            this.id = id;
+            this.shape = shape;
+        }
+    }
+
+    static boolean newer(long stamp, int site, long thanStamp, int thanSite) {
+        return stamp != thanStamp ? stamp > thanStamp : Integer.compareUnsigned(site, thanSite) > 0;
+    }
+
+    long tick() {
+        return clock.tick();
+    }
+
+    void observe(long stamp) {
+        clock.observe(stamp);
+    }
+
+    // Whether every register write of an edit from another board is stamped within the clock's horizon.
+    boolean admits(Operation op) {
+        if (!clock.admits(op.stamp)) return false;
+        return op.kind != Operation.Kind.ADD
+                || clock.admits(op.entry.position.stamp) && clock.admits(op.entry.style.stamp);
+    }
+
+    // The site in the high bits keeps ids from different boards apart.
+    long newShapeId() {
+        return Integer.toUnsignedLong(site) << 32 | Integer.toUnsignedLong(++nextShapeSeq);
+    }
+
+    Entry entry(long id) {
+        return entries.get(id);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    int tombstoneCount() {
+        return tombstones.size();
+    }
+
+    // Starts tracking a shape added on this board; every register takes the given stamp.
+    Entry track(DrawingActions shape, long stamp) {
+        Entry entry = new Entry(shape.id, shape);
+        entry.visible = true;
+        entry.presence.accept(stamp, site);
+        entry.position.set(entry.presence);
+        entry.style.set(entry.presence);
+        entries.put(entry.id, entry);
+        return entry;
+    }
+
+    // Takes over the entry of a shape first seen in an edit from another board.
+    void adopt(Entry entry) {
+        entries.put(entry.id, entry);
+    }
+
+    // Holds edits for a shape this board has not seen yet.
+    Entry placeholder(long id) {
+        Entry entry = new Entry(id, null);
+        entry.pending = new ArrayList<>();
+        entries.put(id, entry);
+        deleted(entry);
+        return entry;
+    }
+
+    // Tombstones and placeholders that are still kept, for a board that joins late.
+    List<Entry> deletedEntries() {
+        List<Entry> deleted = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (!entry.visible) deleted.add(entry);
+        }
+        return deleted;
+    }
+
+    void deleted(Entry entry) {
+        entry.visible = false;
+        entry.removedMillis = clock.wallMillis();
+        tombstones.add(entry);
+        collectGarbage();
+    }
+
+    void collectGarbage() {
+        long horizon = clock.wallMillis() - TOMBSTONE_TTL_MILLIS;
+        Entry entry;
+        while ((entry = tombstones.peek()) != null) {
+            // restored since, or replaced by the entry of a later add
+            if (entry.visible || entries.get(entry.id) != entry) {
+                tombstones.poll();
+                continue;
+            }
+            if (entry.removedMillis > horizon) break;
+            tombstones.poll();
+            entries.remove(entry.id);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.figma.core;
+
+import java.util.Arrays;
+
+// The last N samples of one metric; percentiles are computed on demand.
+final class RollingStats {
+    record Summary(long count, long p50, long p95, long p99, long max) {
+    }
+
+    private final long[] samples;
+    private long count;
+
+    RollingStats(int window) {
+        samples = new long[window];
+    }
+
+    synchronized void add(long value) {
+        samples[(int) (count++ % samples.length)] = value;
+    }
+
+    synchronized void clear() {
+        count = 0;
+    }
+
+    Summary summary() {
+        long[] sorted;
+        long total;
+        synchronized (this) {
+            total = count;
+            sorted = Arrays.copyOf(samples, (int) Math.min(count, samples.length));
+        }
+        if (sorted.length == 0) {
+            return new Summary(0, 0, 0, 0, 0);
+        }
+        Arrays.sort(sorted);
+        return new Summary(total, percentile(sorted, 0.50), percentile(sorted, 0.95),
+                percentile(sorted, 0.99), sorted[sorted.length - 1]);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)];
+    }
+}
@@ -0,0 +1,142 @@
+package com.figma.core;
+
+/**
+ * Bounding-volume hierarchy over the segments of a pen stroke, so hit
+ * tests and the eraser only look at the few segments near them instead of
+ * the whole stroke. Consecutive segments of a stroke lie close together,
+ * so each leaf takes a run of {@link #LEAF_SEGMENTS} and each inner node
+ * the runs of its two children, kept as a complete binary tree in one
+ * array of boxes.
+ *
+ * Built for one state of a {@link PointBuffer}; see {@link #covers}.
+ */
+final class SegmentTree {
+    static final int LEAF_SEGMENTS = 8;
+
+    private final PointBuffer points;
+    private final int pointCount;
+    private final int segmentCount;
+    // first leaf; node i has children 2i and 2i+1, the root is 1
+    private final int leafBase;
+    // minX, minY, maxX, maxY per node, empty leaves are inverted so nothing reaches them
+    private final double[] boxes;
+
+    private SegmentTree(PointBuffer points) {
+        this.points = points;
+        this.pointCount = points.pointCount();
+        this.segmentCount = Math.max(0, pointCount - 1);
+        int leaves = Math.max(1, (segmentCount + LEAF_SEGMENTS - 1) / LEAF_SEGMENTS);
+        this.leafBase = Integer.highestOneBit(leaves) == leaves ? leaves : Integer.highestOneBit(leaves) << 1;
+        this.boxes = new double[leafBase * 2 * 4];
+        for (int leaf = 0; leaf < leafBase; leaf++) {
+            int o = (leafBase + leaf) * 4;
+            boxes[o] = boxes[o + 1] = Double.POSITIVE_INFINITY;
+            boxes[o + 2] = boxes[o + 3] = Double.NEGATIVE_INFINITY;
+            int to = Math.min(segmentCount, (leaf + 1) * LEAF_SEGMENTS);
+            for (int s = leaf * LEAF_SEGMENTS; s < to; s++) {
+                include(o, points.x(s), points.y(s));
+                include(o, points.x(s + 1), points.y(s + 1));
+            }
+        }
+        for (int node = leafBase - 1; node >= 1; node--) {
+            int o = node * 4, l = node * 8, r = node * 8 + 4;
+            boxes[o] = Math.min(boxes[l], boxes[r]);
+            boxes[o + 1] = Math.min(boxes[l + 1], boxes[r + 1]);
+            boxes[o + 2] = Math.max(boxes[l + 2], boxes[r + 2]);
+            boxes[o + 3] = Math.max(boxes[l + 3], boxes[r + 3]);
+        }
+    }
+
+    static SegmentTree build(PointBuffer points) {
+        return new SegmentTree(points);
+    }
+
+    // Whether the tree still describes the buffer; it must be rebuilt after the points change.
+    boolean covers(PointBuffer points) {
+        return this.points == points && pointCount == points.pointCount();
+    }
+
+    // Whether any segment comes within radius of the segment from (ax, ay) to (bx, by).
+    boolean near(double ax, double ay, double bx, double by, double radius) {
+        return visit(ax, ay, bx, by, radius, null) > 0;
+    }
+
+    /**
+     * Marks the segments within radius of the segment from (ax, ay) to
+     * (bx, by); segment i joins points i and i + 1. Returns how many were
+     * newly marked.
+     */
+    int mark(double ax, double ay, double bx, double by, double radius, boolean[] marked) {
+        return visit(ax, ay, bx, by, radius, marked);
+    }
+
+    int segmentCount() {
+        return segmentCount;
+    }
+
+    // Stops at the first hit when marked is null.
+    private int visit(double ax, double ay, double bx, double by, double radius, boolean[] marked) {
+        double minX = Math.min(ax, bx) - radius, minY = Math.min(ay, by) - radius;
+        double maxX = Math.max(ax, bx) + radius, maxY = Math.max(ay, by) + radius;
+        double radiusSq = radius * radius;
+        int found = 0;
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 1;
+        while (top > 0) {
+            int node = stack[--top];
+            int o = node * 4;
+            if (boxes[o] > maxX || boxes[o + 2] < minX || boxes[o + 1] > maxY || boxes[o + 3] < minY) continue;
+            if (node < leafBase) {
+                stack[top++] = node * 2;
+                stack[top++] = node * 2 + 1;
+                continue;
+            }
+            int leaf = node - leafBase;
+            int to = Math.min(segmentCount, (leaf + 1) * LEAF_SEGMENTS);
+            for (int s = leaf * LEAF_SEGMENTS; s < to; s++) {
+                if (marked != null && marked[s]) continue;
+                double d = segmentsDistanceSq(points.x(s), points.y(s), points.x(s + 1), points.y(s + 1), ax, ay, bx, by);
+                if (d <= radiusSq) {
+                    if (marked == null) return 1;
+                    marked[s] = true;
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    private void include(int o, double x, double y) {
+        boxes[o] = Math.min(boxes[o], x);
+        boxes[o + 1] = Math.min(boxes[o + 1], y);
+        boxes[o + 2] = Math.max(boxes[o + 2], x);
+        boxes[o + 3] = Math.max(boxes[o + 3], y);
+    }
+
+    // Squared distance between the segments a-b and c-d, 0 where they cross.
+    static double segmentsDistanceSq(double ax, double ay, double bx, double by,
+                                     double cx, double cy, double dx, double dy) {
+        if (crosses(ax, ay, bx, by, cx, cy, dx, dy)) return 0;
+        return Math.min(
+                Math.min(StrokeSimplifier.segmentDistanceSq(ax, ay, cx, cy, dx, dy),
+                        StrokeSimplifier.segmentDistanceSq(bx, by, cx, cy, dx, dy)),
+                Math.min(StrokeSimplifier.segmentDistanceSq(cx, cy, ax, ay, bx, by),
+                        StrokeSimplifier.segmentDistanceSq(dx, dy, ax, ay, bx, by)));
+    }
+
+    private static boolean crosses(double ax, double ay, double bx, double by,
+                                   double cx, double cy, double dx, double dy) {
+        double d1 = cross(cx, cy, dx, dy, ax, ay);
+        double d2 = cross(cx, cy, dx, dy, bx, by);
+        double d3 = cross(ax, ay, bx, by, cx, cy);
+        double d4 = cross(ax, ay, bx, by, dx, dy);
+        // touching or collinear cases are left to the endpoint distances
+        return (d1 > 0) != (d2 > 0) && (d3 > 0) != (d4 > 0) && d1 != 0 && d2 != 0 && d3 != 0 && d4 != 0;
+    }
+
+    // Which side of the line p-q the point r is on.
+    private static double cross(double px, double py, double qx, double qy, double rx, double ry) {
+        return (qx - px) * (ry - py) - (qy - py) * (rx - px);
+    }
+}
@@ -0,0 +1,288 @@
+package com.figma.core;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable list of shapes in {@link SpatialIndex#Z_ORDER}, kept as a
+ * B+-tree whose updates copy only the path to the changed leaf. Adding or
+ * removing a shape costs O(log n) and shares everything else with the old
+ * list, so holding on to a list is an O(1) snapshot of which shapes were on
+ * the board and in what order. The shapes themselves are not copied and may
+ * still change.
+ */
+final class ShapeList extends AbstractList<DrawingActions> {
+    // most entries in a node; nodes split beyond this and merge below a quarter of it
+    static final int NODE_SIZE = 64;
+    private static final int MIN_SIZE = NODE_SIZE / 4;
+
+    static final ShapeList EMPTY = new ShapeList(null);
+
+    // null when empty
+    private final Node root;
+
+    private ShapeList(Node root) {
+        this.root = root;
+    }
+
+    // Builds the list from shapes already in Z_ORDER, with full leaves.
+    static ShapeList of(List<DrawingActions> sorted) {
+        if (sorted.isEmpty()) return EMPTY;
+        DrawingActions[] all = sorted.toArray(new DrawingActions[0]);
+        Node[] level = new Node[(all.length + NODE_SIZE - 1) / NODE_SIZE];
+        for (int i = 0; i < level.length; i++) {
+            level[i] = Node.leaf(Arrays.copyOfRange(all, i * NODE_SIZE, Math.min(all.length, (i + 1) * NODE_SIZE)));
+        }
+        while (level.length > 1) {
+            Node[] up = new Node[(level.length + NODE_SIZE - 1) / NODE_SIZE];
+            for (int i = 0; i < up.length; i++) {
+                up[i] = Node.branch(Arrays.copyOfRange(level, i * NODE_SIZE, Math.min(level.length, (i + 1) * NODE_SIZE)));
+            }
+            level = up;
+        }
+        return new ShapeList(level[0]);
+    }
+
+    @Override
+    public int size() {
+        return root == null ? 0 : root.size;
+    }
+
+    @Override
+    public DrawingActions get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size());
+        }
+        Node node = root;
+        while (node.children != null) {
+            int i = 0;
+            while (index >= node.children[i].size) {
+                index -= node.children[i].size;
+                i++;
+            }
+            node = node.children[i];
+        }
+        return node.items[index];
+    }
+
+    // The list with the shape added at its place, or this list if a shape with its id and depth is already on it.
+    ShapeList with(DrawingActions shape) {
+        if (root == null) return new ShapeList(Node.leaf(new DrawingActions[]{shape}));
+        Node[] result = insert(root, shape);
+        if (result == null) return this;
+        return new ShapeList(result.length == 1 ? result[0] : Node.branch(result));
+    }
+
+    // The list without this very shape, or this list if it is not on it.
+    ShapeList without(DrawingActions shape) {
+        if (root == null) return this;
+        Node result = remove(root, shape);
+        if (result == root) return this;
+        if (result == null) return EMPTY;
+        // a root left with one child gives way to it
+        while (result.children != null && result.children.length == 1) {
+            result = result.children[0];
+        }
+        return new ShapeList(result);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof DrawingActions shape) || root == null) return false;
+        Node node = root;
+        while (node.children != null) {
+            node = node.children[childFor(node, shape)];
+        }
+        int i = Arrays.binarySearch(node.items, shape, SpatialIndex.Z_ORDER);
+        return i >= 0 && node.items[i] == shape;
+    }
+
+    @Override
+    public Iterator<DrawingActions> iterator() {
+        return new Iterator<>() {
+            // the nodes from the root down to the current leaf, and the position in each
+            private final Node[] path = new Node[depth()];
+            private final int[] positions = new int[path.length];
+            private int remaining = size();
+
+            {
+                if (root != null) descend(0, root);
+            }
+
+            private void descend(int level, Node node) {
+                for (; level < path.length; level++) {
+                    path[level] = node;
+                    positions[level] = 0;
+                    if (node.children != null) node = node.children[0];
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return remaining > 0;
+            }
+
+            @Override
+            public DrawingActions next() {
+                if (remaining == 0) throw new NoSuchElementException();
+                int leaf = path.length - 1;
+                if (positions[leaf] == path[leaf].items.length) {
+                    // climb to the first level with a next child, then take the leftmost way down
+                    int level = leaf - 1;
+                    while (positions[level] + 1 == path[level].children.length) {
+                        level--;
+                    }
+                    positions[level]++;
+                    descend(level + 1, path[level].children[positions[level]]);
+                }
+                remaining--;
+                return path[leaf].items[positions[leaf]++];
+            }
+        };
+    }
+
+    private int depth() {
+        int depth = 0;
+        for (Node node = root; node != null; node = node.children != null ? node.children[0] : null) {
+            depth++;
+        }
+        return depth;
+    }
+
+    // The changed node, or two halves if it split; null if the shape's place is taken.
+    private static Node[] insert(Node node, DrawingActions shape) {
+        if (node.children == null) {
+            int i = Arrays.binarySearch(node.items, shape, SpatialIndex.Z_ORDER);
+            if (i >= 0) return null;
+            i = -i - 1;
+            DrawingActions[] items = new DrawingActions[node.items.length + 1];
+            System.arraycopy(node.items, 0, items, 0, i);
+            items[i] = shape;
+            System.arraycopy(node.items, i, items, i + 1, node.items.length - i);
+            if (items.length <= NODE_SIZE) return new Node[]{Node.leaf(items)};
+            int half = items.length / 2;
+            return new Node[]{Node.leaf(Arrays.copyOfRange(items, 0, half)),
+                    Node.leaf(Arrays.copyOfRange(items, half, items.length))};
+        }
+        int c = childFor(node, shape);
+        Node[] changed = insert(node.children[c], shape);
+        if (changed == null) return null;
+        Node[] children = new Node[node.children.length + changed.length - 1];
+        System.arraycopy(node.children, 0, children, 0, c);
+        System.arraycopy(changed, 0, children, c, changed.length);
+        System.arraycopy(node.children, c + 1, children, c + changed.length, node.children.length - c - 1);
+        if (children.length <= NODE_SIZE) return new Node[]{Node.branch(children)};
+        int half = children.length / 2;
+        return new Node[]{Node.branch(Arrays.copyOfRange(children, 0, half)),
+                Node.branch(Arrays.copyOfRange(children, half, children.length))};
+    }
+
+    // The node without the shape: the same node if it is not there, null if nothing is left.
+    private static Node remove(Node node, DrawingActions shape) {
+        if (node.children == null) {
+            int i = Arrays.binarySearch(node.items, shape, SpatialIndex.Z_ORDER);
+            // a copy of the shape has the same id and depth, so check identity
+            if (i < 0 || node.items[i] != shape) return node;
+            if (node.items.length == 1) return null;
+            DrawingActions[] items = new DrawingActions[node.items.length - 1];
+            System.arraycopy(node.items, 0, items, 0, i);
+            System.arraycopy(node.items, i + 1, items, i, items.length - i);
+            return Node.leaf(items);
+        }
+        int c = childFor(node, shape);
+        Node child = node.children[c];
+        Node changed = remove(child, shape);
+        if (changed == child) return node;
+        Node[] children;
+        if (changed == null) {
+            if (node.children.length == 1) return null;
+            children = new Node[node.children.length - 1];
+            System.arraycopy(node.children, 0, children, 0, c);
+            System.arraycopy(node.children, c + 1, children, c, children.length - c);
+        } else {
+            children = node.children.clone();
+            children[c] = changed;
+            if (changed.entries() < MIN_SIZE && children.length > 1) {
+                children = mergeWithNeighbour(children, c);
+            }
+        }
+        return Node.branch(children);
+    }
+
+    // Joins an underfull child with the one next to it, splitting them evenly again if that overfills.
+    private static Node[] mergeWithNeighbour(Node[] children, int c) {
+        int left = c > 0 ? c - 1 : c;
+        Node a = children[left], b = children[left + 1];
+        Node[] joined;
+        if (a.children == null) {
+            DrawingActions[] items = Arrays.copyOf(a.items, a.items.length + b.items.length);
+            System.arraycopy(b.items, 0, items, a.items.length, b.items.length);
+            joined = items.length <= NODE_SIZE ? new Node[]{Node.leaf(items)}
+                    : new Node[]{Node.leaf(Arrays.copyOfRange(items, 0, items.length / 2)),
+                    Node.leaf(Arrays.copyOfRange(items, items.length / 2, items.length))};
+        } else {
+            Node[] nodes = Arrays.copyOf(a.children, a.children.length + b.children.length);
+            System.arraycopy(b.children, 0, nodes, a.children.length, b.children.length);
+            joined = nodes.length <= NODE_SIZE ? new Node[]{Node.branch(nodes)}
+                    : new Node[]{Node.branch(Arrays.copyOfRange(nodes, 0, nodes.length / 2)),
+                    Node.branch(Arrays.copyOfRange(nodes, nodes.length / 2, nodes.length))};
+        }
+        Node[] result = new Node[children.length - 2 + joined.length];
+        System.arraycopy(children, 0, result, 0, left);
+        System.arraycopy(joined, 0, result, left, joined.length);
+        System.arraycopy(children, left + 2, result, left + joined.length, children.length - left - 2);
+        return result;
+    }
+
+    // The child whose range takes the shape: the first one ending at or after it.
+    private static int childFor(Node node, DrawingActions shape) {
+        Node[] children = node.children;
+        int low = 0, high = children.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (SpatialIndex.Z_ORDER.compare(children[mid].last, shape) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static final class Node {
+        // the shapes of a leaf, null in a branch
+        final DrawingActions[] items;
+        // the children of a branch, null in a leaf
+        final Node[] children;
+        // shapes below this node
+        final int size;
+        // the top-most shape below this node
+        final DrawingActions last;
+
+        private Node(DrawingActions[] items, Node[] children, int size, DrawingActions last) {
+            this.items = items;
+            this.children = children;
+            this.size = size;
+            this.last = last;
+        }
+
+        static Node leaf(DrawingActions[] items) {
+            return new Node(items, null, items.length, items[items.length - 1]);
+        }
+
+        static Node branch(Node[] children) {
+            int size = 0;
+            for (Node child : children) {
+                size += child.size;
+            }
+            return new Node(null, children, size, children[children.length - 1].last);
+        }
+
+        int entries() {
+            return children != null ? children.length : items.length;
+        }
+    }
+}
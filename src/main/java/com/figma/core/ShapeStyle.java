@@ -0,0 +1,30 @@
+package com.figma.core;
+
+import javafx.scene.paint.Color;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Colour and stroke width of a shape. A board uses a handful of these for
+ * all of its shapes, so each one is kept once and shared; get them through
+ * {@link #of}. Styles are only kept while a shape uses them: every width a
+ * slider drag passes through, and every style a peer or a file brings, is
+ * let go again.
+ */
+record ShapeStyle(Color color, double strokeWidth) {
+    // read from the loader and network threads too; the value is weak as well, it is the key itself
+    private static final Map<ShapeStyle, WeakReference<ShapeStyle>> INTERNED = new WeakHashMap<>();
+
+    static ShapeStyle of(Color color, double strokeWidth) {
+        ShapeStyle style = new ShapeStyle(color, strokeWidth);
+        synchronized (INTERNED) {
+            WeakReference<ShapeStyle> shared = INTERNED.get(style);
+            ShapeStyle existing = shared != null ? shared.get() : null;
+            if (existing != null) return existing;
+            INTERNED.put(style, new WeakReference<>(style));
+            return style;
+        }
+    }
+}
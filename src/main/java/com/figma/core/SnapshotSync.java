@@ -0,0 +1,252 @@
+package com.figma.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Brings clients joining a hosted session up to date without holding up the
+ * board. A snapshot is the board's shape list at the moment it is taken, an
+ * O(1) copy, sent as deflated chunks. The board thread encodes one chunk at
+ * a time in between other work and leaves deflating to the common pool, a
+ * few chunks ahead of what has gone out. The client is admitted as soon as the
+ * snapshot is taken, so edits made during the transfer reach it as usual;
+ * edits commute, so they may well overtake the chunk of the shape they touch.
+ *
+ * Each snapshot also logs the edits broadcast since it was taken. A client
+ * joining soon after gets the same chunks and the log instead of a new
+ * snapshot, and one that lost its connection half way resumes at the chunk
+ * it is missing. A snapshot is dropped once its log outgrows
+ * {@link #MAX_TAIL_BYTES}; resuming it then starts over.
+ *
+ * Not thread-safe, everything but the static helpers runs on the board thread.
+ */
+final class SnapshotSync {
+    private static final Log.Logger LOG = Log.get(SnapshotSync.class);
+    static final int CHUNK_SHAPES = 1024;
+    // past this, a new snapshot is cheaper for a new client than replaying the log
+    static final long REUSE_TAIL_BYTES = 1 << 20;
+    static final long MAX_TAIL_BYTES = 8 << 20;
+    // snapshots kept for joins and resumes, the newest last
+    private static final int MAX_CACHED = 2;
+    // chunks encoded but not deflated and sent yet, per snapshot
+    private static final int MAX_IN_FLIGHT = 4;
+
+    private final Whiteboard whiteboard;
+    private final CollabHost host;
+    private final Executor boardExecutor;
+    private final ArrayDeque<Snapshot> cached = new ArrayDeque<>();
+    // snapshots with chunks still to encode, cached or not
+    private final List<Snapshot> encoding = new ArrayList<>();
+
+    SnapshotSync(Whiteboard whiteboard, CollabHost host, Executor boardExecutor) {
+        this.whiteboard = whiteboard;
+        this.host = host;
+        this.boardExecutor = boardExecutor;
+    }
+
+    // Admits the client, resuming the snapshot it names at nextChunk if that is still around.
+    void join(int clientId, long snapshotId, int nextChunk) {
+        clientLeft(clientId);
+        Snapshot snapshot = find(snapshotId);
+        if (snapshot == null || nextChunk < 0 || nextChunk > snapshot.count) {
+            snapshot = reusable();
+            nextChunk = 0;
+        }
+        // what is ready now goes in one go, so no broadcast gets in between
+        List<byte[]> initial = new ArrayList<>(snapshot.chunks.subList(Math.min(nextChunk, snapshot.chunks.size()),
+                snapshot.chunks.size()));
+        initial.addAll(snapshot.tail);
+        host.admit(clientId, initial);
+        if (!snapshot.isComplete()) snapshot.subscribers.add(clientId);
+        int from = nextChunk;
+        long id = snapshot.id;
+        LOG.info(() -> "Client " + clientId + " joined, sending snapshot " + Long.toHexString(id) + " from chunk " + from);
+    }
+
+    void clientLeft(int clientId) {
+        for (Snapshot snapshot : encoding) {
+            snapshot.subscribers.remove(clientId);
+        }
+    }
+
+    // Logs an OPS message broadcast to every client for the snapshots that may still be joined or resumed.
+    void broadcast(byte[] message) {
+        for (Iterator<Snapshot> it = cached.iterator(); it.hasNext(); ) {
+            Snapshot snapshot = it.next();
+            snapshot.tail.add(message);
+            snapshot.tailBytes += message.length;
+            if (snapshot.tailBytes > MAX_TAIL_BYTES) {
+                it.remove();
+                snapshot.dropTail();
+            }
+        }
+    }
+
+    private Snapshot find(long snapshotId) {
+        for (Snapshot snapshot : cached) {
+            if (snapshot.id == snapshotId) return snapshot;
+        }
+        return null;
+    }
+
+    private Snapshot reusable() {
+        Snapshot newest = cached.peekLast();
+        if (newest != null && newest.tailBytes <= REUSE_TAIL_BYTES) return newest;
+        Snapshot snapshot = new Snapshot(whiteboard.replicatedShapes(), whiteboard.replicatedTombstones());
+        cached.addLast(snapshot);
+        encoding.add(snapshot);
+        if (cached.size() > MAX_CACHED) cached.removeFirst().dropTail();
+        boardExecutor.execute(() -> encodeNext(snapshot));
+        return snapshot;
+    }
+
+    // Encodes one chunk and queues the next, so other board work runs in between.
+    private void encodeNext(Snapshot snapshot) {
+        if (snapshot.tail == null && snapshot.subscribers.isEmpty()) {
+            // dropped, and nobody is waiting for the rest
+            encoding.remove(snapshot);
+            return;
+        }
+        int index = snapshot.encoded++;
+        List<Operation> ops = new ArrayList<>(CHUNK_SHAPES);
+        for (int i = 0; i < CHUNK_SHAPES && snapshot.shapes.hasNext(); i++) {
+            Operation add = whiteboard.replicatedAdd(snapshot.shapes.next());
+            if (add != null) ops.add(add);
+        }
+        if (index == snapshot.count - 1) ops.addAll(snapshot.tombstones);
+        byte[] frame = OpEncoder.encode(ops);
+        CompletableFuture<byte[]> chunk = CompletableFuture.supplyAsync(
+                () -> chunkMessage(snapshot.id, index, snapshot.count, frame));
+        // chunks go out in order, however their deflating finishes
+        snapshot.sent = snapshot.sent.thenCombine(chunk, (previous, message) -> message)
+                .thenAcceptAsync(message -> send(snapshot, message), boardExecutor)
+                .exceptionally(e -> {
+                    LOG.error("Sending snapshot chunk " + index + " failed", e);
+                    return null;
+                });
+        if (snapshot.encoded < snapshot.count) {
+            if (snapshot.encoded - snapshot.chunks.size() < MAX_IN_FLIGHT) {
+                boardExecutor.execute(() -> encodeNext(snapshot));
+            } else {
+                snapshot.waiting = true;
+            }
+        }
+    }
+
+    private void send(Snapshot snapshot, byte[] chunk) {
+        snapshot.chunks.add(chunk);
+        for (int clientId : snapshot.subscribers) {
+            host.admit(clientId, List.of(chunk));
+        }
+        if (snapshot.isComplete()) {
+            snapshot.subscribers.clear();
+            encoding.remove(snapshot);
+        } else if (snapshot.waiting) {
+            snapshot.waiting = false;
+            encodeNext(snapshot);
+        }
+    }
+
+    static byte[] opsMessage(byte[] frame) {
+        byte[] message = new byte[1 + frame.length];
+        message[0] = WireFormat.MESSAGE_OPS;
+        System.arraycopy(frame, 0, message, 1, frame.length);
+        return message;
+    }
+
+    static byte[] joinMessage(long snapshotId, int nextChunk) {
+        return ByteBuffer.allocate(15).put(WireFormat.MESSAGE_JOIN).putShort(WireFormat.VERSION)
+                .putLong(snapshotId).putInt(nextChunk).array();
+    }
+
+    static byte[] refuseMessage() {
+        return ByteBuffer.allocate(3).put(WireFormat.MESSAGE_REFUSE).putShort(WireFormat.VERSION).array();
+    }
+
+    static byte[] chunkMessage(long snapshotId, int index, int count, byte[] frame) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(frame);
+        deflater.finish();
+        ByteBuffer out = ByteBuffer.allocate(21 + frame.length / 2 + 64);
+        out.put(WireFormat.MESSAGE_CHUNK).putLong(snapshotId).putInt(index).putInt(count).putInt(frame.length);
+        while (!deflater.finished()) {
+            if (!out.hasRemaining()) {
+                out = ByteBuffer.allocate(out.capacity() * 2).put(out.flip());
+            }
+            out.position(out.position() + deflater.deflate(out.array(), out.position(), out.remaining()));
+        }
+        deflater.end();
+        byte[] message = new byte[out.position()];
+        System.arraycopy(out.array(), 0, message, 0, message.length);
+        return message;
+    }
+
+    // The frame of a CHUNK message whose header up to the frame length has been read.
+    static byte[] inflate(ByteBuffer in, int frameLength) throws IOException {
+        if (frameLength < 0 || frameLength > CollabHost.MAX_FRAME_SIZE) {
+            throw new IOException("Bad chunk length " + frameLength);
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(in);
+            byte[] frame = new byte[frameLength];
+            int read = 0;
+            while (read < frameLength && !inflater.finished()) {
+                int n = inflater.inflate(frame, read, frameLength - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                read += n;
+            }
+            if (read != frameLength) throw new IOException("Truncated chunk");
+            return frame;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt chunk", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static final class Snapshot {
+        // random, so a client coming back to a restarted host does not resume someone else's snapshot
+        final long id = ThreadLocalRandom.current().nextLong() | 1;
+        final Iterator<DrawingActions> shapes;
+        final List<Operation> tombstones;
+        final int count;
+        // the chunks sent so far
+        final List<byte[]> chunks = new ArrayList<>();
+        int encoded;
+        // encoding waits for chunks in flight to go out
+        boolean waiting;
+        CompletableFuture<Void> sent = CompletableFuture.completedFuture(null);
+        // clients waiting for chunks not encoded yet
+        final Set<Integer> subscribers = new HashSet<>();
+        // OPS messages broadcast since the snapshot was taken, null once it is dropped
+        List<byte[]> tail = new ArrayList<>();
+        long tailBytes;
+
+        Snapshot(ShapeList shapes, List<Operation> tombstones) {
+            this.shapes = shapes.iterator();
+            this.tombstones = tombstones;
+            this.count = Math.max(1, (shapes.size() + CHUNK_SHAPES - 1) / CHUNK_SHAPES);
+        }
+
+        boolean isComplete() {
+            return chunks.size() == count;
+        }
+
+        void dropTail() {
+            tail = null;
+        }
+    }
+}
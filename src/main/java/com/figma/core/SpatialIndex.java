@@ -0,0 +1,248 @@
+package com.figma.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Quadtree over the selection bounds of the board's shapes.
+ * Each shape lives in the smallest node that fully contains it, so a query
+ * only walks the nodes that reach into the queried area. The root grows on
+ * demand, so there is no fixed world size.
+ */
+final class SpatialIndex {
+    private static final int NODE_CAPACITY = 16;
+    private static final double MIN_NODE_SIZE = 16;
+    private static final double INITIAL_SIZE = 2048;
+
+    // boards can stamp two shapes alike, the id keeps the order total and the same everywhere
+    static final Comparator<DrawingActions> Z_ORDER =
+            Comparator.<DrawingActions>comparingLong(a -> a.zOrder).thenComparingLong(a -> a.id);
+
+    private Node root;
+    private final IdentityHashMap<DrawingActions, Node> owners = new IdentityHashMap<>();
+
+    SpatialIndex() {
+        clear();
+    }
+
+    // Bounds that are NaN or infinite are refused, the root could never grow to enclose them.
+    void insert(DrawingActions action) {
+        if (owners.containsKey(action)) {
+            update(action);
+            return;
+        }
+        checkFinite(action);
+        double minX = action.left, minY = action.top;
+        double maxX = action.right, maxY = action.bottom;
+        while (!root.encloses(minX, minY, maxX, maxY)) {
+            grow(minX, minY);
+        }
+        insert(root, action, minX, minY, maxX, maxY);
+    }
+
+    boolean remove(DrawingActions action) {
+        Node owner = owners.remove(action);
+        if (owner == null) return false;
+        owner.removeItem(action);
+        return true;
+    }
+
+    // Call after a shape's bounds changed (move, resize, ...).
+    void update(DrawingActions action) {
+        // before it is taken out, so a refused shape stays where it was
+        checkFinite(action);
+        Node owner = owners.get(action);
+        if (owner != null) {
+            double minX = action.left, minY = action.top;
+            double maxX = action.right, maxY = action.bottom;
+            // Still fits where it is and cannot sink any deeper: nothing to do.
+            if (owner.encloses(minX, minY, maxX, maxY) && owner.children == null) {
+                return;
+            }
+            remove(action);
+        }
+        insert(action);
+    }
+
+    void clear() {
+        owners.clear();
+        root = new Node(-INITIAL_SIZE / 2, -INITIAL_SIZE / 2, INITIAL_SIZE);
+    }
+
+    void rebuild(Collection<? extends DrawingActions> actions) {
+        clear();
+        for (DrawingActions action : actions) {
+            insert(action);
+        }
+    }
+
+    int size() {
+        return owners.size();
+    }
+
+    boolean contains(DrawingActions action) {
+        return owners.containsKey(action);
+    }
+
+    /**
+     * Returns the shape drawn on top that passes within tolerance of the
+     * point, or null. Shapes are looked for up to reach outside their
+     * bounds, which do not include the width of their stroke.
+     */
+    DrawingActions topmostAt(double x, double y, double tolerance, double reach) {
+        List<DrawingActions> near = new ArrayList<>();
+        collect(root, x - reach, y - reach, x + reach, y + reach, near);
+        // top-most first, so the exact test stops at the first hit
+        near.sort(Z_ORDER.reversed());
+        for (DrawingActions candidate : near) {
+            if (candidate.hits(x, y, tolerance)) return candidate;
+        }
+        return null;
+    }
+
+    // All shapes whose bounds intersect the rectangle, bottom-most first.
+    List<DrawingActions> query(double minX, double minY, double maxX, double maxY) {
+        List<DrawingActions> result = new ArrayList<>();
+        collect(root, minX, minY, maxX, maxY, result);
+        result.sort(Z_ORDER);
+        return result;
+    }
+
+    // Same shapes as query, in no particular order.
+    void collect(double minX, double minY, double maxX, double maxY, List<DrawingActions> out) {
+        collect(root, minX, minY, maxX, maxY, out);
+    }
+
+    private static void checkFinite(DrawingActions action) {
+        if (!Double.isFinite(action.left) || !Double.isFinite(action.top)
+                || !Double.isFinite(action.right) || !Double.isFinite(action.bottom)) {
+            throw new IllegalArgumentException("Shape bounds are not finite: " + action.left + ", " + action.top
+                    + ", " + action.right + ", " + action.bottom);
+        }
+    }
+
+    static boolean boundsIntersect(DrawingActions a, double minX, double minY, double maxX, double maxY) {
+        return a.left <= maxX && a.top <= maxY && a.right >= minX && a.bottom >= minY;
+    }
+
+    private void collect(Node node, double minX, double minY, double maxX, double maxY, List<DrawingActions> out) {
+        if (!node.intersects(minX, minY, maxX, maxY)) return;
+        for (int i = 0; i < node.size; i++) {
+            DrawingActions candidate = node.items[i];
+            if (boundsIntersect(candidate, minX, minY, maxX, maxY)) {
+                out.add(candidate);
+            }
+        }
+        if (node.children != null) {
+            for (Node child : node.children) {
+                collect(child, minX, minY, maxX, maxY, out);
+            }
+        }
+    }
+
+    private void insert(Node node, DrawingActions action, double minX, double minY, double maxX, double maxY) {
+        while (node.children != null) {
+            Node child = node.childEnclosing(minX, minY, maxX, maxY);
+            if (child == null) break;
+            node = child;
+        }
+        node.addItem(action);
+        owners.put(action, node);
+        if (node.children == null && node.size > NODE_CAPACITY && node.extent / 2 >= MIN_NODE_SIZE) {
+            split(node);
+        }
+    }
+
+    private void split(Node node) {
+        double half = node.extent / 2;
+        node.children = new Node[]{
+                new Node(node.x, node.y, half),
+                new Node(node.x + half, node.y, half),
+                new Node(node.x, node.y + half, half),
+                new Node(node.x + half, node.y + half, half)
+        };
+        DrawingActions[] items = node.items;
+        int count = node.size;
+        node.items = new DrawingActions[4];
+        node.size = 0;
+        for (int i = 0; i < count; i++) {
+            DrawingActions action = items[i];
+            Node child = node.childEnclosing(action.left, action.top, action.right, action.bottom);
+            Node target = child == null ? node : child;
+            target.addItem(action);
+            owners.put(action, target);
+        }
+    }
+
+    // Doubles the root towards the given point; the old root becomes one quadrant.
+    private void grow(double towardsX, double towardsY) {
+        Node old = root;
+        double size = old.extent;
+        boolean left = towardsX < old.x;
+        boolean up = towardsY < old.y;
+        double x = left ? old.x - size : old.x;
+        double y = up ? old.y - size : old.y;
+        Node grown = new Node(x, y, size * 2);
+        grown.children = new Node[]{
+                new Node(x, y, size),
+                new Node(x + size, y, size),
+                new Node(x, y + size, size),
+                new Node(x + size, y + size, size)
+        };
+        grown.children[(left ? 1 : 0) + (up ? 2 : 0)] = old;
+        root = grown;
+    }
+
+    private static final class Node {
+        final double x, y, extent;
+        Node[] children;
+        DrawingActions[] items = new DrawingActions[4];
+        int size;
+
+        Node(double x, double y, double extent) {
+            this.x = x;
+            this.y = y;
+            this.extent = extent;
+        }
+
+        boolean encloses(double minX, double minY, double maxX, double maxY) {
+            return minX >= x && minY >= y && maxX < x + extent && maxY < y + extent;
+        }
+
+        boolean intersects(double minX, double minY, double maxX, double maxY) {
+            return minX < x + extent && minY < y + extent && maxX >= x && maxY >= y;
+        }
+
+        int quadrantOf(double px, double py) {
+            double half = extent / 2;
+            return (px >= x + half ? 1 : 0) + (py >= y + half ? 2 : 0);
+        }
+
+        Node childEnclosing(double minX, double minY, double maxX, double maxY) {
+            Node child = children[quadrantOf(minX, minY)];
+            return child.encloses(minX, minY, maxX, maxY) ? child : null;
+        }
+
+        void addItem(DrawingActions action) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = action;
+        }
+
+        void removeItem(DrawingActions action) {
+            for (int i = 0; i < size; i++) {
+                if (items[i] == action) {
+                    // Order inside a node does not matter, swap the last item in.
+                    items[i] = items[--size];
+                    items[size] = null;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.figma.core;
+
+import javafx.scene.paint.Color;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Batches the samples of the pen stroke being drawn locally. The first
+ * sample of a stroke starts a window; everything that arrives within it is
+ * sent as one STROKE_BEGIN or STROKE_POINTS operation when it closes, so a
+ * fast mouse costs one message per window instead of one per sample.
+ */
+final class StrokeCoalescer implements Closeable {
+    static final long DEFAULT_WINDOW_MILLIS = 30;
+
+    private final Consumer<Operation> sink;
+    private final long windowMillis;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("stroke-coalescer").daemon().factory());
+
+    private long strokeId;
+    private Color color;
+    private double strokeWidth;
+    private boolean begun;
+    private final PointBuffer pending = new PointBuffer();
+    private ScheduledFuture<?> scheduledFlush;
+
+    StrokeCoalescer(Consumer<Operation> sink) {
+        this(sink, DEFAULT_WINDOW_MILLIS);
+    }
+
+    StrokeCoalescer(Consumer<Operation> sink, long windowMillis) {
+        this.sink = sink;
+        this.windowMillis = windowMillis;
+    }
+
+    synchronized void sample(DrawingActions stroke, double x, double y) {
+        if (stroke.id != strokeId) {
+            flush();
+            strokeId = stroke.id;
+            color = stroke.style.color();
+            strokeWidth = stroke.style.strokeWidth();
+            begun = false;
+        }
+        pending.add(x, y);
+        if (scheduledFlush == null) {
+            scheduledFlush = timer.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // The finished stroke is about to be sent whole, so pending samples are dropped.
+    synchronized void finish(long id) {
+        if (id != strokeId) return;
+        cancelFlush();
+        pending.clear();
+        strokeId = 0;
+    }
+
+    synchronized void flush() {
+        cancelFlush();
+        if (pending.isEmpty() || strokeId == 0) return;
+        double[] points = pending.toArray();
+        pending.clear();
+        sink.accept(begun
+                ? Operation.strokePoints(strokeId, points)
+                : Operation.strokeBegin(strokeId, color, strokeWidth, points));
+        begun = true;
+    }
+
+    @Override
+    public synchronized void close() {
+        cancelFlush();
+        timer.shutdownNow();
+    }
+
+    private void cancelFlush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+    }
+}
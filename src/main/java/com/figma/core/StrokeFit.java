@@ -0,0 +1,216 @@
+package com.figma.core;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Smooths a pen stroke while it is drawn. Samples are taken on the board
+ * thread, which drops those within {@link #MIN_STEP_PIXELS} of the last one
+ * kept, and fitted on a worker: consecutive samples are joined with
+ * centripetal Catmull-Rom curves flattened into short segments, and every
+ * sample gets a width from the pen's smoothed speed, thinner the faster it
+ * moves. A curve piece only needs the four samples around it, so a sample
+ * costs the same however long the stroke already is.
+ *
+ * After every sample the fitted points are published as a {@link Fitted}
+ * the board thread draws without locking. The piece up to the newest sample
+ * is fitted once the next sample shows where the stroke goes, or when the
+ * stroke is finished. Finishing fits the samples the worker has not got to
+ * on the board thread itself, so it waits at most for the one sample the
+ * worker is on, however far behind the shared worker is.
+ */
+final class StrokeFit {
+    // screen pixels
+    static final double MIN_STEP_PIXELS = 1;
+    // length in screen pixels of the segments a curve piece is flattened into, and the most of them per piece
+    private static final double SEGMENT_PIXELS = 2;
+    private static final int MAX_SEGMENTS = 16;
+    // speed in screen pixels per millisecond at which a stroke is thinnest, and its width there
+    private static final double THIN_SPEED = 4;
+    private static final double THIN_WIDTH = 0.4;
+    // weight of the newest speed in the smoothed one
+    private static final double SPEED_SMOOTHING = 0.2;
+    // strokes are drawn one at a time, one thread serves every board
+    private static final Executor FITTER = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("stroke-fitter").daemon().factory());
+
+    /**
+     * The points fitted so far, and a width for each as a fraction of the
+     * stroke width in 1/255 steps. Points fitted later go behind these
+     * without touching them.
+     */
+    record Fitted(PointBuffer points, byte[] widths) {
+    }
+
+    private final double scale;
+    private final Executor executor;
+    // on the board thread
+    private double lastX, lastY;
+    private int taken;
+    // samples taken and not fitted yet; the fitter takes them one per task, finish() all that are left
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Sample> pending = new ArrayDeque<>();
+    // the rest is guarded by lock; the newest samples kept, the newest last
+    private final double[] windowX = new double[4];
+    private final double[] windowY = new double[4];
+    private final double[] windowWidth = new double[4];
+    private int kept;
+    private volatile int fittedSamples;
+    private long lastNanos;
+    private double speed;
+    private float[] coords = new float[256];
+    private byte[] widths = new byte[128];
+    private int count;
+    private volatile Fitted fitted = new Fitted(PointBuffer.wrap(coords, 0), widths);
+
+    // scale is the view scale the stroke is drawn at, screen pixels per world unit
+    StrokeFit(double scale) {
+        this(scale, FITTER);
+    }
+
+    StrokeFit(double scale, Executor executor) {
+        this.scale = scale;
+        this.executor = executor;
+    }
+
+    // Takes a sample on the board thread; false if it is too close to the last one to matter.
+    boolean sample(double x, double y) {
+        if (taken > 0) {
+            double minStep = MIN_STEP_PIXELS / scale;
+            if ((x - lastX) * (x - lastX) + (y - lastY) * (y - lastY) < minStep * minStep) return false;
+        }
+        taken++;
+        lastX = x;
+        lastY = y;
+        Sample sample = new Sample(x, y, System.nanoTime());
+        lock.lock();
+        try {
+            pending.add(sample);
+        } finally {
+            lock.unlock();
+        }
+        executor.execute(this::fitNext);
+        return true;
+    }
+
+    Fitted fitted() {
+        return fitted;
+    }
+
+    // Whether samples taken are still waiting for the fitter; the piece to the newest sample does not count.
+    boolean isBehind() {
+        return fittedSamples < taken;
+    }
+
+    // Fits the samples still pending and the last piece on the calling thread, and returns the whole stroke.
+    Fitted finish() {
+        lock.lock();
+        try {
+            for (Sample sample; (sample = pending.poll()) != null; ) {
+                add(sample);
+            }
+            if (kept >= 2) piece(kept >= 3 ? 1 : 2, 2, 3, 3);
+            publish();
+            return fitted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void fitNext() {
+        lock.lock();
+        try {
+            Sample sample = pending.poll();
+            // none once finish() has taken the rest
+            if (sample != null) add(sample);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void add(Sample sample) {
+        double x = sample.x(), y = sample.y();
+        long nanos = sample.nanos();
+        double width = 1;
+        if (kept > 0) {
+            double distance = Math.hypot(x - windowX[3], y - windowY[3]) * scale;
+            double millis = Math.max((nanos - lastNanos) / 1e6, 1);
+            speed += SPEED_SMOOTHING * (distance / millis - speed);
+            width = 1 - (1 - THIN_WIDTH) * Math.min(speed / THIN_SPEED, 1);
+        }
+        lastNanos = nanos;
+        System.arraycopy(windowX, 1, windowX, 0, 3);
+        System.arraycopy(windowY, 1, windowY, 0, 3);
+        System.arraycopy(windowWidth, 1, windowWidth, 0, 3);
+        windowX[3] = x;
+        windowY[3] = y;
+        windowWidth[3] = width;
+        kept++;
+        if (kept == 1) {
+            append(x, y, width);
+        } else if (kept >= 3) {
+            // the first piece has nothing before it and starts straight
+            piece(kept >= 4 ? 0 : 1, 1, 2, 3);
+        }
+        publish();
+        fittedSamples = kept;
+    }
+
+    /**
+     * Appends the piece from window point b to c, with a before and d after,
+     * flattened. The piece is a cubic Bezier through the same points as the
+     * centripetal Catmull-Rom curve, see Yuksel, Schaefer and Keyser,
+     * "Parameterization and applications of Catmull-Rom curves" (2011).
+     */
+    private void piece(int a, int b, int c, int d) {
+        double x0 = windowX[a], y0 = windowY[a], x1 = windowX[b], y1 = windowY[b];
+        double x2 = windowX[c], y2 = windowY[c], x3 = windowX[d], y3 = windowY[d];
+        // square roots of the chord lengths, the centripetal parameterization
+        double d1 = Math.sqrt(Math.hypot(x1 - x0, y1 - y0));
+        double d2 = Math.sqrt(Math.hypot(x2 - x1, y2 - y1));
+        double d3 = Math.sqrt(Math.hypot(x3 - x2, y3 - y2));
+        double c1x = x1, c1y = y1, c2x = x2, c2y = y2;
+        if (d1 > 0) {
+            double k = 2 * d1 * d1 + 3 * d1 * d2 + d2 * d2, n = 3 * d1 * (d1 + d2);
+            c1x = (d1 * d1 * x2 - d2 * d2 * x0 + k * x1) / n;
+            c1y = (d1 * d1 * y2 - d2 * d2 * y0 + k * y1) / n;
+        }
+        if (d3 > 0) {
+            double k = 2 * d3 * d3 + 3 * d3 * d2 + d2 * d2, n = 3 * d3 * (d3 + d2);
+            c2x = (d3 * d3 * x1 - d2 * d2 * x3 + k * x2) / n;
+            c2y = (d3 * d3 * y1 - d2 * d2 * y3 + k * y2) / n;
+        }
+        double w1 = windowWidth[b], w2 = windowWidth[c];
+        int segments = (int) Math.min(MAX_SEGMENTS, Math.ceil(d2 * d2 * scale / SEGMENT_PIXELS));
+        segments = Math.max(1, segments);
+        for (int i = 1; i <= segments; i++) {
+            double t = (double) i / segments, u = 1 - t;
+            double b0 = u * u * u, b1 = 3 * u * u * t, b2 = 3 * u * t * t, b3 = t * t * t;
+            append(b0 * x1 + b1 * c1x + b2 * c2x + b3 * x2,
+                    b0 * y1 + b1 * c1y + b2 * c2y + b3 * y2,
+                    w1 + (w2 - w1) * t);
+        }
+    }
+
+    private void append(double x, double y, double width) {
+        if (count * 2 + 2 > coords.length) {
+            // a copy, the published arrays stay as they are
+            coords = Arrays.copyOf(coords, coords.length * 2);
+            widths = Arrays.copyOf(widths, widths.length * 2);
+        }
+        coords[count * 2] = (float) x;
+        coords[count * 2 + 1] = (float) y;
+        widths[count] = (byte) Math.max(1, Math.round(width * 255));
+        count++;
+    }
+
+    private void publish() {
+        fitted = new Fitted(PointBuffer.wrap(coords, count), widths);
+    }
+
+    private record Sample(double x, double y, long nanos) {
+    }
+}
@@ -0,0 +1,114 @@
+package com.figma.core;
+
+import java.util.Arrays;
+
+/**
+ * Ramer-Douglas-Peucker reduction of freehand strokes. Points closer than
+ * the tolerance to the simplified line are dropped, which removes most raw
+ * mouse samples without a visible change in shape.
+ */
+final class StrokeSimplifier {
+    static final double DEFAULT_TOLERANCE = 0.5;
+
+    private StrokeSimplifier() {
+    }
+
+    // Returns the input unchanged if nothing can be removed.
+    static PointBuffer simplify(PointBuffer points, double tolerance) {
+        boolean[] keep = keep(points, tolerance);
+        return keep == null ? points : select(points, keep);
+    }
+
+    // Which points the simplified stroke keeps, or null if it keeps them all.
+    static boolean[] keep(PointBuffer points, double tolerance) {
+        return keep(points, null, 0, tolerance);
+    }
+
+    /**
+     * Same for a stroke with a width per point, see {@link Pen#widths}: a
+     * point also stays if dropping it would move the edge of the stroke by
+     * more than the tolerance, widthScale being the edge's move per width step.
+     */
+    static boolean[] keep(PointBuffer points, byte[] widths, double widthScale, double tolerance) {
+        int count = points.pointCount();
+        if (count < 3 || tolerance <= 0) return null;
+
+        boolean[] keep = new boolean[count];
+        keep[0] = true;
+        keep[count - 1] = true;
+        double toleranceSq = tolerance * tolerance;
+
+        // explicit stack of (first, last) ranges; long strokes would overflow recursion
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = count - 1;
+        int kept = 2;
+
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            double maxDistSq = 0;
+            int index = -1;
+            double ax = points.x(first), ay = points.y(first);
+            double bx = points.x(last), by = points.y(last);
+            int firstWidth = widths != null ? widths[first] & 0xFF : 0;
+            int lastWidth = widths != null ? widths[last] & 0xFF : 0;
+            for (int i = first + 1; i < last; i++) {
+                double d = segmentDistanceSq(points.x(i), points.y(i), ax, ay, bx, by);
+                if (widths != null) {
+                    double expected = firstWidth + (double) (lastWidth - firstWidth) * (i - first) / (last - first);
+                    double edge = ((widths[i] & 0xFF) - expected) * widthScale;
+                    d = Math.max(d, edge * edge);
+                }
+                if (d > maxDistSq) {
+                    maxDistSq = d;
+                    index = i;
+                }
+            }
+            if (index >= 0 && maxDistSq > toleranceSq) {
+                keep[index] = true;
+                kept++;
+                if (top + 4 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = first;
+                stack[top++] = index;
+                stack[top++] = index;
+                stack[top++] = last;
+            }
+        }
+
+        return kept == count ? null : keep;
+    }
+
+    static PointBuffer select(PointBuffer points, boolean[] keep) {
+        PointBuffer selected = new PointBuffer(count(keep));
+        for (int i = 0; i < keep.length; i++) {
+            if (keep[i]) {
+                selected.add(points.x(i), points.y(i));
+            }
+        }
+        return selected;
+    }
+
+    static int count(boolean[] keep) {
+        int kept = 0;
+        for (boolean k : keep) {
+            if (k) kept++;
+        }
+        return kept;
+    }
+
+    // Squared distance from (px, py) to the segment a-b.
+    static double segmentDistanceSq(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSq = dx * dx + dy * dy;
+        double t = lengthSq == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSq;
+        t = Math.max(0, Math.min(1, t));
+        double cx = ax + t * dx - px;
+        double cy = ay + t * dy - py;
+        return cx * cx + cy * cy;
+    }
+}
@@ -0,0 +1,77 @@
+package com.figma.core;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.StrokeLineCap;
+import javafx.scene.shape.StrokeLineJoin;
+import javafx.scene.text.Font;
+
+/**
+ * The drawing calls shapes and the board make, so they can render into
+ * something other than a live canvas (benchmarks, offscreen images).
+ */
+interface Surface {
+    void save();
+    void restore();
+
+    void setStroke(Color color);
+    void setFill(Color color);
+    void setLineWidth(double width);
+    void setLineCap(StrokeLineCap cap);
+    void setLineJoin(StrokeLineJoin join);
+    void setFont(Font font);
+    void setTransform(double mxx, double myx, double mxy, double myy, double mxt, double myt);
+
+    void beginPath();
+    void moveTo(double x, double y);
+    void lineTo(double x, double y);
+    void rect(double x, double y, double w, double h);
+    void stroke();
+    void clip();
+
+    void strokeLine(double x1, double y1, double x2, double y2);
+    void strokeRect(double x, double y, double w, double h);
+    void strokeOval(double x, double y, double w, double h);
+    void fillRect(double x, double y, double w, double h);
+    void clearRect(double x, double y, double w, double h);
+    void fillText(String text, double x, double y);
+
+    static Surface of(GraphicsContext gc) {
+        return new CanvasSurface(gc);
+    }
+}
+
+final class CanvasSurface implements Surface {
+    private final GraphicsContext gc;
+
+    CanvasSurface(GraphicsContext gc) {
+        this.gc = gc;
+    }
+
+    @Override public void save() { gc.save(); }
+    @Override public void restore() { gc.restore(); }
+
+    @Override public void setStroke(Color color) { gc.setStroke(color); }
+    @Override public void setFill(Color color) { gc.setFill(color); }
+    @Override public void setLineWidth(double width) { gc.setLineWidth(width); }
+    @Override public void setLineCap(StrokeLineCap cap) { gc.setLineCap(cap); }
+    @Override public void setLineJoin(StrokeLineJoin join) { gc.setLineJoin(join); }
+    @Override public void setFont(Font font) { gc.setFont(font); }
+    @Override public void setTransform(double mxx, double myx, double mxy, double myy, double mxt, double myt) {
+        gc.setTransform(mxx, myx, mxy, myy, mxt, myt);
+    }
+
+    @Override public void beginPath() { gc.beginPath(); }
+    @Override public void moveTo(double x, double y) { gc.moveTo(x, y); }
+    @Override public void lineTo(double x, double y) { gc.lineTo(x, y); }
+    @Override public void rect(double x, double y, double w, double h) { gc.rect(x, y, w, h); }
+    @Override public void stroke() { gc.stroke(); }
+    @Override public void clip() { gc.clip(); }
+
+    @Override public void strokeLine(double x1, double y1, double x2, double y2) { gc.strokeLine(x1, y1, x2, y2); }
+    @Override public void strokeRect(double x, double y, double w, double h) { gc.strokeRect(x, y, w, h); }
+    @Override public void strokeOval(double x, double y, double w, double h) { gc.strokeOval(x, y, w, h); }
+    @Override public void fillRect(double x, double y, double w, double h) { gc.fillRect(x, y, w, h); }
+    @Override public void clearRect(double x, double y, double w, double h) { gc.clearRect(x, y, w, h); }
+    @Override public void fillText(String text, double x, double y) { gc.fillText(text, x, y); }
+}
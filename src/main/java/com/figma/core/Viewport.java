@@ -0,0 +1,116 @@
+package com.figma.core;
+
+/**
+ * Maps the unbounded world the shapes live in onto the screen: a world
+ * point p appears at (p - origin) * scale. The world is split into square
+ * tiles, and a repaint covers the tiles the screen overlaps, so only shapes
+ * touching those tiles are drawn.
+ */
+final class Viewport {
+    static final double TILE_SIZE = 256;
+    static final double MIN_SCALE = 0.02;
+    static final double MAX_SCALE = 32;
+
+    // world coordinates shown at the top-left corner of the screen
+    private double originX;
+    private double originY;
+    private double scale = 1;
+    private double width;
+    private double height;
+
+    Viewport(double width, double height) {
+        setSize(width, height);
+    }
+
+    void setSize(double width, double height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    double getWidth() {
+        return width;
+    }
+
+    double getHeight() {
+        return height;
+    }
+
+    double getScale() {
+        return scale;
+    }
+
+    double getOriginX() {
+        return originX;
+    }
+
+    double getOriginY() {
+        return originY;
+    }
+
+    double toWorldX(double screenX) {
+        return originX + screenX / scale;
+    }
+
+    double toWorldY(double screenY) {
+        return originY + screenY / scale;
+    }
+
+    double toScreenX(double worldX) {
+        return (worldX - originX) * scale;
+    }
+
+    double toScreenY(double worldY) {
+        return (worldY - originY) * scale;
+    }
+
+    // Moves the view by a distance in screen pixels.
+    void pan(double screenDx, double screenDy) {
+        originX -= screenDx / scale;
+        originY -= screenDy / scale;
+    }
+
+    // Zooms by the given factor, keeping the world point under the screen point still.
+    void zoomAt(double screenX, double screenY, double factor) {
+        double worldX = toWorldX(screenX);
+        double worldY = toWorldY(screenY);
+        scale = Math.clamp(scale * factor, MIN_SCALE, MAX_SCALE);
+        originX = worldX - screenX / scale;
+        originY = worldY - screenY / scale;
+    }
+
+    // Scales and centres the view so the given world area fits the screen.
+    void fit(double minX, double minY, double maxX, double maxY) {
+        double w = Math.max(maxX - minX, 1);
+        double h = Math.max(maxY - minY, 1);
+        scale = Math.clamp(Math.min(width / w, height / h), MIN_SCALE, MAX_SCALE);
+        originX = (minX + maxX) / 2 - width / scale / 2;
+        originY = (minY + maxY) / 2 - height / scale / 2;
+    }
+
+    void reset() {
+        originX = 0;
+        originY = 0;
+        scale = 1;
+    }
+
+    // World bounds of the visible tiles, which always cover the whole screen.
+    double tileMinX() {
+        return Math.floor(originX / TILE_SIZE) * TILE_SIZE;
+    }
+
+    double tileMinY() {
+        return Math.floor(originY / TILE_SIZE) * TILE_SIZE;
+    }
+
+    double tileMaxX() {
+        return Math.ceil(toWorldX(width) / TILE_SIZE) * TILE_SIZE;
+    }
+
+    double tileMaxY() {
+        return Math.ceil(toWorldY(height) / TILE_SIZE) * TILE_SIZE;
+    }
+
+    void applyTo(Surface surface) {
+        surface.setTransform(scale, 0, 0, scale, -originX * scale, -originY * scale);
+    }
+}
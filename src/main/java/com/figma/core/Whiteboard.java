@@ -1,67 +1,189 @@
 package com.figma.core;
 
 import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Label;
 import javafx.scene.paint.Color;
+import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.Pane;
+import javafx.scene.shape.StrokeLineCap;
+import javafx.scene.shape.StrokeLineJoin;
 import javafx.scene.text.Font;
 
 import java.util.ArrayList;
-import java.util.Stack;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 
 import static java.lang.Math.abs;
 import static java.lang.Math.min;
 
 public class Whiteboard {
-    private static Stack<ArrayList<DrawingActions>> undoHistory;
-    private static Stack<ArrayList<DrawingActions>> redoHistory;
+    private static final Log.Logger LOG = Log.get(Whiteboard.class);
+    // How far a stroke and its selection outline can reach past the bounds.
+    private static final double MAX_SHAPE_OVERHANG = 24;
+    // zoom factor for one notch of the mouse wheel
+    private static final double ZOOM_STEP = 1.1;
+    // how close to a shape's outline a click selects it, and the eraser's radius, in screen pixels
+    private static final double HIT_PIXELS = 4;
+    private static final double ERASER_PIXELS = 8;
+    private static final long HUD_INTERVAL_NANOS = 250_000_000;
+    private final CommandManager commandManager = new CommandManager();
+    // committed shapes; only repainted where the board changes
     private final Canvas canvas;
-    private final GraphicsContext gc;
+    private final Surface gc;
+    // the shape currently being drawn, stacked above the committed layer
+    private final Canvas overlay;
+    private final Surface overlayGc;
+    private final DirtyRegion overlayDirty = new DirtyRegion();
+    private final Pane view;
+    private final Viewport viewport;
+    private boolean panning;
+    private final FrameScheduler frames;
+    // work left for the next frame besides the dirty region
+    private boolean viewChanged;
+    private boolean overlayStale;
+    // samples of the pen stroke in progress that are already on the overlay
+    private int overlayPenPoints;
+    // when the oldest input not yet on screen arrived, 0 if none
+    private long pendingInputNanos;
+    // created on first use, a control needs the FX toolkit and headless boards have none
+    private Label hud;
+    private long hudUpdatedNanos;
     private DrawingTool currentTool;
     private Mode currentMode;
-    private static ArrayList<DrawingActions> actionHistory;
+    // replaced on every change, so holding on to it is a snapshot
+    private ShapeList actionHistory = ShapeList.EMPTY;
+    private final SpatialIndex spatialIndex = new SpatialIndex();
+    private final DirtyRegion dirtyRegion = new DirtyRegion();
+    // shapes on the board by id
+    private final Map<Long, DrawingActions> shapesById = new HashMap<>();
+    private final Replica replica;
+    // strokes other boards are still drawing, oldest first, replaced when their ADD arrives; drawn over
+    // the board but not on it, so they are not hit, selected, saved or exported
+    private final Map<Long, Pen> remoteStrokes = new LinkedHashMap<>();
+    private final List<BoardListener> listeners = new ArrayList<>();
+    // told about every edit from another board once it has been applied
+    private final List<Consumer<Operation>> remoteEditListeners = new ArrayList<>();
+    // pages of the opened board file still to come, null once none are left
+    private BoardLoader loader;
+    // the shape being drawn, until it is added to the board
     private DrawingActions currentAction;
+    // pen strokes the eraser went over in the gesture under way, each with its erased segments
+    private final Map<Pen, boolean[]> erasing = new IdentityHashMap<>();
+    // selected shapes, each has isSelected set
+    private final Set<DrawingActions> selection = Collections.newSetFromMap(new IdentityHashMap<>());
+    // a marquee is dragged from (startX, startY) to (stopX, stopY)
+    private boolean marquee;
     private double lastMouseX, lastMouseY;
     private double startX, startY, stopX, stopY;
     private Color currentColor = Color.BLACK;
     private double strokeWidth = 5;
     private String currentText = "";
     private int currentFontSize = 14;
+    private double strokeTolerance = StrokeSimplifier.DEFAULT_TOLERANCE;
 
     public Whiteboard() {
-        this.undoHistory = new Stack<ArrayList<DrawingActions>>();
-        this.redoHistory = new Stack<ArrayList<DrawingActions>>();
-        this.canvas = new Canvas(1200, 800);
-        this.gc = canvas.getGraphicsContext2D();
-        this.actionHistory = new ArrayList<>();
+        this(new Canvas(1200, 800), new Canvas(1200, 800));
+    }
+
+    private Whiteboard(Canvas canvas, Canvas overlay) {
+        this(canvas, Surface.of(canvas.getGraphicsContext2D()), overlay, Surface.of(overlay.getGraphicsContext2D()), true,
+                new Replica());
+    }
+
+    // A board that renders into the given surfaces instead of its canvases, for headless use.
+    // It has no display pulse, so every change is drawn as soon as it is made.
+    Whiteboard(Surface base, Surface overlaySurface) {
+        this(base, overlaySurface, new Replica());
+    }
+
+    // A headless board with the given replica, whose clock may not be the system's.
+    Whiteboard(Surface base, Surface overlaySurface, Replica replica) {
+        this(new Canvas(1200, 800), base, new Canvas(1200, 800), overlaySurface, false, replica);
+    }
+
+    private Whiteboard(Canvas canvas, Surface gc, Canvas overlay, Surface overlayGc, boolean pulsed, Replica replica) {
+        this.replica = replica;
+        this.frames = pulsed ? FrameScheduler.pulsed(this::renderFrame) : FrameScheduler.immediate(this::renderFrame);
+        this.canvas = canvas;
+        this.gc = gc;
+        this.overlay = overlay;
+        this.overlayGc = overlayGc;
+        overlay.setMouseTransparent(true);
+        // a plain Pane keeps both layers at the origin so event coordinates match canvas coordinates
+        this.view = new Pane(canvas, overlay);
+        this.viewport = new Viewport(canvas.getWidth(), canvas.getHeight());
+        // the canvases follow the size of the view instead of the view following the canvases
+        view.setPrefSize(canvas.getWidth(), canvas.getHeight());
+        view.setMinSize(0, 0);
+        view.widthProperty().addListener((obs, old, width) -> resize(width.doubleValue(), view.getHeight()));
+        view.heightProperty().addListener((obs, old, height) -> resize(view.getWidth(), height.doubleValue()));
         this.currentMode = Mode.DRAW;
         this.currentTool = null;
         setupKeyHandler();
         gc.setFill(Color.WHITE);
+        drawCanvas();
     }
 
+    // Also recolours the selected shapes, each keeping its stroke width.
     public void setCurrentColor(Color currentColor) {
         this.currentColor = currentColor;
-        if (currentAction != null) {
-            currentAction.color = currentColor;
-            drawCanvas();
+        if (selection.isEmpty()) return;
+        List<DrawingActions> shapes = new ArrayList<>(selection);
+        Color[] colors = new Color[shapes.size()];
+        double[] widths = new double[shapes.size()];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = currentColor;
+            widths[i] = shapes.get(i).style.strokeWidth();
         }
+        commandManager.execute(new RestyleCommand(this, shapes, colors, widths));
+        // each pick is its own undo step
+        commandManager.seal();
+        requestFrame();
     }
 
+    // Also applies the width to the selected shapes, each keeping its colour.
     public void setCurrentStrokeWidth(double strokeWidth) {
         this.strokeWidth = strokeWidth;
-        if (currentAction != null) {
-            currentAction.strokeWidth = strokeWidth;
-            drawCanvas();
+        if (selection.isEmpty()) return;
+        List<DrawingActions> shapes = new ArrayList<>(selection);
+        Color[] colors = new Color[shapes.size()];
+        double[] widths = new double[shapes.size()];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = shapes.get(i).style.color();
+            widths[i] = strokeWidth;
         }
+        // a run of widths, as from dragging a slider, merges until finishStrokeWidthChange
+        commandManager.execute(new RestyleCommand(this, shapes, colors, widths));
+        requestFrame();
+    }
+
+    // Ends a run of width changes; the next one starts a new undo step.
+    public void finishStrokeWidthChange() {
+        commandManager.seal();
     }
 
     public Canvas getCanvas() {
         return canvas;
     }
 
+    // The node to put in the scene: the committed layer with the drawing overlay on top.
+    public Pane getView() {
+        return view;
+    }
+
     public void setCurrentTool(DrawingTool tool) {
         currentTool = tool;
         currentMode = Mode.DRAW;
@@ -75,9 +197,11 @@ public class Whiteboard {
         return currentMode;
     }
 
+    // Passing false clears the selection.
     public void setCurrentAction(boolean val) {
-        if (currentAction != null) {
-            currentAction.isSelected = val;
+        if (!val) {
+            clearSelection();
+            requestFrame();
         }
     }
 
@@ -85,17 +209,158 @@ public class Whiteboard {
         return currentTool;
     }
 
-    public ArrayList<DrawingActions> getActionHistory() {
+    /**
+     * Every shape on the board, bottom-most first; reads in what is left of
+     * an opened file first. The list does not change with later edits, so
+     * it serves as a snapshot of the board's contents at no cost.
+     */
+    public List<DrawingActions> getActionHistory() {
+        loadAll();
         return actionHistory;
     }
 
-    public void setActionHistory(ArrayList<DrawingActions> actionHistory) {
-        this.actionHistory = actionHistory;
+    /**
+     * Replaces the board with the shapes, stacked in list order. Both the
+     * shapes that go and the new ones are reported to the listeners, so a
+     * collaboration session replaces the board of every peer too.
+     */
+    public void setActionHistory(List<DrawingActions> actionHistory) {
+        closeLoader();
+        // removed like any other shape, the tombstones keep late adds of them off the board
+        List<DrawingActions> removed = new ArrayList<>();
+        for (DrawingActions shape : this.actionHistory) {
+            Replica.Entry entry = tracked(shape);
+            if (entry == null) continue;
+            entry.presence.accept(replica.tick(), replica.site);
+            replica.deleted(entry);
+            removed.add(shape);
+        }
+        this.actionHistory = ShapeList.of(actionHistory);
+        shapesById.clear();
+        remoteStrokes.clear();
+        for (DrawingActions action : actionHistory) {
+            action.zOrder = replica.tick();
+            action.id = replica.newShapeId();
+            replica.track(action, action.zOrder);
+            shapesById.put(action.id, action);
+            action.setSelectionBound();
+        }
+        spatialIndex.rebuild(actionHistory);
+        commandManager.clear();
+        currentAction = null;
+        selection.clear();
+        if (!removed.isEmpty()) listeners.forEach(l -> l.shapesRemoved(removed));
+        if (!actionHistory.isEmpty()) listeners.forEach(l -> l.shapesAdded(actionHistory));
+    }
+
+    /**
+     * Replaces the board with the shapes of a board file. The pages in view
+     * are read before this returns, those around the view follow in the
+     * background through boardThread, and the rest when the view gets near
+     * them. The board takes ownership of the file and closes it.
+     */
+    public void open(BoardFile.Index file, Executor boardThread) {
+        setActionHistory(List.of());
+        // a stamp per shape in the file, so later shapes stack in file order and edits after them
+        long zOrderBase = replica.tick();
+        replica.observe(zOrderBase + file.shapeCount);
+        loader = new BoardLoader(this, file, zOrderBase, boardThread);
+        loadView();
+        invalidateView();
+    }
+
+    // Completes on the board thread once every shape of the opened file is on the board.
+    public CompletableFuture<Void> loadRemaining() {
+        return loader != null ? loader.loadRemaining() : CompletableFuture.completedFuture(null);
+    }
+
+    // Adds shapes read from the opened file; their zOrder already places them in the board.
+    void installShapes(List<DrawingActions> shapes) {
+        for (DrawingActions shape : shapes) {
+            shape.id = replica.newShapeId();
+            replica.track(shape, shape.zOrder);
+            shapesById.put(shape.id, shape);
+            spatialIndex.insert(shape);
+            markDirty(shape);
+        }
+        addToHistory(shapes);
+        requestFrame();
+        listeners.forEach(l -> l.shapesAdded(shapes));
+    }
+
+    // Puts shapes that are not on the list yet in their place, one at a time or, for many, all at once.
+    private void addToHistory(List<DrawingActions> shapes) {
+        if (shapes.isEmpty()) return;
+        if (shapes.size() < actionHistory.size() / 16) {
+            for (DrawingActions shape : shapes) {
+                actionHistory = actionHistory.with(shape);
+            }
+        } else {
+            // both runs are sorted already, or nearly, so this is a merge
+            List<DrawingActions> merged = new ArrayList<>(actionHistory.size() + shapes.size());
+            merged.addAll(actionHistory);
+            merged.addAll(shapes);
+            merged.sort(SpatialIndex.Z_ORDER);
+            actionHistory = ShapeList.of(merged);
+        }
+    }
+
+    private void loadView() {
+        if (loader == null) return;
+        loader.load(viewport.tileMinX() - MAX_SHAPE_OVERHANG, viewport.tileMinY() - MAX_SHAPE_OVERHANG,
+                viewport.tileMaxX() + MAX_SHAPE_OVERHANG, viewport.tileMaxY() + MAX_SHAPE_OVERHANG);
+        if (loader.isComplete()) loader = null;
+    }
+
+    private void loadAll() {
+        if (loader == null) return;
+        loader.loadAll();
+        loader = null;
+    }
+
+    private void closeLoader() {
+        if (loader == null) return;
+        loader.close();
+        loader = null;
+    }
+
+    public CommandManager getCommandManager() {
+        return commandManager;
+    }
+
+    public void addBoardListener(BoardListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeBoardListener(BoardListener listener) {
+        listeners.remove(listener);
+    }
+
+    void addRemoteEditListener(Consumer<Operation> listener) {
+        remoteEditListeners.add(listener);
+    }
+
+    void removeRemoteEditListener(Consumer<Operation> listener) {
+        remoteEditListeners.remove(listener);
+    }
+
+    DrawingActions findById(long id) {
+        return shapesById.get(id);
+    }
+
+    Replica getReplica() {
+        return replica;
+    }
+
+    // The replication entry of a shape on this board, null unless the replica tracks that very object.
+    private Replica.Entry tracked(DrawingActions action) {
+        Replica.Entry entry = replica.entry(action.id);
+        return entry != null && entry.shape == action ? entry : null;
     }
 
     public void setTextContent(String text) {
         currentText = text;
-        System.out.println(text);
+        LOG.debug(() -> "Text content: " + text);
 //        if(currentAction!=null && currentAction.tool == DrawingTool.TEXT)
 //            ((TextShape)(currentAction)).setText(text);
     }
@@ -104,54 +369,572 @@ public class Whiteboard {
         currentFontSize = fontSize;
     }
 
-    private void handleSelection(MouseEvent e) {
-        currentAction = findElementAtPoint(e.getX(), e.getY());
-        actionHistory.forEach(action -> action.isSelected = false);
+    // Maximum deviation in pixels allowed when simplifying finished pen strokes; 0 keeps every sample.
+    public void setStrokeTolerance(double strokeTolerance) {
+        this.strokeTolerance = strokeTolerance;
+    }
+
+    public double getStrokeTolerance() {
+        return strokeTolerance;
+    }
 
-        if (currentAction != null) {
-            currentAction.isSelected = true;
+    /**
+     * Clicking a shape selects it, or with shift adds it to or takes it out
+     * of the selection. Clicking a selected shape keeps the selection, so
+     * the whole of it can be dragged. Pressing on empty board starts a
+     * marquee.
+     */
+    private void handleSelection(double x, double y, boolean extend) {
+        DrawingActions hit = findElementAtPoint(x, y);
+        if (hit == null) {
+            if (!extend) clearSelection();
+            marquee = true;
+            startX = stopX = x;
+            startY = stopY = y;
+        } else if (extend) {
+            if (hit.isSelected) {
+                deselect(hit);
+            } else {
+                select(hit);
+            }
+        } else if (!hit.isSelected) {
+            clearSelection();
+            select(hit);
         }
+        requestFrame();
+    }
 
-        drawCanvas();
+    // Selects the shapes that lie wholly inside the marquee.
+    private void finishMarquee() {
+        marquee = false;
+        clearOverlay();
+        double minX = min(startX, stopX), minY = min(startY, stopY);
+        double maxX = Math.max(startX, stopX), maxY = Math.max(startY, stopY);
+        List<DrawingActions> inside = new ArrayList<>();
+        spatialIndex.collect(minX, minY, maxX, maxY, inside);
+        inside.sort(SpatialIndex.Z_ORDER);
+        for (DrawingActions shape : inside) {
+            if (shape.left >= minX && shape.top >= minY && shape.right <= maxX && shape.bottom <= maxY) {
+                select(shape);
+            }
+        }
     }
 
-    private void handlePenDrawing(MouseEvent e) {
-        ((Pen) currentAction).points.add(e.getX());
-        ((Pen) currentAction).points.add(e.getY());
+    List<DrawingActions> getSelection() {
+        return new ArrayList<>(selection);
     }
 
-    private DrawingActions findElementAtPoint(double x, double y) {
-        return actionHistory.stream()
-                .filter(action -> action.selectionBounds.contains(x, y))
-                .findFirst()
-                .orElse(null);
+    private void select(DrawingActions shape) {
+        if (!selection.add(shape)) return;
+        shape.isSelected = true;
+        markDirty(shape);
+    }
+
+    private void deselect(DrawingActions shape) {
+        if (!selection.remove(shape)) return;
+        shape.isSelected = false;
+        markDirty(shape);
+    }
+
+    private void clearSelection() {
+        for (DrawingActions shape : selection) {
+            shape.isSelected = false;
+            markDirty(shape);
+        }
+        selection.clear();
+    }
+
+    private void handlePenDrawing(double x, double y) {
+        Pen pen = (Pen) currentAction;
+        // a sample that hardly moves is of no use to the curve, nor to anyone watching it being drawn
+        if (!pen.fit.sample(x, y)) return;
+        pen.points.add(x, y);
+        // the samples are drawn on the next frame, together with any that arrive before it
+        overlayStale = true;
+        requestFrame();
+        notifyStrokeSampled(x, y);
+    }
+
+    private void notifyStrokeSampled(double x, double y) {
+        for (BoardListener listener : listeners) {
+            listener.strokeSampled(currentAction, x, y);
+        }
+    }
+
+    DrawingActions findElementAtPoint(double x, double y) {
+        long start = Metrics.start();
+        double tolerance = HIT_PIXELS / viewport.getScale();
+        // zoomed far out, the tolerance reaches further than any shape overhangs its bounds
+        DrawingActions hit = spatialIndex.topmostAt(x, y, tolerance, tolerance + MAX_SHAPE_OVERHANG);
+        Metrics.record(Metric.HIT_TEST, start);
+        return hit;
+    }
+
+    /**
+     * Erases along the eraser's path: shapes it touches are deleted, pen
+     * strokes only lose the segments under it. Those are hidden while the
+     * gesture goes on and cut out once it ends, see finishErasing().
+     */
+    private void erase(double ax, double ay, double bx, double by) {
+        double radius = ERASER_PIXELS / viewport.getScale();
+        double reach = radius + MAX_SHAPE_OVERHANG;
+        List<DrawingActions> near = new ArrayList<>();
+        spatialIndex.collect(min(ax, bx) - reach, min(ay, by) - reach,
+                Math.max(ax, bx) + reach, Math.max(ay, by) + reach, near);
+        for (DrawingActions shape : near) {
+            if (shape instanceof Pen pen && pen.points.pointCount() > 1) {
+                boolean[] erased = erasing.get(pen);
+                if (erased == null) {
+                    // most strokes near the eraser are missed, and those cost no more than the query
+                    if (tracked(pen) == null || !pen.touches(ax, ay, bx, by, radius)) continue;
+                    erased = new boolean[pen.points.pointCount() - 1];
+                    erasing.put(pen, erased);
+                    pen.erased = erased;
+                }
+                if (pen.markSegments(ax, ay, bx, by, radius + pen.style.strokeWidth() / 2, erased) > 0) {
+                    markDirty(pen);
+                }
+            } else if (shape.touches(ax, ay, bx, by, radius)) {
+                commandManager.execute(new EraseCommand(this, shape, List.of()));
+            }
+        }
+        requestFrame();
+    }
+
+    // Cuts the segments erased in the gesture out of each stroke, once for the whole gesture.
+    private void finishErasing() {
+        for (Map.Entry<Pen, boolean[]> erasure : erasing.entrySet()) {
+            Pen pen = erasure.getKey();
+            pen.erased = null;
+            // deleted by a collaborator meanwhile
+            if (!isOnBoard(pen)) continue;
+            List<Pen> pieces = pen.without(erasure.getValue());
+            for (Pen piece : pieces) {
+                // the pieces stay at the depth of the stroke they come from
+                piece.id = replica.newShapeId();
+                piece.zOrder = pen.zOrder;
+            }
+            commandManager.execute(new EraseCommand(this, pen, pieces));
+        }
+        erasing.clear();
+    }
+
+    // Board edits below are applied by commands, which take care of undo/redo.
+    // Each one writes a register of the shape's replica entry with a new stamp.
+
+    void addAction(DrawingActions action) {
+        if (action.id == 0) {
+            action.id = replica.newShapeId();
+        }
+        action.zOrder = replica.tick();
+        replica.track(action, action.zOrder);
+        attach(action);
+        listeners.forEach(l -> l.shapeAdded(action));
+    }
+
+    // Puts a previously removed shape back at the depth given by its zOrder.
+    void insertAction(DrawingActions action) {
+        if (!attach(action)) return;
+        Replica.Entry entry = tracked(action);
+        if (entry == null) {
+            // the tombstone has been collected since
+            replica.track(action, replica.tick());
+        } else {
+            entry.presence.accept(replica.tick(), replica.site);
+            entry.visible = true;
+        }
+        listeners.forEach(l -> l.shapeAdded(action));
+    }
+
+    void removeAction(DrawingActions action) {
+        if (!detach(action)) return;
+        Replica.Entry entry = tracked(action);
+        if (entry == null) return;
+        entry.presence.accept(replica.tick(), replica.site);
+        replica.deleted(entry);
+        listeners.forEach(l -> l.shapeRemoved(action));
+    }
+
+    void moveAction(DrawingActions action, double deltaX, double deltaY) {
+        if (!translate(action, deltaX, deltaY)) return;
+        Replica.Entry entry = tracked(action);
+        if (entry == null) return;
+        entry.offsetX += deltaX;
+        entry.offsetY += deltaY;
+        entry.position.accept(replica.tick(), replica.site);
+        listeners.forEach(l -> l.shapeMoved(action, deltaX, deltaY));
+    }
+
+    void restyleAction(DrawingActions action, Color color, double strokeWidth) {
+        if (!restyle(action, color, strokeWidth)) return;
+        Replica.Entry entry = tracked(action);
+        if (entry == null) return;
+        entry.style.accept(replica.tick(), replica.site);
+        listeners.forEach(l -> l.shapeRestyled(action));
+    }
+
+    /**
+     * Applies an edit made on another board. It is not recorded for undo or
+     * reported to board listeners. Edits can arrive in any order and more
+     * than once; a register only changes for a write newer than its own.
+     * An edit stamped too far in the future is dropped, see
+     * {@link HybridClock#MAX_DRIFT_MILLIS}.
+     */
+    void applyOperation(Operation op) {
+        if (admitted(op)) applyRemote(op);
+        requestFrame();
+    }
+
+    // Applies a batch of remote edits and draws them in one frame.
+    void applyOperations(List<Operation> ops) {
+        ops = ops.stream().filter(this::admitted).toList();
+        BitSet installed = installAdded(ops);
+        for (int i = 0; i < ops.size(); i++) {
+            if (!installed.get(i)) applyRemote(ops.get(i));
+        }
+        requestFrame();
+    }
+
+    /**
+     * Puts the shapes of adds that are new to the board in together, as
+     * when a whole board arrives, and returns which of the ops that took
+     * care of. Edits commute, so the others may follow.
+     */
+    private BitSet installAdded(List<Operation> ops) {
+        BitSet installed = new BitSet(ops.size());
+        List<DrawingActions> shapes = new ArrayList<>();
+        for (int i = 0; i < ops.size(); i++) {
+            Operation op = ops.get(i);
+            // a second add of the same shape finds it adopted and merges as usual
+            if (op.kind != Operation.Kind.ADD || replica.entry(op.shapeId) != null || remoteStrokes.containsKey(op.shapeId)) {
+                continue;
+            }
+            replica.observe(op.stamp);
+            replica.observe(op.entry.position.stamp);
+            replica.observe(op.entry.style.stamp);
+            replica.adopt(op.entry);
+            DrawingActions shape = op.entry.shape;
+            shapesById.put(shape.id, shape);
+            spatialIndex.insert(shape);
+            markDirty(shape);
+            shapes.add(shape);
+            installed.set(i);
+        }
+        addToHistory(shapes);
+        for (int i = installed.nextSetBit(0); i >= 0; i = installed.nextSetBit(i + 1)) {
+            Operation op = ops.get(i);
+            remoteEditListeners.forEach(l -> l.accept(op));
+        }
+        return installed;
+    }
+
+    // The board's replicated state as edits: an ADD per shape, bottom-most first, then the tombstones.
+    List<Operation> replicatedState() {
+        ShapeList shapes = replicatedShapes();
+        List<Operation> ops = new ArrayList<>(shapes.size());
+        for (DrawingActions shape : shapes) {
+            Operation add = replicatedAdd(shape);
+            if (add != null) ops.add(add);
+        }
+        ops.addAll(replicatedTombstones());
+        return ops;
+    }
+
+    // The shapes on the board, all loaded; holding on to the list is a snapshot of them.
+    ShapeList replicatedShapes() {
+        loadAll();
+        return actionHistory;
+    }
+
+    // The ADD bringing another board up to date with the shape, or null if the shape is no longer on this board.
+    Operation replicatedAdd(DrawingActions shape) {
+        if (!isOnBoard(shape)) return null;
+        Replica.Entry entry = tracked(shape);
+        return entry != null ? Operation.add(entry) : null;
+    }
+
+    // Tombstones too, or an older add still in flight would bring a deleted shape back.
+    List<Operation> replicatedTombstones() {
+        List<Operation> ops = new ArrayList<>();
+        for (Replica.Entry entry : replica.deletedEntries()) {
+            if (entry.presence.stamp != 0) {
+                ops.add(Operation.remove(entry));
+            }
+            if (entry.pending != null) {
+                ops.addAll(entry.pending);
+            }
+        }
+        return ops;
+    }
+
+    private boolean admitted(Operation op) {
+        if (replica.admits(op)) return true;
+        LOG.warn("Dropping " + op + ", it is stamped too far ahead of this board's clock");
+        return false;
+    }
+
+    private void applyRemote(Operation op) {
+        applyEdit(op);
+        if (!op.isPreview()) {
+            remoteEditListeners.forEach(l -> l.accept(op));
+        }
+    }
+
+    private void applyEdit(Operation op) {
+        replica.observe(op.stamp);
+        Replica.Entry entry = replica.entry(op.shapeId);
+        switch (op.kind) {
+            case ADD -> {
+                // the add carries registers written after it, which a local edit must still order after
+                replica.observe(op.entry.position.stamp);
+                replica.observe(op.entry.style.stamp);
+                // the finished stroke takes the place of its live preview
+                dropPreview(op.shapeId);
+                if (entry == null) {
+                    replica.adopt(op.entry);
+                    attach(op.entry.shape);
+                } else if (entry.shape == null) {
+                    adoptPlaceholder(entry, op.entry);
+                } else {
+                    merge(entry, op.entry);
+                }
+            }
+            case STROKE_BEGIN -> {
+                if (!shapesById.containsKey(op.shapeId) && !remoteStrokes.containsKey(op.shapeId)) {
+                    Pen preview = new Pen(DrawingTool.PEN, op.color, op.strokeWidth);
+                    preview.id = op.shapeId;
+                    preview.points.addAll(op.points, 0, op.points.length);
+                    preview.setSelectionBound();
+                    remoteStrokes.put(op.shapeId, preview);
+                    markDirty(preview);
+                }
+            }
+            case STROKE_POINTS -> {
+                Pen preview = remoteStrokes.get(op.shapeId);
+                if (preview != null && op.points.length > 0) {
+                    extendStroke(preview, op.points);
+                }
+            }
+            case STROKE_CANCEL -> dropPreview(op.shapeId);
+            case REMOVE -> {
+                dropPreview(op.shapeId);
+                if (entry == null) {
+                    // the add has not arrived yet, it must not show the shape when it does
+                    entry = replica.placeholder(op.shapeId);
+                }
+                if (entry.presence.accept(op.stamp, op.site) && entry.visible) {
+                    detach(entry.shape);
+                    replica.deleted(entry);
+                }
+            }
+            case MOVE -> {
+                if (entry == null || entry.shape == null) {
+                    pending(entry, op);
+                } else if (entry.position.accept(op.stamp, op.site)) {
+                    setPosition(entry, op.offsetX, op.offsetY);
+                }
+            }
+            case RESTYLE -> {
+                if (entry == null || entry.shape == null) {
+                    pending(entry, op);
+                } else if (entry.style.accept(op.stamp, op.site)) {
+                    setStyle(entry, op.color, op.strokeWidth);
+                }
+            }
+        }
+    }
+
+    /**
+     * An add for a shape this board already has, as when a board is sent
+     * again after edits to it were lost: every register takes the add's
+     * write if it is newer, so the add is as good as the edits it sums up.
+     */
+    private void merge(Replica.Entry entry, Replica.Entry added) {
+        if (entry.presence.accept(added.presence.stamp, added.presence.site) && !entry.visible) {
+            // deleted here before the add that restores it
+            entry.visible = true;
+            attach(entry.shape);
+        }
+        if (entry.position.accept(added.position.stamp, added.position.site)) {
+            setPosition(entry, added.offsetX, added.offsetY);
+        }
+        if (entry.style.accept(added.style.stamp, added.style.site)) {
+            setStyle(entry, added.shape.style.color(), added.shape.style.strokeWidth());
+        }
+    }
+
+    // The shape's geometry is where it was drawn plus the offset, so a new offset moves it by the difference.
+    private void setPosition(Replica.Entry entry, double offsetX, double offsetY) {
+        double deltaX = offsetX - entry.offsetX;
+        double deltaY = offsetY - entry.offsetY;
+        entry.offsetX = offsetX;
+        entry.offsetY = offsetY;
+        if (!translate(entry.shape, deltaX, deltaY)) {
+            // deleted shapes keep up with edits, so restoring them shows the latest state
+            entry.shape.move(deltaX, deltaY);
+        }
+    }
+
+    private void setStyle(Replica.Entry entry, Color color, double strokeWidth) {
+        if (!restyle(entry.shape, color, strokeWidth)) {
+            entry.shape.setStyle(color, strokeWidth);
+        }
+    }
+
+    private void pending(Replica.Entry placeholder, Operation op) {
+        if (placeholder == null) {
+            placeholder = replica.placeholder(op.shapeId);
+        }
+        placeholder.pending.add(op);
+    }
+
+    // The add of a shape arrived after edits to it: take the shape, then replay the edits.
+    private void adoptPlaceholder(Replica.Entry placeholder, Replica.Entry added) {
+        replica.adopt(added);
+        if (added.presence.accept(placeholder.presence.stamp, placeholder.presence.site)) {
+            // removed by a newer edit than the add
+            replica.deleted(added);
+        } else {
+            attach(added.shape);
+        }
+        for (Operation op : placeholder.pending) {
+            applyEdit(op);
+        }
+    }
+
+    private void dropPreview(long shapeId) {
+        Pen preview = remoteStrokes.remove(shapeId);
+        if (preview != null) markDirty(preview);
+    }
+
+    // Strokes other boards are drawing right now.
+    int previewCount() {
+        return remoteStrokes.size();
+    }
+
+    // Drops the strokes a board that left was still drawing, which will not be finished now; returns their ids.
+    List<Long> dropPreviews(int site) {
+        List<Long> dropped = new ArrayList<>();
+        for (long id : List.copyOf(remoteStrokes.keySet())) {
+            if (id >>> 32 == Integer.toUnsignedLong(site)) {
+                dropPreview(id);
+                dropped.add(id);
+            }
+        }
+        requestFrame();
+        return dropped;
+    }
+
+    // Drops every stroke other boards are drawing, as when this board leaves the session.
+    void dropPreviews() {
+        remoteStrokes.values().forEach(this::markDirty);
+        remoteStrokes.clear();
+        requestFrame();
+    }
+
+    private void extendStroke(Pen stroke, double[] xy) {
+        PointBuffer points = stroke.points;
+        // only the area from the previous end point onwards needs repainting
+        double minX = points.x(points.pointCount() - 1), maxX = minX;
+        double minY = points.y(points.pointCount() - 1), maxY = minY;
+        for (int i = 0; i < xy.length; i += 2) {
+            minX = Math.min(minX, xy[i]);
+            maxX = Math.max(maxX, xy[i]);
+            minY = Math.min(minY, xy[i + 1]);
+            maxY = Math.max(maxY, xy[i + 1]);
+        }
+        points.addAll(xy, 0, xy.length);
+        stroke.setSelectionBound();
+        double margin = stroke.style.strokeWidth() + 2;
+        dirtyRegion.add(minX - margin, minY - margin, maxX + margin, maxY + margin);
+    }
+
+    private boolean attach(DrawingActions action) {
+        ShapeList added = actionHistory.with(action);
+        if (added == actionHistory) return false;
+        actionHistory = added;
+        spatialIndex.insert(action);
+        shapesById.put(action.id, action);
+        markDirty(action);
+        return true;
+    }
+
+    private boolean detach(DrawingActions action) {
+        ShapeList removed = actionHistory.without(action);
+        if (removed == actionHistory) return false;
+        actionHistory = removed;
+        spatialIndex.remove(action);
+        shapesById.remove(action.id);
+        markDirty(action);
+        if (selection.remove(action)) {
+            action.isSelected = false;
+        }
+        return true;
+    }
+
+    // A shape may have been removed by a remote edit while still referenced from the undo history.
+    private boolean isOnBoard(DrawingActions action) {
+        return shapesById.get(action.id) == action;
+    }
+
+    private boolean translate(DrawingActions action, double deltaX, double deltaY) {
+        if (!isOnBoard(action)) return false;
+        markDirty(action);
+        action.move(deltaX, deltaY);
+        spatialIndex.update(action);
+        markDirty(action);
+        return true;
+    }
+
+    private boolean restyle(DrawingActions action, Color color, double strokeWidth) {
+        if (!isOnBoard(action)) return false;
+        markDirty(action);
+        action.setStyle(color, strokeWidth);
+        markDirty(action);
+        return true;
     }
 
     public void handleMousePressed(MouseEvent e) {
+        noteInput();
+        canvas.requestFocus();
+        // the middle and right buttons pan the view in any tool
+        if (e.getButton() == MouseButton.MIDDLE || e.getButton() == MouseButton.SECONDARY) {
+            panning = true;
+            lastMouseX = e.getX();
+            lastMouseY = e.getY();
+            return;
+        }
         if (currentTool == null) {
             currentMode = Mode.SELECT;
         }
-        canvas.requestFocus();
+        double x = viewport.toWorldX(e.getX());
+        double y = viewport.toWorldY(e.getY());
         if (currentMode == Mode.DRAW) {
             switch (currentTool) {
                 case PEN:
                     currentAction = new Pen(DrawingTool.PEN, currentColor, strokeWidth);
-                    ((Pen) currentAction).points.add(e.getX());
-                    ((Pen) currentAction).points.add(e.getY());
+                    currentAction.id = replica.newShapeId();
+                    ((Pen) currentAction).fit = new StrokeFit(viewport.getScale());
+                    ((Pen) currentAction).fit.sample(x, y);
+                    ((Pen) currentAction).points.add(x, y);
+                    overlayPenPoints = 0;
+                    notifyStrokeSampled(x, y);
                     break;
                 case RECTANGLE:
                     currentAction = new RectangleShape(DrawingTool.RECTANGLE, currentColor, strokeWidth);
-                    startX = e.getX();
-                    startY = e.getY();
-                    ((RectangleShape) currentAction).setDimensions(
-                            min(e.getX(), startX), min(e.getY(), startY),
-                            abs(e.getX() - startX), abs(e.getY() - startY)
-                    );
+                    startX = x;
+                    startY = y;
+                    ((RectangleShape) currentAction).setDimensions(x, y, 0, 0);
                     break;
                 case CIRCLE:
                     currentAction = new CircleShape(DrawingTool.CIRCLE, currentColor, strokeWidth);
-                    startX = e.getX();
-                    startY = e.getY();
+                    startX = x;
+                    startY = y;
+                    break;
+                case ERASER:
+                    setCurrentAction(false);
+                    currentAction = null;
+                    erase(x, y, x, y);
                     break;
 //                case TEXT:
 //                    currentAction = new TextShape(DrawingTool.TEXT, currentColor, currentFontSize);
@@ -160,147 +943,442 @@ public class Whiteboard {
 //                    ((TextShape)currentAction).setPosition(startX,startY);
 //                    break;
                 default:
-                    System.out.println("Unhandled tool: " + currentTool);
+                    LOG.warn("Unhandled tool: " + currentTool);
             }
         } else {
-            handleSelection(e);
+            handleSelection(x, y, e.isShiftDown());
         }
-        lastMouseX = e.getX();
-        lastMouseY = e.getY();
+        lastMouseX = x;
+        lastMouseY = y;
     }
 
     public void handleMouseDragged(MouseEvent e) {
+        noteInput();
+        if (panning) {
+            viewport.pan(e.getX() - lastMouseX, e.getY() - lastMouseY);
+            lastMouseX = e.getX();
+            lastMouseY = e.getY();
+            invalidateView();
+            return;
+        }
+        double x = viewport.toWorldX(e.getX());
+        double y = viewport.toWorldY(e.getY());
         if (currentMode == Mode.DRAW) {
             switch (currentTool) {
                 case PEN:
-                    ((Pen) currentAction).points.add(e.getX());
-                    ((Pen) currentAction).points.add(e.getY());
+                    handlePenDrawing(x, y);
                     break;
                 case RECTANGLE:
                     ((RectangleShape) currentAction).setDimensions(
-                            min(e.getX(), startX), min(e.getY(), startY),
-                            abs(e.getX() - startX), abs(e.getY() - startY)
+                            min(x, startX), min(y, startY),
+                            abs(x - startX), abs(y - startY)
                     );
+                    overlayStale = true;
+                    requestFrame();
                     break;
                 case CIRCLE:
-                    double radius = Math.sqrt(Math.pow(e.getX() - startX, 2) + Math.pow(e.getY() - startY, 2));
+                    double radius = Math.sqrt(Math.pow(x - startX, 2) + Math.pow(y - startY, 2));
                     ((CircleShape) currentAction).setProperties(startX, startY, radius);
+                    overlayStale = true;
+                    requestFrame();
+                    break;
+                case ERASER:
+                    erase(lastMouseX, lastMouseY, x, y);
+                    lastMouseX = x;
+                    lastMouseY = y;
                     break;
             }
+        } else if (marquee) {
+            stopX = x;
+            stopY = y;
+            overlayStale = true;
+            requestFrame();
         } else {
-            moveSelectedAction(e);
+            moveSelection(x, y);
+            requestFrame();
         }
+    }
 
-        drawCanvas();
-        if (currentAction != null) {
-            currentAction.draw(gc);
-        }
+    // Wheel zooms around the cursor.
+    public void handleScroll(ScrollEvent e) {
+        if (e.getDeltaY() == 0) return;
+        noteInput();
+        viewport.zoomAt(e.getX(), e.getY(), Math.pow(ZOOM_STEP, e.getDeltaY() / 40));
+        invalidateView();
     }
 
-    private void moveSelectedAction(MouseEvent e) {
-        double deltaX = e.getX() - lastMouseX;
-        double deltaY = e.getY() - lastMouseY;
-        lastMouseX = e.getX();
-        lastMouseY = e.getY();
+    // Costs one offset update per selected shape, whatever the size of the shapes.
+    private void moveSelection(double x, double y) {
+        double deltaX = x - lastMouseX;
+        double deltaY = y - lastMouseY;
+        lastMouseX = x;
+        lastMouseY = y;
 
-        if (currentAction != null) {
-            currentAction.move(deltaX, deltaY);
+        if (!selection.isEmpty()) {
+            // drag events of one gesture merge into a single undo step
+            commandManager.execute(new MoveCommand(this, new ArrayList<>(selection), deltaX, deltaY));
         }
     }
 
     public void handleMouseReleased(MouseEvent e) {
+        if (panning) {
+            panning = false;
+            return;
+        }
         if (currentMode == Mode.DRAW && currentAction != null) {
-            try {
-                finalizeDrawingAction();
-            } catch (Exception x) {
-                System.out.println(x);
-            }
-            redoHistory.clear();
-            undoHistory.push((ArrayList<DrawingActions>) actionHistory.clone());
-        } else if(currentAction!=null) {
-            System.out.println("Clicked");
-            if (currentAction != null) {
-                actionHistory.remove(currentAction);
-                try {
-                    actionHistory.add((DrawingActions) currentAction.clone());
-                } catch (Exception x) {
-                    System.out.println(x);
-                }
-                redoHistory.clear();
-                undoHistory.push((ArrayList<DrawingActions>) actionHistory.clone());
-            }
+            finalizeDrawingAction();
+        } else if (!erasing.isEmpty()) {
+            finishErasing();
+        } else if (marquee) {
+            finishMarquee();
         }
-        drawCanvas();
-
+        commandManager.seal();
+        requestFrame();
     }
 
-    private void finalizeDrawingAction() throws CloneNotSupportedException {
+    private void finalizeDrawingAction() {
+        if (currentAction instanceof Pen pen) {
+            pen.finishFit();
+            pen.simplify(strokeTolerance);
+            pen.points.trimToSize();
+        }
         currentAction.setSelectionBound();
-        DrawingActions a = (DrawingActions) currentAction.clone();
-        actionHistory.add(a);
+        DrawingActions a = currentAction;
         currentAction = null;
+        clearOverlay();
+        overlayStale = false;
+        commandManager.execute(new AddCommand(this, a));
     }
 
     public void drawCanvas() {
+        long start = Metrics.start();
+        dirtyRegion.clear();
+        gc.setTransform(1, 0, 0, 1, 0, 0);
         gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
         gc.setFill(Color.WHITE);
         gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
-        actionHistory.forEach(action -> action.draw(gc));
+        viewport.applyTo(gc);
+        drawVisible(viewport.tileMinX(), viewport.tileMinY(), viewport.tileMaxX(), viewport.tileMaxY());
+        Metrics.record(Metric.DRAW_CANVAS, start);
+    }
+
+    // Draws the shapes that reach into the given world area, bottom-most first.
+    private void drawVisible(double minX, double minY, double maxX, double maxY) {
+        minX -= MAX_SHAPE_OVERHANG;
+        minY -= MAX_SHAPE_OVERHANG;
+        maxX += MAX_SHAPE_OVERHANG;
+        maxY += MAX_SHAPE_OVERHANG;
+        double scale = viewport.getScale();
+        List<DrawingActions> visible = new ArrayList<>();
+        spatialIndex.collect(minX, minY, maxX, maxY, visible);
+        if (visible.size() * 4 > actionHistory.size()) {
+            // most of the board is in view: walking the z-ordered history beats sorting
+            for (DrawingActions action : actionHistory) {
+                if (SpatialIndex.boundsIntersect(action, minX, minY, maxX, maxY)) {
+                    action.draw(gc, scale);
+                }
+            }
+        } else {
+            visible.sort(SpatialIndex.Z_ORDER);
+            for (DrawingActions action : visible) {
+                action.draw(gc, scale);
+            }
+        }
+        // few at a time, and on top of everything while they are drawn
+        for (Pen preview : remoteStrokes.values()) {
+            if (SpatialIndex.boundsIntersect(preview, minX, minY, maxX, maxY)) {
+                preview.draw(gc, scale);
+            }
+        }
+    }
+
+    private void requestFrame() {
+        frames.request();
+    }
+
+    private void invalidateView() {
+        viewChanged = true;
+        requestFrame();
+    }
+
+    private void noteInput() {
+        if (pendingInputNanos == 0) {
+            pendingInputNanos = System.nanoTime();
+        }
+    }
+
+    // Draws what changed since the last frame; called at most once per display pulse.
+    private void renderFrame() {
+        long start = Metrics.start();
+        long allocatedBefore = Metrics.allocatedBytes();
+        if (viewChanged) {
+            viewChanged = false;
+            overlayStale = false;
+            loadView();
+            refreshView();
+        } else {
+            repaintDirty();
+            if (overlayStale) {
+                overlayStale = false;
+                if (currentAction instanceof Pen pen && !spatialIndex.contains(pen)) {
+                    drawPenTail(pen);
+                } else if (marquee || currentAction != null && !spatialIndex.contains(currentAction)) {
+                    redrawOverlay();
+                }
+            }
+        }
+        Metrics.record(Metric.FRAME, start);
+        if (allocatedBefore >= 0) {
+            Metrics.recordValue(Metric.FRAME_ALLOCATION, Metrics.allocatedBytes() - allocatedBefore);
+        }
+        // input to the end of the frame that shows it; the pixels follow with the next scene sync
+        if (pendingInputNanos != 0) {
+            Metrics.record(Metric.INPUT_LATENCY, pendingInputNanos);
+            pendingInputNanos = 0;
+        }
+        updateHud();
+    }
+
+    // Timing overlay in the top-left corner, toggled with F3.
+    public void setHudVisible(boolean visible) {
+        if (hud == null) {
+            if (!visible) return;
+            hud = new Label();
+            hud.setMouseTransparent(true);
+            hud.relocate(8, 8);
+            hud.setStyle("-fx-background-color: rgba(255,255,255,0.85); -fx-font-family: monospace; -fx-font-size: 11; -fx-padding: 4;");
+            view.getChildren().add(hud);
+        }
+        hud.setVisible(visible);
+        hudUpdatedNanos = 0;
+        updateHud();
+    }
+
+    public boolean isHudVisible() {
+        return hud != null && hud.isVisible();
+    }
+
+    private void updateHud() {
+        if (!isHudVisible()) return;
+        long now = System.nanoTime();
+        if (now - hudUpdatedNanos < HUD_INTERVAL_NANOS) return;
+        hudUpdatedNanos = now;
+        String text = Metrics.describe();
+        hud.setText(text.isEmpty() ? "no samples yet" : text.strip());
+    }
+
+    // Caps how often the board repaints; 0 follows the display.
+    public void setMaxFrameRate(double framesPerSecond) {
+        frames.setMaxFrameRate(framesPerSecond);
+    }
+
+    public double getMaxFrameRate() {
+        return frames.getMaxFrameRate();
+    }
+
+    // Redraws both layers after the view moved, zoomed or resized.
+    private void refreshView() {
+        drawCanvas();
+        overlayGc.setTransform(1, 0, 0, 1, 0, 0);
+        overlayGc.clearRect(0, 0, overlay.getWidth(), overlay.getHeight());
+        overlayDirty.clear();
+        viewport.applyTo(overlayGc);
+        if (marquee || currentAction != null && !spatialIndex.contains(currentAction)) {
+            redrawOverlay();
+        }
+    }
+
+    private void resize(double width, double height) {
+        if (width <= 0 || height <= 0) return;
+        if (width == canvas.getWidth() && height == canvas.getHeight()) return;
+        canvas.setWidth(width);
+        canvas.setHeight(height);
+        overlay.setWidth(width);
+        overlay.setHeight(height);
+        viewport.setSize(width, height);
+        invalidateView();
+    }
+
+    // Back to the origin at 100%.
+    public void resetView() {
+        viewport.reset();
+        invalidateView();
+    }
+
+    // Zooms and scrolls so every shape on the board is in view.
+    public void zoomToFit() {
+        // pages still in the file count by their indexed bounds
+        double[] unloaded = loader != null ? loader.unloadedBounds() : null;
+        if (actionHistory.isEmpty() && unloaded == null) {
+            resetView();
+            return;
+        }
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        if (unloaded != null) {
+            minX = unloaded[0];
+            minY = unloaded[1];
+            maxX = unloaded[2];
+            maxY = unloaded[3];
+        }
+        for (DrawingActions action : actionHistory) {
+            minX = Math.min(minX, action.left);
+            minY = Math.min(minY, action.top);
+            maxX = Math.max(maxX, action.right);
+            maxY = Math.max(maxY, action.bottom);
+        }
+        viewport.fit(minX - MAX_SHAPE_OVERHANG, minY - MAX_SHAPE_OVERHANG,
+                maxX + MAX_SHAPE_OVERHANG, maxY + MAX_SHAPE_OVERHANG);
+        invalidateView();
+    }
+
+    Viewport getViewport() {
+        return viewport;
+    }
+
+    // Stroke plus the selection outline drawn around the bounds.
+    private void markDirty(DrawingActions action) {
+        dirtyRegion.add(action, action.style.strokeWidth() + 12);
+    }
+
+    // Clears and redraws only the shapes that intersect the changed areas.
+    private void repaintDirty() {
+        if (dirtyRegion.isEmpty()) return;
+        long start = Metrics.start();
+        for (int i = 0; i < dirtyRegion.size(); i++) {
+            // snap to whole screen pixels so the clip edges are not blended with the old content
+            double left = Math.max(0, Math.floor(viewport.toScreenX(dirtyRegion.minX(i))));
+            double top = Math.max(0, Math.floor(viewport.toScreenY(dirtyRegion.minY(i))));
+            double right = Math.min(canvas.getWidth(), Math.ceil(viewport.toScreenX(dirtyRegion.maxX(i))));
+            double bottom = Math.min(canvas.getHeight(), Math.ceil(viewport.toScreenY(dirtyRegion.maxY(i))));
+            if (right <= left || bottom <= top) continue;
+            double minX = viewport.toWorldX(left), minY = viewport.toWorldY(top);
+            double maxX = viewport.toWorldX(right), maxY = viewport.toWorldY(bottom);
+
+            gc.save();
+            gc.beginPath();
+            gc.rect(minX, minY, maxX - minX, maxY - minY);
+            gc.clip();
+            gc.clearRect(minX, minY, maxX - minX, maxY - minY);
+            gc.setFill(Color.WHITE);
+            gc.fillRect(minX, minY, maxX - minX, maxY - minY);
+            drawVisible(minX, minY, maxX, maxY);
+            gc.restore();
+        }
+        dirtyRegion.clear();
+        Metrics.record(Metric.REPAINT, start);
+    }
+
+    // Replaces the in-progress shape or the marquee on the overlay without touching the committed layer.
+    private void redrawOverlay() {
+        clearOverlay();
+        if (marquee) {
+            double minX = min(startX, stopX), minY = min(startY, stopY);
+            double maxX = Math.max(startX, stopX), maxY = Math.max(startY, stopY);
+            double pixel = 1 / viewport.getScale();
+            overlayGc.setStroke(Color.BLUE);
+            overlayGc.setLineWidth(pixel);
+            overlayGc.strokeRect(minX, minY, maxX - minX, maxY - minY);
+            overlayDirty.add(minX - 2 * pixel, minY - 2 * pixel, maxX + 2 * pixel, maxY + 2 * pixel);
+            return;
+        }
+        if (currentAction instanceof Pen pen && pen.fit != null) {
+            // taken first, points fitted while drawing are drawn again by the next tail rather than missed
+            overlayPenPoints = pen.fit.fitted().points().pointCount();
+        }
+        currentAction.setSelectionBound();
+        currentAction.draw(overlayGc);
+        overlayDirty.add(currentAction, currentAction.style.strokeWidth() + 12);
+    }
+
+    // A growing stroke only needs the points fitted since the last frame drawn on the overlay.
+    private void drawPenTail(Pen pen) {
+        if (pen.fit.isBehind()) {
+            // look again next frame, for samples that are still being fitted
+            overlayStale = true;
+            frames.requestNext();
+        }
+        StrokeFit.Fitted fitted = pen.fit.fitted();
+        PointBuffer points = fitted.points();
+        int from = Math.max(overlayPenPoints - 1, 0);
+        int to = points.pointCount();
+        if (to - from < 2) return;
+        overlayGc.setStroke(pen.style.color());
+        overlayGc.setLineCap(StrokeLineCap.ROUND);
+        overlayGc.setLineJoin(StrokeLineJoin.ROUND);
+        pen.stroke(overlayGc, 1, points, fitted.widths(), from);
+        double minX = points.x(from), maxX = minX, minY = points.y(from), maxY = minY;
+        for (int i = from + 1; i < to; i++) {
+            double x = points.x(i), y = points.y(i);
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+        double margin = pen.style.strokeWidth() + 2 / viewport.getScale();
+        overlayDirty.add(minX - margin, minY - margin, maxX + margin, maxY + margin);
+        overlayPenPoints = to;
+    }
+
+    private void clearOverlay() {
+        // cleared in whole screen pixels, a fractional edge would leave a faint trace when zoomed
+        overlayGc.save();
+        overlayGc.setTransform(1, 0, 0, 1, 0, 0);
+        for (int i = 0; i < overlayDirty.size(); i++) {
+            double left = Math.floor(viewport.toScreenX(overlayDirty.minX(i))) - 1;
+            double top = Math.floor(viewport.toScreenY(overlayDirty.minY(i))) - 1;
+            double right = Math.ceil(viewport.toScreenX(overlayDirty.maxX(i))) + 1;
+            double bottom = Math.ceil(viewport.toScreenY(overlayDirty.maxY(i))) + 1;
+            overlayGc.clearRect(left, top, right - left, bottom - top);
+        }
+        overlayGc.restore();
+        overlayDirty.clear();
     }
 
     private void setupKeyHandler() {
         canvas.setFocusTraversable(true);
         canvas.setOnKeyPressed((KeyEvent e) -> {
             if (e.getCode() == KeyCode.DELETE || e.getCode() == KeyCode.BACK_SPACE) {
-                if (currentAction != null && currentAction.isSelected) {
-                    actionHistory.remove(currentAction);
-                    currentAction = null;
-                    drawCanvas();
-                    System.out.println("Selected shape deleted.");
+                if (!selection.isEmpty()) {
+                    int count = selection.size();
+                    commandManager.execute(new DeleteCommand(this, new ArrayList<>(selection)));
+                    commandManager.seal();
+                    requestFrame();
+                    LOG.debug(() -> count + " selected shapes deleted.");
                 }
             }
             if(e.getCode() == KeyCode.Z){
                 this.undo();
-                System.out.println("Undo");
-                drawCanvas();
+                LOG.debug("Undo");
+            }
+            if(e.getCode() == KeyCode.Y){
+                this.redo();
+                LOG.debug("Redo");
+            }
+            if (e.getCode() == KeyCode.DIGIT0) {
+                resetView();
+            }
+            if (e.getCode() == KeyCode.F) {
+                zoomToFit();
+            }
+            if (e.getCode() == KeyCode.F3) {
+                setHudVisible(!isHudVisible());
             }
         });
         canvas.setFocusTraversable(true);
     }
 
     public void undo() {
-        redoHistory.push((ArrayList<DrawingActions>) actionHistory.clone());
-        if (undoHistory.size()>1) {
-            undoHistory.pop();
-            actionHistory = cloneActionHistory((ArrayList<DrawingActions>) undoHistory.peek());
-            System.out.println("Run");
-        }else{
-            undoHistory.clear();
-            actionHistory = new ArrayList<>();
-
-        }
-        drawCanvas();
-        System.out.println(undoHistory);
-        System.out.println(actionHistory);
+        long start = Metrics.start();
+        commandManager.undo();
+        Metrics.record(Metric.UNDO, start);
+        requestFrame();
     }
 
     public void redo() {
-        if (!redoHistory.isEmpty()) {
-            actionHistory = cloneActionHistory((ArrayList<DrawingActions>) redoHistory.pop());
-            drawCanvas();
-        }
-        System.out.println(redoHistory);
-    }
-
-    private ArrayList<DrawingActions> cloneActionHistory(ArrayList<DrawingActions> history) {
-        ArrayList<DrawingActions> clonedHistory = new ArrayList<>();
-        for (DrawingActions action : history) {
-            try {
-                clonedHistory.add((DrawingActions) action.clone());
-            } catch (CloneNotSupportedException e) {
-                e.printStackTrace();
-            }
-        }
-        return clonedHistory;
+        long start = Metrics.start();
+        commandManager.redo();
+        Metrics.record(Metric.REDO, start);
+        requestFrame();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,86 @@
+package com.figma.core;
+
+/**
+ * Layout of a collaboration frame, shared by {@link OpEncoder} and {@link OpDecoder}.
+ *
+ * <pre>
+ * frame    style count varint, styles, op count varint, ops
+ * style    argb i32, stroke width coord
+ * op       kind u8, shape id i64, stamp, site varint, then per kind:
+ *          ADD            z-order, offset x coord, offset y coord, position register,
+ *                         style register, shape type u8, style ref varint, geometry
+ *          REMOVE         -
+ *          MOVE           offset x coord, offset y coord
+ *          RESTYLE        style ref varint
+ *          STROKE_BEGIN   style ref varint, points
+ *          STROKE_POINTS  points
+ *          STROKE_CANCEL  -
+ * geometry pen points, for a pen with widths followed by a width u8 per point,
+ *          rectangle x, y, width, height coords, circle centre x, y, radius coords,
+ *          text x, y coords, font size varint, UTF-8 length varint, bytes
+ * stamp    zig-zag varint of the difference to the previous op's stamp in the frame
+ * z-order  zig-zag varint of the difference to the op's stamp
+ * register zig-zag varint of stamp minus the op's stamp, varint of site xor the op's site
+ * points   count varint, first point as zig-zag varints, then zig-zag deltas,
+ *          all in 1/8 px steps
+ * coord    varint of zigzag(v * 8) << 1 when v is a multiple of 1/8,
+ *          otherwise varint 1 followed by the raw f64
+ * </pre>
+ *
+ * Every frame carries the styles it refers to, so frames stay
+ * self-contained when the host forwards them or a client joins late.
+ *
+ * Between host and clients each frame travels in a message:
+ * <pre>
+ * message  type u8, then per type:
+ *          OPS     frame
+ *          JOIN    protocol version u16, snapshot id i64,     client to host, sent first
+ *                  next chunk i32
+ *          CHUNK   snapshot id i64, index i32, count i32,     host to client
+ *                  frame length i32, deflated frame
+ *          REFUSE  protocol version u16                       host to client, sent last
+ * </pre>
+ * A JOIN naming a snapshot the client has part of resumes it at the chunk
+ * given; otherwise, or if the host no longer has it, the client gets a
+ * whole snapshot.
+ *
+ * {@link #VERSION} goes up with any change to messages or frames. A host
+ * answers a JOIN of another version with a REFUSE naming its own and
+ * disconnects, before reading anything else from the client; the protocol
+ * from before JOIN carried a version counts as version 1.
+ */
+final class WireFormat {
+    // 2 added the version itself, pens with widths and STROKE_CANCEL
+    static final short VERSION = 2;
+    static final int COORD_SCALE = 8;
+
+    static final byte SHAPE_PEN = 1;
+    static final byte SHAPE_RECTANGLE = 2;
+    static final byte SHAPE_CIRCLE = 3;
+    static final byte SHAPE_TEXT = 4;
+    static final byte SHAPE_PEN_WIDTHS = 5;
+
+    static final byte MESSAGE_OPS = 0;
+    static final byte MESSAGE_JOIN = 1;
+    static final byte MESSAGE_CHUNK = 2;
+    static final byte MESSAGE_REFUSE = 3;
+
+    private WireFormat() {
+    }
+
+    static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    static long quantize(double v) {
+        return Math.round(v * COORD_SCALE);
+    }
+
+    static double dequantize(long q) {
+        return (double) q / COORD_SCALE;
+    }
+}
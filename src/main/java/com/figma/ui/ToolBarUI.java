@@ -9,10 +9,12 @@ import javafx.scene.paint.Color;
 import javafx.util.StringConverter;
 import javafx.scene.text.Font;
 import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseEvent;
 
 import java.util.ArrayList;
 
 public class ToolBarUI {
+    private static final Log.Logger LOG = Log.get(ToolBarUI.class);
     private VBox toolBar;
     private ArrayList<ToggleButton> toolButtons = new ArrayList<>();
     private Whiteboard whiteboard;
@@ -33,7 +35,7 @@ public class ToolBarUI {
                 if (toolButton.isSelected()) {
                     whiteboard.setCurrentTool(tool);
                     whiteboard.setCurrentAction(false);
-                    System.out.println("Switched to tool: " + tool.name());
+                    LOG.debug(() -> "Switched to tool: " + tool.name());
                     for (ToggleButton button : toolButtons) {
                         if (button != toolButton) {
                             button.setSelected(false);
@@ -43,7 +45,7 @@ public class ToolBarUI {
                     // Default behavior when no tool is selected
                     whiteboard.setCurrentTool(null);
                     whiteboard.setCurrentMode(Mode.SELECT);
-                    System.out.println("Switched to tool: " + whiteboard.getCurrentMode());
+                    LOG.debug(() -> "Switched to tool: " + whiteboard.getCurrentMode());
                 }
             });
 
@@ -62,7 +64,7 @@ public class ToolBarUI {
         colorPicker.setOnAction(e -> {
             Color selectedColor = colorPicker.getValue();
             whiteboard.setCurrentColor(selectedColor);  // Set the current drawing color in Whiteboard
-            System.out.println("Selected color: " + selectedColor);
+            LOG.debug(() -> "Selected color: " + selectedColor);
         });
 
         // Add color picker to the toolbar
@@ -92,8 +94,12 @@ public class ToolBarUI {
 
         strokeSlider.valueProperty().addListener((observable, oldValue, newValue) -> {
             whiteboard.setCurrentStrokeWidth(newValue.doubleValue());  // Set the stroke width in Whiteboard
-            System.out.println("Selected stroke width: " + newValue);
+            // a click or key press is one undo step by itself
+            if (!strokeSlider.isValueChanging()) whiteboard.finishStrokeWidthChange();
+            LOG.debug(() -> "Selected stroke width: " + newValue);
         });
+        // a drag is one undo step, ended once the thumb is let go and has snapped to its tick
+        strokeSlider.addEventHandler(MouseEvent.MOUSE_RELEASED, e -> whiteboard.finishStrokeWidthChange());
 
         // Add stroke slider to the toolbar
         VBox.setMargin(strokeSlider, new Insets(0, 0, 10, 0)); // Set margin for stroke slider
@@ -119,7 +125,7 @@ public class ToolBarUI {
         fontSizeComboBox.setOnAction(e -> {
             Integer selectedSize = fontSizeComboBox.getValue();
             whiteboard.setTextFontSize(selectedSize); // Set the selected font size in Whiteboard
-            System.out.println("Selected font size: " + selectedSize);
+            LOG.debug(() -> "Selected font size: " + selectedSize);
         });
 
         // VBox.setMargin(fontSizeComboBox, new Insets(0, 0, 10, 0));
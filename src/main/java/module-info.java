@@ -2,6 +2,8 @@ module com.figma.core {
     requires javafx.controls;
     requires javafx.fxml;
     requires java.desktop;
+    requires jdk.jfr;
+    requires jdk.management;
 
 
     opens com.figma.core to javafx.fxml;
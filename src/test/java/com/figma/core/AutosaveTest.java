@@ -0,0 +1,180 @@
+package com.figma.core;
+
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AutosaveTest {
+    // several snapshot batches
+    private static final int SHAPES = 3000;
+
+    @TempDir
+    Path dir;
+    private final List<BoardThread> threads = new ArrayList<>();
+
+    @AfterEach
+    void closeBoards() {
+        threads.forEach(BoardThread::close);
+    }
+
+    @Test
+    void editsDuringCompactionAreRecovered() throws IOException {
+        BoardThread thread = board();
+        Autosave autosave = open(thread);
+        List<DrawingActions> shapes = addShapes(thread);
+        thread.run(autosave::compact);
+        // these run in between the batches of the snapshot
+        for (int i = 0; i < 20; i++) {
+            DrawingActions shape = shapes.get(i * 97);
+            thread.edit(new MoveCommand(thread.board, shape, 3, -5));
+            thread.edit(new RestyleCommand(thread.board, shape, Color.RED, 6));
+        }
+        thread.edit(new DeleteCommand(thread.board, shapes.get(SHAPES - 1)));
+        thread.edit(new AddCommand(thread.board, TestBoards.circle(40, 50, 6)));
+        List<String> expected = thread.state();
+        thread.run(() -> close(autosave));
+
+        assertTrue(Files.exists(dir.resolve(Autosave.SNAPSHOT_FILE)));
+        assertEquals(expected, recovered());
+    }
+
+    @Test
+    void closingDuringCompactionKeepsTheJournal() throws IOException {
+        BoardThread thread = board();
+        Autosave autosave = open(thread);
+        addShapes(thread);
+        List<String> expected = thread.state();
+        // the rest of the snapshot would be encoded on this very thread
+        thread.run(() -> {
+            autosave.compact();
+            close(autosave);
+        });
+
+        assertFalse(Files.exists(dir.resolve(Autosave.SNAPSHOT_FILE)));
+        assertFalse(Files.exists(dir.resolve(Autosave.SNAPSHOT_FILE + ".tmp")));
+        assertEquals(expected, recovered());
+    }
+
+    @Test
+    void aSecondCompactionSupersedesTheFirst() throws IOException {
+        BoardThread thread = board();
+        Autosave autosave = open(thread);
+        List<DrawingActions> shapes = addShapes(thread);
+        thread.run(() -> {
+            autosave.compact();
+            thread.board.getCommandManager().execute(new MoveCommand(thread.board, shapes.get(5), 7, 7));
+            autosave.compact();
+        });
+        List<String> expected = thread.state();
+        thread.run(() -> close(autosave));
+
+        assertEquals(expected, recovered());
+    }
+
+    @Test
+    void filesOfAnOlderVersionAreRewritten() throws Exception {
+        BoardThread thread = board();
+        Autosave autosave = open(thread);
+        addShapes(thread);
+        List<String> expected = thread.state();
+        thread.run(() -> close(autosave));
+        setVersion(Autosave.JOURNAL_FILE, (short) 1);
+
+        BoardThread reopened = board();
+        Autosave rewriting = open(reopened);
+        assertEquals(expected, reopened.state());
+        TestBoards.await("the files are rewritten", () -> version(Autosave.SNAPSHOT_FILE) == Autosave.VERSION);
+        reopened.run(() -> close(rewriting));
+
+        assertEquals(Autosave.VERSION, version(Autosave.JOURNAL_FILE));
+        assertEquals(expected, recovered());
+    }
+
+    @Test
+    void newerVersionsAreRefused() throws IOException {
+        BoardThread thread = board();
+        Autosave autosave = open(thread);
+        addShapes(thread);
+        thread.run(() -> close(autosave));
+        setVersion(Autosave.JOURNAL_FILE, (short) (Autosave.VERSION + 1));
+
+        BoardThread other = board();
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> open(other));
+        assertTrue(e.getCause().getMessage().contains("newer"), e.getCause().getMessage());
+        assertEquals(List.of(), other.state());
+    }
+
+    private BoardThread board() {
+        BoardThread thread = new BoardThread();
+        threads.add(thread);
+        return thread;
+    }
+
+    private Autosave open(BoardThread thread) {
+        return thread.call(() -> Autosave.open(dir, thread.board, thread));
+    }
+
+    private List<DrawingActions> addShapes(BoardThread thread) {
+        List<DrawingActions> shapes = new ArrayList<>();
+        thread.run(() -> {
+            for (int i = 0; i < SHAPES; i++) {
+                DrawingActions shape = i % 3 == 0 ? TestBoards.pen(i, i % 50, 20) : TestBoards.rect(i, 2 * i, 10, 5);
+                thread.board.getCommandManager().execute(new AddCommand(thread.board, shape));
+                thread.board.getCommandManager().seal();
+                shapes.add(shape);
+            }
+        });
+        return shapes;
+    }
+
+    // The state of a new board that recovered from the directory.
+    private List<String> recovered() {
+        BoardThread thread = board();
+        Autosave autosave = open(thread);
+        thread.run(() -> close(autosave));
+        return thread.state();
+    }
+
+    // The version in the header of a file in the directory, 0 while there is none.
+    private short version(String name) {
+        try (InputStream in = Files.newInputStream(dir.resolve(name))) {
+            byte[] header = in.readNBytes(6);
+            return header.length < 6 ? 0 : ByteBuffer.wrap(header).getShort(4);
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void setVersion(String name, short version) throws IOException {
+        Path path = dir.resolve(name);
+        byte[] bytes = Files.readAllBytes(path);
+        ByteBuffer.wrap(bytes).putShort(4, version);
+        Files.write(path, bytes);
+    }
+
+    private static void close(Autosave autosave) {
+        try {
+            autosave.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.figma.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoardFileTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void shapesRoundTrip() throws IOException {
+        Path file = dir.resolve("board." + BoardFile.EXTENSION);
+        List<DrawingActions> shapes = List.of(TestBoards.rect(1, 2, 3, 4), TestBoards.circle(5, 6, 7),
+                TestBoards.pen(8, 9, 200));
+        BoardFile.save(file, shapes);
+
+        ArrayList<DrawingActions> loaded = BoardFile.load(file);
+
+        assertEquals(3, loaded.size());
+        assertEquals(3, ((RectangleShape) loaded.get(0)).width);
+        assertEquals(7, ((CircleShape) loaded.get(1)).radius);
+        Pen pen = (Pen) loaded.get(2);
+        assertEquals(200, pen.points.pointCount());
+        assertEquals(8 + 199 * 0.375, pen.points.x(199));
+    }
+
+    @Test
+    void shapesLongerThanTheReadBufferRoundTrip() throws IOException {
+        Path file = dir.resolve("long." + BoardFile.EXTENSION);
+        // 20000 points take 160 kB, several times the read buffer
+        BoardFile.save(file, List.of(TestBoards.rect(1, 2, 3, 4), TestBoards.pen(0, 0, 20_000), TestBoards.circle(5, 6, 7)));
+
+        ArrayList<DrawingActions> loaded = BoardFile.load(file);
+
+        assertEquals(3, loaded.size());
+        Pen pen = (Pen) loaded.get(1);
+        assertEquals(20_000, pen.points.pointCount());
+        assertEquals(19_999 * 0.375, pen.points.x(19_999));
+        assertEquals(7, ((CircleShape) loaded.get(2)).radius);
+    }
+
+    @Test
+    void nonFiniteCoordinatesAreRejected() throws IOException {
+        Path file = dir.resolve("board." + BoardFile.EXTENSION);
+        BoardFile.save(file, List.of(TestBoards.rect(1, 2, 12345.5, 4)));
+        byte[] bytes = Files.readAllBytes(file);
+        int at = indexOf(bytes, ByteBuffer.allocate(4).putFloat(12345.5f).array());
+        for (float bad : new float[]{Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY}) {
+            ByteBuffer.wrap(bytes).putFloat(at, bad);
+            Files.write(file, bytes);
+            assertThrows(IOException.class, () -> BoardFile.load(file));
+        }
+    }
+
+    @Test
+    void newerVersionsAreRefused() throws IOException {
+        Path file = dir.resolve("board." + BoardFile.EXTENSION);
+        BoardFile.save(file, List.of(TestBoards.rect(1, 2, 3, 4)));
+        byte[] bytes = Files.readAllBytes(file);
+        assertEquals(BoardFile.VERSION, ByteBuffer.wrap(bytes).getShort(4));
+        ByteBuffer.wrap(bytes).putShort(4, (short) (BoardFile.VERSION + 1));
+        Files.write(file, bytes);
+
+        IOException e = assertThrows(IOException.class, () -> BoardFile.load(file));
+        assertTrue(e.getMessage().contains("newer"), e.getMessage());
+    }
+
+    @Test
+    void aFailedSaveLeavesNoTempFileBehind() throws IOException {
+        // a directory with something in it cannot be replaced by the saved file
+        Path file = dir.resolve("board." + BoardFile.EXTENSION);
+        Files.createDirectory(file);
+        Files.createFile(file.resolve("keep"));
+
+        assertThrows(IOException.class, () -> BoardFile.save(file, List.of(TestBoards.rect(1, 2, 3, 4))));
+
+        assertFalse(Files.exists(dir.resolve(file.getFileName() + ".tmp")));
+        assertTrue(Files.exists(file.resolve("keep")));
+    }
+
+    private static int indexOf(byte[] bytes, byte[] pattern) {
+        outer:
+        for (int i = 0; i + pattern.length <= bytes.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) continue outer;
+            }
+            return i;
+        }
+        throw new AssertionError("pattern not found");
+    }
+}
@@ -0,0 +1,195 @@
+package com.figma.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoardLoaderTest {
+    // a page square well outside the view and the area read ahead around it
+    private static final double FAR = 100 * BoardFile.PAGE_SIZE;
+
+    @TempDir
+    Path dir;
+
+    private final BoardThread host = new BoardThread();
+    // drains the loader hands to the board thread, run when the test says so
+    private final BlockingQueue<Runnable> drains = new LinkedBlockingQueue<>();
+    // the size of each batch of shapes put on the board
+    private final List<Integer> batches = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void close() {
+        host.close();
+    }
+
+    @Test
+    void openReadsThePagesInViewAndOnlyReadsAheadTheOnesNearIt() throws Exception {
+        List<DrawingActions> shapes = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            shapes.add(TestBoards.rect(100 + i * 20, 100, 10, 10));
+            // the next page square to the right, within a view width of the view
+            shapes.add(TestBoards.rect(BoardFile.PAGE_SIZE + 100 + i * 20, 100, 10, 10));
+            shapes.add(TestBoards.rect(FAR + i * 20, FAR, 10, 10));
+        }
+        Path file = save(shapes);
+
+        host.run(() -> {
+            listen();
+            open(file);
+        });
+        assertEquals(List.of(10), batches);
+
+        runNextDrain();
+        // the far page stays in the file
+        assertEquals(List.of(10, 10), batches);
+        assertEquals(List.of(), List.copyOf(drains));
+    }
+
+    @Test
+    void readAheadPagesGoOnTheBoardAtMostDrainLimitShapesAtATime() throws Exception {
+        int pages = 10;
+        List<DrawingActions> shapes = new ArrayList<>();
+        for (int i = 0; i < pages * BoardFile.PAGE_CAPACITY; i++) {
+            // all in one page square, so it is split into full pages
+            shapes.add(TestBoards.rect(FAR + i % 64 * 30, FAR + i / 64 * 6, 5, 5));
+        }
+        Path file = save(shapes);
+
+        CompletableFuture<Void> loaded = host.call(() -> {
+            open(file);
+            listen();
+            return host.board.loadRemaining();
+        });
+        while (!loaded.isDone()) {
+            runNextDrain();
+        }
+
+        int total = 0;
+        for (int batch : batches) {
+            assertTrue(batch <= BoardLoader.DRAIN_LIMIT, batches::toString);
+            assertEquals(0, batch % BoardFile.PAGE_CAPACITY, batches::toString);
+            total += batch;
+        }
+        assertEquals(shapes.size(), total);
+    }
+
+    @Test
+    void loadRemainingCompletesOnceTheWholeFileIsOnTheBoard() throws Exception {
+        List<DrawingActions> shapes = new ArrayList<>();
+        for (int i = 0; i < 3 * BoardFile.PAGE_CAPACITY; i++) {
+            shapes.add(i % 2 == 0 ? TestBoards.rect(i * 40, 0, 10, 10) : TestBoards.pen(0, i * 40, 20));
+        }
+        Path file = save(shapes);
+
+        host.call(() -> {
+            host.board.open(BoardFile.open(file), host);
+            return host.board.loadRemaining();
+        }).get(20, TimeUnit.SECONDS);
+
+        assertSameShapes(shapes);
+    }
+
+    @Test
+    void aVersionOneFileOpensAsOnePage() throws Exception {
+        List<DrawingActions> shapes = List.of(TestBoards.rect(1, 2, 3, 4), TestBoards.rect(FAR, FAR, 5, 6),
+                TestBoards.rect(-FAR, 7, 8, 9));
+        Path file = dir.resolve("old." + BoardFile.EXTENSION);
+        Files.write(file, versionOne(shapes));
+
+        try (BoardFile.Index index = BoardFile.open(file)) {
+            assertEquals(1, index.pages.size());
+        }
+        host.run(() -> {
+            listen();
+            open(file);
+        });
+
+        assertEquals(List.of(shapes.size()), batches);
+        assertEquals(List.of(), List.copyOf(drains));
+        assertSameShapes(shapes);
+    }
+
+    private Path save(List<DrawingActions> shapes) throws IOException {
+        Path file = dir.resolve("board." + BoardFile.EXTENSION);
+        BoardFile.save(file, shapes);
+        return file;
+    }
+
+    // On the board thread.
+    private void open(Path file) {
+        try {
+            host.board.open(BoardFile.open(file), drains::add);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // On the board thread.
+    private void listen() {
+        host.board.addBoardListener(new BoardListener() {
+            @Override
+            public void shapesAdded(List<DrawingActions> shapes) {
+                batches.add(shapes.size());
+            }
+
+            @Override public void shapeAdded(DrawingActions shape) { batches.add(1); }
+            @Override public void shapeRemoved(DrawingActions shape) { }
+            @Override public void shapeMoved(DrawingActions shape, double deltaX, double deltaY) { }
+            @Override public void shapeRestyled(DrawingActions shape) { }
+        });
+    }
+
+    private void runNextDrain() throws InterruptedException {
+        Runnable drain = drains.poll(20, TimeUnit.SECONDS);
+        assertNotNull(drain, "no page was handed to the board thread");
+        host.run(drain);
+    }
+
+    // The board holds shapes like these, in the same stacking order.
+    private void assertSameShapes(List<DrawingActions> expected) {
+        List<String> actual = host.call(() -> {
+            List<String> described = new ArrayList<>();
+            for (DrawingActions shape : host.board.getActionHistory()) {
+                described.add(describe(shape));
+            }
+            return described;
+        });
+        assertEquals(expected.stream().map(BoardLoaderTest::describe).toList(), actual);
+    }
+
+    private static String describe(DrawingActions shape) {
+        return shape.getClass().getSimpleName() + " " + shape.left + "," + shape.top + " " + shape.right + ","
+                + shape.bottom;
+    }
+
+    // A board file as version 1 wrote rectangles: no index offset, no index and no depths.
+    private static byte[] versionOne(List<DrawingActions> rects) {
+        ByteBuffer out = ByteBuffer.allocate(16 + 4 + 8 + 4 + rects.size() * 21);
+        out.putInt(BoardFile.MAGIC).putShort((short) 1).putShort((short) 0).putLong(rects.size());
+        out.putInt(1).putInt(0xff000000).putFloat(2);
+        out.putInt(0);
+        for (DrawingActions shape : rects) {
+            RectangleShape rect = (RectangleShape) shape;
+            out.put(BoardFile.TYPE_RECTANGLE).putInt(0)
+                    .putFloat((float) rect.x).putFloat((float) rect.y)
+                    .putFloat((float) rect.width).putFloat((float) rect.height);
+        }
+        return out.array();
+    }
+}
@@ -0,0 +1,70 @@
+package com.figma.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoardRendererTest {
+    private static final int TILE = 64;
+    private static final int WHITE = 0xFFFFFFFF;
+
+    // shapes that cross the seams of 64 px tiles, in both directions and at a corner
+    private final List<DrawingActions> shapes = List.of(
+            TestBoards.rect(40, 50, 100, 30),
+            TestBoards.circle(128, 128, 37),
+            TestBoards.pen(10, 60, 500),
+            TestBoards.rect(63.5, 10, 1, 170));
+
+    @Test
+    void tilesJoinWithoutSeams() {
+        BufferedImage tiled = render(TILE, 1);
+        BufferedImage whole = render(Integer.MAX_VALUE, 1);
+        assertTrue(tiled.getWidth() > 3 * TILE && tiled.getHeight() > 2 * TILE);
+        assertAlike(whole, tiled, 0);
+
+        int seamPixelsDrawn = 0;
+        for (int y = 0; y < whole.getHeight(); y++) {
+            for (int x = 0; x < whole.getWidth(); x++) {
+                boolean seam = x % TILE == 0 || x % TILE == TILE - 1 || y % TILE == 0 || y % TILE == TILE - 1;
+                if (seam && whole.getRGB(x, y) != WHITE) seamPixelsDrawn++;
+            }
+        }
+        // the shapes do reach the seams
+        assertTrue(seamPixelsDrawn > 50, seamPixelsDrawn + " seam pixels drawn");
+    }
+
+    @Test
+    void tilesMatchASingleTileWhenScaled() {
+        assertAlike(render(Integer.MAX_VALUE, 0.5), render(TILE, 0.5), 0);
+        // Java2D clips each path to its tile, which moves where curves are flattened:
+        // anti-aliased edges may differ a little, a missing or shifted tile by far more
+        assertAlike(render(Integer.MAX_VALUE, 2.5), render(TILE, 2.5), 24);
+    }
+
+    private BufferedImage render(int tilePixels, double scale) {
+        double[] bounds = BoardRenderer.bounds(shapes);
+        return new BoardRenderer(ForkJoinPool.commonPool(), tilePixels)
+                .render(BoardRenderer.snapshot(shapes), bounds[0], bounds[1], bounds[2], bounds[3], scale);
+    }
+
+    // Every channel of every pixel within tolerance.
+    private static void assertAlike(BufferedImage expected, BufferedImage actual, int tolerance) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int a = expected.getRGB(x, y), b = actual.getRGB(x, y);
+                for (int shift = 0; shift < 32; shift += 8) {
+                    if (Math.abs((a >> shift & 0xFF) - (b >> shift & 0xFF)) > tolerance) {
+                        assertEquals(Integer.toHexString(a), Integer.toHexString(b), "pixel " + x + "," + y);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.figma.core;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A headless board and the one thread it is used from, standing in for
+ * the FX thread. Also the board executor of a session on the board.
+ */
+final class BoardThread implements Executor, AutoCloseable {
+    private final ExecutorService thread = Executors.newSingleThreadExecutor();
+    final Whiteboard board;
+
+    BoardThread() {
+        board = call(() -> new Whiteboard(new NullSurface(), new NullSurface()));
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        thread.execute(task);
+    }
+
+    <T> T call(Callable<T> task) {
+        try {
+            return thread.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    void run(Runnable task) {
+        call(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    // Runs the command on the board as one undo step, as a gesture would.
+    void edit(Command command) {
+        run(() -> {
+            board.getCommandManager().execute(command);
+            board.getCommandManager().seal();
+        });
+    }
+
+    List<String> state() {
+        return call(() -> TestBoards.state(board));
+    }
+
+    @Override
+    public void close() {
+        thread.shutdownNow();
+    }
+}
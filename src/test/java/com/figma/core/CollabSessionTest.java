@@ -0,0 +1,388 @@
+package com.figma.core;
+
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CollabSessionTest {
+    // queue limit for slow clients, and a stroke that encodes to most of it, more than the sockets hold
+    private static final long SLOW_LIMIT = 1 << 20;
+    private static final int PEN_POINTS = 400_000;
+    private final List<AutoCloseable> open = new ArrayList<>();
+
+    @AfterEach
+    void closeAll() throws Exception {
+        for (int i = open.size() - 1; i >= 0; i--) {
+            open.get(i).close();
+        }
+    }
+
+    private BoardThread board() {
+        BoardThread board = new BoardThread();
+        open.add(board);
+        return board;
+    }
+
+    private CollabSession host(BoardThread board) throws IOException {
+        return host(board, CollabHost.MAX_QUEUED_BYTES, CollabHost.STALL_MILLIS);
+    }
+
+    private CollabSession host(BoardThread board, long maxQueuedBytes, long stallMillis) throws IOException {
+        CollabSession session = CollabSession.host(board.board,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), board, maxQueuedBytes, stallMillis);
+        open.add(session);
+        return session;
+    }
+
+    private CollabSession join(BoardThread board, CollabSession host) throws IOException {
+        return join(board, host, board);
+    }
+
+    private CollabSession join(BoardThread board, CollabSession host, Executor boardExecutor) throws IOException {
+        CollabSession session = CollabSession.join(board.board,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), host.getPort()), boardExecutor);
+        open.add(session);
+        return session;
+    }
+
+    // A client that joins through a gate, see Gate.
+    private Gate slowClient(BoardThread board, CollabSession host) throws IOException {
+        Gate gate = new Gate(board);
+        join(board, host, gate);
+        // let go of the reader before its session is closed
+        open.add(gate::open);
+        return gate;
+    }
+
+    // Shuts the gate and gets the host's writer stuck on a stroke behind the frame the client's reader waits with.
+    private static void jam(Gate gate, BoardThread host) {
+        gate.shut();
+        host.edit(new AddCommand(host.board, TestBoards.circle(0, 0, 5)));
+        host.edit(new AddCommand(host.board, TestBoards.pen(0, 100, PEN_POINTS)));
+    }
+
+    @Test
+    void joiningClientGetsTheBoard() throws Exception {
+        BoardThread host = board();
+        for (int i = 0; i < 50; i++) {
+            host.edit(new AddCommand(host.board, TestBoards.rect(i * 40, 0, 30, 30)));
+        }
+        host.edit(new AddCommand(host.board, TestBoards.pen(0, 100, 500)));
+        CollabSession hostSession = host(host);
+        BoardThread client = board();
+        join(client, hostSession);
+
+        TestBoards.awaitConverged(host, client);
+        assertEquals(51, client.call(() -> client.board.getActionHistory().size()));
+    }
+
+    @Test
+    void editsReachEveryBoard() throws Exception {
+        BoardThread host = board();
+        RectangleShape rect = TestBoards.rect(10, 10, 30, 30);
+        host.edit(new AddCommand(host.board, rect));
+        CollabSession hostSession = host(host);
+        BoardThread first = board(), second = board();
+        join(first, hostSession);
+        join(second, hostSession);
+        TestBoards.awaitConverged(host, first, second);
+
+        // from a client, through the host to the other client
+        first.run(() -> {
+            DrawingActions shape = first.board.findById(rect.id);
+            first.board.getCommandManager().execute(new MoveCommand(first.board, shape, 100, 5));
+            first.board.getCommandManager().execute(new RestyleCommand(first.board, shape, Color.RED, 7));
+            first.board.getCommandManager().seal();
+        });
+        CircleShape circle = TestBoards.circle(300, 300, 20);
+        second.edit(new AddCommand(second.board, circle));
+        host.edit(new AddCommand(host.board, TestBoards.pen(0, 200, 100)));
+        TestBoards.awaitConverged(host, first, second);
+
+        RectangleShape moved = (RectangleShape) second.call(() -> second.board.findById(rect.id));
+        assertEquals(110, moved.x);
+        assertEquals(Color.RED, moved.style.color());
+        assertEquals(7, moved.style.strokeWidth());
+
+        host.run(() -> host.board.getCommandManager().undo());
+        first.edit(new DeleteCommand(first.board, first.call(() -> first.board.findById(circle.id))));
+        TestBoards.awaitConverged(host, first, second);
+        assertNull(second.call(() -> second.board.findById(circle.id)));
+        assertEquals(1, second.call(() -> second.board.getActionHistory().size()));
+    }
+
+    @Test
+    void clientsLeaveCleanly() throws Exception {
+        BoardThread host = board();
+        CollabSession hostSession = host(host);
+        BoardThread client = board();
+        CollabSession clientSession = join(client, hostSession);
+        TestBoards.await("the client connects", () -> hostSession.getClientCount() == 1);
+
+        clientSession.close();
+        TestBoards.await("the host sees it leave", () -> hostSession.getClientCount() == 0);
+        // the host's board carries on on its own
+        host.edit(new AddCommand(host.board, TestBoards.rect(0, 0, 10, 10)));
+        assertEquals(1, host.call(() -> host.board.getActionHistory().size()));
+        assertEquals(0, client.call(() -> client.board.getActionHistory().size()));
+    }
+
+    @Test
+    void aJoiningClientsOwnShapesReachTheHost() throws Exception {
+        BoardThread host = board();
+        host.edit(new AddCommand(host.board, TestBoards.rect(0, 0, 10, 10)));
+        CollabSession hostSession = host(host);
+        // as when the client's board was restored from its autosave before joining
+        BoardThread client = board();
+        RectangleShape restored = TestBoards.rect(50, 0, 10, 10);
+        RectangleShape deleted = TestBoards.rect(100, 0, 10, 10);
+        client.edit(new AddCommand(client.board, restored));
+        client.edit(new AddCommand(client.board, deleted));
+        client.edit(new DeleteCommand(client.board, deleted));
+        join(client, hostSession);
+
+        TestBoards.awaitConverged(host, client);
+        assertEquals(2, host.call(() -> host.board.getActionHistory().size()));
+        assertNotNull(host.call(() -> host.board.findById(restored.id)));
+        assertNull(host.call(() -> host.board.findById(deleted.id)));
+        // the client's history still holds, undoing the delete brings the shape back everywhere
+        assertTrue(client.call(() -> client.board.getCommandManager().undo()));
+        TestBoards.awaitConverged(host, client);
+        assertNotNull(host.call(() -> host.board.findById(deleted.id)));
+    }
+
+    @Test
+    void editsMadeWhileReconnectingReachTheHost() throws Exception {
+        BoardThread host = board();
+        RectangleShape moved = TestBoards.rect(10, 10, 30, 30);
+        RectangleShape deleted = TestBoards.rect(100, 10, 30, 30);
+        host.edit(new AddCommand(host.board, moved));
+        host.edit(new AddCommand(host.board, deleted));
+        CollabSession first = host(host);
+        int port = first.getPort();
+        BoardThread client = board();
+        join(client, first);
+        TestBoards.awaitConverged(host, client);
+
+        // the connection drops, and the client carries on while it tries to get back
+        first.close();
+        client.edit(new MoveCommand(client.board, client.call(() -> client.board.findById(moved.id)), 100, 5));
+        client.edit(new DeleteCommand(client.board, client.call(() -> client.board.findById(deleted.id))));
+        CircleShape drawn = TestBoards.circle(300, 300, 20);
+        client.edit(new AddCommand(client.board, drawn));
+        assertNotEquals(host.state(), client.state());
+        CollabSession second = CollabSession.host(host.board,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port), host);
+        open.add(second);
+
+        TestBoards.awaitConverged(host, client);
+        assertEquals(110, ((RectangleShape) host.call(() -> host.board.findById(moved.id))).x);
+        assertNull(host.call(() -> host.board.findById(deleted.id)));
+        assertNotNull(host.call(() -> host.board.findById(drawn.id)));
+    }
+
+    @Test
+    void strokesStillBeingDrawnAreDroppedWithTheirBoard() throws Exception {
+        BoardThread host = board();
+        CollabSession hostSession = host(host);
+        BoardThread drawer = board();
+        CollabSession drawing = join(drawer, hostSession);
+        BoardThread watcher = board();
+        join(watcher, hostSession);
+        TestBoards.await("both clients connect", () -> hostSession.getClientCount() == 2);
+
+        Pen stroke = TestBoards.pen(0, 0, 1);
+        stroke.id = drawer.call(() -> drawer.board.getReplica().newShapeId());
+        drawing.strokeSampled(stroke, 0, 0);
+        drawing.strokeSampled(stroke, 10, 10);
+        TestBoards.await("the other boards show the stroke", () -> host.call(() -> host.board.previewCount()) == 1
+                && watcher.call(() -> watcher.board.previewCount()) == 1);
+        // shown, but not on the board: nothing to select, save or export
+        assertEquals(0, host.call(() -> host.board.getActionHistory().size()));
+        assertNull(host.call(() -> host.board.findElementAtPoint(5, 5)));
+        assertNull(host.call(() -> host.board.findById(stroke.id)));
+
+        drawing.close();
+        TestBoards.await("the stroke goes with the board drawing it", () -> host.call(() -> host.board.previewCount()) == 0
+                && watcher.call(() -> watcher.board.previewCount()) == 0);
+
+        // and a client that loses the host drops the host's
+        Pen hostStroke = TestBoards.pen(0, 0, 1);
+        hostStroke.id = host.call(() -> host.board.getReplica().newShapeId());
+        hostSession.strokeSampled(hostStroke, 0, 0);
+        TestBoards.await("the client shows the host's stroke", () -> watcher.call(() -> watcher.board.previewCount()) == 1);
+        hostSession.close();
+        TestBoards.await("the client drops it", () -> watcher.call(() -> watcher.board.previewCount()) == 0);
+    }
+
+    @Test
+    void openingAFileReplacesTheBoardOfEveryPeer(@TempDir Path dir) throws Exception {
+        BoardThread host = board();
+        RectangleShape old = TestBoards.rect(10, 10, 30, 30);
+        host.edit(new AddCommand(host.board, old));
+        CollabSession hostSession = host(host);
+        BoardThread client = board();
+        join(client, hostSession);
+        TestBoards.awaitConverged(host, client);
+
+        // spread over many pages, read in after the open returns
+        List<DrawingActions> shapes = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            shapes.add(i % 2 == 0 ? TestBoards.rect(i * 30, i % 7 * 500, 20, 20) : TestBoards.pen(i * 30, 0, 20));
+        }
+        Path file = dir.resolve("board." + BoardFile.EXTENSION);
+        BoardFile.save(file, shapes);
+        host.call(() -> {
+            host.board.open(BoardFile.open(file), host);
+            return host.board.loadRemaining();
+        }).get();
+
+        TestBoards.awaitConverged(host, client);
+        assertEquals(3000, client.call(() -> client.board.getActionHistory().size()));
+        assertNull(client.call(() -> client.board.findById(old.id)));
+    }
+
+    @Test
+    void aClientOfAnotherVersionIsRefused() throws Exception {
+        BoardThread host = board();
+        CollabSession hostSession = host(host);
+        BoardThread other = board();
+        RectangleShape rect = TestBoards.rect(0, 0, 10, 10);
+        other.edit(new AddCommand(other.board, rect));
+        byte[] edit = SnapshotSync.opsMessage(OpEncoder.encode(other.call(() -> other.board.replicatedAdd(rect))));
+        byte[] join = ByteBuffer.allocate(15).put(WireFormat.MESSAGE_JOIN).putShort((short) (WireFormat.VERSION + 1))
+                .putLong(0).putInt(0).array();
+
+        try (SocketChannel channel = SocketChannel.open(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), hostSession.getPort()))) {
+            channel.write(new ByteBuffer[]{CollabHost.frame(join), CollabHost.frame(edit)});
+            ByteBuffer refusal = ByteBuffer.allocate(4 + 3);
+            while (refusal.hasRemaining() && channel.read(refusal) >= 0) {
+                // keep reading
+            }
+            assertEquals(3, refusal.getInt(0));
+            assertEquals(WireFormat.MESSAGE_REFUSE, refusal.get(4));
+            assertEquals(WireFormat.VERSION, refusal.getShort(5));
+            // and nothing after it
+            assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+        }
+        TestBoards.await("the host drops it", () -> hostSession.getClientCount() == 0);
+        assertEquals(List.of(), host.state());
+    }
+
+    @Test
+    void aClientThatFallsBehindIsSentTheBoardAgain() throws Exception {
+        BoardThread host = board();
+        RectangleShape rect = TestBoards.rect(10, 10, 30, 30);
+        host.edit(new AddCommand(host.board, rect));
+        CollabSession hostSession = host(host, SLOW_LIMIT, CollabHost.STALL_MILLIS);
+        BoardThread client = board();
+        Gate gate = slowClient(client, hostSession);
+        TestBoards.awaitConverged(host, client);
+
+        jam(gate, host);
+        // queued and dropped with the queue, the board sent again has them
+        host.edit(new MoveCommand(host.board, rect, 100, 5));
+        host.edit(new RestyleCommand(host.board, rect, Color.RED, 7));
+        // overflow the queue
+        host.edit(new AddCommand(host.board, TestBoards.pen(0, 200, PEN_POINTS)));
+        host.edit(new AddCommand(host.board, TestBoards.pen(0, 300, PEN_POINTS)));
+        assertNotEquals(host.state(), client.state());
+        gate.open();
+
+        TestBoards.awaitConverged(host, client);
+        assertEquals(1, hostSession.getClientCount());
+        RectangleShape moved = (RectangleShape) client.call(() -> client.board.findById(rect.id));
+        assertEquals(110, moved.x);
+        assertEquals(Color.RED, moved.style.color());
+    }
+
+    @Test
+    void dragsOfAShapeQueueAsOneFrame() throws Exception {
+        BoardThread host = board();
+        RectangleShape rect = TestBoards.rect(10, 10, 30, 30);
+        host.edit(new AddCommand(host.board, rect));
+        CollabSession hostSession = host(host, SLOW_LIMIT, CollabHost.STALL_MILLIS);
+        BoardThread client = board();
+        Gate gate = slowClient(client, hostSession);
+        TestBoards.awaitConverged(host, client);
+
+        jam(gate, host);
+        // several times the limit if each was queued, which would cost the client its connection
+        host.run(() -> {
+            for (int i = 0; i < 100_000; i++) {
+                host.board.getCommandManager().execute(new MoveCommand(host.board, rect, 1, 0));
+                host.board.getCommandManager().seal();
+            }
+        });
+        gate.open();
+
+        TestBoards.awaitConverged(host, client);
+        assertEquals(1, hostSession.getClientCount());
+    }
+
+    @Test
+    void aClientThatTakesNothingIsDisconnected() throws Exception {
+        BoardThread host = board();
+        CollabSession hostSession = host(host, SLOW_LIMIT, 200);
+        BoardThread client = board();
+        Gate gate = slowClient(client, hostSession);
+        TestBoards.await("the client connects", () -> hostSession.getClientCount() == 1);
+
+        jam(gate, host);
+        Thread.sleep(400);
+        // the stall is noticed as the next frame is queued
+        host.edit(new AddCommand(host.board, TestBoards.rect(0, 0, 10, 10)));
+        TestBoards.await("the host drops it", () -> hostSession.getClientCount() == 0);
+    }
+
+    /**
+     * The board executor of a slow client. While shut, the client's reader
+     * waits in here with the next frame, so it stops taking data and the
+     * socket buffers fill up, as with a client on a slow link.
+     */
+    private static final class Gate implements Executor {
+        private final Executor board;
+        private volatile CountDownLatch opened = new CountDownLatch(0);
+
+        Gate(Executor board) {
+            this.board = board;
+        }
+
+        void shut() {
+            opened = new CountDownLatch(1);
+        }
+
+        void open() {
+            opened.countDown();
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            try {
+                opened.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            board.execute(task);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.figma.core;
+
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CommandManagerTest {
+    private final Whiteboard board = new Whiteboard(new NullSurface(), new NullSurface());
+    // what the commands did, in order
+    private final List<String> log = new ArrayList<>();
+
+    @Test
+    void commandsMergeUntilSealed() {
+        CommandManager manager = new CommandManager();
+        manager.execute(new Step("a", 1));
+        manager.execute(new Step("a", 2));
+        // cannot merge, so starts a step of its own
+        manager.execute(new Step("b", 3));
+        manager.seal();
+        manager.execute(new Step("b", 4));
+
+        assertTrue(manager.undo());
+        assertTrue(manager.undo());
+        assertTrue(manager.undo());
+        assertFalse(manager.undo());
+        assertEquals(List.of("do a1", "do a2", "do b3", "do b4", "undo b4", "undo b3", "undo a1+2"), log);
+
+        // undo ends the gesture, so what is redone does not merge either
+        assertTrue(manager.redo());
+        manager.execute(new Step("a", 5));
+        assertTrue(manager.undo());
+        assertEquals("undo a5", log.get(log.size() - 1));
+    }
+
+    @Test
+    void theOldestStepsGoOncePastMaxDepth() {
+        CommandManager manager = new CommandManager(3);
+        for (int i = 1; i <= 5; i++) {
+            manager.execute(new Step("s", i));
+            manager.seal();
+        }
+        while (manager.undo()) {
+            // unwinds what is kept
+        }
+        assertEquals(List.of("undo s5", "undo s4", "undo s3"), log.subList(5, log.size()));
+        assertThrows(IllegalArgumentException.class, () -> new CommandManager(0));
+    }
+
+    @Test
+    void aNewCommandDropsWhatCouldBeRedone() {
+        CommandManager manager = new CommandManager();
+        manager.execute(new Step("a", 1));
+        manager.undo();
+        assertTrue(manager.canRedo());
+        manager.execute(new Step("b", 2));
+        assertFalse(manager.canRedo());
+    }
+
+    @Test
+    void everyEditUndoesAndRedoesToTheSameBoard() {
+        CommandManager manager = board.getCommandManager();
+        RectangleShape rect = TestBoards.rect(10, 10, 40, 20);
+        CircleShape circle = TestBoards.circle(200, 200, 30);
+        List<Command> edits = List.of(
+                new AddCommand(board, rect),
+                new AddCommand(board, circle),
+                new MoveCommand(board, List.of(rect, circle), 15, -5),
+                new RestyleCommand(board, rect, Color.RED, 7),
+                new DeleteCommand(board, circle));
+        List<List<String>> states = new ArrayList<>();
+        states.add(describe());
+        for (Command edit : edits) {
+            manager.execute(edit);
+            manager.seal();
+            states.add(describe());
+        }
+
+        for (int i = edits.size() - 1; i >= 0; i--) {
+            assertTrue(manager.undo());
+            assertEquals(states.get(i), describe());
+        }
+        for (int i = 1; i <= edits.size(); i++) {
+            assertTrue(manager.redo());
+            assertEquals(states.get(i), describe());
+        }
+    }
+
+    @Test
+    void eachColourPickIsAStepAndAWidthDragIsOne() {
+        RectangleShape rect = TestBoards.rect(0, 0, 100, 100);
+        board.getCommandManager().execute(new AddCommand(board, rect));
+        board.getCommandManager().seal();
+        click(0, 50);
+        List<String> black = describe();
+
+        board.setCurrentColor(Color.RED);
+        assertEquals("RED 2.0", style(rect));
+        List<String> red = describe();
+        board.setCurrentColor(Color.BLUE);
+        board.setCurrentStrokeWidth(3.5);
+        board.setCurrentStrokeWidth(6);
+        board.setCurrentStrokeWidth(8);
+        board.finishStrokeWidthChange();
+        List<String> wide = describe();
+        board.setCurrentStrokeWidth(9);
+        board.finishStrokeWidthChange();
+
+        board.getCommandManager().undo();
+        assertEquals(wide, describe());
+        board.getCommandManager().undo();
+        assertEquals("BLUE 2.0", style(rect));
+        board.getCommandManager().undo();
+        assertEquals(red, describe());
+        board.getCommandManager().undo();
+        assertEquals(black, describe());
+    }
+
+    // Each shape on the board with its place and style, bottom-most first.
+    private List<String> describe() {
+        List<String> shapes = new ArrayList<>();
+        for (DrawingActions shape : board.getActionHistory()) {
+            shapes.add(shape.getClass().getSimpleName() + " " + shape.left + "," + shape.top + " "
+                    + shape.right + "," + shape.bottom + " " + style(shape));
+        }
+        return shapes;
+    }
+
+    private static String style(DrawingActions shape) {
+        Color color = shape.style.color();
+        String name = color.equals(Color.RED) ? "RED" : color.equals(Color.BLUE) ? "BLUE" : color.toString();
+        return name + " " + shape.style.strokeWidth();
+    }
+
+    private void click(double x, double y) {
+        for (var type : List.of(MouseEvent.MOUSE_PRESSED, MouseEvent.MOUSE_RELEASED)) {
+            MouseEvent event = new MouseEvent(type, x, y, x, y, MouseButton.PRIMARY, 1,
+                    false, false, false, false, true, false, false, false, false, false, null);
+            if (type == MouseEvent.MOUSE_PRESSED) board.handleMousePressed(event);
+            else board.handleMouseReleased(event);
+        }
+    }
+
+    // Logs what it does; merges with the next step of the same name.
+    private final class Step extends Command {
+        private final String name;
+        private String values;
+
+        Step(String name, int value) {
+            super(null);
+            this.name = name;
+            this.values = String.valueOf(value);
+        }
+
+        @Override
+        void execute() {
+            log.add("do " + name + values);
+        }
+
+        @Override
+        void undo() {
+            log.add("undo " + name + values);
+        }
+
+        @Override
+        boolean mergeWith(Command next) {
+            if (next instanceof Step step && step.name.equals(name)) {
+                values += "+" + step.values;
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.figma.core;
+
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Random edits on a few boards, pen strokes cut up by the eraser among
+ * them, exchanged in random order, more than once, some of them lost, and
+ * through full-state merges; every board must end up with the same
+ * replicated state. Also the edge cases: stamps from a broken clock, and a
+ * board that comes back after the tombstone of a delete it missed is gone.
+ */
+class ConvergenceTest {
+    private static final int BOARDS = 4;
+    private static final int RUNS = 300;
+    private static final int STEPS = 120;
+    private static final Color[] COLORS = {Color.BLACK, Color.RED, Color.BLUE};
+
+    // A board and the edits it has not been sent yet.
+    private static final class Peer implements BoardListener {
+        final Whiteboard board;
+        final List<byte[]> log;
+        final List<byte[]> inbox = new ArrayList<>();
+        final List<byte[]> seen = new ArrayList<>();
+
+        Peer(List<byte[]> log) {
+            this(log, new Replica());
+        }
+
+        Peer(List<byte[]> log, Replica replica) {
+            this.log = log;
+            board = new Whiteboard(new NullSurface(), new NullSurface(), replica);
+            board.addBoardListener(this);
+        }
+
+        // As a session sends them, encoded right away since an add carries the shape as it is now.
+        private void record(Operation op) {
+            log.add(OpEncoder.encode(op));
+        }
+
+        @Override
+        public void shapeAdded(DrawingActions shape) {
+            record(Operation.add(board.getReplica().entry(shape.id)));
+        }
+
+        @Override
+        public void shapeRemoved(DrawingActions shape) {
+            record(Operation.remove(board.getReplica().entry(shape.id)));
+        }
+
+        @Override
+        public void shapeMoved(DrawingActions shape, double deltaX, double deltaY) {
+            record(Operation.move(board.getReplica().entry(shape.id)));
+        }
+
+        @Override
+        public void shapeRestyled(DrawingActions shape) {
+            record(Operation.restyle(board.getReplica().entry(shape.id)));
+        }
+
+        void apply(byte[] frame) {
+            try {
+                board.applyOperations(OpDecoder.decode(frame));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            seen.add(frame);
+        }
+
+        // Everything the other board knows, as a client that is sent the board again gets it.
+        void mergeStateOf(Peer other) {
+            apply(OpEncoder.encode(other.board.replicatedState()));
+        }
+
+        // As a client that reconnects: it is sent the host's board and sends its own back.
+        void rejoin(Peer host) {
+            mergeStateOf(host);
+            host.mergeStateOf(this);
+        }
+    }
+
+    @Test
+    void boardsConvergeWhateverTheDelivery() {
+        for (int seed = 0; seed < RUNS; seed++) {
+            Random random = new Random(seed);
+            List<Peer> peers = run(random);
+            // all but the last get every edit, in any order and some twice
+            for (Peer peer : peers.subList(0, BOARDS - 1)) {
+                deliver(random, peer, peer.inbox.size());
+            }
+            // the last loses some, then is sent the board as after falling behind
+            Peer lossy = peers.get(BOARDS - 1);
+            Collections.shuffle(lossy.inbox, random);
+            lossy.inbox.subList(0, random.nextInt(lossy.inbox.size() + 1)).clear();
+            deliver(random, lossy, lossy.inbox.size());
+            lossy.mergeStateOf(peers.get(random.nextInt(BOARDS - 1)));
+
+            List<String> expected = TestBoards.state(peers.get(0).board);
+            for (int i = 1; i < BOARDS; i++) {
+                assertEquals(expected, TestBoards.state(peers.get(i).board), "seed " + seed + ", board " + i);
+            }
+            // merging a board's state into one that has it all changes nothing
+            peers.get(0).mergeStateOf(lossy);
+            assertEquals(expected, TestBoards.state(peers.get(0).board), "seed " + seed);
+        }
+    }
+
+    @Test
+    void stampFromTheFarFutureIsDropped() {
+        List<byte[]> log = new ArrayList<>();
+        Peer first = new Peer(log), second = new Peer(new ArrayList<>());
+        RectangleShape rect = TestBoards.rect(0, 0, 10, 10);
+        first.board.getCommandManager().execute(new AddCommand(first.board, rect));
+        log.forEach(second::apply);
+        log.clear();
+
+        // as from a peer with a broken clock, or a corrupt frame
+        second.apply(OpEncoder.encode(Operation.move(rect.id, Long.MAX_VALUE, 7, 100, 100)));
+        assertEquals(TestBoards.state(first.board), TestBoards.state(second.board));
+
+        // later edits still win, and still get through
+        first.board.getCommandManager().execute(new MoveCommand(first.board, rect, 5, 5));
+        log.forEach(second::apply);
+        assertEquals(TestBoards.state(first.board), TestBoards.state(second.board));
+        assertEquals(5, second.board.getReplica().entry(rect.id).offsetX);
+    }
+
+    @Test
+    void aPeerThatMissedACollectedDeleteBringsTheShapeBackWhenItRejoins() {
+        long[] wall = {1_000_000};
+        List<byte[]> hostLog = new ArrayList<>(), clientLog = new ArrayList<>();
+        Peer host = new Peer(hostLog, new Replica(1, new HybridClock(() -> wall[0])));
+        Peer client = new Peer(clientLog, new Replica(2, new HybridClock(() -> wall[0])));
+        RectangleShape deleted = TestBoards.rect(0, 0, 10, 10);
+        RectangleShape kept = TestBoards.rect(50, 0, 10, 10);
+        host.board.getCommandManager().execute(new AddCommand(host.board, deleted));
+        host.board.getCommandManager().execute(new AddCommand(host.board, kept));
+        hostLog.forEach(client::apply);
+        hostLog.clear();
+
+        // the client is away while the host deletes a shape and, much later, collects the tombstone
+        host.board.getCommandManager().execute(new DeleteCommand(host.board, deleted));
+        hostLog.clear();
+        wall[0] += Replica.TOMBSTONE_TTL_MILLIS + 60_000;
+        host.board.getReplica().collectGarbage();
+        assertEquals(0, host.board.getReplica().tombstoneCount());
+
+        // and draws while it is away, which the host only learns of from its state
+        CircleShape drawn = TestBoards.circle(100, 100, 5);
+        client.board.getCommandManager().execute(new AddCommand(client.board, drawn));
+        clientLog.clear();
+        client.rejoin(host);
+
+        // nothing is dropped behind anyone's back: the delete is lost, as an edit that late may be
+        assertEquals(TestBoards.state(host.board), TestBoards.state(client.board));
+        assertNotNull(host.board.findById(deleted.id));
+        assertNotNull(client.board.findById(kept.id));
+        assertNotNull(host.board.findById(drawn.id));
+    }
+
+    // Random edits on every board, each seeing some of the others' edits before making its own.
+    private static List<Peer> run(Random random) {
+        List<Peer> peers = new ArrayList<>();
+        List<List<byte[]>> logs = new ArrayList<>();
+        for (int i = 0; i < BOARDS; i++) {
+            logs.add(new ArrayList<>());
+            peers.add(new Peer(logs.get(i)));
+        }
+        for (int step = 0; step < STEPS; step++) {
+            Peer peer = peers.get(random.nextInt(BOARDS));
+            int choice = random.nextInt(10);
+            if (choice < 6) {
+                edit(random, peer.board);
+            } else if (choice < 9) {
+                deliver(random, peer, random.nextInt(peer.inbox.size() + 1));
+            } else {
+                peer.mergeStateOf(peers.get(random.nextInt(BOARDS)));
+            }
+            // edits made are sent to every other board
+            for (int i = 0; i < BOARDS; i++) {
+                for (byte[] frame : logs.get(i)) {
+                    for (int j = 0; j < BOARDS; j++) {
+                        if (j != i) peers.get(j).inbox.add(frame);
+                    }
+                }
+                logs.get(i).clear();
+            }
+        }
+        return peers;
+    }
+
+    // Applies count edits from the inbox in random order, with now and then one seen before again.
+    private static void deliver(Random random, Peer peer, int count) {
+        Collections.shuffle(peer.inbox, random);
+        List<byte[]> batch = new ArrayList<>(peer.inbox.subList(0, count));
+        peer.inbox.subList(0, count).clear();
+        for (byte[] frame : batch) {
+            peer.apply(frame);
+            if (random.nextInt(4) == 0) {
+                peer.apply(peer.seen.get(random.nextInt(peer.seen.size())));
+            }
+        }
+    }
+
+    private static void edit(Random random, Whiteboard board) {
+        CommandManager commands = board.getCommandManager();
+        List<DrawingActions> shapes = board.getActionHistory();
+        int choice = random.nextInt(shapes.isEmpty() ? 2 : 8);
+        switch (choice) {
+            case 0 -> commands.execute(new AddCommand(board, switch (random.nextInt(3)) {
+                case 0 -> TestBoards.rect(grid(random), grid(random), 10 + grid(random), 10);
+                case 1 -> TestBoards.circle(grid(random), grid(random), 5);
+                default -> TestBoards.pen(grid(random), grid(random), 2 + random.nextInt(12));
+            }));
+            case 1 -> {
+                if (!commands.undo()) commands.redo();
+            }
+            case 2, 3 -> commands.execute(new MoveCommand(board, pick(random, shapes), grid(random) - 50, grid(random) - 50));
+            case 4 -> commands.execute(new RestyleCommand(board, pick(random, shapes),
+                    COLORS[random.nextInt(COLORS.length)], 1 + random.nextInt(8)));
+            case 5 -> commands.execute(new DeleteCommand(board, pick(random, shapes)));
+            case 6 -> {
+                if (pick(random, shapes) instanceof Pen pen) erase(random, board, pen);
+            }
+            default -> commands.redo();
+        }
+        commands.seal();
+    }
+
+    // Cuts random segments out of a stroke as an eraser gesture does: the stroke goes, its pieces come in.
+    private static void erase(Random random, Whiteboard board, Pen pen) {
+        boolean[] erased = new boolean[pen.points.pointCount() - 1];
+        for (int i = 0; i < erased.length; i++) {
+            erased[i] = random.nextInt(3) == 0;
+        }
+        List<Pen> pieces = pen.without(erased);
+        for (Pen piece : pieces) {
+            piece.id = board.getReplica().newShapeId();
+            piece.zOrder = pen.zOrder;
+        }
+        board.getCommandManager().execute(new EraseCommand(board, pen, pieces));
+    }
+
+    private static DrawingActions pick(Random random, List<DrawingActions> shapes) {
+        return shapes.get(random.nextInt(shapes.size()));
+    }
+
+    // On the 1/8 px grid, so positions compare exactly after any number of moves.
+    private static double grid(Random random) {
+        return random.nextInt(800) / 8.0;
+    }
+}
@@ -0,0 +1,96 @@
+package com.figma.core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DirtyRegionTest {
+    private final DirtyRegion region = new DirtyRegion();
+
+    @Test
+    void overlappingRectanglesMergeIntoTheirBounds() {
+        region.add(0, 0, 10, 10);
+        region.add(5, 5, 20, 15);
+        assertEquals(1, region.size());
+        assertRect(0, 0, 0, 20, 15);
+
+        // touching edges count as overlapping
+        region.add(20, 0, 30, 5);
+        assertEquals(1, region.size());
+        assertRect(0, 0, 0, 30, 15);
+    }
+
+    @Test
+    void aMergedRectangleAlsoTakesInTheOthersItNowReaches() {
+        region.add(0, 0, 10, 10);
+        region.add(50, 0, 60, 10);
+        region.add(100, 100, 110, 110);
+        assertEquals(3, region.size());
+
+        // bridges the first two, not the third
+        region.add(5, 2, 55, 8);
+        assertEquals(2, region.size());
+        assertTrue(has(0, 0, 60, 10));
+        assertTrue(has(100, 100, 110, 110));
+    }
+
+    @Test
+    void emptyAreasAreIgnored() {
+        region.add(10, 10, 10, 20);
+        region.add(10, 10, 20, 5);
+        region.add(Double.NaN, 0, 10, 10);
+        assertTrue(region.isEmpty());
+    }
+
+    @Test
+    void pastTheLimitEverythingCollapsesIntoOneBoundingRect() {
+        for (int i = 0; i < DirtyRegion.MAX_RECTS; i++) {
+            region.add(i * 100, 0, i * 100 + 10, 10);
+        }
+        assertEquals(DirtyRegion.MAX_RECTS, region.size());
+
+        // one more within their bounds
+        region.add(150, 5, 160, 15);
+        assertEquals(1, region.size());
+        assertRect(0, 0, 0, (DirtyRegion.MAX_RECTS - 1) * 100 + 10, 15);
+    }
+
+    @Test
+    void aRectangleAddedPastTheLimitStaysBesideTheCollapsedOnes() {
+        for (int i = 0; i < DirtyRegion.MAX_RECTS; i++) {
+            region.add(i * 100, 0, i * 100 + 10, 10);
+        }
+        region.add(-50, 500, -40, 510);
+        assertEquals(2, region.size());
+        assertTrue(has(0, 0, (DirtyRegion.MAX_RECTS - 1) * 100 + 10, 10));
+        assertTrue(has(-50, 500, -40, 510));
+
+        region.clear();
+        assertTrue(region.isEmpty());
+        region.add(1, 2, 3, 4);
+        assertRect(0, 1, 2, 3, 4);
+    }
+
+    @Test
+    void aShapeIsMarkedWithItsMargin() {
+        region.add(TestBoards.rect(10, 20, 30, 40), 5);
+        RectangleShape rect = TestBoards.rect(10, 20, 30, 40);
+        assertRect(0, rect.left - 5, rect.top - 5, rect.right + 5, rect.bottom + 5);
+    }
+
+    private void assertRect(int i, double minX, double minY, double maxX, double maxY) {
+        assertArrayEquals(new double[] { minX, minY, maxX, maxY },
+                new double[] { region.minX(i), region.minY(i), region.maxX(i), region.maxY(i) });
+    }
+
+    private boolean has(double minX, double minY, double maxX, double maxY) {
+        for (int i = 0; i < region.size(); i++) {
+            if (region.minX(i) == minX && region.minY(i) == minY && region.maxX(i) == maxX && region.maxY(i) == maxY) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,83 @@
+package com.figma.core;
+
+import javafx.event.EventType;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EraserTest {
+    private final Whiteboard board = new Whiteboard(new NullSurface(), new NullSurface());
+    private final List<String> edits = new ArrayList<>();
+
+    EraserTest() {
+        board.addBoardListener(new BoardListener() {
+            @Override
+            public void shapeAdded(DrawingActions shape) {
+                edits.add("add");
+            }
+
+            @Override
+            public void shapeRemoved(DrawingActions shape) {
+                edits.add("remove");
+            }
+
+            @Override
+            public void shapeMoved(DrawingActions shape, double deltaX, double deltaY) {
+            }
+
+            @Override
+            public void shapeRestyled(DrawingActions shape) {
+            }
+        });
+    }
+
+    @Test
+    void aGestureCutsEachStrokeOnce() {
+        Pen stroke = add(TestBoards.pen(0, 0, 400));
+        Pen missed = add(TestBoards.pen(0, 60, 400));
+        edits.clear();
+
+        // down across the stroke, over it and back up across it
+        board.setCurrentTool(DrawingTool.ERASER);
+        mouse(MouseEvent.MOUSE_PRESSED, 20, -20);
+        for (int y = -18; y <= 30; y += 2) {
+            mouse(MouseEvent.MOUSE_DRAGGED, 20, y);
+        }
+        mouse(MouseEvent.MOUSE_DRAGGED, 100, 30);
+        for (int y = 28; y >= -20; y -= 2) {
+            mouse(MouseEvent.MOUSE_DRAGGED, 100, y);
+        }
+        // nothing is cut while the gesture goes on
+        assertEquals(List.of(), edits);
+        mouse(MouseEvent.MOUSE_RELEASED, 100, -20);
+
+        assertEquals(List.of("remove", "add", "add", "add"), edits);
+        assertFalse(board.getActionHistory().contains(stroke));
+        assertTrue(board.getActionHistory().contains(missed));
+        assertEquals(4, board.getActionHistory().size());
+
+        board.getCommandManager().undo();
+        assertEquals(List.of(stroke, missed), board.getActionHistory());
+    }
+
+    private Pen add(Pen pen) {
+        board.getCommandManager().execute(new AddCommand(board, pen));
+        board.getCommandManager().seal();
+        return pen;
+    }
+
+    private void mouse(EventType<MouseEvent> type, double x, double y) {
+        MouseEvent event = new MouseEvent(type, x, y, x, y, MouseButton.PRIMARY, 1,
+                false, false, false, false, true, false, false, false, false, false, null);
+        if (type == MouseEvent.MOUSE_PRESSED) board.handleMousePressed(event);
+        else if (type == MouseEvent.MOUSE_DRAGGED) board.handleMouseDragged(event);
+        else board.handleMouseReleased(event);
+    }
+}
@@ -0,0 +1,107 @@
+package com.figma.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.function.LongConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameSchedulerTest {
+    // a 60 Hz display
+    private static final long PULSE_NANOS = 16_666_667;
+
+    private final ManualPulses pulses = new ManualPulses();
+    private int frames;
+    private final FrameScheduler scheduler = FrameScheduler.pulsed(() -> frames++, pulses);
+
+    @Test
+    void manyRequestsBetweenPulsesAreOneFrame() {
+        for (int i = 0; i < 100; i++) {
+            scheduler.request();
+        }
+        assertEquals(0, frames);
+        assertTrue(pulses.running);
+
+        pulses.pulse();
+        assertEquals(1, frames);
+        // nothing more was asked for: the next pulse draws nothing and stops the pulses
+        pulses.pulse();
+        assertEquals(1, frames);
+        assertFalse(pulses.running);
+
+        scheduler.request();
+        scheduler.request();
+        assertTrue(pulses.running);
+        pulses.pulse();
+        assertEquals(2, frames);
+    }
+
+    @Test
+    void aFrameCanAskForTheNext() {
+        FrameScheduler[] self = new FrameScheduler[1];
+        self[0] = FrameScheduler.pulsed(() -> {
+            if (++frames < 3) self[0].requestNext();
+        }, pulses);
+        self[0].request();
+        for (int i = 0; i < 10; i++) {
+            pulses.pulse();
+        }
+        assertEquals(3, frames);
+        assertFalse(pulses.running);
+    }
+
+    @Test
+    void theMaxFrameRateSkipsPulses() {
+        scheduler.setMaxFrameRate(20);
+        assertEquals(20, scheduler.getMaxFrameRate(), 1e-6);
+        // work arrives on every pulse for a second
+        for (int i = 0; i < 60; i++) {
+            scheduler.request();
+            pulses.pulse();
+        }
+        assertEquals(20, frames);
+
+        // and without a cap every pulse with work is a frame
+        scheduler.setMaxFrameRate(0);
+        frames = 0;
+        for (int i = 0; i < 60; i++) {
+            scheduler.request();
+            pulses.pulse();
+        }
+        assertEquals(60, frames);
+    }
+
+    @Test
+    void anImmediateSchedulerRendersOnEveryRequest() {
+        FrameScheduler immediate = FrameScheduler.immediate(() -> frames++);
+        immediate.request();
+        immediate.request();
+        immediate.requestNext();
+        assertEquals(2, frames);
+    }
+
+    // Pulses the test fires itself, a display frame apart.
+    private static final class ManualPulses implements FrameScheduler.Pulses {
+        LongConsumer onPulse;
+        boolean running;
+        long now = 1_000_000_000L;
+
+        @Override
+        public void start(LongConsumer onPulse) {
+            this.onPulse = onPulse;
+            running = true;
+        }
+
+        @Override
+        public void stop() {
+            running = false;
+        }
+
+        void pulse() {
+            now += PULSE_NANOS;
+            if (running) onPulse.accept(now);
+        }
+    }
+}
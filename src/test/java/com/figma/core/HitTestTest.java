@@ -0,0 +1,61 @@
+package com.figma.core;
+
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+// Clicks select what is drawn under them, not whatever has them inside its bounds.
+class HitTestTest {
+    private final Whiteboard board = new Whiteboard(new NullSurface(), new NullSurface());
+
+    @Test
+    void aHollowRectangleIsOnlyHitOnItsOutline() {
+        RectangleShape rect = add(TestBoards.rect(0, 0, 100, 60));
+        assertNull(board.findElementAtPoint(50, 30));
+        assertSame(rect, board.findElementAtPoint(0, 30));
+        assertSame(rect, board.findElementAtPoint(52, 61));
+        assertNull(board.findElementAtPoint(120, 30));
+    }
+
+    @Test
+    void aHollowCircleIsOnlyHitOnItsRing() {
+        CircleShape circle = add(TestBoards.circle(0, 0, 50));
+        assertNull(board.findElementAtPoint(0, 0));
+        assertNull(board.findElementAtPoint(20, 20));
+        assertSame(circle, board.findElementAtPoint(50, 0));
+        assertSame(circle, board.findElementAtPoint(35, 36));
+        // inside the bounds, outside the ring
+        assertNull(board.findElementAtPoint(48, 48));
+    }
+
+    @Test
+    void aDiagonalStrokeIsNotHitInTheCornersOfItsBounds() {
+        Pen pen = new Pen(DrawingTool.PEN, Color.BLACK, 4);
+        for (int i = 0; i <= 100; i += 10) {
+            pen.points.add(i, i);
+        }
+        pen.setSelectionBound();
+        add(pen);
+        assertSame(pen, board.findElementAtPoint(50, 50));
+        assertSame(pen, board.findElementAtPoint(52, 49));
+        assertNull(board.findElementAtPoint(90, 10));
+        assertNull(board.findElementAtPoint(10, 90));
+    }
+
+    @Test
+    void zoomedOutTheToleranceReachesPastTheOverhang() {
+        RectangleShape rect = add(TestBoards.rect(0, 0, 10, 10));
+        board.getViewport().zoomAt(0, 0, Viewport.MIN_SCALE);
+        // a few screen pixels at this scale are far more world units than any shape overhangs
+        assertSame(rect, board.findElementAtPoint(-150, 5));
+        assertNull(board.findElementAtPoint(-250, 5));
+    }
+
+    private <T extends DrawingActions> T add(T shape) {
+        board.getCommandManager().execute(new AddCommand(board, shape));
+        board.getCommandManager().seal();
+        return shape;
+    }
+}
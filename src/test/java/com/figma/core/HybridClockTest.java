@@ -0,0 +1,50 @@
+package com.figma.core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HybridClockTest {
+    private long wall = 1_000_000;
+    private final HybridClock clock = new HybridClock(() -> wall);
+
+    @Test
+    void ticksOrderAfterObservedStamps() {
+        long first = clock.tick();
+        assertEquals(wall << HybridClock.COUNTER_BITS, first);
+        long remote = (wall + 5000) << HybridClock.COUNTER_BITS;
+        clock.observe(remote);
+        assertTrue(clock.tick() > remote);
+        // the wall clock going back does not take the clock with it
+        wall -= 60_000;
+        assertTrue(clock.tick() > remote);
+    }
+
+    @Test
+    void extremeStampIsNotAdmittedAndOnlyObservedUpToTheHorizon() {
+        assertFalse(clock.admits(Long.MAX_VALUE));
+        long horizon = (wall + HybridClock.MAX_DRIFT_MILLIS) << HybridClock.COUNTER_BITS;
+        assertTrue(clock.admits(horizon));
+        assertFalse(clock.admits(horizon + (1L << HybridClock.COUNTER_BITS)));
+
+        clock.observe(Long.MAX_VALUE);
+        long stamp = clock.tick();
+        assertEquals(horizon + 1, stamp);
+        assertTrue(clock.tick() > stamp);
+    }
+
+    @Test
+    void tickSaturatesInsteadOfWrapping() {
+        wall = (Long.MAX_VALUE >>> HybridClock.COUNTER_BITS) - HybridClock.MAX_DRIFT_MILLIS;
+        clock.observe(Long.MAX_VALUE);
+        long previous = 0;
+        for (int i = 0; i <= 1 << HybridClock.COUNTER_BITS; i++) {
+            long stamp = clock.tick();
+            assertTrue(stamp >= previous);
+            previous = stamp;
+        }
+        assertEquals(Long.MAX_VALUE, previous);
+    }
+}
@@ -0,0 +1,94 @@
+package com.figma.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogTest {
+    private final Log.Level level = Log.getLevel();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    @AfterEach
+    void restoreLevel() {
+        Log.setLevel(level);
+    }
+
+    @Test
+    void recordsBelowTheThresholdAreNotWrittenOrBuilt() {
+        // not started: nothing is written until the flush
+        Log.Sink sink = new Log.Sink(new PrintStream(out, true, StandardCharsets.UTF_8), 16);
+        Log.Logger log = Log.get(LogTest.class, sink);
+        Log.setLevel(Log.Level.WARN);
+
+        AtomicBoolean built = new AtomicBoolean();
+        log.debug(() -> {
+            built.set(true);
+            return "debug";
+        });
+        log.info("info");
+        log.warn("warned");
+        log.error("failed", new IllegalStateException("boom"));
+        sink.flush();
+
+        String text = written();
+        assertFalse(built.get());
+        assertFalse(text.contains("info"), text);
+        assertTrue(text.contains("WARN  [" + Thread.currentThread().getName() + "] LogTest: warned"), text);
+        assertTrue(text.contains("ERROR"), text);
+        assertTrue(text.contains("IllegalStateException: boom"), text);
+
+        Log.setLevel(Log.Level.OFF);
+        assertFalse(log.isEnabled(Log.Level.ERROR));
+        assertFalse(log.isEnabled(Log.Level.OFF));
+    }
+
+    @Test
+    void aFullQueueDropsAndReportsTheCount() {
+        Log.Sink sink = new Log.Sink(new PrintStream(out, true, StandardCharsets.UTF_8), 2);
+        Log.Logger log = Log.get(LogTest.class, sink);
+        Log.setLevel(Log.Level.INFO);
+        for (int i = 0; i < 5; i++) {
+            log.info("message " + i);
+        }
+        assertEquals(3, sink.droppedCount());
+
+        sink.flush();
+        String text = written();
+        assertTrue(text.startsWith("... 3 log messages dropped, queue full\n"), text);
+        assertTrue(text.contains("message 0") && text.contains("message 1"), text);
+        assertFalse(text.contains("message 2"), text);
+        // reported once
+        assertEquals(0, sink.droppedCount());
+    }
+
+    @Test
+    void aFlushWritesEverythingTheWriterHadNot() {
+        Log.Sink sink = new Log.Sink(new PrintStream(out, true, StandardCharsets.UTF_8), Log.QUEUE_CAPACITY);
+        sink.start();
+        Log.Logger log = Log.get(LogTest.class, sink);
+        Log.setLevel(Log.Level.INFO);
+        for (int i = 0; i < 2000; i++) {
+            log.info("message " + i);
+        }
+        // as the shutdown hook does, while the writer is busy
+        sink.flush();
+
+        String[] lines = written().split("\n");
+        assertEquals(2000, lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            assertTrue(lines[i].endsWith("LogTest: message " + i), lines[i]);
+        }
+    }
+
+    private String written() {
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,128 @@
+package com.figma.core;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsTest {
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    @AfterEach
+    void reset() {
+        Metrics.setEnabled(true);
+        Metrics.reset();
+    }
+
+    @Test
+    void percentilesAreOfTheSamplesInTheWindow() {
+        RollingStats stats = new RollingStats(100);
+        // out of order, the summary sorts them
+        for (int i = 100; i >= 1; i--) {
+            stats.add(i);
+        }
+        assertEquals(new RollingStats.Summary(100, 50, 95, 99, 100), stats.summary());
+
+        stats.clear();
+        assertEquals(new RollingStats.Summary(0, 0, 0, 0, 0), stats.summary());
+        stats.add(7);
+        assertEquals(new RollingStats.Summary(1, 7, 7, 7, 7), stats.summary());
+    }
+
+    @Test
+    void theWindowKeepsOnlyTheNewestSamples() {
+        RollingStats stats = new RollingStats(10);
+        for (int i = 1; i <= 25; i++) {
+            stats.add(i * 1000);
+        }
+        // 16000 to 25000 are left; the count is of every sample
+        assertEquals(new RollingStats.Summary(25, 20_000, 25_000, 25_000, 25_000), stats.summary());
+
+        // the old maximum goes once it is overwritten
+        for (int i = 0; i < 10; i++) {
+            stats.add(1);
+        }
+        assertEquals(new RollingStats.Summary(35, 1, 1, 1, 1), stats.summary());
+    }
+
+    @Test
+    void nothingIsRecordedWhileDisabled() {
+        Metrics.setEnabled(false);
+        assertEquals(0, Metrics.start());
+        Metrics.record(Metric.UNDO, Metrics.start());
+        Metrics.recordValue(Metric.FRAME_ALLOCATION, 4096);
+        assertEquals(0, Metrics.summary(Metric.UNDO).count());
+        assertEquals(0, Metrics.summary(Metric.FRAME_ALLOCATION).count());
+        assertEquals("", Metrics.describe());
+    }
+
+    @Test
+    void theHudListsTheMetricsThatHaveSamplesInTheirUnits() {
+        Metrics.recordValue(Metric.UNDO, 2_500_000);
+        Metrics.recordValue(Metric.FRAME_ALLOCATION, 3 << 20);
+
+        String hud = Metrics.describe();
+        assertTrue(hud.contains("alloc      p50 3.0M  p95 3.0M  p99 3.0M  max 3.0M"), hud);
+        assertTrue(hud.contains("undo       p50 2.50ms"), hud);
+        // metrics without samples take no line
+        assertFalse(hud.contains("redo"), hud);
+    }
+
+    @Test
+    void aDumpHasARowPerMetricInMicrosecondsOrBytes() throws IOException {
+        for (int i = 1; i <= 100; i++) {
+            Metrics.recordValue(Metric.SAVE, i * 1000L);
+        }
+        Metrics.recordValue(Metric.FRAME_ALLOCATION, 512);
+        Path file = dir.resolve("metrics.csv");
+
+        Metrics.dump(file);
+
+        List<String> lines = Files.readAllLines(file);
+        assertTrue(lines.get(0).startsWith("# whiteboard metrics"), lines.get(0));
+        assertEquals("metric,unit,count,p50,p95,p99,max", lines.get(1));
+        assertEquals(2 + Metric.values().length, lines.size());
+        assertTrue(lines.contains("save,us,100,50.0,95.0,99.0,100.0"), lines.toString());
+        assertTrue(lines.contains("alloc,bytes,1,512,512,512,512"), lines.toString());
+        assertTrue(lines.contains("redo,us,0,0.0,0.0,0.0,0.0"), lines.toString());
+    }
+
+    @Test
+    void timingsAreCommittedAsJfrEvents() throws IOException {
+        Path file = dir.resolve("timings.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.figma.core.Timing");
+            recording.enable("com.figma.core.FrameAllocation");
+            recording.start();
+            Metrics.record(Metric.HIT_TEST, Metrics.start());
+            Metrics.recordValue(Metric.FRAME_ALLOCATION, 4096);
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        RecordedEvent timing = events.stream()
+                .filter(e -> e.getEventType().getName().equals("com.figma.core.Timing")).findFirst().orElseThrow();
+        assertEquals("hit-test", timing.getString("metric"));
+        assertTrue(timing.getDuration("elapsed").toNanos() >= 0);
+        RecordedEvent allocation = events.stream()
+                .filter(e -> e.getEventType().getName().equals("com.figma.core.FrameAllocation")).findFirst().orElseThrow();
+        assertEquals(4096, allocation.getLong("bytes"));
+        // and the same samples are in the window
+        assertEquals(1, Metrics.summary(Metric.HIT_TEST).count());
+    }
+}
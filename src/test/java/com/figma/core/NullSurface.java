@@ -0,0 +1,35 @@
+package com.figma.core;
+
+import javafx.scene.paint.Color;
+import javafx.scene.shape.StrokeLineCap;
+import javafx.scene.shape.StrokeLineJoin;
+import javafx.scene.text.Font;
+
+// Draws nothing, for boards that are only looked at through their shapes; tests that count
+// draw calls override the ones they count.
+class NullSurface implements Surface {
+    @Override public void save() { }
+    @Override public void restore() { }
+
+    @Override public void setStroke(Color color) { }
+    @Override public void setFill(Color color) { }
+    @Override public void setLineWidth(double width) { }
+    @Override public void setLineCap(StrokeLineCap cap) { }
+    @Override public void setLineJoin(StrokeLineJoin join) { }
+    @Override public void setFont(Font font) { }
+    @Override public void setTransform(double mxx, double myx, double mxy, double myy, double mxt, double myt) { }
+
+    @Override public void beginPath() { }
+    @Override public void moveTo(double x, double y) { }
+    @Override public void lineTo(double x, double y) { }
+    @Override public void rect(double x, double y, double w, double h) { }
+    @Override public void stroke() { }
+    @Override public void clip() { }
+
+    @Override public void strokeLine(double x1, double y1, double x2, double y2) { }
+    @Override public void strokeRect(double x, double y, double w, double h) { }
+    @Override public void strokeOval(double x, double y, double w, double h) { }
+    @Override public void fillRect(double x, double y, double w, double h) { }
+    @Override public void clearRect(double x, double y, double w, double h) { }
+    @Override public void fillText(String text, double x, double y) { }
+}
@@ -0,0 +1,119 @@
+package com.figma.core;
+
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OpCodecTest {
+    private final Replica replica = new Replica(0x1234, new HybridClock());
+
+    private Operation add(DrawingActions shape) {
+        shape.id = replica.newShapeId();
+        shape.zOrder = replica.tick();
+        return Operation.add(replica.track(shape, shape.zOrder));
+    }
+
+    // Decodes the frame and checks that encoding the result gives the very same bytes.
+    private static List<Operation> roundTrip(List<Operation> ops) throws IOException {
+        byte[] frame = OpEncoder.encode(ops);
+        List<Operation> decoded = OpDecoder.decode(frame);
+        assertArrayEquals(frame, OpEncoder.encode(decoded));
+        return decoded;
+    }
+
+    @Test
+    void everyShapeTypeRoundTrips() throws IOException {
+        TextShape text = new TextShape(null, Color.PURPLE, 18);
+        text.setPosition(5, 6);
+        text.setText("héllo");
+        Pen widths = TestBoards.pen(0, 0, 50);
+        widths.widths = new byte[50];
+        Arrays.fill(widths.widths, (byte) 200);
+        List<Operation> ops = List.of(add(TestBoards.rect(1.5, 2, 30.1, 40)), add(TestBoards.circle(7, 8, 9.25)),
+                add(TestBoards.pen(3, 4, 100)), add(widths), add(text));
+
+        List<Operation> decoded = roundTrip(ops);
+
+        RectangleShape rect = (RectangleShape) decoded.get(0).entry.shape;
+        assertEquals(1.5, rect.x);
+        // not on the 1/8 grid, so sent as the exact double
+        assertEquals(30.1, rect.width);
+        assertEquals(Color.BLACK, rect.style.color());
+        assertEquals(9.25, ((CircleShape) decoded.get(1).entry.shape).radius);
+        Pen pen = (Pen) decoded.get(2).entry.shape;
+        assertEquals(100, pen.points.pointCount());
+        assertEquals(3 + 99 * 0.375, pen.points.x(99));
+        assertArrayEquals(widths.widths, ((Pen) decoded.get(3).entry.shape).widths);
+        TextShape decodedText = (TextShape) decoded.get(4).entry.shape;
+        assertEquals("héllo", decodedText.text);
+        assertEquals(18, decodedText.fontSize);
+        for (int i = 0; i < ops.size(); i++) {
+            assertEquals(ops.get(i).shapeId, decoded.get(i).shapeId);
+            assertEquals(ops.get(i).stamp, decoded.get(i).stamp);
+            assertEquals(ops.get(i).entry.shape.zOrder, decoded.get(i).entry.shape.zOrder);
+        }
+    }
+
+    @Test
+    void everyEditRoundTrips() throws IOException {
+        Replica.Entry entry = add(TestBoards.rect(0, 0, 10, 10)).entry;
+        entry.offsetX = 12.125;
+        entry.offsetY = -3.3;
+        entry.position.accept(replica.tick(), replica.site);
+        List<Operation> ops = List.of(Operation.move(entry), Operation.restyle(entry.id, replica.tick(), 7,
+                        Color.rgb(10, 20, 30, 0.5), 2.5),
+                Operation.remove(entry.id, replica.tick(), -1),
+                Operation.strokeBegin(99, Color.RED, 3, new double[]{1, 2, 3.5, 4}),
+                Operation.strokePoints(99, new double[]{-1, -2}), Operation.add(entry), Operation.strokeCancel(99));
+
+        List<Operation> decoded = roundTrip(ops);
+
+        assertEquals(12.125, decoded.get(0).offsetX);
+        assertEquals(-3.3, decoded.get(0).offsetY);
+        assertEquals(entry.position.stamp, decoded.get(0).stamp);
+        assertEquals(2.5, decoded.get(1).strokeWidth);
+        assertEquals(-1, decoded.get(2).site);
+        assertArrayEquals(new double[]{1, 2, 3.5, 4}, decoded.get(3).points);
+        Replica.Entry added = decoded.get(5).entry;
+        assertEquals(entry.position.stamp, added.position.stamp);
+        assertEquals(entry.style.stamp, added.style.stamp);
+        assertEquals(-3.3, added.offsetY);
+        assertEquals(Operation.Kind.STROKE_CANCEL, decoded.get(6).kind);
+        assertEquals(99, decoded.get(6).shapeId);
+    }
+
+    @Test
+    void nonFiniteCoordinatesAreRejected() {
+        Replica.Entry entry = add(TestBoards.rect(0, 0, 10, 10)).entry;
+        for (double bad : new double[]{Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY}) {
+            assertThrows(IOException.class,
+                    () -> OpDecoder.decode(OpEncoder.encode(Operation.move(entry.id, 1, 1, bad, 0))));
+            assertThrows(IOException.class,
+                    () -> OpDecoder.decode(OpEncoder.encode(add(TestBoards.rect(0, bad, 10, 10)))));
+            assertThrows(IOException.class,
+                    () -> OpDecoder.decode(OpEncoder.encode(add(TestBoards.circle(0, 0, bad)))));
+            assertThrows(IOException.class,
+                    () -> OpDecoder.decode(OpEncoder.encode(Operation.restyle(entry.id, 1, 1, Color.RED, bad))));
+        }
+    }
+
+    @Test
+    void malformedFramesAreRejected() {
+        byte[] frame = OpEncoder.encode(add(TestBoards.pen(0, 0, 100)));
+        for (int length = 0; length < frame.length; length++) {
+            byte[] truncated = Arrays.copyOf(frame, length);
+            assertThrows(IOException.class, () -> OpDecoder.decode(truncated));
+        }
+        byte[] unknownKind = OpEncoder.encode(Operation.remove(1, 1, 1));
+        // no styles, one op, then the kind
+        unknownKind[2] = 42;
+        assertThrows(IOException.class, () -> OpDecoder.decode(unknownKind));
+    }
+}
@@ -0,0 +1,101 @@
+package com.figma.core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PointBufferTest {
+    @Test
+    void growsPastItsCapacityKeepingEveryPoint() {
+        PointBuffer points = new PointBuffer(1);
+        for (int i = 0; i < 1000; i++) {
+            points.add(i, -i * 0.5);
+        }
+        assertEquals(1000, points.pointCount());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, points.x(i));
+            assertEquals(-i * 0.5, points.y(i));
+        }
+
+        // and through addAll, past the default capacity in one go
+        PointBuffer more = new PointBuffer();
+        double[] xy = new double[2 * 300];
+        for (int i = 0; i < xy.length; i++) {
+            xy[i] = i;
+        }
+        more.add(-1, -2);
+        more.addAll(xy, 0, xy.length);
+        assertEquals(301, more.pointCount());
+        assertEquals(598, more.x(300));
+        assertEquals(599, more.y(300));
+    }
+
+    @Test
+    void addAllTakesWholePointsFromTheOffset() {
+        PointBuffer points = new PointBuffer();
+        points.addAll(new double[] { 9, 9, 1, 2, 3, 4, 9 }, 2, 4);
+        assertArrayEquals(new double[] { 1, 2, 3, 4 }, points.toArray());
+
+        assertThrows(IllegalArgumentException.class, () -> points.addAll(new double[] { 1, 2, 3 }, 0, 3));
+        assertEquals(2, points.pointCount());
+    }
+
+    @Test
+    void translateMovesEveryPoint() {
+        PointBuffer points = new PointBuffer();
+        points.add(1, 2);
+        points.add(-3.5, 40);
+        points.translate(10, -0.25);
+        assertArrayEquals(new double[] { 11, 1.75, 6.5, 39.75 }, points.toArray());
+    }
+
+    @Test
+    void aCopyIsIndependentOfTheOriginal() {
+        PointBuffer original = new PointBuffer();
+        original.add(1, 1);
+        PointBuffer copy = new PointBuffer(original);
+        original.translate(5, 5);
+        original.add(7, 7);
+        copy.add(2, 2);
+        assertArrayEquals(new double[] { 6, 6, 7, 7 }, original.toArray());
+        assertArrayEquals(new double[] { 1, 1, 2, 2 }, copy.toArray());
+
+        // also of an empty one
+        PointBuffer empty = new PointBuffer(new PointBuffer());
+        assertTrue(empty.isEmpty());
+        empty.add(3, 4);
+        assertEquals(1, empty.pointCount());
+    }
+
+    @Test
+    void trimmingAndClearingKeepItUsable() {
+        PointBuffer points = new PointBuffer();
+        for (int i = 0; i < 100; i++) {
+            points.add(i, i);
+        }
+        points.trimToSize();
+        assertEquals(100, points.pointCount());
+        points.add(100, 100);
+        assertEquals(100, points.x(100));
+
+        points.clear();
+        assertTrue(points.isEmpty());
+        assertArrayEquals(new double[0], points.toArray());
+        points.trimToSize();
+        points.add(1, 2);
+        assertArrayEquals(new double[] { 1, 2 }, points.toArray());
+    }
+
+    @Test
+    void aWrappedArrayIsReadWithoutACopy() {
+        float[] coords = { 1, 2, 3, 4, 5, 6 };
+        PointBuffer points = PointBuffer.wrap(coords, 2);
+        assertEquals(2, points.pointCount());
+        coords[2] = 30;
+        assertEquals(30, points.x(1));
+        assertArrayEquals(new double[] { 1, 2, 30, 4 }, points.toArray());
+    }
+}
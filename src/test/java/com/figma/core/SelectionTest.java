@@ -0,0 +1,152 @@
+package com.figma.core;
+
+import javafx.event.EventType;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SelectionTest {
+    private final Whiteboard board = new Whiteboard(new NullSurface(), new NullSurface());
+    private final RectangleShape left = add(TestBoards.rect(0, 0, 10, 10));
+    private final RectangleShape right = add(TestBoards.rect(20, 0, 10, 10));
+    private final CircleShape far = add(TestBoards.circle(200, 200, 20));
+
+    SelectionTest() {
+        board.setCurrentMode(Mode.SELECT);
+    }
+
+    @Test
+    void shiftClickTogglesShapesInAndOut() {
+        click(0, 5, false);
+        assertEquals(Set.of(left), selected());
+        click(20, 5, true);
+        assertEquals(Set.of(left, right), selected());
+        click(0, 5, true);
+        assertEquals(Set.of(right), selected());
+        assertFalse(left.isSelected);
+
+        // a plain click elsewhere starts over
+        click(180, 200, false);
+        assertEquals(Set.of(far), selected());
+        click(100, 100, false);
+        assertEquals(Set.of(), selected());
+    }
+
+    @Test
+    void aMarqueeSelectsWhatLiesWhollyInside() {
+        drag(-5, -5, 35, 15, false);
+        assertEquals(Set.of(left, right), selected());
+
+        // cutting through a shape does not take it, shift adds to what is selected
+        click(100, 100, false);
+        drag(15, -5, 190, 190, false);
+        assertEquals(Set.of(right), selected());
+        drag(170, 170, 230, 230, true);
+        assertEquals(Set.of(right, far), selected());
+    }
+
+    @Test
+    void draggingTheSelectionMovesItAsOneUndoStep() {
+        drag(-5, -5, 35, 15, false);
+        drag(0, 5, 30, 45, false);
+
+        assertEquals(30, left.x);
+        assertEquals(40, left.y);
+        assertEquals(50, right.x);
+        assertEquals(200, far.centerX);
+
+        assertTrue(board.getCommandManager().undo());
+        assertEquals(0, left.x);
+        assertEquals(20, right.x);
+        assertEquals(0, right.y);
+    }
+
+    @Test
+    void restylingAndDeletingTheSelectionAreOneUndoStepEach() {
+        drag(-5, -5, 35, 15, false);
+        board.setCurrentColor(Color.RED);
+        assertEquals(Color.RED, left.style.color());
+        assertEquals(Color.RED, right.style.color());
+        assertEquals(Color.BLUE, far.style.color());
+
+        key(KeyCode.DELETE);
+        assertEquals(List.of(far), board.getActionHistory());
+
+        assertTrue(board.getCommandManager().undo());
+        assertEquals(List.of(left, right, far), board.getActionHistory());
+        assertTrue(board.getCommandManager().undo());
+        assertEquals(Color.BLACK, left.style.color());
+        assertEquals(Color.BLACK, right.style.color());
+    }
+
+    @Test
+    void aMovedPenKeepsItsPointsUntilTheyAreNeeded() {
+        Pen pen = add(TestBoards.pen(0, 100, 100));
+        float firstX = (float) pen.points.x(0);
+        click(0, 100, false);
+        assertEquals(Set.of(pen), selected());
+        drag(0, 100, 30, 140, false);
+
+        // only the offset moved, and the bounds with it
+        assertEquals(firstX, pen.points.x(0));
+        assertEquals(30, pen.offsetX);
+        assertEquals(40, pen.offsetY);
+        assertEquals(30, pen.left);
+        assertSame(pen, board.findElementAtPoint(30, 140));
+
+        // saving or sending the stroke folds the offset into its points
+        PointBuffer baked = pen.bakedPoints();
+        assertEquals(firstX + 30, baked.x(0));
+        assertEquals(0, pen.offsetX);
+        assertEquals(30, pen.left);
+        assertSame(pen, board.findElementAtPoint(30, 140));
+    }
+
+    private <T extends DrawingActions> T add(T shape) {
+        board.getCommandManager().execute(new AddCommand(board, shape));
+        board.getCommandManager().seal();
+        return shape;
+    }
+
+    private Set<DrawingActions> selected() {
+        return Set.copyOf(board.getSelection());
+    }
+
+    private void click(double x, double y, boolean shift) {
+        mouse(MouseEvent.MOUSE_PRESSED, x, y, shift);
+        mouse(MouseEvent.MOUSE_RELEASED, x, y, shift);
+    }
+
+    // Presses at the first point and drags to the second in a few steps.
+    private void drag(double fromX, double fromY, double toX, double toY, boolean shift) {
+        mouse(MouseEvent.MOUSE_PRESSED, fromX, fromY, shift);
+        for (int i = 1; i <= 4; i++) {
+            mouse(MouseEvent.MOUSE_DRAGGED, fromX + (toX - fromX) * i / 4, fromY + (toY - fromY) * i / 4, shift);
+        }
+        mouse(MouseEvent.MOUSE_RELEASED, toX, toY, shift);
+    }
+
+    private void mouse(EventType<MouseEvent> type, double x, double y, boolean shift) {
+        MouseEvent event = new MouseEvent(type, x, y, x, y, MouseButton.PRIMARY, 1,
+                shift, false, false, false, true, false, false, false, false, false, null);
+        if (type == MouseEvent.MOUSE_PRESSED) board.handleMousePressed(event);
+        else if (type == MouseEvent.MOUSE_DRAGGED) board.handleMouseDragged(event);
+        else board.handleMouseReleased(event);
+    }
+
+    private void key(KeyCode code) {
+        board.getCanvas().getOnKeyPressed().handle(new KeyEvent(KeyEvent.KEY_PRESSED, "", "", code,
+                false, false, false, false));
+    }
+}
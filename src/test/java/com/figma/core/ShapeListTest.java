@@ -0,0 +1,160 @@
+package com.figma.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShapeListTest {
+    // more than two levels of full nodes
+    private static final int MANY = ShapeList.NODE_SIZE * ShapeList.NODE_SIZE * 2;
+
+    @Test
+    void randomEditsMatchASortedListAndLeaveSnapshotsAlone() {
+        Random random = new Random(42);
+        ShapeList list = ShapeList.EMPTY;
+        List<DrawingActions> reference = new ArrayList<>();
+        List<ShapeList> snapshots = new ArrayList<>();
+        List<List<DrawingActions>> expected = new ArrayList<>();
+        // grow well past two levels, then shrink back to nothing
+        for (int step = 0; step < 4 * MANY; step++) {
+            boolean growing = step < 2 * MANY;
+            if (reference.isEmpty() || random.nextInt(100) < (growing ? 70 : 30)) {
+                DrawingActions shape = shape(random.nextInt(MANY * 4), step);
+                list = list.with(shape);
+                int at = Collections.binarySearch(reference, shape, SpatialIndex.Z_ORDER);
+                reference.add(-at - 1, shape);
+            } else {
+                DrawingActions shape = reference.remove(random.nextInt(reference.size()));
+                list = list.without(shape);
+            }
+            assertEquals(reference.size(), list.size());
+            if (step % 500 == 0) {
+                assertSameList(reference, list);
+                snapshots.add(list);
+                expected.add(List.copyOf(reference));
+            }
+        }
+        while (!reference.isEmpty()) {
+            list = list.without(reference.remove(random.nextInt(reference.size())));
+        }
+        assertSame(ShapeList.EMPTY, list);
+
+        for (int i = 0; i < snapshots.size(); i++) {
+            assertSameList(expected.get(i), snapshots.get(i));
+        }
+    }
+
+    @Test
+    void fullNodesSplitOnInsert() {
+        for (int size : new int[]{ShapeList.NODE_SIZE, ShapeList.NODE_SIZE * ShapeList.NODE_SIZE}) {
+            List<DrawingActions> reference = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                reference.add(shape(i * 2, i));
+            }
+            ShapeList full = ShapeList.of(reference);
+            assertSameList(reference, full);
+
+            // between every pair, so every full leaf splits on the way
+            ShapeList list = full;
+            List<DrawingActions> grown = new ArrayList<>(reference);
+            for (int i = 0; i < size; i += 7) {
+                DrawingActions shape = shape(i * 2 + 1, size + i);
+                list = list.with(shape);
+                int at = Collections.binarySearch(grown, shape, SpatialIndex.Z_ORDER);
+                grown.add(-at - 1, shape);
+            }
+            assertSameList(grown, list);
+            assertSameList(reference, full);
+        }
+    }
+
+    @Test
+    void underfullNodesMergeWithTheirNeighbours() {
+        List<DrawingActions> reference = new ArrayList<>();
+        for (int i = 0; i < MANY; i++) {
+            reference.add(shape(i, i));
+        }
+        ShapeList full = ShapeList.of(reference);
+
+        // from the front, where a node only has a neighbour to its right, and from the back, only to its left
+        for (boolean fromFront : new boolean[]{true, false}) {
+            ShapeList list = full;
+            List<DrawingActions> remaining = new ArrayList<>(reference);
+            int step = 0;
+            while (!remaining.isEmpty()) {
+                // leave every third shape for a while so leaves run low without emptying
+                int at = fromFront ? Math.min(step % 3 == 0 ? 1 : 0, remaining.size() - 1)
+                        : Math.max(remaining.size() - 1 - (step % 3 == 0 ? 1 : 0), 0);
+                list = list.without(remaining.remove(at));
+                if (step++ % 97 == 0) assertSameList(remaining, list);
+            }
+            assertSame(ShapeList.EMPTY, list);
+        }
+        assertSameList(reference, full);
+    }
+
+    @Test
+    void takenPlacesAndMissingShapesLeaveTheListAsItIs() {
+        List<DrawingActions> reference = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            reference.add(shape(i, i));
+        }
+        ShapeList list = ShapeList.of(reference);
+
+        assertSame(list, list.with(shape(5, 5)));
+        // the same id and depth, but another shape
+        DrawingActions copy = shape(5, 5);
+        assertSame(list, list.without(copy));
+        assertFalse(list.contains(copy));
+        assertTrue(list.contains(reference.get(5)));
+        assertSame(list, list.without(shape(1000, 1000)));
+    }
+
+    @Test
+    void iteratorEndsWhereTheListDoes() {
+        Iterator<DrawingActions> empty = ShapeList.EMPTY.iterator();
+        assertFalse(empty.hasNext());
+        assertThrows(NoSuchElementException.class, empty::next);
+
+        List<DrawingActions> reference = new ArrayList<>();
+        for (int i = 0; i < ShapeList.NODE_SIZE * ShapeList.NODE_SIZE + 1; i++) {
+            reference.add(shape(i, i));
+        }
+        Iterator<DrawingActions> it = ShapeList.of(reference).iterator();
+        for (DrawingActions shape : reference) {
+            assertTrue(it.hasNext());
+            assertSame(shape, it.next());
+        }
+        assertFalse(it.hasNext());
+        assertThrows(NoSuchElementException.class, it::next);
+    }
+
+    private static DrawingActions shape(long zOrder, long id) {
+        DrawingActions shape = TestBoards.rect(0, 0, 1, 1);
+        shape.zOrder = zOrder;
+        shape.id = id;
+        return shape;
+    }
+
+    // Same shapes in the same order, through the iterator and through get.
+    private static void assertSameList(List<DrawingActions> expected, ShapeList actual) {
+        assertEquals(expected.size(), actual.size());
+        Iterator<DrawingActions> it = actual.iterator();
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.get(i), it.next(), "at " + i);
+            assertSame(expected.get(i), actual.get(i), "at " + i);
+        }
+        assertFalse(it.hasNext());
+    }
+}
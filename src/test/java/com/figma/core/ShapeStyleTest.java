@@ -0,0 +1,33 @@
+package com.figma.core;
+
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ShapeStyleTest {
+    @Test
+    void equalStylesAreOneInstance() {
+        ShapeStyle style = ShapeStyle.of(Color.BLUE, 3);
+        // an equal colour that is not the same Color object
+        assertSame(style, ShapeStyle.of(Color.color(0, 0, 1), 3.0));
+        assertSame(style, ShapeStyle.of(Color.BLUE, 3));
+    }
+
+    @Test
+    void differentStylesAreNotShared() {
+        ShapeStyle style = ShapeStyle.of(Color.BLUE, 3);
+        assertNotSame(style, ShapeStyle.of(Color.BLUE, 3.5));
+        assertNotSame(style, ShapeStyle.of(Color.RED, 3));
+        assertEquals(new ShapeStyle(Color.RED, 3), ShapeStyle.of(Color.RED, 3));
+    }
+
+    @Test
+    void shapesWithTheSameStyleShareIt() {
+        RectangleShape a = TestBoards.rect(0, 0, 10, 10);
+        RectangleShape b = TestBoards.rect(50, 50, 20, 20);
+        assertSame(a.style, b.style);
+    }
+}
@@ -0,0 +1,215 @@
+package com.figma.core;
+
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class SnapshotSyncTest {
+    private static final int SHAPES = 8 * SnapshotSync.CHUNK_SHAPES;
+    // the chunk the first connection is cut in the middle of
+    private static final int CUT_AT_CHUNK = 3;
+
+    private final List<AutoCloseable> open = new ArrayList<>();
+
+    @AfterEach
+    void closeAll() throws Exception {
+        for (int i = open.size() - 1; i >= 0; i--) {
+            open.get(i).close();
+        }
+    }
+
+    @Test
+    void aCutSyncResumesAtTheChunkItIsMissing() throws Exception {
+        BoardThread host = board();
+        List<DrawingActions> shapes = addShapes(host);
+        Proxy proxy = proxy(host);
+        BoardThread client = board();
+        join(client, proxy);
+        TestBoards.await("the connection is cut", () -> proxy.cut);
+
+        // logged for the snapshot and sent after the chunks it is missing
+        host.edit(new MoveCommand(host.board, shapes.get(0), 40, 40));
+        host.edit(new RestyleCommand(host.board, shapes.get(SHAPES - 1), Color.RED, 5));
+        host.edit(new DeleteCommand(host.board, shapes.get(1)));
+        host.edit(new AddCommand(host.board, TestBoards.circle(10, 10, 5)));
+        proxy.letReconnect.countDown();
+
+        TestBoards.awaitConverged(host, client);
+        long snapshot = proxy.firstChunks.get(0)[0];
+        assertAt(0, 0, proxy.joins.get(0));
+        assertAt(snapshot, CUT_AT_CHUNK, proxy.joins.get(1));
+        assertAt(snapshot, CUT_AT_CHUNK, proxy.firstChunks.get(1));
+    }
+
+    @Test
+    void aCutSyncStartsOverOnceItsSnapshotIsDropped() throws Exception {
+        BoardThread host = board();
+        List<DrawingActions> shapes = addShapes(host);
+        Proxy proxy = proxy(host);
+        BoardThread client = board();
+        join(client, proxy);
+        TestBoards.await("the connection is cut", () -> proxy.cut);
+
+        host.edit(new MoveCommand(host.board, shapes.get(0), 40, 40));
+        // more than the snapshot logs, so it is dropped
+        for (int i = 0; i < 5; i++) {
+            host.edit(new AddCommand(host.board, TestBoards.pen(0, 100 * i, 1_000_000)));
+        }
+        proxy.letReconnect.countDown();
+
+        TestBoards.awaitConverged(host, client);
+        long snapshot = proxy.firstChunks.get(0)[0];
+        assertAt(snapshot, CUT_AT_CHUNK, proxy.joins.get(1));
+        assertNotEquals(snapshot, proxy.firstChunks.get(1)[0]);
+        assertEquals(0, proxy.firstChunks.get(1)[1]);
+    }
+
+    private static void assertAt(long snapshot, int chunk, long[] actual) {
+        assertEquals(Long.toHexString(snapshot) + " at " + chunk, Long.toHexString(actual[0]) + " at " + actual[1]);
+    }
+
+    private BoardThread board() {
+        BoardThread board = new BoardThread();
+        open.add(board);
+        return board;
+    }
+
+    private List<DrawingActions> addShapes(BoardThread board) {
+        List<DrawingActions> shapes = new ArrayList<>();
+        board.run(() -> {
+            for (int i = 0; i < SHAPES; i++) {
+                DrawingActions shape = TestBoards.rect(i % 100 * 20, i / 100 * 20, 10, 10);
+                board.board.getCommandManager().execute(new AddCommand(board.board, shape));
+                board.board.getCommandManager().seal();
+                shapes.add(shape);
+            }
+        });
+        return shapes;
+    }
+
+    // Hosts the board behind a proxy.
+    private Proxy proxy(BoardThread board) throws IOException {
+        CollabSession session = CollabSession.host(board.board,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), board);
+        open.add(session);
+        Proxy proxy = new Proxy(new InetSocketAddress(InetAddress.getLoopbackAddress(), session.getPort()));
+        open.add(proxy);
+        return proxy;
+    }
+
+    private void join(BoardThread board, Proxy proxy) throws IOException {
+        open.add(CollabSession.join(board.board, proxy.address(), board));
+    }
+
+    /**
+     * Passes frames between clients and the host. The first connection is
+     * cut half way through chunk {@link #CUT_AT_CHUNK}, and the next is not
+     * taken until {@link #letReconnect} is counted down.
+     */
+    private static final class Proxy implements AutoCloseable {
+        private final ServerSocketChannel server;
+        private final InetSocketAddress host;
+        private final List<SocketChannel> channels = new CopyOnWriteArrayList<>();
+        final CountDownLatch letReconnect = new CountDownLatch(1);
+        volatile boolean cut;
+        // {snapshot id, next chunk} of each connection's JOIN
+        final List<long[]> joins = new CopyOnWriteArrayList<>();
+        // {snapshot id, index} of the first CHUNK sent on each connection
+        final List<long[]> firstChunks = new CopyOnWriteArrayList<>();
+
+        Proxy(InetSocketAddress host) throws IOException {
+            this.host = host;
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            Thread.ofVirtual().name("proxy-acceptor").start(this::acceptLoop);
+        }
+
+        InetSocketAddress address() throws IOException {
+            return (InetSocketAddress) server.getLocalAddress();
+        }
+
+        private void acceptLoop() {
+            try {
+                for (int connection = 0; ; connection++) {
+                    if (connection > 0) letReconnect.await();
+                    SocketChannel client = server.accept();
+                    SocketChannel upstream = SocketChannel.open(host);
+                    channels.add(client);
+                    channels.add(upstream);
+                    boolean first = connection == 0;
+                    Thread.ofVirtual().start(() -> pump(client, upstream, false, false));
+                    Thread.ofVirtual().start(() -> pump(upstream, client, true, first));
+                }
+            } catch (IOException | InterruptedException e) {
+                // closed
+            }
+        }
+
+        private void pump(SocketChannel from, SocketChannel to, boolean fromHost, boolean cutting) {
+            boolean chunkSeen = false;
+            try {
+                while (true) {
+                    ByteBuffer header = read(from, 4);
+                    ByteBuffer payload = read(from, header.getInt(0));
+                    byte type = payload.get(0);
+                    if (!fromHost && type == WireFormat.MESSAGE_JOIN) {
+                        joins.add(new long[]{payload.getLong(3), payload.getInt(11)});
+                    } else if (fromHost && type == WireFormat.MESSAGE_CHUNK) {
+                        int index = payload.getInt(9);
+                        if (!chunkSeen) firstChunks.add(new long[]{payload.getLong(1), index});
+                        chunkSeen = true;
+                        if (cutting && index == CUT_AT_CHUNK) {
+                            to.write(header);
+                            to.write(payload.limit(payload.limit() / 2));
+                            cut = true;
+                            break;
+                        }
+                    }
+                    to.write(new ByteBuffer[]{header, payload});
+                }
+            } catch (IOException e) {
+                // the other side went away
+            }
+            close(from);
+            close(to);
+        }
+
+        private static ByteBuffer read(SocketChannel channel, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) throw new EOFException();
+            }
+            return buffer.flip();
+        }
+
+        private static void close(SocketChannel channel) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            letReconnect.countDown();
+            server.close();
+            channels.forEach(Proxy::close);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.figma.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpatialIndexTest {
+    private final SpatialIndex index = new SpatialIndex();
+
+    @Test
+    void queriesFindWhatAScanFinds() {
+        Random random = new Random(7);
+        List<DrawingActions> shapes = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            // mostly small and near the middle, some far out so the root grows every way
+            double spread = i % 50 == 0 ? 1e6 : 5000;
+            DrawingActions shape = rect((random.nextDouble() - 0.5) * spread, (random.nextDouble() - 0.5) * spread,
+                    random.nextDouble() * (i % 10 == 0 ? 3000 : 40), random.nextDouble() * 40, i);
+            shapes.add(shape);
+            index.insert(shape);
+        }
+        assertEquals(shapes.size(), index.size());
+
+        for (int i = 0; i < 200; i++) {
+            double x = (random.nextDouble() - 0.5) * 6000, y = (random.nextDouble() - 0.5) * 6000;
+            double w = random.nextDouble() * 800, h = random.nextDouble() * 800;
+            List<DrawingActions> expected = new ArrayList<>();
+            for (DrawingActions shape : shapes) {
+                if (SpatialIndex.boundsIntersect(shape, x, y, x + w, y + h)) expected.add(shape);
+            }
+            assertEquals(expected, index.query(x, y, x + w, y + h));
+        }
+    }
+
+    @Test
+    void topmostAtPicksTheHighestShapeUnderThePoint() {
+        DrawingActions bottom = rect(0, 0, 100, 100, 1);
+        DrawingActions top = rect(50, 50, 100, 100, 3);
+        DrawingActions middle = rect(40, 40, 20, 20, 2);
+        index.insert(top);
+        index.insert(bottom);
+        index.insert(middle);
+
+        // rectangles are hit on their outline
+        assertSame(top, index.topmostAt(50, 55, 0, 0));
+        assertSame(middle, index.topmostAt(40, 45, 0, 0));
+        assertSame(bottom, index.topmostAt(100, 20, 0, 0));
+        // where outlines cross, the one on top
+        assertSame(top, index.topmostAt(60, 50, 0, 0));
+        assertSame(top, index.topmostAt(100, 50, 0, 0));
+        assertNull(index.topmostAt(20, 20, 0, 0));
+        // 3 off the edge, half the stroke width and the tolerance make up for it
+        assertNull(index.topmostAt(-3, 10, 1, 4));
+        assertSame(bottom, index.topmostAt(-3, 10, 2, 4));
+    }
+
+    @Test
+    void updateFollowsAShapeThatMoved() {
+        List<DrawingActions> crowd = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            DrawingActions shape = rect(i % 10 * 20, i / 10 * 20, 10, 10, i);
+            crowd.add(shape);
+            index.insert(shape);
+        }
+        RectangleShape moved = (RectangleShape) crowd.get(0);
+
+        moved.setDimensions(100_000, -100_000, 10, 10);
+        moved.setSelectionBound();
+        index.update(moved);
+
+        assertFalse(index.query(0, 0, 15, 15).contains(moved));
+        assertEquals(List.of(moved), index.query(99_990, -100_010, 100_020, -99_980));
+        assertTrue(index.remove(moved));
+        assertFalse(index.remove(moved));
+        assertEquals(crowd.size() - 1, index.size());
+    }
+
+    @Test
+    void nonFiniteBoundsAreRefused() {
+        DrawingActions kept = rect(0, 0, 10, 10, 0);
+        index.insert(kept);
+        for (double bad : new double[]{Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY}) {
+            assertThrows(IllegalArgumentException.class, () -> index.insert(rect(bad, 0, 10, 10, 1)));
+            assertThrows(IllegalArgumentException.class, () -> index.insert(rect(0, 0, 10, bad, 1)));
+        }
+        assertEquals(1, index.size());
+
+        // a move to nowhere leaves the shape where it was
+        ((RectangleShape) kept).setDimensions(0, 0, Double.NaN, 10);
+        kept.setSelectionBound();
+        assertThrows(IllegalArgumentException.class, () -> index.update(kept));
+        assertTrue(index.contains(kept));
+        assertEquals(1, index.size());
+    }
+
+    private static DrawingActions rect(double x, double y, double width, double height, long zOrder) {
+        RectangleShape rect = TestBoards.rect(x, y, width, height);
+        rect.zOrder = zOrder;
+        return rect;
+    }
+}
@@ -0,0 +1,31 @@
+package com.figma.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StrokeFitTest {
+    @Test
+    void finishingFitsWhatTheFitterHasNotGotTo() {
+        // a fitter that never gets a turn
+        List<Runnable> queued = new ArrayList<>();
+        StrokeFit stalled = new StrokeFit(1, queued::add);
+        StrokeFit direct = new StrokeFit(1, Runnable::run);
+        for (int i = 0; i < 100; i++) {
+            stalled.sample(i * 3, i % 10 * 2);
+            direct.sample(i * 3, i % 10 * 2);
+        }
+        assertTrue(stalled.isBehind());
+
+        StrokeFit.Fitted fitted = stalled.finish();
+        assertArrayEquals(direct.finish().points().toArray(), fitted.points().toArray());
+        // too late to change anything
+        queued.forEach(Runnable::run);
+        assertEquals(fitted, stalled.fitted());
+    }
+}
@@ -0,0 +1,79 @@
+package com.figma.core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StrokeSimplifierTest {
+    private static final double TOLERANCE = StrokeSimplifier.DEFAULT_TOLERANCE;
+
+    @Test
+    void aStraightRunKeepsItsEnds() {
+        PointBuffer points = new PointBuffer(100);
+        for (int i = 0; i < 100; i++) {
+            // within the tolerance of the line, either side
+            points.add(i * 3, i * 2 + (i % 2 == 0 ? 0.25 : -0.25));
+        }
+
+        PointBuffer simplified = StrokeSimplifier.simplify(points, TOLERANCE);
+
+        assertArrayEquals(new double[]{0, 0.25, 297, 197.75}, simplified.toArray());
+    }
+
+    @Test
+    void aCornerIsKept() {
+        PointBuffer points = new PointBuffer(21);
+        for (int i = 0; i <= 10; i++) {
+            points.add(i * 10, 0);
+        }
+        for (int i = 1; i <= 10; i++) {
+            points.add(100, i * 10);
+        }
+
+        assertArrayEquals(new double[]{0, 0, 100, 0, 100, 100},
+                StrokeSimplifier.simplify(points, TOLERANCE).toArray());
+    }
+
+    @Test
+    void oneOrTwoPointsAreLeftAlone() {
+        PointBuffer one = new PointBuffer(1);
+        one.add(5, 5);
+        PointBuffer two = new PointBuffer(2);
+        two.add(5, 5);
+        two.add(5, 5);
+
+        assertSame(one, StrokeSimplifier.simplify(one, TOLERANCE));
+        assertSame(two, StrokeSimplifier.simplify(two, TOLERANCE));
+        assertNull(StrokeSimplifier.keep(one, new byte[]{3}, 1, TOLERANCE));
+    }
+
+    @Test
+    void aStraightStrokeKeepsThePointsWhereItsWidthBends() {
+        int count = 41;
+        PointBuffer points = new PointBuffer(count);
+        byte[] widths = new byte[count];
+        for (int i = 0; i < count; i++) {
+            points.add(i * 5, 0);
+            // swells evenly to the middle and thins again
+            widths[i] = (byte) (10 + 20 - Math.abs(i - 20));
+        }
+
+        // without the widths a straight line keeps only its ends
+        assertArrayEquals(new double[]{0, 0, 200, 0}, StrokeSimplifier.simplify(points, TOLERANCE).toArray());
+        boolean[] keep = StrokeSimplifier.keep(points, widths, 1, TOLERANCE);
+        assertNotNull(keep);
+        assertEquals(3, StrokeSimplifier.count(keep));
+        assertTrue(keep[20]);
+        // an even swell by itself is a straight edge, nothing to keep
+        byte[] even = new byte[count];
+        for (int i = 0; i < count; i++) {
+            even[i] = (byte) (10 + i);
+        }
+        assertEquals(2, StrokeSimplifier.count(StrokeSimplifier.keep(points, even, 1, TOLERANCE)));
+    }
+}
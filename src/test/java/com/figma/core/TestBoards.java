@@ -0,0 +1,86 @@
+package com.figma.core;
+
+import javafx.scene.paint.Color;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+final class TestBoards {
+    private TestBoards() {
+    }
+
+    static RectangleShape rect(double x, double y, double width, double height) {
+        RectangleShape rect = new RectangleShape(DrawingTool.RECTANGLE, Color.BLACK, 2);
+        rect.setDimensions(x, y, width, height);
+        rect.setSelectionBound();
+        return rect;
+    }
+
+    static CircleShape circle(double centerX, double centerY, double radius) {
+        CircleShape circle = new CircleShape(DrawingTool.CIRCLE, Color.BLUE, 3);
+        circle.setProperties(centerX, centerY, radius);
+        circle.setSelectionBound();
+        return circle;
+    }
+
+    // A pen stroke of count points on the 1/8 px grid the wire format keeps exactly.
+    static Pen pen(double x, double y, int count) {
+        Pen pen = new Pen(DrawingTool.PEN, Color.GREEN, 4);
+        for (int i = 0; i < count; i++) {
+            pen.points.add(x + i * 0.375, y + (i * 7919 % 64) / 8.0);
+        }
+        pen.setSelectionBound();
+        return pen;
+    }
+
+    /**
+     * The board's replicated state, one encoded op per shape, tombstone or
+     * pending edit, sorted; equal on two boards exactly when they have
+     * converged. Call on the board's thread.
+     *
+     * Edits still waiting for the add of a deleted shape are left out: a
+     * board that did see the add keeps them in the tombstone's registers,
+     * which the state does not show either.
+     */
+    static List<String> state(Whiteboard board) {
+        List<Operation> replicated = board.replicatedState();
+        Set<Long> deleted = new HashSet<>();
+        for (Operation op : replicated) {
+            if (op.kind == Operation.Kind.REMOVE) deleted.add(op.shapeId);
+        }
+        List<String> ops = new ArrayList<>();
+        for (Operation op : replicated) {
+            if (op.kind != Operation.Kind.ADD && op.kind != Operation.Kind.REMOVE && deleted.contains(op.shapeId)) {
+                continue;
+            }
+            ops.add(op.kind + " " + HexFormat.of().formatHex(OpEncoder.encode(op)));
+        }
+        ops.sort(null);
+        return ops;
+    }
+
+    static void await(String what, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 20_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) fail("Timed out waiting until " + what);
+            Thread.sleep(10);
+        }
+    }
+
+    // Waits until every board has the state of the first.
+    static void awaitConverged(BoardThread... boards) throws InterruptedException {
+        await("the boards converge", () -> {
+            List<String> expected = boards[0].state();
+            for (BoardThread other : boards) {
+                if (!other.state().equals(expected)) return false;
+            }
+            return true;
+        });
+    }
+}
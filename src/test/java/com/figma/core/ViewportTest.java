@@ -0,0 +1,147 @@
+package com.figma.core;
+
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ViewportTest {
+    private static final double EPSILON = 1e-9;
+
+    private final Viewport viewport = new Viewport(1200, 800);
+
+    @Test
+    void zoomStopsAtTheScaleLimits() {
+        for (int i = 0; i < 100; i++) {
+            viewport.zoomAt(600, 400, 2);
+        }
+        assertEquals(Viewport.MAX_SCALE, viewport.getScale());
+        for (int i = 0; i < 100; i++) {
+            viewport.zoomAt(600, 400, 0.5);
+        }
+        assertEquals(Viewport.MIN_SCALE, viewport.getScale());
+
+        // a tiny area cannot zoom in past the limit either
+        viewport.fit(0, 0, 0.001, 0.001);
+        assertEquals(Viewport.MAX_SCALE, viewport.getScale());
+    }
+
+    @Test
+    void screenAndWorldPointsRoundTrip() {
+        viewport.pan(-137, 58);
+        viewport.zoomAt(300, 200, 3.7);
+        viewport.zoomAt(900, 10, 0.21);
+        for (double[] p : new double[][] { { 0, 0 }, { 1200, 800 }, { 413.5, 77.25 }, { -50, 2000 } }) {
+            assertEquals(p[0], viewport.toScreenX(viewport.toWorldX(p[0])), EPSILON);
+            assertEquals(p[1], viewport.toScreenY(viewport.toWorldY(p[1])), EPSILON);
+        }
+    }
+
+    @Test
+    void zoomKeepsThePointUnderTheCursorStill() {
+        viewport.pan(40, -25);
+        double worldX = viewport.toWorldX(250), worldY = viewport.toWorldY(610);
+        viewport.zoomAt(250, 610, 5);
+        assertEquals(5, viewport.getScale(), EPSILON);
+        assertEquals(250, viewport.toScreenX(worldX), EPSILON);
+        assertEquals(610, viewport.toScreenY(worldY), EPSILON);
+        // also when the zoom is clamped
+        viewport.zoomAt(250, 610, 1e6);
+        assertEquals(250, viewport.toScreenX(worldX), EPSILON);
+        assertEquals(610, viewport.toScreenY(worldY), EPSILON);
+    }
+
+    @Test
+    void panningMovesByScreenPixelsAtAnyScale() {
+        viewport.zoomAt(0, 0, 4);
+        double worldX = viewport.toWorldX(100), worldY = viewport.toWorldY(100);
+        viewport.pan(30, -20);
+        assertEquals(130, viewport.toScreenX(worldX), EPSILON);
+        assertEquals(80, viewport.toScreenY(worldY), EPSILON);
+    }
+
+    @Test
+    void theTilesAreAlignedAndCoverTheScreen() {
+        double[][] views = { { 0, 0, 1 }, { -300, 700, 1 }, { 91, -13, 0.37 }, { 5000, 5000, 0.02 }, { -7, 3, 29 } };
+        for (double[] view : views) {
+            viewport.reset();
+            viewport.pan(view[0], view[1]);
+            viewport.zoomAt(600, 400, view[2]);
+
+            for (double bound : new double[] { viewport.tileMinX(), viewport.tileMinY(),
+                    viewport.tileMaxX(), viewport.tileMaxY() }) {
+                assertEquals(0, bound % Viewport.TILE_SIZE, EPSILON);
+            }
+            assertTrue(viewport.tileMinX() <= viewport.toWorldX(0));
+            assertTrue(viewport.tileMinY() <= viewport.toWorldY(0));
+            assertTrue(viewport.tileMaxX() >= viewport.toWorldX(viewport.getWidth()));
+            assertTrue(viewport.tileMaxY() >= viewport.toWorldY(viewport.getHeight()));
+            // and no more than a tile past it on any side
+            assertTrue(viewport.toWorldX(0) - viewport.tileMinX() < Viewport.TILE_SIZE);
+            assertTrue(viewport.tileMaxX() - viewport.toWorldX(viewport.getWidth()) < Viewport.TILE_SIZE);
+        }
+    }
+
+    @Test
+    void onlyShapesOnTheVisibleTilesAreDrawn() {
+        DrawCount drawn = new DrawCount();
+        Whiteboard board = new Whiteboard(drawn, new NullSurface());
+        // a row of rectangles many screens wide, one a tile apart
+        for (int i = 0; i < 100; i++) {
+            board.getCommandManager().execute(new AddCommand(board, TestBoards.rect(i * Viewport.TILE_SIZE, 100, 50, 50)));
+        }
+
+        drawn.rects.clear();
+        board.drawCanvas();
+        // 1200 px is under five tiles, and the overhang reaches into one more
+        assertEquals(6, drawn.rects.size());
+
+        board.getViewport().pan(-50 * Viewport.TILE_SIZE, 0);
+        drawn.rects.clear();
+        board.drawCanvas();
+        for (double x : drawn.rects) {
+            assertTrue(x >= 49 * Viewport.TILE_SIZE && x <= 56 * Viewport.TILE_SIZE, "drew a rectangle at " + x);
+        }
+    }
+
+    @Test
+    void zoomedOutStrokesSkipVerticesTooCloseOnScreen() {
+        Pen pen = new Pen(DrawingTool.PEN, Color.BLACK, 2);
+        for (int i = 0; i <= 1000; i++) {
+            pen.points.add(i * 0.1, 0);
+        }
+        pen.setSelectionBound();
+
+        DrawCount drawn = new DrawCount();
+        pen.draw(drawn, 1);
+        assertEquals(1000, drawn.lines);
+
+        // at 1/100 the points are a thousandth of a pixel apart: one every LOD_PIXELS is enough
+        drawn.lines = 0;
+        pen.draw(drawn, 0.01);
+        assertTrue(drawn.lines <= 100 * 0.01 / Pen.LOD_PIXELS + 2, "drew " + drawn.lines + " segments");
+        assertEquals(100, drawn.lastX, EPSILON);
+    }
+
+    // Counts what is drawn, the rectangles by their left edge.
+    private static final class DrawCount extends NullSurface {
+        final List<Double> rects = new ArrayList<>();
+        int lines;
+        double lastX;
+
+        @Override
+        public void strokeRect(double x, double y, double w, double h) {
+            rects.add(x);
+        }
+
+        @Override
+        public void lineTo(double x, double y) {
+            lines++;
+            lastX = x;
+        }
+    }
+}